@@ -37,6 +37,8 @@ import errno
 import sys
 import collections
 import re
+import struct
+import xml.etree.ElementTree as ET
 
 from datetime import date
 from pyang import plugin, util, error
@@ -131,7 +133,12 @@ class JNCPlugin(plugin.PyangPlugin):
                 '--jnc-classpath-schema-loading',
                 dest='classpath_schema_loading',
                 action='store_true',
-                help='Load schema files using classpath rather than location.')
+                help='Load schema files using classpath rather than location.'),
+            optparse.make_option(
+                '--jnc-binary-schema',
+                dest='binary_schema',
+                action='store_true',
+                help='Also generate precompiled binary schema files.')
             ]
         g = optparser.add_option_group('JNC output specific options')
         g.add_options(optlist)
@@ -269,6 +276,9 @@ class JNCPlugin(plugin.PyangPlugin):
 
             name = normalize(search_one(module, 'prefix').arg)
             write_file(d, name + '.schema', '\n'.join(schema_nodes), self.ctx)
+            if self.ctx.opts.binary_schema:
+                write_file(d, name + '.schema.bin',
+                           binary_schema('\n'.join(schema_nodes)), self.ctx)
 
         if not self.ctx.opts.no_pkginfo:
             # Generate package-info.java for javadoc
@@ -491,6 +501,10 @@ def write_file(d, file_name, file_content, ctx):
         if ctx.opts.verbose:
             print('Writing file to: ' + os.getcwd() + os.sep + file_name)
         os.chdir(wd)
+    if isinstance(file_content, bytes) and not isinstance(file_content, str):
+        with open(d + os.sep + file_name, 'wb') as f:
+            f.write(file_content)
+        return
     with open(d + os.sep + file_name, 'w+') as f:
         if isinstance(file_content, str):
             f.write(file_content)
@@ -500,6 +514,73 @@ def write_file(d, file_name, file_content, ctx):
                 f.write('\n')
 
 
+def binary_schema(schema):
+    """Returns the binary form of an XML schema, as read by the Java class
+    com.tailf.jnc.BinarySchema. Values are split the same way as in
+    com.tailf.jnc.SchemaParser.
+
+    """
+    strings = []
+    index = {}
+
+    def ref(s):
+        if s is None:
+            return -1
+        if s not in index:
+            index[s] = len(strings)
+            strings.append(s)
+        return index[s]
+
+    def java_split(s, sep):
+        parts = s.split(sep)
+        while len(parts) > 1 and parts[-1] == '':
+            parts.pop()
+        if parts == ['', ''] or (len(parts) == 1 and s == sep):
+            parts = []
+        return parts
+
+    def text(node, tag):
+        child = node.find(tag)
+        if child is None:
+            return None
+        return child.text or ''
+
+    nodes = []
+    for node in ET.fromstring(schema).findall('node'):
+        tagpath = java_split(text(node, 'tagpath'), '/')[1:]
+        res = [struct.pack('>i', len(tagpath))]
+        res.extend(struct.pack('>i', ref(p)) for p in tagpath)
+        res.append(struct.pack('>i', ref(text(node, 'namespace'))))
+        for tag in ('primitive_type', 'min_occurs', 'max_occurs'):
+            res.append(struct.pack('>i', int(text(node, tag))))
+        children = java_split(text(node, 'children'), ' ')
+        res.append(struct.pack('>i', len(children)))
+        res.extend(struct.pack('>i', ref(c)) for c in children)
+        res.append(struct.pack('>q', int(text(node, 'flags'))))
+        res.append(struct.pack('>i', ref(text(node, 'desc'))))
+        rev = node.find('rev')
+        if rev is None:
+            res.append(struct.pack('>i', -1))
+        else:
+            infos = rev.findall('info')
+            res.append(struct.pack('>i', len(infos)))
+            for info in infos:
+                res.append(struct.pack('>ii', int(text(info, 'type')),
+                                       int(text(info, 'idata') or 0)))
+                res.append(struct.pack('>ii', ref(text(info, 'data')),
+                                       ref(text(info, 'introduced'))))
+        nodes.append(b''.join(res))
+
+    res = [struct.pack('>iii', 0x4A4E4353, 1, len(strings))]
+    for s in strings:
+        b = s.encode('utf-8')
+        res.append(struct.pack('>i', len(b)))
+        res.append(b)
+    res.append(struct.pack('>i', len(nodes)))
+    res.extend(nodes)
+    return b''.join(res)
+
+
 def get_module(stmt):
     """Returns the module to which stmt belongs to"""
     if stmt.top is not None:
@@ -1123,7 +1204,6 @@ class ClassGenerator(object):
         enabler.add_line('"'.join(['YangElement.setPackage(NAMESPACE, ',
                                    self.java_class.package, ');']))
         enabler.add_dependency('com.tailf.jnc.YangElement')
-        enabler.add_line(normalize(prefix.arg) + '.registerSchema();')
         self.java_class.add_enabler(enabler)
 
         # Add method 'registerSchema' to root class
@@ -1133,7 +1213,9 @@ class ClassGenerator(object):
         reg.modifiers = ['public', 'static']
         reg.add_javadoc('Register the schema for this namespace in the global')
         reg.add_javadoc('schema table (CsTree) making it possible to lookup')
-        reg.add_javadoc('CsNode entries for all tagpaths')
+        reg.add_javadoc('CsNode entries for all tagpaths. The enable method')
+        reg.add_javadoc('registers the schema lazily instead, so that it is')
+        reg.add_javadoc('only read when first needed.')
         reg.add_line('SchemaParser parser = new SchemaParser();')
         reg.add_dependency('com.tailf.jnc.SchemaParser')
         reg.add_line('HashMap<Tagpath, SchemaNode> h = SchemaTree.create(NAMESPACE);')
@@ -1145,8 +1227,14 @@ class ClassGenerator(object):
                               self.n2, normalize(prefix.arg)])
         if self.ctx.opts.classpath_schema_loading:
             reg.add_line('parser.findAndReadFile("' + normalize(prefix.arg) + '.schema", h, ' + normalize(prefix.arg) + '.class);')
+            enabler.add_line('SchemaTree.registerLazy(NAMESPACE, "' +
+                             normalize(prefix.arg) + '.schema", ' +
+                             normalize(prefix.arg) + '.class);')
         else:
             reg.add_line('parser.readFile("' + schema + '.schema", h);')
+            enabler.add_line('SchemaTree.registerLazy(NAMESPACE, "' +
+                             schema + '.schema");')
+        enabler.add_dependency('com.tailf.jnc.SchemaTree')
         self.java_class.add_schema_registrator(reg)
 
         self.write_to_file()
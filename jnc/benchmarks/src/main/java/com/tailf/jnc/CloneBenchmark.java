@@ -0,0 +1,49 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deep copies of plain and data model aware trees.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloneBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    private Element element;
+    private YangElement yangElement;
+
+    @Setup
+    public void setup() throws JNCException {
+        element = new XMLParser().parse(Fixtures.interfaces(size, 0));
+        yangElement = Fixtures.tree(size, 0);
+    }
+
+    @Benchmark
+    public Object element() {
+        return element.clone();
+    }
+
+    @Benchmark
+    public Object yangElement() {
+        return yangElement.clone();
+    }
+}
@@ -0,0 +1,55 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Comparing two configurations where every tenth interface has a changed
+ * mtu.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    private YangElement a;
+    private YangElement b;
+
+    @Setup
+    public void setup() throws JNCException {
+        a = Fixtures.tree(size, 0);
+        b = Fixtures.tree(size, 100);
+    }
+
+    @Benchmark
+    public int getDiff() {
+        final NodeSet uniqueA = new NodeSet();
+        final NodeSet uniqueB = new NodeSet();
+        final NodeSet changedA = new NodeSet();
+        final NodeSet changedB = new NodeSet();
+        YangElement.getDiff(a, b, uniqueA, uniqueB, changedA, changedB);
+        return changedA.size() + changedB.size();
+    }
+
+    @Benchmark
+    public YangElement syncMerge() {
+        return YangElement.syncMerge(a, b);
+    }
+}
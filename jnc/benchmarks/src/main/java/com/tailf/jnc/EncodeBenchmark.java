@@ -0,0 +1,51 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of data model aware trees, as sent in edit-config, and
+ * pretty-printing with toXMLString.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    private YangElement tree;
+    private final Fixtures.CountingTransport out = new Fixtures.CountingTransport();
+
+    @Setup
+    public void setup() throws JNCException {
+        tree = Fixtures.tree(size, 0);
+    }
+
+    @Benchmark
+    public long encode() throws JNCException {
+        out.count = 0;
+        tree.encode(out);
+        return out.count;
+    }
+
+    @Benchmark
+    public String toXMLString() {
+        return tree.toXMLString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.tailf.jnc;
+
+/**
+ * Test data for the benchmarks: ietf-interfaces configurations with
+ * ietf-ip augmentations, in the style of examples/1-interfaces/ietf-ip.xml.
+ */
+final class Fixtures {
+
+    static final String IF_NS = "urn:ietf:params:xml:ns:yang:ietf-interfaces";
+    static final String IP_NS = "urn:ietf:params:xml:ns:yang:ietf-ip";
+
+    private static boolean enabled = false;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Enables the generated classes, so that YangXMLParser builds data model
+     * aware trees.
+     */
+    static synchronized void enable() throws JNCException {
+        if (!enabled) {
+            gen.ietfInterfaces.JIf.enable();
+            gen.ietfIp.Ip.enable();
+            enabled = true;
+        }
+    }
+
+    /**
+     * @param size Number of interfaces.
+     * @param mtuOffset Added to the mtu of every tenth interface, to make
+     *            configurations that differ.
+     * @return An interfaces configuration as XML text.
+     */
+    static String interfaces(int size, int mtuOffset) {
+        final StringBuilder s = new StringBuilder(size * 400);
+        s.append("<interfaces xmlns=\"").append(IF_NS).append("\">\n");
+        for (int i = 0; i < size; i++) {
+            final int mtu = 1500 + (i % 10 == 0 ? mtuOffset : 0);
+            s.append("  <interface>\n");
+            s.append("    <name>eth").append(i).append("</name>\n");
+            s.append("    <type>fast</type>\n");
+            s.append("    <mtu>").append(mtu).append("</mtu>\n");
+            s.append("    <ipv4 xmlns=\"").append(IP_NS).append("\">\n");
+            s.append("      <address>\n");
+            s.append("        <ip>10.").append((i >> 16) & 0xff).append('.')
+                    .append((i >> 8) & 0xff).append('.').append(i & 0xff)
+                    .append("</ip>\n");
+            s.append("        <netmask>255.255.255.0</netmask>\n");
+            s.append("      </address>\n");
+            s.append("    </ipv4>\n");
+            s.append("  </interface>\n");
+        }
+        s.append("</interfaces>\n");
+        return s.toString();
+    }
+
+    /**
+     * @param size Number of interfaces.
+     * @return A get-config reply with an interfaces configuration.
+     */
+    static String reply(int size) {
+        return "<rpc-reply xmlns=\"" + Element.NETCONF_NAMESPACE
+                + "\" message-id=\"1\"><data>" + interfaces(size, 0)
+                + "</data></rpc-reply>";
+    }
+
+    /**
+     * @return A data model aware interfaces tree.
+     */
+    static YangElement tree(int size, int mtuOffset) throws JNCException {
+        enable();
+        return (YangElement) new YangXMLParser().parse(interfaces(size,
+                mtuOffset));
+    }
+
+    /**
+     * A transport that only counts the characters written to it.
+     */
+    static class CountingTransport implements Transport {
+        long count = 0;
+
+        @Override
+        public boolean ready() {
+            return false;
+        }
+
+        @Override
+        public StringBuffer readOne() {
+            return new StringBuffer();
+        }
+
+        @Override
+        public void print(long i) {
+            count += 8;
+        }
+
+        @Override
+        public void print(String s) {
+            count += s.length();
+        }
+
+        @Override
+        public void println(int i) {
+            count += 9;
+        }
+
+        @Override
+        public void println(String s) {
+            count += s.length() + 1;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of get-config replies of several sizes, without and with the
+ * generated classes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    private String reply;
+    private XMLParser xmlParser;
+    private YangXMLParser yangParser;
+
+    @Setup
+    public void setup() throws JNCException {
+        Fixtures.enable();
+        reply = Fixtures.reply(size);
+        xmlParser = new XMLParser();
+        yangParser = new YangXMLParser();
+    }
+
+    @Benchmark
+    public Element xmlParser() throws JNCException {
+        return xmlParser.parse(reply);
+    }
+
+    @Benchmark
+    public Element yangXMLParser() throws JNCException {
+        return yangParser.parse(reply);
+    }
+}
@@ -0,0 +1,57 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Path evaluation on a data model aware tree: compiling and evaluating a
+ * key lookup, and evaluating a precompiled one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    private YangElement tree;
+    private String pathStr;
+    private Path path;
+
+    @Setup
+    public void setup() throws JNCException {
+        tree = Fixtures.tree(size, 0);
+        pathStr = "interface[name='eth" + (size - 1) + "']/mtu";
+        path = new Path(pathStr);
+    }
+
+    @Benchmark
+    public Element getFirst() throws JNCException {
+        return tree.getFirst(pathStr);
+    }
+
+    @Benchmark
+    public NodeSet precompiled() throws JNCException {
+        return path.eval(tree);
+    }
+
+    @Benchmark
+    public NodeSet prefixed() throws JNCException {
+        return tree.get("if:interface/ip:ipv4/ip:address");
+    }
+}
@@ -0,0 +1,104 @@
+package com.tailf.jnc;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and validating a value of each built-in YANG type, as done for
+ * every leaf when a reply is parsed with the generated classes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeBenchmark {
+
+    private static final BigInteger BITS_MASK = BigInteger.valueOf(7);
+    private static final String[] BITS_NAMES = { "up", "down", "testing" };
+    private static final int[] BITS_POSITIONS = { 0, 1, 2 };
+    private static final String[] ENUMS = { "up", "down", "testing",
+            "unknown", "dormant" };
+
+    @Benchmark
+    public Object int8() throws YangException {
+        return new YangInt8("-100");
+    }
+
+    @Benchmark
+    public Object int16() throws YangException {
+        return new YangInt16("-30000");
+    }
+
+    @Benchmark
+    public Object int32() throws YangException {
+        return new YangInt32("1500");
+    }
+
+    @Benchmark
+    public Object int64() throws YangException {
+        return new YangInt64("-9000000000");
+    }
+
+    @Benchmark
+    public Object uint8() throws YangException {
+        return new YangUInt8("200");
+    }
+
+    @Benchmark
+    public Object uint16() throws YangException {
+        return new YangUInt16("60000");
+    }
+
+    @Benchmark
+    public Object uint32() throws YangException {
+        return new YangUInt32("4000000000");
+    }
+
+    @Benchmark
+    public Object uint64() throws YangException {
+        return new YangUInt64("18000000000000000000");
+    }
+
+    @Benchmark
+    public Object decimal64() throws YangException {
+        return new YangDecimal64("3.1415", 4);
+    }
+
+    @Benchmark
+    public Object string() throws YangException {
+        return new YangString("eth0");
+    }
+
+    @Benchmark
+    public Object booleanType() throws YangException {
+        return new YangBoolean("true");
+    }
+
+    @Benchmark
+    public Object binary() throws YangException {
+        return new YangBinary("AAECAwQFBgcICQ==");
+    }
+
+    @Benchmark
+    public Object bits() throws YangException {
+        return new YangBits("up testing", BITS_MASK, BITS_NAMES,
+                BITS_POSITIONS);
+    }
+
+    @Benchmark
+    public Object enumeration() throws YangException {
+        return new YangEnumeration("dormant", ENUMS);
+    }
+}
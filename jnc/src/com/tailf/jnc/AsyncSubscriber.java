@@ -0,0 +1,173 @@
+package com.tailf.jnc;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Hands the messages of a transport to another {@link FrameSubscriber} on a
+ * background thread, so that slow subscribers, such as an
+ * {@link IOSubscriber} that pretty-prints each message, do not hold up the
+ * session. Messages are delivered in the order they were sent and received.
+ * <p>
+ * At most a fixed number of messages are queued; messages that arrive when
+ * the queue is full are dropped and counted.
+ *
+ * <pre>
+ * SSHSession ssh = new SSHSession(c);
+ * ssh.addSubscriber(new AsyncSubscriber(new DefaultIOSubscriber(&quot;dev&quot;)));
+ * </pre>
+ */
+public class AsyncSubscriber implements FrameSubscriber {
+
+    /**
+     * Runs the subscribers that are not given an executor of their own.
+     */
+    private static ExecutorService shared = null;
+
+    private static synchronized Executor sharedExecutor() {
+        if (shared == null) {
+            shared = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "jnc-subscriber");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return shared;
+    }
+
+    private final FrameSubscriber delegate;
+    private final Executor executor;
+    private final int capacity;
+
+    /**
+     * Queued messages, <code>true</code> entries in <code>input</code> mark
+     * received messages. Guarded by <code>this</code>.
+     */
+    private final ArrayDeque<String> frames = new ArrayDeque<String>();
+    private final ArrayDeque<Boolean> input = new ArrayDeque<Boolean>();
+    private boolean scheduled = false;
+    private long dropped = 0;
+
+    /**
+     * Creates a subscriber that queues at most 1000 messages, delivered on a
+     * daemon thread shared by all such subscribers.
+     *
+     * @param delegate The subscriber to deliver messages to.
+     */
+    public AsyncSubscriber(FrameSubscriber delegate) {
+        this(delegate, null, 1000);
+    }
+
+    /**
+     * @param delegate The subscriber to deliver messages to.
+     * @param executor The executor to deliver messages on, or
+     *            <code>null</code> for the shared thread. Messages of this
+     *            subscriber are delivered one at a time.
+     * @param capacity The maximum number of messages queued.
+     */
+    public AsyncSubscriber(FrameSubscriber delegate, Executor executor,
+            int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.delegate = delegate;
+        this.executor = executor != null ? executor : sharedExecutor();
+        this.capacity = capacity;
+    }
+
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final String msg;
+                final boolean in;
+                synchronized (AsyncSubscriber.this) {
+                    msg = frames.poll();
+                    if (msg == null) {
+                        scheduled = false;
+                        AsyncSubscriber.this.notifyAll();
+                        return;
+                    }
+                    in = input.poll();
+                }
+                try {
+                    if (in) {
+                        delegate.inputFrame(msg);
+                    } else {
+                        delegate.outputFrame(msg);
+                    }
+                } catch (final RuntimeException e) {
+                    trace("subscriber failed: ", e);
+                }
+            }
+        }
+    };
+
+    private void queue(String msg, boolean in) {
+        synchronized (this) {
+            if (frames.size() >= capacity) {
+                dropped++;
+                return;
+            }
+            frames.add(msg);
+            input.add(in);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        try {
+            executor.execute(deliver);
+        } catch (final RejectedExecutionException e) {
+            synchronized (this) {
+                dropped += frames.size();
+                frames.clear();
+                input.clear();
+                scheduled = false;
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void inputFrame(String msg) {
+        queue(msg, true);
+    }
+
+    @Override
+    public void outputFrame(String msg) {
+        queue(msg, false);
+    }
+
+    /**
+     * @return The number of messages dropped because the queue was full.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Waits until all queued messages have been delivered.
+     */
+    public synchronized void drain() throws InterruptedException {
+        while (scheduled) {
+            wait();
+        }
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.TRANSPORT, "AsyncSubscriber", msg);
+    }
+}
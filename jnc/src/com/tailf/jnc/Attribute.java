@@ -74,7 +74,7 @@ public class Attribute implements Serializable {
      * @param value Set the value of the attribute
      */
     public void setValue(String value) {
-        trace("setValue: " + name + EQUALS_QUOTE + value + QUOTE);
+        trace("setValue: ", name, EQUALS_QUOTE, value, QUOTE);
         this.value = value;
     }
 
@@ -155,9 +155,7 @@ public class Attribute implements Serializable {
     /**
      * Printout trace if 'debug'-flag is enabled.
      */
-    private static void trace(String s) {
-        if (Element.debugLevel >= Element.DEBUG_LEVEL_ATTRIBUTE) {
-            System.err.println("*Attribute: " + s);
-        }
+    private static void trace(Object... msg) {
+        Trace.log(Trace.ELEMENT, "Attribute", msg);
     }
 }
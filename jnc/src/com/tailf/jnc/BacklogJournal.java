@@ -0,0 +1,321 @@
+package com.tailf.jnc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of configuration trees, used by {@link Device} to keep
+ * its backlog across restarts. The file is memory-mapped; each tree is
+ * stored as XML in a record with its length and a CRC-32 checksum:
+ *
+ * <pre>
+ * header: magic (4 bytes) version (4 bytes) head (4 bytes)
+ * record: length (4 bytes) crc (4 bytes) UTF-8 XML (length bytes)
+ * </pre>
+ *
+ * The records start at the head offset. Trees that have been sent are
+ * removed by moving the head past them, which is a single write, so a crash
+ * leaves either all of the removed trees or none of them. The space before
+ * the head is reused once the journal is empty.
+ * <p>
+ * When the journal is opened, records are read from the head up to the
+ * first one that is missing or does not match its checksum, which is where a
+ * crash during an append leaves the file. Everything after it is cleared, so
+ * that no old record can be read again once new ones are appended.
+ * <p>
+ * Appends are forced to disk every {@link #setSyncEvery(int)} records, and
+ * by {@link #sync()}, so that a batch of appends costs one sync. Records not
+ * yet forced may be lost if the machine crashes, but not if only the process
+ * dies.
+ */
+public class BacklogJournal {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4a4e4342; // "JNCB"
+    private static final int VERSION = 2;
+    private static final int HEADER = 12;
+    private static final int RECORD_HEADER = 8;
+    private static final int MIN_SIZE = 64 * 1024;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+
+    /**
+     * Offset of the first record.
+     */
+    private int head = HEADER;
+
+    /**
+     * Offset of the end of the last record.
+     */
+    private int end;
+    private int records = 0;
+    private int unsynced = 0;
+    private int syncEvery = 1;
+
+    /**
+     * Opens a journal, creating the file if it does not exist, and recovers
+     * the records in it.
+     *
+     * @param file The journal file.
+     * @throws IOException If the file cannot be opened, or is not a journal.
+     */
+    public BacklogJournal(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            channel = raf.getChannel();
+            final boolean created = raf.length() < HEADER;
+            map(Math.max(raf.length(), MIN_SIZE));
+            if (created) {
+                map.putInt(0, MAGIC);
+                map.putInt(4, VERSION);
+                map.putInt(8, HEADER);
+                end = HEADER;
+                map.force();
+            } else {
+                if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                    throw new IOException(file + ": not a backlog journal");
+                }
+                recover();
+            }
+        } catch (final IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(file + ": journal full");
+        }
+        if (raf.length() < size) {
+            raf.setLength(size);
+        }
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Finds the end of the valid records and clears what follows it.
+     */
+    private void recover() throws IOException {
+        head = map.getInt(8);
+        if (head < HEADER || head > map.capacity()) {
+            throw new IOException(file + ": bad head offset " + head);
+        }
+        int pos = head;
+        while (true) {
+            final byte[] data = record(pos);
+            if (data == null) {
+                break;
+            }
+            pos += RECORD_HEADER + data.length;
+            records++;
+        }
+        end = pos;
+        if (!isZero(end, map.capacity())) {
+            trace("discarding tail of ", file, " at ", end);
+            zero(end, map.capacity());
+            map.force();
+        }
+    }
+
+    /**
+     * Returns the data of the record at an offset, or <code>null</code> if
+     * there is no valid record there.
+     */
+    private byte[] record(int pos) {
+        if (pos + RECORD_HEADER > map.capacity()) {
+            return null;
+        }
+        final int len = map.getInt(pos);
+        if (len <= 0 || len > map.capacity() - pos - RECORD_HEADER) {
+            return null;
+        }
+        final byte[] data = new byte[len];
+        map.position(pos + RECORD_HEADER);
+        map.get(data);
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, len);
+        if ((int) crc.getValue() != map.getInt(pos + 4)) {
+            return null;
+        }
+        return data;
+    }
+
+    private boolean isZero(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (map.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void zero(int from, int to) {
+        for (int i = from; i < to; i++) {
+            map.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Sets how many appends are made before the journal is forced to disk.
+     *
+     * @param n Number of records, 1 forces each append.
+     */
+    public synchronized void setSyncEvery(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n: " + n);
+        }
+        syncEvery = n;
+    }
+
+    /**
+     * Appends a configuration tree.
+     *
+     * @param tree The tree to append.
+     */
+    public synchronized void append(Element tree) throws IOException {
+        write(tree);
+        if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Appends configuration trees and forces them to disk once.
+     *
+     * @param trees The trees to append.
+     */
+    public synchronized void append(List<Element> trees) throws IOException {
+        for (final Element tree : trees) {
+            write(tree);
+        }
+        unsynced += trees.size();
+        sync();
+    }
+
+    private void write(Element tree) throws IOException {
+        final byte[] data = tree.toXMLString().getBytes(UTF8);
+        final int need = end + RECORD_HEADER + data.length + 4;
+        if (need > map.capacity()) {
+            map((long) Math.max(need, map.capacity()) * 2);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        map.position(end + RECORD_HEADER);
+        map.put(data);
+        map.putInt(end + 4, (int) crc.getValue());
+        // the length goes last, an incomplete record reads as the end
+        map.putInt(end, data.length);
+        end += RECORD_HEADER + data.length;
+        records++;
+    }
+
+    /**
+     * Forces the records appended so far to disk.
+     */
+    public synchronized void sync() {
+        if (unsynced > 0) {
+            map.force();
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Reads all configuration trees in the journal, oldest first.
+     *
+     * @param parser The parser to build the trees with.
+     * @return The trees.
+     */
+    public synchronized List<Element> read(XMLParser parser)
+            throws JNCException {
+        final List<Element> trees = new ArrayList<Element>(records);
+        int pos = head;
+        while (pos < end) {
+            final byte[] data = record(pos);
+            trees.add(parser.parse(new String(data, UTF8)));
+            pos += RECORD_HEADER + data.length;
+        }
+        return trees;
+    }
+
+    /**
+     * @return The number of configuration trees in the journal.
+     */
+    public synchronized int size() {
+        return records;
+    }
+
+    /**
+     * Removes the oldest configuration trees, typically once they have been
+     * sent. The removal is forced to disk, together with earlier appends.
+     *
+     * @param n The number of trees to remove, at most {@link #size()}.
+     */
+    public synchronized void remove(int n) {
+        if (n < 0 || n > records) {
+            throw new IllegalArgumentException("n: " + n);
+        }
+        int pos = head;
+        for (int i = 0; i < n; i++) {
+            pos += RECORD_HEADER + map.getInt(pos);
+        }
+        head = pos;
+        records -= n;
+        map.putInt(8, head);
+        map.force();
+        unsynced = 0;
+        if (records == 0 && head > HEADER) {
+            // clear the old records before they can be reached again
+            zero(HEADER, end);
+            map.force();
+            head = HEADER;
+            end = HEADER;
+            map.putInt(8, head);
+            map.force();
+        }
+    }
+
+    /**
+     * Removes all configuration trees.
+     */
+    public synchronized void clear() {
+        remove(records);
+    }
+
+    /**
+     * Forces outstanding appends to disk and closes the file.
+     */
+    public synchronized void close() throws IOException {
+        sync();
+        map = null;
+        raf.close();
+    }
+
+    /**
+     * @return The journal file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "BacklogJournal", msg);
+    }
+}
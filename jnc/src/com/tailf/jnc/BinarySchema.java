@@ -0,0 +1,322 @@
+package com.tailf.jnc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary form of the schema files read by {@link SchemaParser}.
+ * Loading a binary schema avoids the SAX parser altogether: the file is
+ * memory-mapped and the SchemaNode objects are read straight out of it.
+ * <p>
+ * A binary schema is produced from the XML schema emitted by the JNC pyang
+ * plugin, typically as a build step:
+ *
+ * <pre>
+ * java -cp JNC.jar com.tailf.jnc.BinarySchema Foo.schema [Bar.schema ...]
+ * </pre>
+ *
+ * which writes Foo.schema.bin next to Foo.schema. {@link SchemaParser} uses
+ * the binary file when it is present and falls back to the XML file
+ * otherwise.
+ * <p>
+ * The format is big-endian. All strings are stored once, in a string table
+ * at the start of the file, and are referred to by index (-1 is
+ * <code>null</code>):
+ *
+ * <pre>
+ * int     magic "JNCS"
+ * int     version
+ * int     number of strings, then for each: int length, UTF-8 bytes
+ * int     number of nodes, then for each:
+ *   int     number of tagpath segments, then a string index per segment
+ *   int     namespace
+ *   int     primitive_type, min_occurs, max_occurs
+ *   int     number of children (-1 if none), then a string index per child
+ *   long    flags
+ *   int     desc
+ *   int     number of revision infos (-1 if none), then for each:
+ *     int     type, idata, data, introduced
+ * </pre>
+ */
+public class BinarySchema {
+
+    /**
+     * File name suffix of binary schema files, appended to the name of the
+     * XML schema file.
+     */
+    public static final String SUFFIX = ".bin";
+
+    private static final int MAGIC = 0x4A4E4353; // "JNCS"
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Writes the SchemaNode objects of a hashtable in binary form.
+     *
+     * @param h The hashtable to write.
+     * @param out Stream to write to. Not closed by this method.
+     * @throws IOException If writing to out fails.
+     */
+    public static void write(Map<Tagpath, SchemaNode> h, OutputStream out)
+            throws IOException {
+        final ArrayList<String> strings = new ArrayList<String>();
+        final HashMap<String, Integer> index = new HashMap<String, Integer>();
+        final ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+        final DataOutputStream nodes = new DataOutputStream(nodeBytes);
+
+        nodes.writeInt(h.size());
+        for (final SchemaNode n : h.values()) {
+            final String[] p = n.tagpath.p;
+            nodes.writeInt(p.length);
+            for (final String s : p) {
+                nodes.writeInt(ref(s, strings, index));
+            }
+            nodes.writeInt(ref(n.namespace, strings, index));
+            nodes.writeInt(n.primitive_type);
+            nodes.writeInt(n.min_occurs);
+            nodes.writeInt(n.max_occurs);
+            if (n.children == null) {
+                nodes.writeInt(-1);
+            } else {
+                nodes.writeInt(n.children.length);
+                for (final String s : n.children) {
+                    nodes.writeInt(ref(s, strings, index));
+                }
+            }
+            nodes.writeLong(n.flags);
+            nodes.writeInt(ref(n.desc, strings, index));
+            if (n.revInfo == null) {
+                nodes.writeInt(-1);
+            } else {
+                nodes.writeInt(n.revInfo.length);
+                for (final RevisionInfo ri : n.revInfo) {
+                    nodes.writeInt(ri.type);
+                    nodes.writeInt(ri.idata);
+                    nodes.writeInt(ref(ri.data, strings, index));
+                    nodes.writeInt(ref(ri.introduced, strings, index));
+                }
+            }
+        }
+        nodes.flush();
+
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(strings.size());
+        for (final String s : strings) {
+            final byte[] b = s.getBytes(UTF8);
+            dos.writeInt(b.length);
+            dos.write(b);
+        }
+        nodeBytes.writeTo(dos);
+        dos.flush();
+    }
+
+    private static int ref(String s, ArrayList<String> strings,
+            HashMap<String, Integer> index) {
+        if (s == null) {
+            return -1;
+        }
+        Integer i = index.get(s);
+        if (i == null) {
+            i = strings.size();
+            strings.add(s);
+            index.put(s, i);
+        }
+        return i;
+    }
+
+    /**
+     * Reads SchemaNode objects from a binary schema and adds them to a
+     * hashtable. The hashtable is left untouched if the schema is corrupt.
+     *
+     * @param buf Buffer positioned at the start of the binary schema.
+     * @param h The hashtable to populate.
+     * @throws JNCException If the buffer does not hold a binary schema.
+     */
+    public static void read(ByteBuffer buf, Map<Tagpath, SchemaNode> h)
+            throws JNCException {
+        final HashMap<Tagpath, SchemaNode> nodes = new HashMap<Tagpath, SchemaNode>();
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "not a binary schema (version " + VERSION + ")");
+            }
+            final String[] strings = new String[buf.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                final byte[] b = new byte[buf.getInt()];
+                buf.get(b);
+                strings[i] = new String(b, UTF8).intern();
+            }
+            final int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                final SchemaNode n = new SchemaNode();
+                n.tagpath = new Tagpath(buf.getInt());
+                for (int j = 0; j < n.tagpath.p.length; j++) {
+                    n.tagpath.p[j] = str(strings, buf.getInt());
+                }
+                n.namespace = str(strings, buf.getInt());
+                n.primitive_type = buf.getInt();
+                n.min_occurs = buf.getInt();
+                n.max_occurs = buf.getInt();
+                final int nchildren = buf.getInt();
+                if (nchildren >= 0) {
+                    n.children = new String[nchildren];
+                    for (int j = 0; j < nchildren; j++) {
+                        n.children[j] = str(strings, buf.getInt());
+                    }
+                }
+                n.flags = buf.getLong();
+                n.desc = str(strings, buf.getInt());
+                final int nrev = buf.getInt();
+                if (nrev >= 0) {
+                    n.revInfo = new RevisionInfo[nrev];
+                    for (int j = 0; j < nrev; j++) {
+                        final RevisionInfo ri = new RevisionInfo();
+                        ri.type = buf.getInt();
+                        ri.idata = buf.getInt();
+                        ri.data = str(strings, buf.getInt());
+                        ri.introduced = str(strings, buf.getInt());
+                        n.revInfo[j] = ri;
+                    }
+                }
+                nodes.put(n.tagpath, n);
+            }
+        } catch (final RuntimeException e) {
+            // BufferUnderflowException, IndexOutOfBoundsException, ...
+            throw new JNCException(JNCException.PARSER_ERROR,
+                    "corrupt binary schema: " + e);
+        }
+        h.putAll(nodes);
+    }
+
+    private static String str(String[] strings, int i) {
+        return i < 0 ? null : strings[i];
+    }
+
+    /**
+     * Memory-maps a binary schema file and adds its SchemaNode objects to a
+     * hashtable.
+     *
+     * @param file The binary schema file.
+     * @param h The hashtable to populate.
+     * @throws JNCException If the file cannot be read or is not a binary
+     *             schema.
+     */
+    public static void readFile(File file, Map<Tagpath, SchemaNode> h)
+            throws JNCException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel ch = raf.getChannel();
+            read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), h);
+        } catch (final IOException e) {
+            throw new JNCException(JNCException.PARSER_ERROR,
+                    "Unable to open file: " + file + ": " + e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a binary schema from a URL and adds its SchemaNode objects to a
+     * hashtable. File URLs are memory-mapped, other URLs (for instance
+     * entries in a jar file) are read into memory.
+     *
+     * @param url URL of the binary schema.
+     * @param h The hashtable to populate.
+     * @throws JNCException If the URL cannot be read or is not a binary
+     *             schema.
+     */
+    public static void readFile(URL url, Map<Tagpath, SchemaNode> h)
+            throws JNCException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                readFile(new File(url.toURI()), h);
+                return;
+            } catch (final URISyntaxException e) {
+                // fall through and read it as a stream
+            }
+        }
+        InputStream in = null;
+        try {
+            in = url.openStream();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] b = new byte[8192];
+            int n;
+            while ((n = in.read(b)) > 0) {
+                bytes.write(b, 0, n);
+            }
+            read(ByteBuffer.wrap(bytes.toByteArray()), h);
+        } catch (final IOException e) {
+            throw new JNCException(JNCException.PARSER_ERROR,
+                    "Unable to open file: " + url + ": " + e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts an XML schema file into a binary schema file.
+     *
+     * @param xmlFile The XML schema file to read.
+     * @param binFile The binary schema file to write.
+     * @throws JNCException If the XML schema cannot be parsed.
+     * @throws IOException If the binary schema cannot be written.
+     */
+    public static void compile(File xmlFile, File binFile)
+            throws JNCException, IOException {
+        final HashMap<Tagpath, SchemaNode> h = new HashMap<Tagpath, SchemaNode>();
+        new SchemaParser().readXMLFile(xmlFile.getPath(), h);
+        final FileOutputStream out = new FileOutputStream(binFile);
+        try {
+            write(h, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Converts each XML schema file given as argument into a binary schema
+     * file with the same name and {@link #SUFFIX} appended.
+     *
+     * @param args Names of XML schema files.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: BinarySchema file.schema ...");
+            System.exit(1);
+        }
+        for (final String arg : args) {
+            compile(new File(arg), new File(arg + SUFFIX));
+        }
+    }
+
+}
@@ -1,7 +1,17 @@
 package com.tailf.jnc;
 
 import java.util.ArrayList;
-
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The capabilities a NETCONF server advertises in its <code>hello</code>
+ * message. Sessions to servers that advertise exactly the same capabilities
+ * share one instance, which must not be modified.
+ */
 public class Capabilities {
 
     /**
@@ -54,6 +64,14 @@ public class Capabilities {
     public static final String CONFIRMED_COMMIT_CAPABILITY = URN_IETF_PARAMS +
     		"netconf:capability:confirmed-commit:1.0";
 
+    /**
+     * String constant for version 1.1 of the <code>:confirmed-commit</code>
+     * capability, which adds <code>cancel-commit</code>.
+     * "urn:ietf:params:netconf:capability:confirmed-commit:1.1".
+     */
+    public static final String CONFIRMED_COMMIT_1_1_CAPABILITY = URN_IETF_PARAMS +
+    		"netconf:capability:confirmed-commit:1.1";
+
     /**
      * String constant for the <code>:rollback-on-error</code> capability.
      * "urn:ietf:params:netconf:capability:rollback-on-error:1.0".
@@ -159,6 +177,7 @@ public class Capabilities {
     protected boolean writableRunningCapability = false;
     protected boolean candidateCapability = false;
     protected boolean confirmedCommitCapability = false;
+    protected boolean cancelCommitCapability = false;
     protected boolean rollbackOnErrorCapability = false;
     protected boolean validateCapability = false;
     protected boolean startupCapability = false;
@@ -193,6 +212,14 @@ public class Capabilities {
         return confirmedCommitCapability;
     }
 
+    /**
+     * Predicate for version 1.1 of the <code>:confirmed-commit</code>
+     * capability, which adds <code>cancel-commit</code>.
+     */
+    public boolean hasCancelCommit() {
+        return cancelCommitCapability;
+    }
+
     /**
      * Predicate for the <code>:rollback-on-error</code> capability.
      */
@@ -263,7 +290,7 @@ public class Capabilities {
      * urlSchemes are: "http","ftp","file"
      */
     public String[] urlSchemes() {
-        return urlSchemes;
+        return urlSchemes == null ? null : urlSchemes.clone();
     }
 
     protected String[] urlSchemes;
@@ -305,32 +332,88 @@ public class Capabilities {
     }
 
     public String[] getUrlSchemes() {
-        return urlSchemes;
+        return urlSchemes == null ? null : urlSchemes.clone();
     }
 
-    private final ArrayList<Capa> capas;
-    private final ArrayList<Capa> data_capas;
+    /**
+     * The capabilities as they were advertised.
+     */
+    private final List<String> list;
 
-    static private class Capa {
-        String uri;
-        String revision;
+    /**
+     * All capability URIs, mapped to their revision or <code>null</code>.
+     */
+    private final Map<String, String> capas;
 
-        Capa(String uri, String revision) {
-            this.uri = uri;
-            this.revision = revision;
+    /**
+     * The revisions of the data schema and other non-NETCONF capabilities.
+     */
+    private final Map<String, String> data_capas;
+
+    /**
+     * Instances by the capability list of the hello they were made from.
+     */
+    private static final ConcurrentHashMap<List<String>, Capabilities> cache = new ConcurrentHashMap<List<String>, Capabilities>();
+
+    /**
+     * At most this many distinct capability sets are cached.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * Returns the capabilities of a <code>capabilities</code> element from a
+     * hello message, shared with earlier sessions that received exactly the
+     * same capability list.
+     *
+     * @param e The <code>capabilities</code> element.
+     */
+    static Capabilities get(Element e) throws JNCException {
+        final List<String> key = values(e.get("capability"));
+        Capabilities c = cache.get(key);
+        if (c == null) {
+            c = new Capabilities(key);
+            if (cache.size() >= CACHE_SIZE) {
+                cache.clear();
+            }
+            final Capabilities old = cache.putIfAbsent(key, c);
+            if (old != null) {
+                c = old;
+            }
         }
+        return c;
+    }
+
+    /**
+     * Forgets the capability sets seen so far.
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    static int cacheSize() {
+        return cache.size();
     }
 
     protected Capabilities(Element e) throws JNCException {
-        final NodeSet caps = e.get("capability");
-        capas = new ArrayList<Capa>(caps.size());
-        data_capas = new ArrayList<Capa>(caps.size());
+        this(values(e.get("capability")));
+    }
 
+    private static List<String> values(NodeSet caps) {
+        final List<String> values = new ArrayList<String>(caps.size());
         for (int i = 0; i < caps.size(); i++) {
-            final Element cap = caps.getElement(i);
+            values.add(caps.getElement(i).value.toString());
+        }
+        return values;
+    }
+
+    private Capabilities(List<String> caps) {
+        list = Collections.unmodifiableList(caps);
+        capas = new HashMap<String, String>(caps.size() * 2);
+        data_capas = new HashMap<String, String>(caps.size() * 2);
 
+        for (final String value : caps) {
             // Do we have a query part
-            final String parts[] = cap.value.toString().split("\\?");
+            final String parts[] = value.split("\\?");
             String rev = null;
             final String uri = parts[0];
             if (parts.length == 2) {
@@ -345,7 +428,9 @@ public class Capabilities {
                     }
                 }
             }
-            capas.add(new Capa(uri, rev));
+            if (!capas.containsKey(uri)) {
+                capas.put(uri, rev);
+            }
             if (uri.equals(NETCONF_BASE_CAPABILITY)) {
                 baseCapability = true;
             } else if (uri.equals(WRITABLE_RUNNING_CAPABILITY)) {
@@ -354,6 +439,9 @@ public class Capabilities {
                 candidateCapability = true;
             } else if (uri.equals(CONFIRMED_COMMIT_CAPABILITY)) {
                 confirmedCommitCapability = true;
+            } else if (uri.equals(CONFIRMED_COMMIT_1_1_CAPABILITY)) {
+                confirmedCommitCapability = true;
+                cancelCommitCapability = true;
             } else if (uri.equals(ROLLBACK_ON_ERROR_CAPABILITY)) {
                 rollbackOnErrorCapability = true;
             } else if (uri.equals(VALIDATE_CAPABILITY)) {
@@ -364,9 +452,9 @@ public class Capabilities {
                 interleaveCapability = true;
             } else if (uri.equals(STARTUP_CAPABILITY)) {
                 startupCapability = true;
-            } else if (cap.value.toString().startsWith(URL_CAPABILITY_SCHEME)) {
+            } else if (value.startsWith(URL_CAPABILITY_SCHEME)) {
                 urlCapability = true;
-                final String schemes = cap.value.toString().substring(
+                final String schemes = value.substring(
                         URL_CAPABILITY_SCHEME.length());
                 urlSchemes = schemes.split(",");
             } else if (uri.equals(XPATH_CAPABILITY)) {
@@ -402,19 +490,16 @@ public class Capabilities {
             } else {
                 // It's either a proper data schema capability or some
                 // homegrown agent capability
-                data_capas.add(new Capa(uri, rev));
+                if (!data_capas.containsKey(uri)) {
+                    data_capas.put(uri, rev);
+                }
             }
         }
     }
 
     /** Checks all capabilities including the rfc 4711 ones */
     public boolean hasCapability(String uri) {
-        for (final Capa c : capas) {
-            if (c.uri.equals(uri)) {
-                return true;
-            }
-        }
-        return false;
+        return capas.containsKey(uri);
     }
 
     /**
@@ -422,12 +507,15 @@ public class Capabilities {
      * found. Only check the user data capabilities.
      */
     public String getRevision(String uri) {
-        for (Capa capa : data_capas) {
-            if (capa.uri.equals(uri)) {
-                return capa.revision;
-            }
-        }
-        return null;
+        return data_capas.get(uri);
+    }
+
+    /**
+     * Returns the capabilities in the order they were advertised, with
+     * their query parts such as revisions.
+     */
+    public List<String> getCapabilityList() {
+        return list;
     }
 
 }
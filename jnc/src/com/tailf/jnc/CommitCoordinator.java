@@ -0,0 +1,377 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes the configuration of many devices as one transaction, so that
+ * either all of them or none of them commit the change. The NETCONF
+ * operations are run in phases, each one on all devices in parallel on a
+ * {@link DeviceFleet}, and a phase starts when the previous one has
+ * completed on all devices:
+ * <ol>
+ * <li>lock the running and candidate datastores,
+ * <li>edit the candidate datastore,
+ * <li>validate it, on devices with the <code>:validate</code> capability,
+ * <li>confirmed commit, on devices with the <code>:confirmed-commit</code>
+ * capability,
+ * <li>confirming commit,
+ * </ol>
+ * and the datastores are unlocked. The transaction takes about as long as
+ * the slowest device, however many devices there are:
+ *
+ * <pre>
+ * CommitCoordinator tx = new CommitCoordinator(fleet);
+ * CommitCoordinator.Outcome o = tx.commit(devices, &quot;cfg&quot;, configTree);
+ * if (!o.isCommitted()) {
+ *     System.err.println(o.getFailedPhase() + &quot;: &quot; + o.getErrors());
+ * }
+ * </pre>
+ *
+ * If a phase fails on any device, the change is undone on all devices: the
+ * candidate datastores are reset with <code>discard-changes</code>, and a
+ * confirmed commit is cancelled with <code>cancel-commit</code> on devices
+ * that support it. Other devices revert it when the confirm timeout
+ * expires. Devices without the <code>:confirmed-commit</code> capability
+ * commit in the last phase, which can then not be undone.
+ * <p>
+ * Each device must have a session with the given name, and the devices
+ * must not be used by other threads during the transaction.
+ */
+public class CommitCoordinator {
+
+    /**
+     * The phases of a transaction.
+     */
+    public static enum Phase {
+        LOCK, EDIT, VALIDATE, CONFIRMED_COMMIT, CONFIRM
+    }
+
+    /**
+     * The outcome of a transaction.
+     */
+    public static class Outcome {
+        private final Phase failedPhase;
+        private final Map<Device, Exception> errors;
+        private final Map<Device, Exception> cleanupErrors;
+        private final Set<Device> committed;
+
+        Outcome(Phase failedPhase, Map<Device, Exception> errors,
+                Map<Device, Exception> cleanupErrors, Set<Device> committed) {
+            this.failedPhase = failedPhase;
+            this.errors = Collections.unmodifiableMap(errors);
+            this.cleanupErrors = Collections.unmodifiableMap(cleanupErrors);
+            this.committed = Collections.unmodifiableSet(committed);
+        }
+
+        /**
+         * @return <code>true</code> if all devices committed the change.
+         */
+        public boolean isCommitted() {
+            return failedPhase == null;
+        }
+
+        /**
+         * @return The phase that failed, or <code>null</code>.
+         */
+        public Phase getFailedPhase() {
+            return failedPhase;
+        }
+
+        /**
+         * @return The errors of the devices on which the failed phase
+         *         failed.
+         */
+        public Map<Device, Exception> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return The errors of undoing the change and unlocking. A device
+         *         with an error here may still be locked, or keep the change
+         *         until its confirm timeout expires.
+         */
+        public Map<Device, Exception> getCleanupErrors() {
+            return cleanupErrors;
+        }
+
+        /**
+         * @return The devices that committed the change. All of them if the
+         *         transaction succeeded, otherwise the devices that
+         *         confirmed before the confirm phase failed on others.
+         */
+        public Set<Device> getCommitted() {
+            return committed;
+        }
+
+        @Override
+        public String toString() {
+            return "Outcome[" + (failedPhase == null ? "committed"
+                    : failedPhase + " failed on " + errors.size()) + "]";
+        }
+    }
+
+    private final DeviceFleet fleet;
+    private int confirmTimeout = 600;
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param fleet The fleet to run the phases on. Its timeout applies to
+     *            each phase on each device.
+     */
+    public CommitCoordinator(DeviceFleet fleet) {
+        this.fleet = fleet;
+    }
+
+    /**
+     * Sets how long the devices wait for the confirming commit before they
+     * revert the confirmed commit by themselves.
+     *
+     * @param confirmTimeout Timeout in seconds, 600 by default.
+     */
+    public void setConfirmTimeout(int confirmTimeout) {
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    /**
+     * @return The confirm timeout in seconds.
+     */
+    public int getConfirmTimeout() {
+        return confirmTimeout;
+    }
+
+    /**
+     * Commits the same change on each device. Each device is sent its own
+     * copy of the configuration tree.
+     *
+     * @param devices The devices.
+     * @param sessionName symbolic Name of the session to use
+     * @param configTree The change, as for
+     *            {@link NetconfSession#editConfig(int, Element)}.
+     */
+    public Outcome commit(Collection<? extends Device> devices,
+            String sessionName, Element configTree)
+            throws InterruptedException {
+        final Map<Device, Element> edits = new LinkedHashMap<Device, Element>();
+        for (final Device device : devices) {
+            edits.put(device, (Element) configTree.clone());
+        }
+        return commit(edits, sessionName);
+    }
+
+    /**
+     * Commits a change of its own on each device.
+     *
+     * @param edits The change of each device.
+     * @param sessionName symbolic Name of the session to use
+     * @throws InterruptedException If the calling thread is interrupted.
+     *             The devices may then be left locked, and with confirmed
+     *             commits that revert when the confirm timeout expires.
+     */
+    public Outcome commit(final Map<? extends Device, Element> edits,
+            final String sessionName) throws InterruptedException {
+        final List<Device> devices = new ArrayList<Device>(edits.keySet());
+        final Map<Device, Exception> cleanup = new LinkedHashMap<Device, Exception>();
+        trace("commit on ", devices.size(), " devices");
+
+        final DeviceFleet.Result<Void> locks = fleet.run(devices,
+                new DeviceFleet.Operation<Void>() {
+                    @Override
+                    public Void run(Device device) throws IOException,
+                            JNCException {
+                        final NetconfSession s = session(device, sessionName);
+                        if (!s.getCapabilities().hasCandidate()) {
+                            throw new JNCException(JNCException.SESSION_ERROR,
+                                    "the :candidate capability is not supported by server");
+                        }
+                        s.lock(NetconfSession.RUNNING);
+                        try {
+                            s.lock(NetconfSession.CANDIDATE);
+                        } catch (final JNCException e) {
+                            s.unlock(NetconfSession.RUNNING);
+                            throw e;
+                        }
+                        return null;
+                    }
+                });
+        final Set<Device> locked = locks.getValues().keySet();
+        if (!locks.isSuccess()) {
+            return abort(Phase.LOCK, locks, locked, sessionName, false,
+                    Collections.<Device> emptySet(), cleanup);
+        }
+
+        final DeviceFleet.Result<Void> edited = fleet.run(devices,
+                new DeviceFleet.Operation<Void>() {
+                    @Override
+                    public Void run(Device device) throws IOException,
+                            JNCException {
+                        session(device, sessionName).editConfig(
+                                NetconfSession.CANDIDATE, edits.get(device));
+                        return null;
+                    }
+                });
+        if (!edited.isSuccess()) {
+            return abort(Phase.EDIT, edited, locked, sessionName, true,
+                    Collections.<Device> emptySet(), cleanup);
+        }
+
+        final DeviceFleet.Result<Void> validated = fleet.run(devices,
+                new DeviceFleet.Operation<Void>() {
+                    @Override
+                    public Void run(Device device) throws IOException,
+                            JNCException {
+                        final NetconfSession s = session(device, sessionName);
+                        if (s.getCapabilities().hasValidate()) {
+                            s.validate(NetconfSession.CANDIDATE);
+                        }
+                        return null;
+                    }
+                });
+        if (!validated.isSuccess()) {
+            return abort(Phase.VALIDATE, validated, locked, sessionName,
+                    true, Collections.<Device> emptySet(), cleanup);
+        }
+
+        final int timeout = confirmTimeout;
+        final DeviceFleet.Result<Boolean> confirmed = fleet.run(devices,
+                new DeviceFleet.Operation<Boolean>() {
+                    @Override
+                    public Boolean run(Device device) throws IOException,
+                            JNCException {
+                        final NetconfSession s = session(device, sessionName);
+                        if (!s.getCapabilities().hasConfirmedCommit()) {
+                            return Boolean.FALSE;
+                        }
+                        s.confirmedCommit(timeout);
+                        return Boolean.TRUE;
+                    }
+                });
+        final Set<Device> pending = new LinkedHashSet<Device>();
+        for (final Map.Entry<Device, Boolean> e : confirmed.getValues()
+                .entrySet()) {
+            if (e.getValue().booleanValue()) {
+                pending.add(e.getKey());
+            }
+        }
+        if (!confirmed.isSuccess()) {
+            return abort(Phase.CONFIRMED_COMMIT, confirmed, locked,
+                    sessionName, true, pending, cleanup);
+        }
+
+        final DeviceFleet.Result<Void> confirms = fleet.run(devices,
+                new DeviceFleet.Operation<Void>() {
+                    @Override
+                    public Void run(Device device) throws IOException,
+                            JNCException {
+                        session(device, sessionName).commit();
+                        return null;
+                    }
+                });
+        final Set<Device> committed = new LinkedHashSet<Device>(confirms
+                .getValues().keySet());
+        if (!confirms.isSuccess()) {
+            // too late for the devices that confirmed, undo the others
+            pending.removeAll(committed);
+            return abort(Phase.CONFIRM, confirms, locked, sessionName, true,
+                    pending, cleanup, committed);
+        }
+        unlock(locked, sessionName, cleanup);
+        trace("committed on ", devices.size(), " devices");
+        return new Outcome(null, new LinkedHashMap<Device, Exception>(),
+                cleanup, committed);
+    }
+
+    private Outcome abort(Phase phase, DeviceFleet.Result<?> failed,
+            Set<Device> locked, String sessionName, boolean discard,
+            Set<Device> pending, Map<Device, Exception> cleanup)
+            throws InterruptedException {
+        return abort(phase, failed, locked, sessionName, discard, pending,
+                cleanup, new LinkedHashSet<Device>());
+    }
+
+    /**
+     * Undoes the change on all devices after a phase failed, and unlocks
+     * them.
+     */
+    private Outcome abort(Phase phase, DeviceFleet.Result<?> failed,
+            Set<Device> locked, final String sessionName,
+            final boolean discard, final Set<Device> pending,
+            Map<Device, Exception> cleanup, Set<Device> committed)
+            throws InterruptedException {
+        trace(phase, " failed on ", failed.getErrors().size(), " devices");
+        if (discard || !pending.isEmpty()) {
+            final DeviceFleet.Result<Void> undone = fleet.run(locked,
+                    new DeviceFleet.Operation<Void>() {
+                        @Override
+                        public Void run(Device device) throws IOException,
+                                JNCException {
+                            final NetconfSession s = session(device,
+                                    sessionName);
+                            if (pending.contains(device)
+                                    && s.getCapabilities().hasCancelCommit()) {
+                                s.cancelCommit();
+                            }
+                            if (discard) {
+                                s.discardChanges();
+                            }
+                            return null;
+                        }
+                    });
+            cleanup.putAll(undone.getErrors());
+        }
+        unlock(locked, sessionName, cleanup);
+        return new Outcome(phase, new LinkedHashMap<Device, Exception>(failed
+                .getErrors()), cleanup, committed);
+    }
+
+    private void unlock(Set<Device> locked, final String sessionName,
+            Map<Device, Exception> cleanup) throws InterruptedException {
+        final DeviceFleet.Result<Void> unlocked = fleet.run(locked,
+                new DeviceFleet.Operation<Void>() {
+                    @Override
+                    public Void run(Device device) throws IOException,
+                            JNCException {
+                        final NetconfSession s = session(device, sessionName);
+                        try {
+                            s.unlock(NetconfSession.CANDIDATE);
+                        } finally {
+                            s.unlock(NetconfSession.RUNNING);
+                        }
+                        return null;
+                    }
+                });
+        for (final Map.Entry<Device, Exception> e : unlocked.getErrors()
+                .entrySet()) {
+            if (!cleanup.containsKey(e.getKey())) {
+                cleanup.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private static NetconfSession session(Device device, String sessionName)
+            throws JNCException {
+        final NetconfSession session = device.getSession(sessionName);
+        if (session == null) {
+            throw new YangException(YangException.BAD_SESSION_NAME,
+                    sessionName);
+        }
+        return session;
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "CommitCoordinator", msg);
+    }
+}
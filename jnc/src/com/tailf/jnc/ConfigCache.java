@@ -0,0 +1,388 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A cache of <code>get-config</code> replies, for code that asks a device
+ * for the same parts of its configuration again and again. It is given to a
+ * session with {@link NetconfSession#setConfigCache(ConfigCache)}, and can
+ * be shared by several sessions to the same device, such as the sessions of
+ * a {@link SessionPool}:
+ *
+ * <pre>
+ * ConfigCache cache = new ConfigCache();
+ * session.setConfigCache(cache);
+ * NodeSet hosts = session.getConfig(filter); // round trip
+ * NodeSet again = session.getConfig(filter); // from the cache
+ * </pre>
+ *
+ * Replies are kept by datastore and filter. Subtree filters are compared
+ * without regard to prefixes and the order of siblings, so filters built in
+ * different ways for the same data share an entry. Each caller gets its own
+ * copy of the reply.
+ * <p>
+ * The entries of a datastore are dropped when a session using the cache
+ * changes it, with <code>edit-config</code>, <code>copy-config</code>,
+ * <code>delete-config</code>, <code>commit</code> or
+ * <code>discard-changes</code>, and when a session using the cache receives
+ * a <code>netconf-config-change</code> notification (RFC 6470) for it.
+ * Changes made by other managers are only seen through such notifications,
+ * so a session should subscribe to them if other managers can change the
+ * configuration.
+ * <p>
+ * When the same request is made by several threads at once, only the first
+ * one is sent and the others wait for its reply. The least recently used
+ * entries are dropped when there are more than a maximum number of entries,
+ * or of elements in all entries.
+ */
+public class ConfigCache {
+
+    /**
+     * The namespace of the NETCONF base notifications, RFC 6470.
+     */
+    public static final String NS_NETCONF_NOTIFICATIONS = "urn:ietf:params:xml:ns:yang:ietf-netconf-notifications";
+
+    private static class Entry {
+        final int datastore;
+        final NodeSet value;
+        final long elements;
+
+        Entry(int datastore, NodeSet value, long elements) {
+            this.datastore = datastore;
+            this.value = value;
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * A request in progress, which other callers of the same request wait
+     * for.
+     */
+    private static class Flight extends FutureTask<NodeSet> {
+        final int datastore;
+        final long generation;
+
+        Flight(int datastore, long generation, Callable<NodeSet> fetch) {
+            super(fetch);
+            this.datastore = datastore;
+            this.generation = generation;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxElements;
+
+    // in least recently used order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+    private final HashMap<String, Flight> inflight = new HashMap<String, Flight>();
+    private long elements = 0;
+
+    /**
+     * Counts invalidations, so that a reply requested before one is not
+     * cached.
+     */
+    private long generation = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long collapsed = 0;
+
+    /**
+     * Creates a cache of at most 256 replies and one million elements.
+     */
+    public ConfigCache() {
+        this(256, 1000000);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries The maximum number of replies.
+     * @param maxElements The maximum number of elements in all replies. A
+     *            larger reply is not cached.
+     */
+    public ConfigCache(int maxEntries, long maxElements) {
+        if (maxEntries < 1 || maxElements < 1) {
+            throw new IllegalArgumentException("maxEntries: " + maxEntries
+                    + ", maxElements: " + maxElements);
+        }
+        this.maxEntries = maxEntries;
+        this.maxElements = maxElements;
+    }
+
+    /**
+     * Returns a copy of the cached reply of a request, or makes the request.
+     *
+     * @param datastore The datastore of the request.
+     * @param filter The normalized filter, see {@link #key(Element)}.
+     * @param fetch Makes the request.
+     */
+    NodeSet get(int datastore, String filter, Callable<NodeSet> fetch)
+            throws JNCException, IOException {
+        final String key = datastore + " " + filter;
+        final Flight flight;
+        final boolean owner;
+        synchronized (this) {
+            final Entry e = entries.get(key);
+            if (e != null) {
+                hits++;
+                return copy(e.value);
+            }
+            final Flight f = inflight.get(key);
+            if (f != null) {
+                collapsed++;
+                flight = f;
+                owner = false;
+            } else {
+                misses++;
+                flight = new Flight(datastore, generation, fetch);
+                inflight.put(key, flight);
+                owner = true;
+            }
+        }
+        if (owner) {
+            flight.run();
+        }
+        final NodeSet value;
+        try {
+            value = await(flight);
+        } finally {
+            if (owner) {
+                synchronized (this) {
+                    if (inflight.get(key) == flight) {
+                        inflight.remove(key);
+                    }
+                }
+            }
+        }
+        if (owner) {
+            store(key, flight, value);
+        }
+        return copy(value);
+    }
+
+    private static NodeSet await(Flight flight) throws JNCException,
+            IOException {
+        try {
+            return flight.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JNCException(JNCException.SESSION_ERROR, "interrupted");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof JNCException) {
+                throw (JNCException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new JNCException(JNCException.SESSION_ERROR, cause);
+        }
+    }
+
+    /**
+     * Caches a reply, unless the datastore has been changed since it was
+     * requested.
+     */
+    private synchronized void store(String key, Flight flight, NodeSet value) {
+        if (flight.generation != generation) {
+            return;
+        }
+        final long n = count(value);
+        if (n > maxElements) {
+            return;
+        }
+        final Entry old = entries.put(key, new Entry(flight.datastore, value,
+                n));
+        if (old != null) {
+            elements -= old.elements;
+        }
+        elements += n;
+        final Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || elements > maxElements)
+                && it.hasNext()) {
+            elements -= it.next().elements;
+            it.remove();
+        }
+    }
+
+    private static long count(List<Element> nodes) {
+        long n = nodes.size();
+        for (final Element e : nodes) {
+            if (e.children != null) {
+                n += count(e.children);
+            }
+        }
+        return n;
+    }
+
+    private static NodeSet copy(NodeSet value) {
+        final NodeSet copy = new NodeSet();
+        copy.ensureCapacity(value.size());
+        for (final Element e : value) {
+            copy.add((Element) e.clone());
+        }
+        return copy;
+    }
+
+    /**
+     * Drops the cached replies of a datastore.
+     *
+     * @param datastore One of {@link NetconfSession#RUNNING},
+     *            {@link NetconfSession#CANDIDATE},
+     *            {@link NetconfSession#STARTUP}
+     */
+    public synchronized void invalidate(int datastore) {
+        generation++;
+        final Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry e = it.next();
+            if (e.datastore == datastore) {
+                elements -= e.elements;
+                it.remove();
+            }
+        }
+        // later callers must not wait for a reply from before the change
+        final Iterator<Flight> f = inflight.values().iterator();
+        while (f.hasNext()) {
+            if (f.next().datastore == datastore) {
+                f.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all cached replies.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        inflight.clear();
+        elements = 0;
+    }
+
+    /**
+     * Drops the cached replies of the datastore that a
+     * <code>netconf-config-change</code> notification is about. Other
+     * notifications are ignored.
+     *
+     * @param notification A <code>notification</code> element.
+     * @return <code>true</code> if it was a
+     *         <code>netconf-config-change</code> notification.
+     */
+    public boolean notification(Element notification) {
+        if (notification.children == null) {
+            return false;
+        }
+        for (final Element e : notification.children) {
+            if (e.name.equals("netconf-config-change")
+                    && NS_NETCONF_NOTIFICATIONS.equals(e.namespace)) {
+                final Element ds = e.getChild("datastore");
+                final String name = ds == null || ds.value == null ? "running"
+                        : ds.value.toString().trim();
+                trace("config change in ", name);
+                if (name.equals("running")) {
+                    invalidate(NetconfSession.RUNNING);
+                } else if (name.equals("startup")) {
+                    invalidate(NetconfSession.STARTUP);
+                } else {
+                    invalidateAll();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a string that is the same for subtree filters that select the
+     * same data: the namespaces and names of the elements, their attributes
+     * and content match values, with siblings sorted.
+     *
+     * @param filter A subtree filter.
+     */
+    static String key(Element filter) {
+        final StringBuilder s = new StringBuilder();
+        key(filter, s);
+        return s.toString();
+    }
+
+    private static void key(Element e, StringBuilder s) {
+        s.append('{').append(e.namespace).append('}').append(e.name);
+        if (e.attrs != null && !e.attrs.isEmpty()) {
+            final List<String> attrs = new ArrayList<String>(e.attrs.size());
+            for (final Attribute a : e.attrs) {
+                attrs.add("{" + a.ns + "}" + a.name + "=" + a.value);
+            }
+            Collections.sort(attrs);
+            s.append(attrs);
+        }
+        if (e.value != null) {
+            s.append('=').append(e.value.toString().trim());
+        }
+        if (e.children != null && !e.children.isEmpty()) {
+            final List<String> children = new ArrayList<String>(e.children
+                    .size());
+            for (final Element child : e.children) {
+                children.add(key(child));
+            }
+            Collections.sort(children);
+            s.append('(');
+            for (final String child : children) {
+                s.append(child).append(';');
+            }
+            s.append(')');
+        }
+    }
+
+    /**
+     * @return The number of cached replies.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of requests answered from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of requests sent to the device.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of requests that waited for the same request made
+     *         by another thread.
+     */
+    public synchronized long getCollapsed() {
+        return collapsed;
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "ConfigCache", msg);
+    }
+}
@@ -0,0 +1,371 @@
+package com.tailf.jnc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A directory of configuration snapshots, used by {@link Device} to start
+ * with the last known configuration of its sessions after a restart instead
+ * of fetching it from the device first.
+ * <p>
+ * Each snapshot is the configuration tree of one named session of one device,
+ * with the time it was fetched and the capabilities the device advertised
+ * then. It is kept in a file of its own, written in the
+ * {@link ElementCodec} format, with separate checksums for the time and
+ * capabilities and for the tree:
+ *
+ * <pre>
+ * header: magic (4 bytes) version (4 bytes)
+ *         meta length (4 bytes) meta crc (4 bytes)
+ *         tree length (4 bytes) tree crc (4 bytes)
+ * meta:   fetch time (8 bytes) number of capabilities (4 bytes)
+ *         capabilities (length (4 bytes) UTF-8 bytes each)
+ * tree:   the encoded tree
+ * </pre>
+ *
+ * A snapshot is written to a temporary file that then replaces the old one,
+ * so a crash leaves either the old or the new snapshot. Snapshots are read
+ * by mapping the file; the time and capabilities are read and checked when
+ * the snapshot is opened, and the tree only when it is asked for, so
+ * checking whether a snapshot is still valid is cheap.
+ */
+public class ConfigStore {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4a4e4343; // "JNCC"
+    private static final int VERSION = 2;
+    private static final int HEADER = 24;
+
+    private static final String SUFFIX = ".snap";
+
+    /**
+     * A stored configuration and what is known about it.
+     */
+    public static class Snapshot {
+        private final long fetchTime;
+        private final List<String> capabilities;
+        private final ByteBuffer tree;
+        private final int treeCrc;
+
+        Snapshot(long fetchTime, List<String> capabilities, ByteBuffer tree,
+                int treeCrc) {
+            this.fetchTime = fetchTime;
+            this.capabilities = capabilities;
+            this.tree = tree;
+            this.treeCrc = treeCrc;
+        }
+
+        /**
+         * @return The time the configuration was fetched, in milliseconds
+         *         since the epoch.
+         */
+        public long getFetchTime() {
+            return fetchTime;
+        }
+
+        /**
+         * @return The capabilities the device advertised when the
+         *         configuration was fetched, sorted. Empty if they were not
+         *         known.
+         */
+        public List<String> getCapabilities() {
+            return capabilities;
+        }
+
+        /**
+         * Checks if the configuration was fetched longer ago than a given
+         * age.
+         *
+         * @param maxAge Age in milliseconds.
+         */
+        public boolean isOlderThan(long maxAge) {
+            return System.currentTimeMillis() - fetchTime > maxAge;
+        }
+
+        /**
+         * Checks if a device still advertises the capabilities it did when
+         * the configuration was fetched. If it does not, its schema may have
+         * changed, and the configuration should be fetched again.
+         *
+         * @param c The capabilities of a session to the device.
+         */
+        public boolean matches(Capabilities c) {
+            return capabilities.equals(sorted(c));
+        }
+
+        /**
+         * Checks and decodes the configuration. Each call returns a new
+         * tree.
+         *
+         * @return The configuration tree.
+         * @throws JNCException If the tree is damaged or cannot be decoded.
+         */
+        public Element getConfig() throws JNCException {
+            final ByteBuffer b = tree.duplicate();
+            final byte[] data = new byte[b.remaining()];
+            b.get(data);
+            final CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            if ((int) crc.getValue() != treeCrc) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "damaged snapshot: bad checksum");
+            }
+            return ElementCodec.decode(data);
+        }
+    }
+
+    private final File dir;
+
+    /**
+     * Opens a store, creating the directory if it does not exist.
+     *
+     * @param dir The directory to keep the snapshots in.
+     * @throws IOException If the directory cannot be created.
+     */
+    public ConfigStore(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(dir + ": cannot create directory");
+        }
+    }
+
+    /**
+     * Stores the configuration of a session, fetched now.
+     *
+     * @param device The name of the device.
+     * @param sessionName symbolic Name of the session
+     * @param config The configuration tree.
+     * @param capabilities The capabilities of the session, or
+     *            <code>null</code> if not known.
+     */
+    public void put(String device, String sessionName, Element config,
+            Capabilities capabilities) throws IOException {
+        put(device, sessionName, config, System.currentTimeMillis(),
+                capabilities);
+    }
+
+    /**
+     * Stores the configuration of a session, replacing any earlier one.
+     *
+     * @param device The name of the device.
+     * @param sessionName symbolic Name of the session
+     * @param config The configuration tree.
+     * @param fetchTime The time the configuration was fetched, in
+     *            milliseconds since the epoch.
+     * @param capabilities The capabilities of the session, or
+     *            <code>null</code> if not known.
+     */
+    public void put(String device, String sessionName, Element config,
+            long fetchTime, Capabilities capabilities) throws IOException {
+        put(device, sessionName, config, fetchTime, sorted(capabilities));
+    }
+
+    /**
+     * Stores the configuration of a session, with capabilities already
+     * sorted.
+     */
+    void put(String device, String sessionName, Element config,
+            long fetchTime, List<String> caps) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(fetchTime);
+        out.writeInt(caps.size());
+        for (final String c : caps) {
+            final byte[] b = c.getBytes(UTF8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        out.flush();
+        final byte[] meta = body.toByteArray();
+        final byte[] tree = ElementCodec.encode(config);
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(meta.length)
+                .putInt(crc(meta)).putInt(tree.length).putInt(crc(tree));
+
+        final File file = file(device, sessionName);
+        final File tmp = File.createTempFile("snap", ".tmp", dir);
+        final FileOutputStream f = new FileOutputStream(tmp);
+        try {
+            f.write(header.array());
+            f.write(meta);
+            f.write(tree);
+            f.getFD().sync();
+        } finally {
+            f.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        trace("stored ", meta.length + tree.length, " bytes for ", device,
+                "/", sessionName);
+    }
+
+    /**
+     * Opens the snapshot of a session.
+     *
+     * @param device The name of the device.
+     * @param sessionName symbolic Name of the session
+     * @return The snapshot, or <code>null</code> if there is none or it is
+     *         damaged.
+     * @throws IOException If the file cannot be read.
+     */
+    public Snapshot get(String device, String sessionName) throws IOException {
+        final File file = file(device, sessionName);
+        if (!file.isFile()) {
+            return null;
+        }
+        final MappedByteBuffer map;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } finally {
+            // the mapping stays valid
+            raf.close();
+        }
+        try {
+            final int metaLength = map.getInt(8);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                    || metaLength < 0 || map.getInt(16) < 0
+                    || (long) metaLength + map.getInt(16) != map.capacity()
+                            - HEADER) {
+                trace("ignoring damaged snapshot ", file);
+                return null;
+            }
+            // only the time and capabilities are read now
+            final byte[] meta = new byte[metaLength];
+            map.position(HEADER);
+            map.get(meta);
+            if (crc(meta) != map.getInt(12)) {
+                trace("ignoring damaged snapshot ", file);
+                return null;
+            }
+            final ByteBuffer b = ByteBuffer.wrap(meta);
+            final long fetchTime = b.getLong();
+            final int n = b.getInt();
+            final List<String> caps = new ArrayList<String>(n);
+            for (int i = 0; i < n; i++) {
+                final byte[] s = new byte[b.getInt()];
+                b.get(s);
+                caps.add(new String(s, UTF8));
+            }
+            return new Snapshot(fetchTime,
+                    Collections.unmodifiableList(caps), map.slice(),
+                    map.getInt(20));
+        } catch (final RuntimeException e) {
+            // shorter than its header, or a bad count
+            trace("ignoring damaged snapshot ", file, ": ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the snapshot of a session, if any.
+     *
+     * @param device The name of the device.
+     * @param sessionName symbolic Name of the session
+     */
+    public void remove(String device, String sessionName) {
+        file(device, sessionName).delete();
+    }
+
+    /**
+     * Lists the sessions of a device that have a snapshot.
+     *
+     * @param device The name of the device.
+     * @return The session names.
+     */
+    public List<String> sessions(String device) {
+        final String prefix = encode(device) + "#";
+        final List<String> names = new ArrayList<String>();
+        final String[] files = dir.list();
+        if (files != null) {
+            for (final String f : files) {
+                if (f.startsWith(prefix) && f.endsWith(SUFFIX)) {
+                    names.add(decode(f.substring(prefix.length(), f.length()
+                            - SUFFIX.length())));
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return The directory of the store.
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * The file of a session. Names are encoded so that any device and
+     * session name gives a plain file name in the directory.
+     */
+    private File file(String device, String sessionName) {
+        return new File(dir, encode(device) + "#" + encode(sessionName)
+                + SUFFIX);
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int crc(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The capabilities of a session in a stable order, as stored.
+     */
+    static List<String> sorted(Capabilities c) {
+        if (c == null) {
+            return Collections.emptyList();
+        }
+        final List<String> caps = new ArrayList<String>(c.getCapabilityList());
+        Collections.sort(caps);
+        return caps;
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "ConfigStore", msg);
+    }
+}
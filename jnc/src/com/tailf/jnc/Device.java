@@ -3,6 +3,7 @@ package com.tailf.jnc;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class provides features for managing a device with NETCONF.
@@ -40,6 +41,22 @@ import java.util.ArrayList;
  * backlog with the configuration change can be saved and run later when the
  * device comes up again.
  * </p>
+ * 
+ * <p>
+ * With a {@link ConfigStore}, the config trees of the sessions are kept on
+ * disk, so that a restarted manager starts with the last known configuration
+ * of each device. {@link #refreshConfig(String, long)} fetches the
+ * configuration again only if it is older than a given age, or the device
+ * now advertises other capabilities:
+ * </p>
+ * 
+ * <pre>
+ * dev.setConfigStore(new ConfigStore(new File(&quot;/var/lib/mgr/configs&quot;)));
+ * Element last = dev.getConfig(&quot;cfg&quot;); // no round trip
+ * dev.connect(localUserName);
+ * dev.newSession(&quot;cfg&quot;);
+ * dev.refreshConfig(&quot;cfg&quot;, 3600000);
+ * </pre>
  */
 
 public class Device implements Serializable {
@@ -68,6 +85,13 @@ public class Device implements Serializable {
         String sessionName;
         Element configTree;
 
+        /**
+         * When the tree was fetched from the device, 0 if it was not, and
+         * the sorted capabilities of the device then.
+         */
+        long fetchTime = 0;
+        List<String> capabilities = null;
+
         SessionTree(String n) {
             sessionName = n;
             configTree = null;
@@ -97,6 +121,17 @@ public class Device implements Serializable {
      */
     protected ArrayList<Element> backlog;
 
+    /**
+     * Keeps the backlog on disk, if set.
+     */
+    private transient BacklogJournal journal = null;
+
+    /**
+     * The number of trees at the end of the backlog that could not be
+     * written to the journal.
+     */
+    private transient int unjournaled = 0;
+
     /**
      * A list of users.
      */
@@ -117,6 +152,21 @@ public class Device implements Serializable {
      */
     protected int defaultReadTimeout = 0;
 
+    /**
+     * The pool of borrowed sessions, the default pool if <code>null</code>.
+     */
+    private transient SessionPool sessionPool = null;
+
+    /**
+     * Maximum number of pooled sessions (channels) per SSH connection.
+     */
+    protected int maxChannels = 8;
+
+    /**
+     * Keeps the config trees of the sessions on disk, if set.
+     */
+    private transient ConfigStore configStore = null;
+
     /**
      * Constructor for the Device with on initial user. We need at least one
      * DeviceUser in order to be able to connect.
@@ -242,6 +292,132 @@ public class Device implements Serializable {
         t.configTree = e;
     }
 
+    /**
+     * Keeps the config trees of the sessions of this device in a store, so
+     * that they survive a restart. Sessions that have a snapshot in the store
+     * and no config tree yet get the stored tree, which can be used right
+     * away and refreshed later. A stored tree that is damaged is skipped,
+     * the session then has no config tree until it is fetched.
+     * 
+     * @param store The store, or <code>null</code> to keep the trees in
+     *            memory only.
+     */
+    public void setConfigStore(ConfigStore store) throws IOException,
+            JNCException {
+        if (store != null) {
+            for (final String sessionName : store.sessions(name)) {
+                newSessionConfigTree(sessionName);
+                final SessionTree t = getTreeData(sessionName);
+                if (t.configTree != null) {
+                    continue;
+                }
+                final ConfigStore.Snapshot s = store.get(name, sessionName);
+                if (s != null) {
+                    try {
+                        t.configTree = s.getConfig();
+                    } catch (final JNCException e) {
+                        trace("ignoring stored config of ", sessionName, ": ",
+                                e);
+                        continue;
+                    }
+                    t.fetchTime = s.getFetchTime();
+                    t.capabilities = s.getCapabilities();
+                }
+            }
+        }
+        configStore = store;
+    }
+
+    /**
+     * @return The config store, or <code>null</code> if none.
+     */
+    public ConfigStore getConfigStore() {
+        return configStore;
+    }
+
+    /**
+     * Writes the config tree of a named session to the config store, if
+     * there is one. A session without a tree has its snapshot removed.
+     * 
+     * @param sessionName symbolic Name of the session
+     */
+    public void saveConfig(String sessionName) throws IOException,
+            YangException {
+        final SessionTree t = getTreeData(sessionName);
+        if (t == null) {
+            throw new YangException(YangException.BAD_SESSION_NAME,
+                    sessionName);
+        }
+        if (configStore == null) {
+            return;
+        }
+        if (t.configTree == null) {
+            configStore.remove(name, sessionName);
+        } else {
+            configStore.put(name, sessionName, t.configTree, t.fetchTime,
+                    t.capabilities != null ? t.capabilities
+                            : ConfigStore.sorted(null));
+        }
+    }
+
+    /**
+     * Checks if the config tree of a named session needs to be fetched
+     * again: it was never fetched, it was fetched longer ago than a given
+     * age, or the session is connected and the device now advertises other
+     * capabilities than it did then. This does not talk to the device.
+     * 
+     * @param sessionName symbolic Name of the session
+     * @param maxAge Age in milliseconds.
+     */
+    public boolean isConfigStale(String sessionName, long maxAge) {
+        final SessionTree t = getTreeData(sessionName);
+        if (t == null || t.configTree == null || t.fetchTime == 0
+                || System.currentTimeMillis() - t.fetchTime > maxAge) {
+            return true;
+        }
+        final SessionConnData data = getConnData(sessionName);
+        return data != null && t.capabilities != null
+                && !t.capabilities.equals(ConfigStore.sorted(data.session
+                        .getCapabilities()));
+    }
+
+    /**
+     * Fetches the running configuration into the config tree of a named
+     * session if it is stale, see {@link #isConfigStale(String, long)}, and
+     * writes it to the config store if there is one. The tree is a
+     * <code>data</code> element holding the top elements of the
+     * configuration.
+     * 
+     * @param sessionName symbolic Name of the session
+     * @param maxAge Age in milliseconds, 0 to always fetch.
+     * @return <code>true</code> if the configuration was fetched.
+     */
+    public boolean refreshConfig(String sessionName, long maxAge)
+            throws IOException, JNCException {
+        final SessionConnData data = getConnData(sessionName);
+        if (data == null) {
+            throw new YangException(YangException.BAD_SESSION_NAME,
+                    sessionName);
+        }
+        if (maxAge > 0 && !isConfigStale(sessionName, maxAge)) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        final NodeSet config = data.session.getConfig();
+        final Element tree = new Element(Element.NETCONF_NAMESPACE, "data");
+        for (final Element e : config) {
+            tree.addChild(e);
+        }
+        newSessionConfigTree(sessionName);
+        final SessionTree t = getTreeData(sessionName);
+        t.configTree = tree;
+        t.fetchTime = now;
+        t.capabilities = ConfigStore.sorted(data.session.getCapabilities());
+        trace("refreshed config of ", name, "/", sessionName);
+        saveConfig(sessionName);
+        return true;
+    }
+
     /**
      * Checks if a backlog is saved for this device.
      */
@@ -301,6 +477,19 @@ public class Device implements Serializable {
         }
     }
 
+    /**
+     * Closes the SSH socket of this device without ending the NETCONF
+     * sessions first. Used to unblock a thread that is waiting for a reply
+     * from a device that does not answer. The sessions must be re-created
+     * after a new connect().
+     */
+    void abort() {
+        final SSHConnection c = con;
+        if (c != null) {
+            c.close();
+        }
+    }
+
     /**
      * Checks if this device has any sessions with specified name.
      */
@@ -353,20 +542,88 @@ public class Device implements Serializable {
      */
     public void connect(String localUser, int connectTimeout)
             throws IOException, JNCException {
-        DeviceUser u = null;
+        final DeviceUser u = getUser(localUser);
+        con = new SSHConnection(mgmt_ip, mgmt_port, connectTimeout);
+        auth(u);
+    }
+
+    private DeviceUser getUser(String localUser) throws JNCException {
         for (int i = 0; i < users.size(); i++) {
-            final DeviceUser u2 = users.get(i);
-            if (u2.getLocalUser().equals(localUser)) {
-                u = u2;
-                break;
+            final DeviceUser u = users.get(i);
+            if (u.getLocalUser().equals(localUser)) {
+                return u;
             }
         }
-        if (u == null) {
-            throw new JNCException(JNCException.AUTH_FAILED, "No such user: "
-                    + localUser);
-        }
-        con = new SSHConnection(mgmt_ip, mgmt_port, connectTimeout);
-        auth(u);
+        throw new JNCException(JNCException.AUTH_FAILED, "No such user: "
+                + localUser);
+    }
+
+    /**
+     * Sets the pool that {@link #borrowSession(String)} takes sessions from.
+     * 
+     * @param pool The pool, or <code>null</code> for
+     *            {@link SessionPool#getDefault()}.
+     */
+    public void setSessionPool(SessionPool pool) {
+        sessionPool = pool;
+    }
+
+    /**
+     * Sets the maximum number of pooled sessions per SSH connection. Only
+     * used when the first session of a user is borrowed from a pool.
+     * 
+     * @param maxChannels Maximum number of channels per connection.
+     */
+    public void setMaxChannels(int maxChannels) {
+        this.maxChannels = maxChannels;
+    }
+
+    private SessionPool sessionPool() {
+        return sessionPool != null ? sessionPool : SessionPool.getDefault();
+    }
+
+    /**
+     * Borrows a NETCONF session from the session pool. An idle session to
+     * this device and user is reused if there is one, otherwise a new session
+     * is opened, on a pooled SSH connection if one has a free channel. Pooled
+     * sessions are not named sessions of this device, and do not need a
+     * {@link #connect(String)}.
+     * <p>
+     * The session must be given back with
+     * {@link #releaseSession(NetconfSession)}, or with
+     * {@link #invalidateSession(NetconfSession)} if it failed.
+     * 
+     * @param localUser The name of a local (for the EMS) user
+     * @return A session that has exchanged hello messages.
+     * @see SessionPool
+     */
+    public NetconfSession borrowSession(String localUser) throws IOException,
+            JNCException {
+        final DeviceUser u = getUser(localUser);
+        return sessionPool().borrow(
+                u.getRemoteuser() + "@" + mgmt_ip + ":" + mgmt_port,
+                new SSHConnector(mgmt_ip, mgmt_port, u, 0, defaultReadTimeout,
+                        maxChannels));
+    }
+
+    /**
+     * Gives a session back to the session pool for reuse. It must be in the
+     * state it was borrowed in.
+     * 
+     * @param session A session from {@link #borrowSession(String)}.
+     */
+    public void releaseSession(NetconfSession session) {
+        sessionPool().release(session);
+    }
+
+    /**
+     * Closes a borrowed session that cannot be reused, for instance after an
+     * I/O error.
+     * 
+     * @param session A session from {@link #borrowSession(String)}.
+     */
+    public void invalidateSession(NetconfSession session) {
+        sessionPool().invalidate(session);
     }
 
     /**
@@ -431,12 +688,53 @@ public class Device implements Serializable {
     }
 
     /**
-     * Adds the given configuration tree to the list of backlogs.
+     * Adds the given configuration tree to the list of backlogs, and to the
+     * backlog journal if there is one. If the tree cannot be written to the
+     * journal it is still kept in the backlog, and written with the next
+     * tree.
      * 
      * @param e Config tree to be saved.
      */
     public void addBackLog(Element e) {
         backlog.add(e);
+        if (journal != null) {
+            unjournaled = Math.min(unjournaled + 1, backlog.size());
+            try {
+                journal.append(backlog.subList(backlog.size() - unjournaled,
+                        backlog.size()));
+                unjournaled = 0;
+            } catch (final IOException x) {
+                trace("cannot write backlog journal of ", name, ": ", x);
+            }
+        }
+    }
+
+    /**
+     * Keeps the backlog of this device in a journal, so that it survives a
+     * restart. Trees already in the journal are added to the backlog before
+     * the trees in it now, which are written to the journal.
+     * 
+     * @param journal The journal, or <code>null</code> to keep the backlog
+     *            in memory only.
+     * @see BacklogJournal
+     */
+    public void setBacklogJournal(BacklogJournal journal) throws IOException,
+            JNCException {
+        if (journal != null) {
+            final ArrayList<Element> pending = backlog;
+            backlog = new ArrayList<Element>(journal.read(new YangXMLParser()));
+            backlog.addAll(pending);
+            journal.append(pending);
+        }
+        this.journal = journal;
+        unjournaled = 0;
+    }
+
+    /**
+     * @return The backlog journal, or <code>null</code> if none.
+     */
+    public BacklogJournal getBacklogJournal() {
+        return journal;
     }
 
     /**
@@ -456,22 +754,40 @@ public class Device implements Serializable {
      * saves the configuration update so that it can be re-sent later. This
      * method runs the saved backlog. It is automatically run whenever we
      * succeeed in creating a new sesssion.
+     * <p>
+     * The backlog is sent in as few edit-configs as possible, see
+     * {@link EditMerger}. The trees that have been sent are removed from the
+     * backlog and its journal, the others are left as they are if an edit
+     * fails.
      * 
      * @param sessionName symbolic Name of the session
      */
     public void runBacklog(String sessionName) throws IOException,
             JNCException {
-        System.out.println("Running backlog ");
         final SessionConnData data = getConnData(sessionName);
         if (data == null) {
             throw new YangException(YangException.BAD_SESSION_NAME,
                     sessionName);
         }
-        for (int i = 0; i < backlog.size(); i++) {
-            final Element e = backlog.get(i);
-            System.out.println("Bacloh " + e.toXMLString());
-            data.session.editConfig(e);
-            backlog.remove(i);
+        if (backlog.isEmpty()) {
+            return;
+        }
+        trace("running backlog of ", backlog.size(), " edits on ", name);
+        int sent = 0;
+        try {
+            for (final EditMerger batch : EditMerger.batches(backlog)) {
+                data.session.editConfig(batch.getTrees());
+                sent += batch.size();
+            }
+        } finally {
+            if (sent > 0) {
+                backlog.subList(0, sent).clear();
+                if (journal != null) {
+                    // the journal lacks the unjournaled trees at the end
+                    journal.remove(Math.min(sent, journal.size()));
+                    unjournaled = Math.min(unjournaled, backlog.size());
+                }
+            }
         }
     }
 
@@ -518,21 +834,14 @@ public class Device implements Serializable {
 
     private void auth(DeviceUser currentUser)
             throws IOException, JNCException {
-        if (currentUser.getPassword() != null) {
-            con.authenticateWithPassword(
-                    currentUser.getRemoteuser(),
-                    currentUser.getPassword());
-        } else if (currentUser.getPemPrivateKey() != null) {
-            con.authenticateWithPublicKey(
-                    currentUser.getRemoteuser(),
-                    currentUser.getPemPrivateKey(),
-                    currentUser.getKeyPassPhrase());
-        } else if (currentUser.getPemFile() != null) {
-            con.authenticateWithPublicKeyFile(
-                    currentUser.getRemoteuser(),
-                    currentUser.getPemFile(),
-                    currentUser.getKeyPassPhrase());
-        }
+        con.authenticate(currentUser);
+    }
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "Device", msg);
     }
 
 }
@@ -0,0 +1,431 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the same operation on many {@link Device} objects in parallel.
+ * <p>
+ * A {@link Device} performs blocking I/O on the calling thread, so talking to
+ * a large number of devices one after the other is dominated by waiting for
+ * replies. A fleet runs an operation on each device of a collection on an
+ * executor, with at most a fixed number of devices in progress at a time,
+ * and collects the result or the error of each device:
+ *
+ * <pre>
+ * DeviceFleet fleet = new DeviceFleet(200);
+ * fleet.setTimeout(30000);
+ * fleet.connect(devices, &quot;joe&quot;, 5000);
+ * fleet.newSession(devices, &quot;cfg&quot;);
+ * DeviceFleet.Result&lt;NodeSet&gt; r = fleet.getConfig(devices, &quot;cfg&quot;);
+ * for (Map.Entry&lt;Device, Exception&gt; e : r.getErrors().entrySet()) {
+ *     System.err.println(e.getKey().name + &quot;: &quot; + e.getValue());
+ * }
+ * fleet.shutdown();
+ * </pre>
+ * <p>
+ * Other operations are run with {@link #run(Collection, Operation)}. A device
+ * is only used by one thread at a time, as long as it appears once in the
+ * collection and is not used by the caller while the fleet runs.
+ * <p>
+ * When a timeout is set, the SSH connection of a device that has not
+ * completed the operation in time is closed, and the device gets a
+ * {@link JNCException#TIMEOUT_ERROR}. It has to be connected again before it
+ * can be used.
+ */
+public class DeviceFleet {
+
+    /**
+     * An operation on a single device.
+     */
+    public interface Operation<T> {
+
+        /**
+         * @param device The device to operate on.
+         * @return The result for the device, may be <code>null</code>.
+         */
+        T run(Device device) throws IOException, JNCException;
+    }
+
+    /**
+     * The outcome of running an operation on a fleet of devices. Each device
+     * has either a value or an error, in the order the devices were given.
+     */
+    public static class Result<T> {
+
+        private final Map<Device, T> values = new LinkedHashMap<Device, T>();
+        private final Map<Device, Exception> errors = new LinkedHashMap<Device, Exception>();
+
+        /**
+         * @return The values of the devices on which the operation succeeded.
+         */
+        public Map<Device, T> getValues() {
+            return Collections.unmodifiableMap(values);
+        }
+
+        /**
+         * @return The errors of the devices on which the operation failed.
+         */
+        public Map<Device, Exception> getErrors() {
+            return Collections.unmodifiableMap(errors);
+        }
+
+        /**
+         * @return <code>true</code> if the operation succeeded on all
+         *         devices.
+         */
+        public boolean isSuccess() {
+            return errors.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Result[" + values.size() + " ok, " + errors.size()
+                    + " failed]";
+        }
+    }
+
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final Semaphore permits;
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * Time to wait for an operation on one device, in milliseconds.
+     */
+    private long timeout = 0;
+
+    /**
+     * Creates a fleet with its own pool of threads.
+     *
+     * @param concurrency The maximum number of devices to operate on at the
+     *            same time.
+     */
+    public DeviceFleet(int concurrency) {
+        this(Executors.newFixedThreadPool(concurrency, daemonThreads()),
+                true, concurrency);
+    }
+
+    /**
+     * Creates a fleet that runs operations on an executor owned by the
+     * caller, for instance one that starts a virtual thread per task. The
+     * executor is not shut down by {@link #shutdown()}.
+     *
+     * @param executor The executor to run operations on.
+     * @param concurrency The maximum number of devices to operate on at the
+     *            same time.
+     */
+    public DeviceFleet(ExecutorService executor, int concurrency) {
+        this(executor, false, concurrency);
+    }
+
+    private DeviceFleet(ExecutorService executor, boolean ownExecutor,
+            int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency: " + concurrency);
+        }
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        permits = new Semaphore(concurrency);
+        watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads());
+    }
+
+    private static ThreadFactory daemonThreads() {
+        final ThreadFactory f = Executors.defaultThreadFactory();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = f.newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Sets the time to wait for an operation on one device. The time is
+     * counted from when the operation starts on the device, not from when it
+     * is submitted.
+     *
+     * @param timeout Timeout in milliseconds, 0 means no timeout.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The time to wait for an operation on one device, in
+     *         milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Runs an operation on each device and waits for all of them to
+     * complete.
+     *
+     * @param devices The devices to operate on.
+     * @param op The operation.
+     * @return The value or error of each device.
+     * @throws InterruptedException If the calling thread is interrupted
+     *             while waiting. Operations that have not started are
+     *             cancelled.
+     */
+    public <T> Result<T> run(Collection<? extends Device> devices,
+            final Operation<T> op) throws InterruptedException {
+        final List<Device> order = new ArrayList<Device>(devices);
+        final List<Future<T>> futures = new ArrayList<Future<T>>(order.size());
+        for (final Device device : order) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    permits.acquire();
+                    try {
+                        return runOne(device, op);
+                    } finally {
+                        permits.release();
+                    }
+                }
+            }));
+        }
+        final Result<T> result = new Result<T>();
+        try {
+            for (int i = 0; i < order.size(); i++) {
+                final Device device = order.get(i);
+                try {
+                    result.values.put(device, futures.get(i).get());
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        result.errors.put(device, (Exception) cause);
+                    } else {
+                        result.errors.put(device, e);
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            for (final Future<T> f : futures) {
+                f.cancel(false);
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * State shared between an operation and its watchdog.
+     */
+    private static class Deadline implements Runnable {
+        final Device device;
+        final Thread thread;
+        boolean done = false;
+        boolean expired = false;
+
+        Deadline(Device device, Thread thread) {
+            this.device = device;
+            this.thread = thread;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!done) {
+                expired = true;
+                device.abort();
+                thread.interrupt();
+            }
+        }
+
+        synchronized boolean finish() {
+            done = true;
+            return expired;
+        }
+    }
+
+    private <T> T runOne(Device device, Operation<T> op) throws Exception {
+        final long t = timeout;
+        if (t <= 0) {
+            return op.run(device);
+        }
+        final Deadline deadline = new Deadline(device, Thread.currentThread());
+        final ScheduledFuture<?> f = watchdog.schedule(deadline, t,
+                TimeUnit.MILLISECONDS);
+        boolean expired = false;
+        try {
+            final T value = op.run(device);
+            expired = deadline.finish();
+            if (!expired) {
+                return value;
+            }
+        } catch (final Exception e) {
+            expired = deadline.finish();
+            if (!expired) {
+                throw e;
+            }
+        } finally {
+            f.cancel(false);
+            // clear an interrupt from the watchdog, the thread may be pooled
+            Thread.interrupted();
+        }
+        throw new JNCException(JNCException.TIMEOUT_ERROR, device.name
+                + ": no result within " + t + " ms");
+    }
+
+    /**
+     * SSH connects to each device, see {@link Device#connect(String, int)}.
+     *
+     * @param devices The devices to connect to.
+     * @param localUser The name of a local (for the EMS) user
+     * @param connectTimeout Timeout for the actual connect, in milliseconds.
+     */
+    public Result<Void> connect(Collection<? extends Device> devices,
+            final String localUser, final int connectTimeout)
+            throws InterruptedException {
+        return run(devices, new Operation<Void>() {
+            @Override
+            public Void run(Device device) throws IOException, JNCException {
+                device.connect(localUser, connectTimeout);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Creates a new named NETCONF session on each device, see
+     * {@link Device#newSession(String)}.
+     *
+     * @param devices The devices, which must be connected.
+     * @param sessionName symbolic Name of the session
+     */
+    public Result<Void> newSession(Collection<? extends Device> devices,
+            final String sessionName) throws InterruptedException {
+        return run(devices, new Operation<Void>() {
+            @Override
+            public Void run(Device device) throws IOException, JNCException {
+                device.newSession(sessionName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets the running configuration of each device, see
+     * {@link NetconfSession#getConfig()}.
+     *
+     * @param devices The devices.
+     * @param sessionName symbolic Name of the session to use
+     */
+    public Result<NodeSet> getConfig(Collection<? extends Device> devices,
+            final String sessionName) throws InterruptedException {
+        return run(devices, new Operation<NodeSet>() {
+            @Override
+            public NodeSet run(Device device) throws IOException,
+                    JNCException {
+                return session(device, sessionName).getConfig();
+            }
+        });
+    }
+
+    /**
+     * Fetches the configuration of each device whose config tree is stale,
+     * see {@link Device#refreshConfig(String, long)}. Devices started from
+     * their stored trees can be refreshed like this in the background.
+     *
+     * @param devices The devices.
+     * @param sessionName symbolic Name of the session to use
+     * @param maxAge Age in milliseconds, 0 to fetch all.
+     * @return For each device, whether its configuration was fetched.
+     */
+    public Result<Boolean> refreshConfig(
+            Collection<? extends Device> devices, final String sessionName,
+            final long maxAge) throws InterruptedException {
+        return run(devices, new Operation<Boolean>() {
+            @Override
+            public Boolean run(Device device) throws IOException,
+                    JNCException {
+                return device.refreshConfig(sessionName, maxAge);
+            }
+        });
+    }
+
+    /**
+     * Edits the configuration of each device, see
+     * {@link NetconfSession#editConfig(Element)}. Each device is sent its own
+     * copy of the configuration tree.
+     *
+     * @param devices The devices.
+     * @param sessionName symbolic Name of the session to use
+     * @param configTree Configuration tree to send to each device.
+     */
+    public Result<Void> editConfig(Collection<? extends Device> devices,
+            final String sessionName, Element configTree)
+            throws InterruptedException {
+        final Element tree = (Element) configTree.clone();
+        return run(devices, new Operation<Void>() {
+            @Override
+            public Void run(Device device) throws IOException, JNCException {
+                final Element copy;
+                synchronized (tree) {
+                    copy = (Element) tree.clone();
+                }
+                session(device, sessionName).editConfig(copy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Commits the candidate configuration of each device, see
+     * {@link NetconfSession#commit()}.
+     *
+     * @param devices The devices.
+     * @param sessionName symbolic Name of the session to use
+     */
+    public Result<Void> commit(Collection<? extends Device> devices,
+            final String sessionName) throws InterruptedException {
+        return run(devices, new Operation<Void>() {
+            @Override
+            public Void run(Device device) throws IOException, JNCException {
+                session(device, sessionName).commit();
+                return null;
+            }
+        });
+    }
+
+    private static NetconfSession session(Device device, String sessionName)
+            throws JNCException {
+        final NetconfSession session = device.getSession(sessionName);
+        if (session == null) {
+            throw new YangException(YangException.BAD_SESSION_NAME,
+                    sessionName);
+        }
+        return session;
+    }
+
+    /**
+     * Stops the threads of this fleet. Operations in progress are completed.
+     * An executor given to the constructor is left running.
+     */
+    public void shutdown() {
+        watchdog.shutdown();
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,466 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects configuration changes and sends them to a session in as few
+ * <code>edit-config</code>s as possible, instead of one per change:
+ *
+ * <pre>
+ * EditBatcher batch = new EditBatcher(session, NetconfSession.CANDIDATE);
+ * for (Host h : hosts) {
+ *     batch.add(h.toConfigTree());
+ * }
+ * batch.commit(); // one edit-config and a commit
+ * </pre>
+ *
+ * The changes are combined into as few trees as possible, with the same node
+ * written once: two elements are the same node when they have the same
+ * namespace and name, and the same keys for list entries of generated
+ * classes. A change that cannot be combined with the changes before it,
+ * such as one that sets a leaf already set in the batch to another value,
+ * starts a new <code>edit-config</code>, so that it is applied after them as
+ * if it had been sent on its own. See {@link EditMerger}.
+ * <p>
+ * The batch is sent when it holds a maximum number of changes, when the
+ * oldest change has waited a maximum time, if one is set, and by
+ * {@link #flush()} and {@link #commit()}. If the server replies with errors,
+ * the changes that each error is about are found from its
+ * <code>error-path</code>, see {@link #getFailures()}, and the
+ * <code>edit-config</code>s after the failed one are not sent, see
+ * {@link #getUnsent()}.
+ * <p>
+ * While a maximum time is set, batches may be sent from a timer thread.
+ * The session must then only be used through the batcher, or while holding
+ * its lock. An error in a batch sent by the timer is thrown by the next call
+ * to the batcher.
+ */
+public class EditBatcher {
+
+    /**
+     * An error in a reply to a batch, and the changes it is about.
+     */
+    public static class Failure {
+        private final RpcError error;
+        private final List<Element> edits;
+
+        Failure(RpcError error, List<Element> edits) {
+            this.error = error;
+            this.edits = edits;
+        }
+
+        /**
+         * @return The error.
+         */
+        public RpcError getError() {
+            return error;
+        }
+
+        /**
+         * @return Copies of the changes, as they were added, that contain
+         *         the deepest part of the error path found in any change of
+         *         the batch. Empty if the error has no path, or no change
+         *         contains it.
+         */
+        public List<Element> getEdits() {
+            return edits;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure[" + error.errorPath + ", " + edits.size()
+                    + " edits]";
+        }
+    }
+
+    private final NetconfSession session;
+    private final int datastore;
+    private int maxEdits = 1000;
+    private long maxDelay = 0;
+
+    /**
+     * Copies of the changes as added, and the edit-configs they are
+     * combined into, in order.
+     */
+    private final List<Element> edits = new ArrayList<Element>();
+    private final List<EditMerger> batches = new ArrayList<EditMerger>();
+
+    private List<Failure> failures = Collections.emptyList();
+    private List<Element> unsent = Collections.emptyList();
+
+    private ScheduledExecutorService timer = null;
+    private ScheduledFuture<?> due = null;
+    private Exception deferred = null;
+
+    /**
+     * Creates a batcher that edits the running datastore.
+     *
+     * @param session The session to send the changes to.
+     */
+    public EditBatcher(NetconfSession session) {
+        this(session, NetconfSession.RUNNING);
+    }
+
+    /**
+     * Creates a batcher.
+     *
+     * @param session The session to send the changes to.
+     * @param datastore The target datastore. One of
+     *            {@link NetconfSession#RUNNING},
+     *            {@link NetconfSession#CANDIDATE},
+     *            {@link NetconfSession#STARTUP}
+     */
+    public EditBatcher(NetconfSession session, int datastore) {
+        this.session = session;
+        this.datastore = datastore;
+    }
+
+    /**
+     * Sets the number of changes at which the batch is sent.
+     *
+     * @param maxEdits Number of changes, 1000 by default.
+     */
+    public synchronized void setMaxEdits(int maxEdits) {
+        if (maxEdits < 1) {
+            throw new IllegalArgumentException("maxEdits: " + maxEdits);
+        }
+        this.maxEdits = maxEdits;
+    }
+
+    /**
+     * Sets the longest time a change waits before the batch is sent.
+     *
+     * @param maxDelay Time in milliseconds, 0 (the default) to wait for the
+     *            batch to fill up or be flushed.
+     */
+    public synchronized void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+        if (maxDelay > 0 && timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "jnc-edit-batcher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds a change to the batch. The tree is copied, it may be modified
+     * or added again by the caller.
+     *
+     * @param edit A configuration tree, possibly with operation attributes.
+     * @throws JNCException If the batch is sent and the server replies with
+     *             an error, or a batch sent by the timer failed.
+     */
+    public synchronized void add(Element edit) throws IOException,
+            JNCException {
+        rethrow();
+        edits.add((Element) edit.clone());
+        final Element copy = (Element) edit.clone();
+        if (batches.isEmpty() || !batches.get(batches.size() - 1).add(copy)) {
+            final EditMerger batch = new EditMerger();
+            batch.add(copy);
+            batches.add(batch);
+        }
+        if (edits.size() >= maxEdits) {
+            send();
+        } else if (maxDelay > 0 && due == null) {
+            due = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (EditBatcher.this) {
+                        due = null;
+                        try {
+                            send();
+                        } catch (final IOException e) {
+                            deferred = e;
+                        } catch (final JNCException e) {
+                            deferred = e;
+                        }
+                    }
+                }
+            }, maxDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds each tree of a node set as a change.
+     *
+     * @param edits Configuration trees.
+     */
+    public synchronized void add(NodeSet edits) throws IOException,
+            JNCException {
+        for (final Element edit : edits) {
+            add(edit);
+        }
+    }
+
+    /**
+     * Sends the changes in the batch, if any.
+     *
+     * @throws JNCException If the server replies with an error, see
+     *             {@link #getFailures()} and {@link #getUnsent()}. The batch
+     *             is emptied either way.
+     */
+    public synchronized void flush() throws IOException, JNCException {
+        rethrow();
+        send();
+    }
+
+    /**
+     * Sends the changes in the batch, then commits the candidate datastore.
+     */
+    public synchronized void commit() throws IOException, JNCException {
+        flush();
+        session.commit();
+    }
+
+    /**
+     * @return The number of changes not sent yet.
+     */
+    public synchronized int size() {
+        return edits.size();
+    }
+
+    /**
+     * @return The errors of the last batch sent, if the server replied with
+     *         errors.
+     */
+    public synchronized List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return Copies of the changes, as they were added, that were not sent
+     *         because an earlier <code>edit-config</code> of the last batch
+     *         failed.
+     */
+    public synchronized List<Element> getUnsent() {
+        return unsent;
+    }
+
+    /**
+     * Stops the timer, if any. Changes not sent yet stay in the batch.
+     */
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+            due = null;
+            maxDelay = 0;
+        }
+    }
+
+    private void rethrow() throws IOException, JNCException {
+        final Exception e = deferred;
+        if (e != null) {
+            deferred = null;
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw (JNCException) e;
+        }
+    }
+
+    private void send() throws IOException, JNCException {
+        if (due != null) {
+            due.cancel(false);
+            due = null;
+        }
+        if (edits.isEmpty()) {
+            return;
+        }
+        final List<Element> sending = new ArrayList<Element>(edits);
+        final List<EditMerger> configs = new ArrayList<EditMerger>(batches);
+        edits.clear();
+        batches.clear();
+        failures = Collections.emptyList();
+        unsent = Collections.emptyList();
+        trace("sending ", sending.size(), " edits in ", configs.size(),
+                " edit-configs");
+        int done = 0;
+        for (final EditMerger config : configs) {
+            final List<Element> batch = sending.subList(done, done
+                    + config.size());
+            done += config.size();
+            try {
+                session.editConfig(datastore, config.getTrees());
+            } catch (final JNCException e) {
+                failures = attribute(e, batch);
+                unsent = rest(sending, done);
+                throw e;
+            } catch (final IOException e) {
+                unsent = rest(sending, done);
+                throw e;
+            }
+        }
+    }
+
+    private static List<Element> rest(List<Element> edits, int from) {
+        return Collections.unmodifiableList(new ArrayList<Element>(edits
+                .subList(from, edits.size())));
+    }
+
+    /* error attribution */
+
+    private static List<Failure> attribute(JNCException e, List<Element> batch) {
+        final RpcError[] errors = e.getRpcErrors();
+        if (errors == null) {
+            return Collections.emptyList();
+        }
+        final List<Failure> result = new ArrayList<Failure>(errors.length);
+        for (final RpcError error : errors) {
+            final List<Element> blamed = new ArrayList<Element>();
+            if (error.errorPath != null) {
+                final List<String[]> steps = steps(error.errorPath.trim());
+                int best = 1;
+                for (final Element edit : batch) {
+                    final int depth = depth(edit, steps, 0);
+                    if (depth > best) {
+                        best = depth;
+                        blamed.clear();
+                    }
+                    if (depth == best) {
+                        blamed.add(edit);
+                    }
+                }
+            }
+            trace("error at ", error.errorPath, " in ", blamed.size(),
+                    " edits");
+            result.add(new Failure(error, Collections.unmodifiableList(blamed)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Splits an error path into steps, each a local name followed by the
+     * local names and values of its key predicates.
+     */
+    static List<String[]> steps(String path) {
+        final List<String> parts = new ArrayList<String>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == '/' && depth == 0) {
+                if (i > start) {
+                    parts.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        if (start < path.length()) {
+            parts.add(path.substring(start));
+        }
+        final List<String[]> steps = new ArrayList<String[]>(parts.size());
+        for (final String part : parts) {
+            final List<String> step = new ArrayList<String>();
+            final int b = part.indexOf('[');
+            step.add(localName(b < 0 ? part : part.substring(0, b)));
+            int p = b;
+            while (p >= 0) {
+                final int end = predicateEnd(part, p);
+                final String pred = part.substring(p + 1, end);
+                final int eq = pred.indexOf('=');
+                if (eq > 0) {
+                    step.add(localName(pred.substring(0, eq)));
+                    step.add(unquote(pred.substring(eq + 1).trim()));
+                }
+                p = part.indexOf('[', end);
+            }
+            steps.add(step.toArray(new String[step.size()]));
+        }
+        return steps;
+    }
+
+    private static int predicateEnd(String s, int from) {
+        char quote = 0;
+        for (int i = from + 1; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ']') {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    private static String localName(String qname) {
+        final String s = qname.trim();
+        final int colon = s.indexOf(':');
+        return colon < 0 ? s : s.substring(colon + 1);
+    }
+
+    private static String unquote(String s) {
+        if (s.length() >= 2
+                && (s.charAt(0) == '\'' || s.charAt(0) == '"')
+                && s.charAt(s.length() - 1) == s.charAt(0)) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    /**
+     * Returns how many steps of a path, from step i, an element and its
+     * descendants contain.
+     */
+    private static int depth(Element e, List<String[]> steps, int i) {
+        if (i >= steps.size()) {
+            return i;
+        }
+        final String[] step = steps.get(i);
+        if (!e.name.equals(step[0])) {
+            return i;
+        }
+        for (int k = 1; k + 1 < step.length; k += 2) {
+            final Element key = e.getChild(step[k]);
+            if (key == null || key.value == null
+                    || !key.value.toString().equals(step[k + 1])) {
+                return i;
+            }
+        }
+        int best = i + 1;
+        if (e.children != null) {
+            for (final Element child : e.children) {
+                best = Math.max(best, depth(child, steps, i + 1));
+            }
+        }
+        return best;
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "EditBatcher", msg);
+    }
+}
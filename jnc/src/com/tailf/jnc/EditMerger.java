@@ -0,0 +1,290 @@
+package com.tailf.jnc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Combines configuration trees into as few trees as possible, to be sent in
+ * one <code>edit-config</code> with the same effect as sending them one
+ * after the other.
+ * <p>
+ * Two elements are the same node if they have the same namespace and name
+ * and, for list entries of generated classes, the same keys. The same node
+ * is never written twice: the children of a second occurrence are combined
+ * into the first, and an identical leaf is dropped. A leaf with a new value
+ * is added next to the old one only if it is a leaf-list entry, that is if
+ * there are several leaves of that name in either tree.
+ * <p>
+ * A tree that cannot be combined this way without changing what it does,
+ * because it sets a leaf to another value, has other attributes on the same
+ * node (such as another operation), or is under a node with an operation
+ * other than merge that is not identical, is refused by {@link #add(Element)}
+ * and has to be sent in an edit-config of its own, after the combined trees.
+ */
+class EditMerger {
+
+    private final NodeSet trees = new NodeSet();
+    private int size = 0;
+
+    /**
+     * The children of each element, by {@link #identity(Element)}. The top
+     * level is under <code>trees</code>.
+     */
+    private final IdentityHashMap<Object, HashMap<String, List<Element>>> index = new IdentityHashMap<Object, HashMap<String, List<Element>>>();
+
+    /**
+     * Splits trees into groups that are each combined into one edit-config,
+     * keeping their order. The trees are not modified.
+     *
+     * @param trees Configuration trees, oldest first.
+     */
+    static List<EditMerger> batches(List<Element> trees) {
+        final List<EditMerger> batches = new ArrayList<EditMerger>();
+        EditMerger m = new EditMerger();
+        for (final Element tree : trees) {
+            final Element copy = (Element) tree.clone();
+            if (!m.add(copy)) {
+                batches.add(m);
+                m = new EditMerger();
+                m.add(copy);
+            }
+        }
+        if (m.size() > 0) {
+            batches.add(m);
+        }
+        return batches;
+    }
+
+    /**
+     * Combines a tree with the trees added before, unless it conflicts with
+     * them. The tree is taken over, and must not be modified by the caller
+     * afterwards.
+     *
+     * @return <code>false</code> if the tree conflicts, nothing is changed
+     *         then.
+     */
+    boolean add(Element tree) {
+        if (!fits(trees, trees, tree, null)) {
+            return false;
+        }
+        put(trees, trees, tree, null);
+        size++;
+        return true;
+    }
+
+    /**
+     * @return The combined trees.
+     */
+    NodeSet getTrees() {
+        return trees;
+    }
+
+    /**
+     * @return The number of trees added.
+     */
+    int size() {
+        return size;
+    }
+
+    private HashMap<String, List<Element>> children(Object owner,
+            List<Element> siblings) {
+        HashMap<String, List<Element>> byIdentity = index.get(owner);
+        if (byIdentity == null) {
+            byIdentity = new HashMap<String, List<Element>>();
+            if (siblings != null) {
+                for (final Element s : siblings) {
+                    index(byIdentity, s);
+                }
+            }
+            index.put(owner, byIdentity);
+        }
+        return byIdentity;
+    }
+
+    private static void index(HashMap<String, List<Element>> byIdentity,
+            Element e) {
+        final String id = identity(e);
+        List<Element> same = byIdentity.get(id);
+        if (same == null) {
+            same = new ArrayList<Element>(1);
+            byIdentity.put(id, same);
+        }
+        same.add(e);
+    }
+
+    /**
+     * Checks if an element can be combined with the children of owner.
+     *
+     * @param incoming The siblings of e in its own tree.
+     */
+    private boolean fits(Object owner, List<Element> siblings, Element e,
+            List<Element> incoming) {
+        final List<Element> same = children(owner, siblings).get(identity(e));
+        if (same == null) {
+            return true;
+        }
+        if (isLeaf(e)) {
+            for (final Element m : same) {
+                if (deepEquals(m, e)) {
+                    return true;
+                }
+            }
+            return isLeafList(siblings, e) || isLeafList(incoming, e);
+        }
+        final Element m = same.get(0);
+        if (!sameAttrs(m, e) || !sameValue(m, e)) {
+            return false;
+        }
+        if (!isMerge(e)) {
+            return deepEquals(m, e);
+        }
+        for (final Element child : e.children) {
+            if (!fits(m, m.children, child, e.children)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Combines an element that {@link #fits} with the children of owner.
+     */
+    private void put(Object owner, List<Element> siblings, Element e,
+            List<Element> incoming) {
+        final HashMap<String, List<Element>> byIdentity = children(owner,
+                siblings);
+        final List<Element> same = byIdentity.get(identity(e));
+        if (same != null) {
+            if (isLeaf(e)) {
+                for (final Element m : same) {
+                    if (deepEquals(m, e)) {
+                        return;
+                    }
+                }
+                // a new leaf-list entry
+            } else {
+                final Element m = same.get(0);
+                mergePrefixes(m, e);
+                if (isMerge(e)) {
+                    for (final Element child : new ArrayList<Element>(
+                            e.children)) {
+                        put(m, m.children, child, e.children);
+                    }
+                }
+                return;
+            }
+        }
+        if (owner == trees) {
+            e.parent = null;
+            trees.add(e);
+        } else {
+            ((Element) owner).addChild(e);
+        }
+        index(byIdentity, e);
+    }
+
+    /**
+     * What two elements must have in common to be the same node.
+     */
+    static String identity(Element e) {
+        final StringBuilder s = new StringBuilder();
+        s.append(e.namespace).append(' ').append(e.name);
+        if (e instanceof YangElement) {
+            final String[] keys = ((YangElement) e).keyNames();
+            if (keys != null) {
+                for (final String key : keys) {
+                    final Element k = e.getChild(key);
+                    s.append('[').append(k != null ? k.value : null)
+                            .append(']');
+                }
+            }
+        }
+        return s.toString();
+    }
+
+    private static boolean isLeaf(Element e) {
+        return e.children == null || e.children.isEmpty();
+    }
+
+    /**
+     * Checks if there are several leaves with the name of e among siblings.
+     */
+    private static boolean isLeafList(List<Element> siblings, Element e) {
+        if (siblings == null) {
+            return false;
+        }
+        int n = 0;
+        for (final Element s : siblings) {
+            if (isLeaf(s) && s.name.equals(e.name)
+                    && s.namespace.equals(e.namespace) && ++n > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the children of an element can be combined with those of
+     * the same node, which is the case without an operation and for merge.
+     */
+    private static boolean isMerge(Element e) {
+        final Attribute op = e.getAttr(Element.OPERATION);
+        return op == null || "merge".equals(op.getValue());
+    }
+
+    private static boolean sameValue(Element a, Element b) {
+        return a.value == null ? b.value == null : b.value != null
+                && a.value.toString().equals(b.value.toString());
+    }
+
+    private static List<String> attrs(Element e) {
+        if (e.attrs == null || e.attrs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> attrs = new ArrayList<String>(e.attrs.size());
+        for (final Attribute a : e.attrs) {
+            attrs.add(a.ns + " " + a.name + "=" + a.value);
+        }
+        Collections.sort(attrs);
+        return attrs;
+    }
+
+    private static boolean sameAttrs(Element a, Element b) {
+        return attrs(a).equals(attrs(b));
+    }
+
+    static boolean deepEquals(Element a, Element b) {
+        if (!a.name.equals(b.name) || !a.namespace.equals(b.namespace)
+                || !sameValue(a, b) || !sameAttrs(a, b)) {
+            return false;
+        }
+        final int n = a.children == null ? 0 : a.children.size();
+        if (n != (b.children == null ? 0 : b.children.size())) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (!deepEquals(a.children.getElement(i), b.children
+                    .getElement(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void mergePrefixes(Element into, Element from) {
+        if (from.prefixes == null) {
+            return;
+        }
+        if (into.prefixes == null) {
+            into.prefixes = from.prefixes;
+        } else {
+            if (into.prefixes.isImmutable()) {
+                into.prefixes = into.prefixes.clone();
+            }
+            into.prefixes.merge(from.prefixes);
+        }
+    }
+}
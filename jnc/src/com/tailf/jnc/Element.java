@@ -98,6 +98,12 @@ public class Element implements Serializable {
      */
     protected Element parent = null;
 
+    /**
+     * Set if this node, or a node below it, has cached its prefix. The
+     * nodes above a node with this flag have it as well.
+     */
+    transient boolean prefixCached = false;
+
     /**
      * Constructor that creates a new element tree. An element consists of a
      * name that belongs to a namespace.
@@ -173,7 +179,7 @@ public class Element implements Serializable {
      */
     public static Element create(PrefixMap prefixMap, String pathStr)
             throws JNCException {
-        trace("create: \"" + pathStr + "\"");
+        trace("create: \"", pathStr, "\"");
         final PathCreate path = new PathCreate(pathStr);
         final Element t = path.eval(prefixMap);
         t.setPrefix(prefixMap);
@@ -356,7 +362,7 @@ public class Element implements Serializable {
      */
     public Element createPath(int mode, PrefixMap addPrefixes, String pathStr)
             throws JNCException {
-        trace("createPath: \"" + pathStr + "\"");
+        trace("createPath: \"", pathStr, "\"");
         final PathCreate path = new PathCreate(pathStr);
         if (addPrefixes != null) {
             setPrefix(addPrefixes);
@@ -454,8 +460,11 @@ public class Element implements Serializable {
     public void setPrefix(PrefixMap prefixMap) {
         if (prefixes == null) {
             prefixes = new PrefixMap();
+        } else if (prefixes.isImmutable()) {
+            prefixes = prefixes.clone();
         }
         prefixes.set(prefixMap);
+        prefixScopeChanged();
     }
 
     /**
@@ -465,7 +474,32 @@ public class Element implements Serializable {
         if (prefixes == null) {
             return;
         }
+        if (prefixes.isImmutable()) {
+            if (prefixes.indexOfName(prefix) < 0) {
+                return;
+            }
+            prefixes = prefixes.clone();
+        }
         prefixes.remove(prefix);
+        prefixScopeChanged();
+    }
+
+    /**
+     * Drops the prefixes cached in this subtree, whose prefix mappings in
+     * scope have changed, as the node got other mappings or another parent.
+     */
+    void prefixScopeChanged() {
+        if (prefixCached) {
+            prefixCached = false;
+            // children not parsed yet have no prefixes cached
+            if (children != null
+                    && !(children instanceof LazyNodeSet && !((LazyNodeSet) children)
+                            .isLoaded())) {
+                for (final Element child : children) {
+                    child.prefixScopeChanged();
+                }
+            }
+        }
     }
 
     /* Parent and Children */
@@ -491,6 +525,7 @@ public class Element implements Serializable {
 
         children.add(child);
         child.parent = this;
+        child.prefixScopeChanged();
     }
 
     /**
@@ -529,6 +564,7 @@ public class Element implements Serializable {
         }
 
         child.parent = this;
+        child.prefixScopeChanged();
         children.add(index, child);
         return children.indexOf(child);
     }
@@ -552,6 +588,7 @@ public class Element implements Serializable {
         }
 
         child.parent = this;
+        child.prefixScopeChanged();
 
         int pos = 0;
         int i = 0;
@@ -644,6 +681,7 @@ public class Element implements Serializable {
             if (child == children.getElement(i)) {
                 children.remove(i);
                 child.parent = null;
+                child.prefixScopeChanged();
                 break;
             }
         }
@@ -722,7 +760,7 @@ public class Element implements Serializable {
      * @return The configuration attribute.
      */
     public Attribute setAttr(String name, String value) {
-        trace("setAttr: " + name + "=\"" + value + "\"");
+        trace("setAttr: ", name, "=\"", value, "\"");
         if (name.equals("xmlns")) {
             // it's an xmlns attribute - treat this as a prefix map
             final Prefix p = new Prefix("", value);
@@ -762,7 +800,7 @@ public class Element implements Serializable {
      * @return The configuration attribute.
      */
     public Attribute setAttr(String ns, String name, String value) {
-        trace("setAttr: (" + ns + ") " + name + "=\"" + value + "\"");
+        trace("setAttr: (", ns, ") ", name, "=\"", value, "\"");
         if (name.startsWith("xmlns") && ns.startsWith(Prefix.XMLNS_NAMESPACE)) {
             return setAttr(name, value);
         }
@@ -797,7 +835,7 @@ public class Element implements Serializable {
             for (int i = 0; i < attrs.size(); i++) {
                 final Attribute attr = attrs.get(i);
                 if (attr.name.equals(name)) {
-                    trace("removeAttr: " + name);
+                    trace("removeAttr: ", name);
                     attrs.remove(i);
                     return;
                 }
@@ -817,7 +855,7 @@ public class Element implements Serializable {
             for (int i = 0; i < attrs.size(); i++) {
                 final Attribute attr = attrs.get(i);
                 if (attr.name.equals(name) && attr.ns.equals(namespace)) {
-                    trace("removeAttr: (" + namespace + ") " + name);
+                    trace("removeAttr: (", namespace, ") ", name);
                     attrs.remove(i);
                 }
             }
@@ -921,7 +959,7 @@ public class Element implements Serializable {
      * @param value Value to be set
      */
     public void setValue(Object value) {
-        trace("setValue: " + name + "=\"" + value + "\"");
+        trace("setValue: ", name, "=\"", value, "\"");
         this.value = value;
     }
 
@@ -1267,7 +1305,7 @@ public class Element implements Serializable {
         }
         // copy xmlns attrs
         if (prefixes != null) {
-            copy.prefixes = (PrefixMap) prefixes.clone();
+            copy.prefixes = prefixes.clone();
         }
         return copy;
     }
@@ -1446,6 +1484,12 @@ public class Element implements Serializable {
      * @return The prefix name that the namespace of this element is bound to
      */
     public String prefix() {
+        if (prefixes == null && parent != null && namespace != null
+                && namespace.equals(parent.namespace)) {
+            // same scope and namespace as the parent, which may have its
+            // prefix cached
+            return parent.prefix();
+        }
         return nsToPrefix(namespace);
     }
 
@@ -1807,7 +1851,13 @@ public class Element implements Serializable {
                 attr.encode(out, this);
             }
         }
-        if (hasChildren()) {
+        final String verbatim = children instanceof LazyNodeSet
+                ? ((LazyNodeSet) children).verbatim() : null;
+        if (verbatim != null) {
+            // children not built yet, copy them as they were received
+            out.println(">");
+            out.print(verbatim);
+        } else if (hasChildren()) {
             // add children elements if any
             out.println(">");
             for (final Element child : children) {
@@ -1845,6 +1895,22 @@ public class Element implements Serializable {
         return tp;
     }
 
+    /**
+     * Resolves the schema index entry for this element by walking down from
+     * the root of the index along the names of the parents. Subclasses that
+     * are encoded with revision checks cache the result, so that children
+     * only need a single trie step from their parent.
+     *
+     * @param index The schema index of the namespace to search.
+     * @return The entry with the same tagpath as this element, or
+     *         <code>null</code> if there is none.
+     */
+    SchemaIndex.Entry schemaEntry(SchemaIndex index) {
+        final SchemaIndex.Entry pe = (parent == null) ? index.root
+                : parent.schemaEntry(index);
+        return pe == null ? null : pe.child(name);
+    }
+
     /**
      * Return an iterator for the children of this node.
      * 
@@ -1904,33 +1970,33 @@ public class Element implements Serializable {
 
     /**
      * Sets the debug level. 0 - no debug 1 - Element level: Element, Attribute
-     * 2 - Session level: 3 - Parser level: Path, PathCreate, LocationStep,
-     * Expr 4 - Other: Prefix, PrefixMap
-     */
-    static final int DEBUG_LEVEL_ELEMENT = 1;
-    static final int DEBUG_LEVEL_ATTRIBUTE = 1;
-    static final int DEBUG_LEVEL_SESSION = 2;
-    static final int DEBUG_LEVEL_TRANSPORT = 2;
-    static final int DEBUG_LEVEL_PATH = 3;
-    static final int DEBUG_LEVEL_PATHCREATE = 3;
-    static final int DEBUG_LEVEL_EXPR = 3;
-    static final int DEBUG_LEVEL_LOCATIONSTEP = 3;
-    static final int DEBUG_LEVEL_PARSER = 3;
-    static final int DEBUG_LEVEL_PREFIX = 4;
-    static final int DEBUG_LEVEL_PREFIXMAP = 4;
-
+     * 2 - Session level: NetconfSession and transports 3 - Parser level: Path,
+     * PathCreate, LocationStep, Expr, XMLParser 4 - Other: Prefix, PrefixMap
+     * <p>
+     * Replaces the subsystems traced, see {@link Trace}, which can also
+     * enable subsystems one by one.
+     */
     public static void setDebugLevel(int level) {
-        debugLevel = level;
+        int subsystems = 0;
+        if (level >= 1) {
+            subsystems |= Trace.ELEMENT;
+        }
+        if (level >= 2) {
+            subsystems |= Trace.SESSION | Trace.TRANSPORT;
+        }
+        if (level >= 3) {
+            subsystems |= Trace.PATH | Trace.PARSER;
+        }
+        if (level >= 4) {
+            subsystems |= Trace.PREFIX;
+        }
+        Trace.set(subsystems);
     }
 
-    static int debugLevel = 0;
-
     /**
      * Printout trace if 'debug'-flag is enabled.
      */
-    private static void trace(String s) {
-        if (debugLevel >= DEBUG_LEVEL_ELEMENT) {
-            System.err.println("*Element: " + s);
-        }
+    private static void trace(Object... msg) {
+        Trace.log(Trace.ELEMENT, "Element", msg);
     }
 }
@@ -0,0 +1,590 @@
+package com.tailf.jnc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A compact binary form of {@link Element} trees, for storing configuration
+ * trees on disk or sending them to another process. It is much smaller and
+ * faster to write and read than both XML and Java serialization.
+ * <p>
+ * The classes of the elements are kept, so a tree of classes generated by
+ * the JNC pyang plugin is read back as the same classes, with the children
+ * added through their <code>add</code> methods as when the tree is parsed
+ * by a {@link YangXMLParser}. Leaf values of the
+ * built-in YANG integer and boolean types are stored in binary, other
+ * {@link YangType} values as their string form.
+ * <p>
+ * The format starts with a string table holding every string of the tree
+ * once. The tree follows in document order, with all counts and string
+ * references as unsigned variable-length integers (7 bits per byte, least
+ * significant first). String references and counts are stored plus one, so
+ * that 0 means <code>null</code>:
+ *
+ * <pre>
+ * int     magic "JNCE"
+ * varint  version
+ * varint  number of strings, then for each: varint length, UTF-8 bytes
+ * node:
+ *   varint  kind: 0 Element, 1 Leaf, 2 other class followed by its name
+ *   varint  namespace, name
+ *   varint  number of prefixes, then for each: name, namespace
+ *   varint  number of attributes, then for each: namespace, name, value
+ *   byte    value type, then the value
+ *   varint  number of children, then each child node
+ * </pre>
+ */
+public class ElementCodec {
+
+    private static final int MAGIC = 0x4A4E4345; // "JNCE"
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int ELEMENT = 0;
+    private static final int LEAF = 1;
+    private static final int CLASS = 2;
+
+    // value types
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INT8 = 2;
+    private static final int INT16 = 3;
+    private static final int INT32 = 4;
+    private static final int INT64 = 5;
+    private static final int UINT8 = 6;
+    private static final int UINT16 = 7;
+    private static final int UINT32 = 8;
+    private static final int BOOLEAN = 9;
+    private static final int YANG_STRING = 10;
+    private static final int DECIMAL64 = 11;
+    private static final int YANG_TYPE = 12;
+
+    private ElementCodec() {
+    }
+
+    /**
+     * Encodes a tree.
+     *
+     * @param tree The root of the tree. Its parent is not encoded.
+     * @return The encoded tree.
+     * @throws IOException If the tree has a value that cannot be encoded: a
+     *             value that is not a String or a {@link YangType} with a
+     *             constructor from String.
+     */
+    public static byte[] encode(Element tree) throws IOException {
+        final Writer w = new Writer();
+        w.node(tree);
+
+        final Buffer out = new Buffer(w.nodes.length + 16 * w.strings.size()
+                + 16);
+        out.int32(MAGIC);
+        out.varint(VERSION);
+        out.varint(w.strings.size());
+        for (final String s : w.strings) {
+            final byte[] b = s.getBytes(UTF8);
+            out.varint(b.length);
+            out.bytes(b, 0, b.length);
+        }
+        out.bytes(w.nodes.buf, 0, w.nodes.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a tree to a stream.
+     *
+     * @param tree The root of the tree.
+     * @param out Stream to write to. Not closed by this method.
+     * @throws IOException If writing fails, or as {@link #encode(Element)}.
+     */
+    public static void write(Element tree, OutputStream out)
+            throws IOException {
+        out.write(encode(tree));
+    }
+
+    /**
+     * Decodes a tree.
+     *
+     * @param b The encoded tree.
+     * @return The root of the tree.
+     * @throws JNCException If b does not hold an encoded tree, or it has
+     *             elements or values that cannot be created.
+     */
+    public static Element decode(byte[] b) throws JNCException {
+        try {
+            return new Reader(b).tree();
+        } catch (final RuntimeException e) {
+            // ArrayIndexOutOfBoundsException, ClassCastException, ...
+            throw new JNCException(JNCException.PARSER_ERROR,
+                    "corrupt binary tree: " + e);
+        }
+    }
+
+    /**
+     * Reads an encoded tree from a stream, up to its end.
+     *
+     * @param in Stream to read from. Not closed by this method.
+     * @return The root of the tree.
+     * @throws IOException If reading fails.
+     * @throws JNCException As {@link #decode(byte[])}.
+     */
+    public static Element read(InputStream in) throws IOException,
+            JNCException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] b = new byte[8192];
+        int n;
+        while ((n = in.read(b)) > 0) {
+            bytes.write(b, 0, n);
+        }
+        return decode(bytes.toByteArray());
+    }
+
+    /**
+     * A growable byte array.
+     */
+    private static class Buffer {
+        byte[] buf;
+        int length = 0;
+
+        Buffer(int size) {
+            buf = new byte[size];
+        }
+
+        private void ensure(int n) {
+            if (length + n > buf.length) {
+                final byte[] b = new byte[Math.max(buf.length * 2, length + n)];
+                System.arraycopy(buf, 0, b, 0, length);
+                buf = b;
+            }
+        }
+
+        void byte8(int v) {
+            ensure(1);
+            buf[length++] = (byte) v;
+        }
+
+        void int32(int v) {
+            ensure(4);
+            buf[length++] = (byte) (v >>> 24);
+            buf[length++] = (byte) (v >>> 16);
+            buf[length++] = (byte) (v >>> 8);
+            buf[length++] = (byte) v;
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[length++] = (byte) v;
+        }
+
+        void bytes(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, length, len);
+            length += len;
+        }
+
+        byte[] toByteArray() {
+            if (length == buf.length) {
+                return buf;
+            }
+            final byte[] b = new byte[length];
+            System.arraycopy(buf, 0, b, 0, length);
+            return b;
+        }
+    }
+
+    /**
+     * Encodes the nodes of a tree and collects its strings.
+     */
+    private static class Writer {
+        final Buffer nodes = new Buffer(4096);
+        final ArrayList<String> strings = new ArrayList<String>();
+        final HashMap<String, Integer> index = new HashMap<String, Integer>();
+        final HashMap<Class<?>, Boolean> parsable = new HashMap<Class<?>, Boolean>();
+
+        void ref(String s) {
+            if (s == null) {
+                nodes.varint(0);
+                return;
+            }
+            Integer i = index.get(s);
+            if (i == null) {
+                i = strings.size();
+                strings.add(s);
+                index.put(s, i);
+            }
+            nodes.varint(i + 1);
+        }
+
+        void node(Element e) throws IOException {
+            final Class<?> c = e.getClass();
+            if (c == Element.class) {
+                nodes.varint(ELEMENT);
+            } else if (c == Leaf.class) {
+                nodes.varint(LEAF);
+            } else {
+                nodes.varint(CLASS);
+                ref(c.getName());
+            }
+            ref(e.namespace);
+            ref(e.name);
+            if (e.prefixes == null) {
+                nodes.varint(0);
+            } else {
+                nodes.varint(e.prefixes.size() + 1);
+                for (final Prefix p : e.prefixes) {
+                    ref(p.name);
+                    ref(p.value);
+                }
+            }
+            if (e.attrs == null) {
+                nodes.varint(0);
+            } else {
+                nodes.varint(e.attrs.size() + 1);
+                for (final Attribute a : e.attrs) {
+                    ref(a.ns);
+                    ref(a.name);
+                    ref(a.value);
+                }
+            }
+            value(e.value);
+            if (e.children == null) {
+                nodes.varint(0);
+            } else {
+                nodes.varint(e.children.size() + 1);
+                for (final Element child : e.children) {
+                    node(child);
+                }
+            }
+        }
+
+        void value(Object v) throws IOException {
+            if (v == null) {
+                nodes.byte8(NULL);
+                return;
+            }
+            final Class<?> c = v.getClass();
+            if (c == String.class) {
+                nodes.byte8(STRING);
+                ref((String) v);
+            } else if (c == YangInt8.class) {
+                integer(INT8, ((YangInt8) v).getValue());
+            } else if (c == YangInt16.class) {
+                integer(INT16, ((YangInt16) v).getValue());
+            } else if (c == YangInt32.class) {
+                integer(INT32, ((YangInt32) v).getValue());
+            } else if (c == YangInt64.class) {
+                integer(INT64, ((YangInt64) v).getValue());
+            } else if (c == YangUInt8.class) {
+                integer(UINT8, ((YangUInt8) v).getValue());
+            } else if (c == YangUInt16.class) {
+                integer(UINT16, ((YangUInt16) v).getValue());
+            } else if (c == YangUInt32.class) {
+                integer(UINT32, ((YangUInt32) v).getValue());
+            } else if (c == YangBoolean.class) {
+                nodes.byte8(BOOLEAN);
+                nodes.byte8(((YangBoolean) v).getValue().booleanValue() ? 1
+                        : 0);
+            } else if (c == YangString.class) {
+                nodes.byte8(YANG_STRING);
+                ref(((YangString) v).getValue());
+            } else if (c == YangDecimal64.class) {
+                nodes.byte8(DECIMAL64);
+                ref(v.toString());
+                nodes.varint(((YangDecimal64) v).getFractionDigits());
+            } else if (v instanceof YangType && isParsable(c)) {
+                nodes.byte8(YANG_TYPE);
+                ref(c.getName());
+                ref(v.toString());
+            } else {
+                throw new IOException("cannot encode value of " + c);
+            }
+        }
+
+        void integer(int type, Number n) {
+            final long v = n.longValue();
+            nodes.byte8(type);
+            // zigzag, small negative numbers are short as well
+            nodes.varint((v << 1) ^ (v >> 63));
+        }
+
+        boolean isParsable(Class<?> c) {
+            Boolean p = parsable.get(c);
+            if (p == null) {
+                try {
+                    c.getConstructor(String.class);
+                    p = Boolean.TRUE;
+                } catch (final NoSuchMethodException e) {
+                    p = Boolean.FALSE;
+                }
+                parsable.put(c, p);
+            }
+            return p.booleanValue();
+        }
+    }
+
+    /**
+     * Decodes a tree.
+     */
+    private static class Reader {
+        final byte[] b;
+        int pos = 0;
+        String[] strings;
+        final HashMap<String, Constructor<?>> elements = new HashMap<String, Constructor<?>>();
+        final HashMap<String, Constructor<?>> types = new HashMap<String, Constructor<?>>();
+
+        Reader(byte[] b) {
+            this.b = b;
+        }
+
+        Element tree() throws JNCException {
+            final int magic = ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16)
+                    | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+            pos = 4;
+            if (magic != MAGIC || varint() != VERSION) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "not a binary tree (version " + VERSION + ")");
+            }
+            strings = new String[(int) varint()];
+            for (int i = 0; i < strings.length; i++) {
+                final int len = (int) varint();
+                if (len < 0 || len > b.length - pos) {
+                    throw new ArrayIndexOutOfBoundsException(pos + len);
+                }
+                strings[i] = new String(b, pos, len, UTF8);
+                pos += len;
+            }
+            final Element root = node();
+            if (pos != b.length) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "corrupt binary tree: trailing data");
+            }
+            return root;
+        }
+
+        long varint() {
+            long v = 0;
+            int shift = 0;
+            while (true) {
+                final byte x = b[pos++];
+                v |= (long) (x & 0x7F) << shift;
+                if (x >= 0) {
+                    return v;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    throw new IllegalStateException("varint too long");
+                }
+            }
+        }
+
+        String ref() {
+            final int i = (int) varint();
+            return i == 0 ? null : strings[i - 1];
+        }
+
+        int count() {
+            final long n = varint();
+            if (n < 0 || n > b.length - pos + 1) {
+                throw new IllegalStateException("bad count " + n);
+            }
+            return (int) n;
+        }
+
+        Element node() throws JNCException {
+            final int kind = (int) varint();
+            final String className = kind == CLASS ? ref() : null;
+            final String ns = ref();
+            final String name = ref();
+            final Element e;
+            if (kind == ELEMENT) {
+                e = new Element(ns, name);
+            } else if (kind == LEAF) {
+                e = new Leaf(ns, name);
+            } else if (kind == CLASS) {
+                e = instantiate(className, ns, name);
+            } else {
+                throw new IllegalStateException("bad node kind " + kind);
+            }
+            e.namespace = ns;
+            e.name = name;
+
+            int n = count();
+            if (n == 0) {
+                e.prefixes = null;
+            } else {
+                final PrefixMap p = new PrefixMap();
+                for (int i = 1; i < n; i++) {
+                    final String prefix = ref();
+                    p.add(new Prefix(prefix, ref()));
+                }
+                e.prefixes = p;
+            }
+            n = count();
+            if (n == 0) {
+                e.attrs = null;
+            } else {
+                e.attrs = new ArrayList<Attribute>(n - 1);
+                for (int i = 1; i < n; i++) {
+                    final String ans = ref();
+                    final String aname = ref();
+                    e.attrs.add(new Attribute(ans, aname, ref()));
+                }
+            }
+            e.value = value();
+            n = count();
+            if (n == 0) {
+                e.children = null;
+            } else if (e instanceof YangElement) {
+                // through the add methods, which set the child fields
+                e.children = null;
+                for (int i = 1; i < n; i++) {
+                    YangElement.attach(e, node());
+                }
+                if (e.children == null) {
+                    e.children = new NodeSet();
+                }
+            } else {
+                final NodeSet children = new NodeSet();
+                children.ensureCapacity(n - 1);
+                for (int i = 1; i < n; i++) {
+                    final Element child = node();
+                    child.parent = e;
+                    children.add(child);
+                }
+                e.children = children;
+            }
+            return e;
+        }
+
+        Object value() throws JNCException {
+            final int type = b[pos++];
+            switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return ref();
+            case INT8:
+                return new YangInt8(Long.valueOf(zigzag()));
+            case INT16:
+                return new YangInt16(Long.valueOf(zigzag()));
+            case INT32:
+                return new YangInt32(Long.valueOf(zigzag()));
+            case INT64:
+                return new YangInt64(Long.valueOf(zigzag()));
+            case UINT8:
+                return new YangUInt8(Long.valueOf(zigzag()));
+            case UINT16:
+                return new YangUInt16(Long.valueOf(zigzag()));
+            case UINT32:
+                return new YangUInt32(Long.valueOf(zigzag()));
+            case BOOLEAN:
+                return new YangBoolean(b[pos++] != 0);
+            case YANG_STRING:
+                return new YangString(ref());
+            case DECIMAL64: {
+                final String s = ref();
+                return new YangDecimal64(s, (int) varint());
+            }
+            case YANG_TYPE: {
+                final String className = ref();
+                return create(types, className, YangType.class,
+                        new Class<?>[] { String.class }, new Object[] { ref() });
+            }
+            default:
+                throw new IllegalStateException("bad value type " + type);
+            }
+        }
+
+        long zigzag() {
+            final long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        /**
+         * Creates an element of a subclass, with its (namespace, name)
+         * constructor if it has one, like most hand-written subclasses, and
+         * its no-argument constructor otherwise, like generated classes.
+         */
+        Element instantiate(String className, String ns, String name)
+                throws JNCException {
+            Constructor<?> c = elements.get(className);
+            if (c == null) {
+                final Class<?> cls = load(className, Element.class);
+                try {
+                    c = cls.getConstructor(String.class, String.class);
+                } catch (final NoSuchMethodException e) {
+                    try {
+                        c = cls.getConstructor();
+                    } catch (final NoSuchMethodException x) {
+                        throw new JNCException(JNCException.PARSER_ERROR,
+                                "no constructor for " + className);
+                    }
+                }
+                elements.put(className, c);
+            }
+            final Element e = (Element) newInstance(c, c
+                    .getParameterTypes().length == 0 ? new Object[0]
+                    : new Object[] { ns, name });
+            // the constructor may have added children of its own
+            e.children = null;
+            return e;
+        }
+
+        Object create(HashMap<String, Constructor<?>> cache,
+                String className, Class<?> base, Class<?>[] params,
+                Object[] args) throws JNCException {
+            Constructor<?> c = cache.get(className);
+            if (c == null) {
+                try {
+                    c = load(className, base).getConstructor(params);
+                } catch (final NoSuchMethodException e) {
+                    throw new JNCException(JNCException.PARSER_ERROR,
+                            "no constructor for " + className);
+                }
+                cache.put(className, c);
+            }
+            return newInstance(c, args);
+        }
+
+        /**
+         * Loads a class named in the data, without initializing it unless it
+         * is of the expected kind.
+         */
+        private static Class<?> load(String className, Class<?> base)
+                throws JNCException {
+            try {
+                final Class<?> c = Class.forName(className, false,
+                        ElementCodec.class.getClassLoader());
+                if (!base.isAssignableFrom(c)) {
+                    throw new JNCException(JNCException.PARSER_ERROR,
+                            className + " is not a " + base.getName());
+                }
+                return c;
+            } catch (final ClassNotFoundException e) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "class not found: " + className);
+            }
+        }
+
+        private static Object newInstance(Constructor<?> c, Object[] args)
+                throws JNCException {
+            try {
+                return c.newInstance(args);
+            } catch (final Exception e) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "cannot create " + c.getDeclaringClass().getName()
+                                + ": " + e);
+            }
+        }
+    }
+}
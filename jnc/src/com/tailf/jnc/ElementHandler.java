@@ -2,7 +2,6 @@ package com.tailf.jnc;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * A SAX parser, for parsing for example NETCONF messages,
@@ -17,12 +16,8 @@ import org.xml.sax.helpers.DefaultHandler;
  * The handler with hooks for startElement etc. The SAX parser will build up
  * the parse tree, by calling these hooks.
  */
-class ElementHandler extends DefaultHandler {
+class ElementHandler extends TreeHandler {
 
-    // pointer to current element (node)
-    public Element current;
-    public Element top;
-    public PrefixMap prefixes = null;
     public int unknownLevel = 0;
     
     private boolean leaf = false;
@@ -0,0 +1,22 @@
+package com.tailf.jnc;
+
+/**
+ * Receives subtrees one at a time while a message is being parsed, so that
+ * large replies can be processed without building the whole tree.
+ *
+ * @see XMLParser#parse(org.xml.sax.InputSource, Tagpath, ElementVisitor)
+ * @see NetconfSession#get(Element, Tagpath, ElementVisitor)
+ */
+public interface ElementVisitor {
+
+    /**
+     * Called with each complete subtree. The subtree is detached from the
+     * rest of the message and is not referenced by the parser afterwards.
+     *
+     * @param subtree The subtree, with no parent and with the prefix mappings
+     *            of its ancestors.
+     * @throws JNCException To stop the parsing, the exception is thrown
+     *             from the parse.
+     */
+    public void visit(Element subtree) throws JNCException;
+}
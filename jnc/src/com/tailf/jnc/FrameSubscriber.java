@@ -0,0 +1,34 @@
+package com.tailf.jnc;
+
+/**
+ * Receives the messages sent and received by a transport, a whole message at
+ * a time, for tracing, auditing and logging. Messages are given without the
+ * <em>]]&gt;]]&gt;</em> end marker.
+ * <p>
+ * The methods are called on the thread that does the I/O, which for a
+ * {@link NIOSession} is a shared I/O thread, so they should return quickly.
+ * Work such as pretty-printing or writing to disk can be moved to another
+ * thread by wrapping the subscriber in an {@link AsyncSubscriber}.
+ * <p>
+ * {@link IOSubscriber} implements this interface.
+ *
+ * @see SSHSession#addSubscriber(FrameSubscriber)
+ * @see NIOSession#addSubscriber(FrameSubscriber)
+ */
+public interface FrameSubscriber {
+
+    /**
+     * Called with each message received.
+     *
+     * @param msg The message.
+     */
+    public void inputFrame(String msg);
+
+    /**
+     * Called with each message sent, when it is flushed.
+     *
+     * @param msg The message.
+     */
+    public void outputFrame(String msg);
+
+}
@@ -19,12 +19,29 @@ package com.tailf.jnc;
  * <p>
  * The above code will install the default IO subscriber which just prints
  * in/out data.
+ * <p>
+ * The transport hands each message to the subscriber as a whole, see
+ * {@link FrameSubscriber}. Unless in raw mode, the message is parsed and
+ * pretty-printed before it is passed to {@link #input(String)} or
+ * {@link #output(String)}, on the thread that does the I/O. To do that on
+ * another thread, wrap the subscriber in an {@link AsyncSubscriber}.
  */
-public abstract class IOSubscriber {
+public abstract class IOSubscriber implements FrameSubscriber {
+
+    private static final String endmarker = "]]>]]>";
+
+    private static final ThreadLocal<XMLParser> parser = new ThreadLocal<XMLParser>() {
+        @Override
+        protected XMLParser initialValue() {
+            try {
+                return new XMLParser();
+            } catch (final JNCException e) {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+    };
 
     private boolean rawmode;
-    private StringBuffer inb;
-    private StringBuffer outb;
 
     /**
      * Constructor.
@@ -33,13 +50,11 @@ public abstract class IOSubscriber {
      *            formatted XML.
      */
     public IOSubscriber(boolean rawmode) {
-        inb = new StringBuffer(1024);
-        outb = new StringBuffer(1024);
         this.rawmode = rawmode;
     }
 
     /**
-     * Empty constructor. The rawmode, inb and outb fields will be unassigned.
+     * Empty constructor. Messages are pretty formatted.
      */
     public IOSubscriber() {
     }
@@ -58,92 +73,54 @@ public abstract class IOSubscriber {
      */
     abstract public void output(String s);
 
-    void inputChar(int i) {
-        final char ch = (char) i;
-        inb.append(ch);
-        if (ch == '\n' && rawmode) {
-            // call usercode
-            input(inb.toString());
-            inb.setLength(0);
-        }
-    }
-
-    private void xmlFlush(StringBuffer buf, boolean isInput) {
-        String res;
-        try {
-            final XMLParser p = new XMLParser();
-            final Element e = p.parse(buf.toString());
-            res = e.toXMLString();
-            buf.setLength(0);
-        } catch (final Exception e) {
-            res = buf.toString();
-            buf.setLength(0);
-        }
-        if (isInput) {
-            input(res);
-        } else {
-            output(res);
-        }
+    /**
+     * Passes a received message to {@link #input(String)}: a line at a time
+     * followed by the end marker in raw mode, otherwise pretty formatted.
+     */
+    @Override
+    public void inputFrame(String msg) {
+        deliver(msg, true);
     }
 
-    void inputFlush(String endMarker) {
-        if (!rawmode) {
-            xmlFlush(inb, true);
-        } else {
-            input(inb.toString() + endMarker + "\n");
-            inb.setLength(0);
-        }
+    /**
+     * Passes a sent message to {@link #output(String)}: a line at a time
+     * followed by the end marker in raw mode, otherwise pretty formatted.
+     */
+    @Override
+    public void outputFrame(String msg) {
+        deliver(msg, false);
     }
 
-    void outputFlush(String endMarker) {
+    private void deliver(String msg, boolean isInput) {
         if (!rawmode) {
-            xmlFlush(outb, false);
-        } else {
-            output(outb.toString() + endMarker + "\n");
-            outb.setLength(0);
+            emit(pretty(msg), isInput);
+            return;
         }
-    }
-
-    private void outputChar(char ch) {
-        outb.append(ch);
-        if (ch == '\n' && rawmode) {
-            // call usercode
-            output(outb.toString());
-            outb.setLength(0);
+        int begin = 0;
+        int nl;
+        while ((nl = msg.indexOf('\n', begin)) >= 0) {
+            emit(msg.substring(begin, nl + 1), isInput);
+            begin = nl + 1;
         }
+        emit(msg.substring(begin) + endmarker + "\n", isInput);
     }
 
-    void outputPrint(long iVal) {
-        final StringBuffer tmp = new StringBuffer(16);
-        tmp.append(iVal);
-        for (int i = 0; i < tmp.length(); i++) {
-            outputChar(tmp.charAt(i));
-        }
-    }
-
-    void outputPrint(String s) {
-        final StringBuffer tmp = new StringBuffer(64);
-        tmp.append(s);
-        for (int i = 0; i < tmp.length(); i++) {
-            outputChar(tmp.charAt(i));
-        }
-    }
-
-    void outputPrintln(String s) {
-        final StringBuffer tmp = new StringBuffer(64);
-        tmp.append(s);
-        tmp.append('\n');
-        for (int i = 0; i < tmp.length(); i++) {
-            outputChar(tmp.charAt(i));
+    private void emit(String s, boolean isInput) {
+        if (isInput) {
+            input(s);
+        } else {
+            output(s);
         }
     }
 
-    void outputPrintln(int iVal) {
-        final StringBuffer tmp = new StringBuffer(16);
-        tmp.append(iVal);
-        tmp.append('\n');
-        for (int i = 0; i < tmp.length(); i++) {
-            outputChar(tmp.charAt(i));
+    /**
+     * Returns a message as indented XML, or as it is if it cannot be parsed.
+     */
+    private static String pretty(String msg) {
+        try {
+            return parser.get().parse(msg).toXMLString();
+        } catch (final Exception e) {
+            return msg;
         }
     }
 }
@@ -0,0 +1,153 @@
+package com.tailf.jnc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values, typically latencies in
+ * nanoseconds, in the style of HdrHistogram. Values below 128 are counted
+ * exactly; larger values are counted in buckets whose width is at most 1/64
+ * of their value, so percentiles are accurate to within about 1.5% over the
+ * whole range of long.
+ * <p>
+ * Recording is lock free and may be done from any number of threads. The
+ * memory use is fixed, about 30 kB per histogram.
+ */
+public class LatencyHistogram {
+
+    private static final int PRECISION_BITS = 7;
+    private static final int SUB = 1 << PRECISION_BITS; // 128
+    private static final int HALF = SUB >> 1; // 64
+    private static final int BUCKETS = 64 - PRECISION_BITS;
+    private static final int SIZE = SUB + BUCKETS * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value < (m = min.get()) && !min.compareAndSet(m, value)) {
+            // retry
+        }
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // retry
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value)
+                - PRECISION_BITS + 1;
+        return SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    /**
+     * @return The highest value that is counted in the same bucket as the
+     *         values at index.
+     */
+    static long highestEquivalent(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        final int shift = (index - SUB) / HALF + 1;
+        final long lowest = (long) ((index - SUB) % HALF + HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The smallest value recorded, or 0 if none.
+     */
+    public long getMin() {
+        final long m = min.get();
+        return m == Long.MAX_VALUE ? 0 : m;
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if none.
+     */
+    public long getMax() {
+        final long m = max.get();
+        return m == Long.MIN_VALUE ? 0 : m;
+    }
+
+    /**
+     * @return The mean of the values recorded, or 0 if none.
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the value below which a given percentage of the recorded
+     * values fall, within the precision of the histogram.
+     *
+     * @param percentile A percentile between 0 and 100.
+     * @return The value at the percentile, or 0 if no values are recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final double p = Math.min(Math.max(percentile, 0), 100);
+        final long target = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Removes all recorded values. Values recorded concurrently with a reset
+     * may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < SIZE; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns a summary with the count, mean and the 50th, 90th, 99th and
+     * 100th percentiles.
+     */
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + (long) getMean() + " p50="
+                + getValueAtPercentile(50) + " p90="
+                + getValueAtPercentile(90) + " p99="
+                + getValueAtPercentile(99) + " max=" + getMax();
+    }
+}
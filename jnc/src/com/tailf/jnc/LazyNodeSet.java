@@ -0,0 +1,377 @@
+package com.tailf.jnc;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The children of an element built by a {@link LazyXMLParser}, kept as the
+ * text they were parsed from until they are first needed. Every method of
+ * the list parses the text first, so the children look the same as if they
+ * had been parsed up front.
+ */
+class LazyNodeSet extends NodeSet {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Element owner;
+    private transient LazyXMLParser parser;
+
+    /**
+     * The whole message, and the range of it that holds the children.
+     */
+    private transient String source;
+    private final transient int from;
+    private final transient int to;
+
+    /**
+     * Start tags of the owner and its ancestors, and the matching end tags,
+     * to parse the children with the namespaces they were declared with.
+     */
+    private transient String head;
+    private transient String tail;
+    private final transient int depth;
+
+    /**
+     * The prefix mappings in scope for the children in the message.
+     */
+    private transient PrefixMap context;
+
+    private transient volatile boolean loaded = false;
+
+    LazyNodeSet(Element owner, LazyXMLParser parser, String source, int from,
+            int to, String head, String tail, int depth, PrefixMap context) {
+        super();
+        this.owner = owner;
+        this.parser = parser;
+        this.source = source;
+        this.from = from;
+        this.to = to;
+        this.head = head;
+        this.tail = tail;
+        this.depth = depth;
+        this.context = context;
+    }
+
+    /**
+     * @return <code>true</code> if the children have been parsed.
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Parses the children, once.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            final List<Element> children;
+            try {
+                children = parser.expand(source, from, to, head, tail, depth,
+                        context);
+            } catch (final JNCException e) {
+                throw new IllegalStateException("children of " + owner.name
+                        + ": " + e);
+            }
+            if (children == null) {
+                throw new IllegalStateException("children of " + owner.name
+                        + ": malformed XML");
+            }
+            for (final Element child : children) {
+                child.parent = owner;
+                super.add(child);
+            }
+            // the text is no longer needed
+            parser = null;
+            source = null;
+            head = null;
+            tail = null;
+            context = null;
+            loaded = true;
+        }
+    }
+
+    /**
+     * Returns the text of the children as it was received, if they have not
+     * been parsed and the text means the same where the owner is now: every
+     * prefix it was declared with resolves to the same namespace, and there
+     * is no default namespace unless there was one.
+     *
+     * @return The text, or <code>null</code> if the children must be encoded.
+     */
+    String verbatim() {
+        if (loaded) {
+            return null;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return null;
+            }
+            boolean hasDefault = false;
+            for (final Prefix p : context) {
+                if (!p.value.equals(lookup(p.name))) {
+                    return null;
+                }
+                hasDefault |= p.name.equals("");
+            }
+            if (!hasDefault && lookup("") != null) {
+                return null;
+            }
+            return source.substring(from, to);
+        }
+    }
+
+    /**
+     * Resolves a prefix in the mappings that an encoding of the owner and its
+     * ancestors declares.
+     */
+    private String lookup(String prefix) {
+        for (Element e = owner; e != null; e = e.parent) {
+            if (e.prefixes != null) {
+                final String ns = e.prefixes.prefixToNs(prefix);
+                if (ns != null) {
+                    return ns;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serialized as a plain node set.
+     */
+    private Object writeReplace() {
+        load();
+        final NodeSet copy = new NodeSet();
+        copy.addAll(this);
+        return copy;
+    }
+
+    @Override
+    public Element getElement(int index) {
+        load();
+        return super.getElement(index);
+    }
+
+    @Override
+    public String toXMLString() {
+        load();
+        return super.toXMLString();
+    }
+
+    @Override
+    public void trimToSize() {
+        load();
+        super.trimToSize();
+    }
+
+    @Override
+    public void ensureCapacity(int minCapacity) {
+        load();
+        super.ensureCapacity(minCapacity);
+    }
+
+    @Override
+    public int size() {
+        load();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        load();
+        return super.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        load();
+        return super.contains(o);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        load();
+        return super.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        load();
+        return super.lastIndexOf(o);
+    }
+
+    @Override
+    public Object clone() {
+        load();
+        return super.clone();
+    }
+
+    @Override
+    public Object[] toArray() {
+        load();
+        return super.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        load();
+        return super.toArray(a);
+    }
+
+    @Override
+    public Element get(int index) {
+        load();
+        return super.get(index);
+    }
+
+    @Override
+    public Element set(int index, Element element) {
+        load();
+        return super.set(index, element);
+    }
+
+    @Override
+    public boolean add(Element e) {
+        load();
+        return super.add(e);
+    }
+
+    @Override
+    public void add(int index, Element element) {
+        load();
+        super.add(index, element);
+    }
+
+    @Override
+    public Element remove(int index) {
+        load();
+        return super.remove(index);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        load();
+        return super.remove(o);
+    }
+
+    @Override
+    public void clear() {
+        load();
+        super.clear();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Element> c) {
+        load();
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Element> c) {
+        load();
+        return super.addAll(index, c);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        load();
+        return super.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        load();
+        return super.retainAll(c);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        load();
+        return super.containsAll(c);
+    }
+
+    @Override
+    public ListIterator<Element> listIterator(int index) {
+        load();
+        return super.listIterator(index);
+    }
+
+    @Override
+    public ListIterator<Element> listIterator() {
+        load();
+        return super.listIterator();
+    }
+
+    @Override
+    public Iterator<Element> iterator() {
+        load();
+        return super.iterator();
+    }
+
+    @Override
+    public List<Element> subList(int fromIndex, int toIndex) {
+        load();
+        return super.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public void forEach(Consumer<? super Element> action) {
+        load();
+        super.forEach(action);
+    }
+
+    @Override
+    public Spliterator<Element> spliterator() {
+        load();
+        return super.spliterator();
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Element> filter) {
+        load();
+        return super.removeIf(filter);
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Element> operator) {
+        load();
+        super.replaceAll(operator);
+    }
+
+    @Override
+    public void sort(Comparator<? super Element> c) {
+        load();
+        super.sort(c);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        load();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        load();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        load();
+        return super.toString();
+    }
+}
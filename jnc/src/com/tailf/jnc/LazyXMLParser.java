@@ -0,0 +1,211 @@
+package com.tailf.jnc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.tailf.jnc.XMLScanner.Span;
+
+/**
+ * A parser that builds {@link Element} trees on demand. Only the root
+ * element is built when a message is parsed. The children of an element are
+ * kept as a range of the message text, and are built when they are first
+ * used: by {@link Element#getChildren()}, {@link Element#getChild(String)},
+ * path expressions, or any other access to the children. Each level is
+ * built the same way, so a consumer that looks at a few containers of a
+ * large reply only pays for those, and for the levels above them. Building a
+ * level parses the tags of its elements and the values of its leaves; the
+ * subtrees below it are only scanned for where they start and end.
+ *
+ * <pre>
+ * NetconfSession session = new NetconfSession(transport, new LazyXMLParser());
+ * NodeSet config = session.getConfig();
+ * </pre>
+ *
+ * An element whose children have not been built is encoded by copying their
+ * text from the message, as long as the prefixes in it still mean the same
+ * where the element is encoded.
+ * <p>
+ * The message text is kept as long as any of its elements has children that
+ * have not been built. Those children have only been scanned, not parsed, so
+ * some errors in them are not found until they are built. They are then
+ * reported as an {@link IllegalStateException}.
+ */
+public class LazyXMLParser extends XMLParser {
+
+    private long parsed = 0;
+
+    /**
+     * Constructor. Initializes the parser instance.
+     */
+    public LazyXMLParser() throws JNCException {
+        super();
+    }
+
+    /**
+     * Parses an XML String, building only the root element.
+     *
+     * @param str String containing the XML text to parse
+     */
+    @Override
+    public Element parse(String str) throws JNCException {
+        final List<Element> roots = expand(str, 0, str.length(), "", "", 0,
+                null);
+        if (roots == null || roots.size() != 1) {
+            // not something the scan understands, parse all of it
+            return super.parse(str);
+        }
+        return roots.get(0);
+    }
+
+    @Override
+    XMLParser newParser() throws JNCException {
+        return new LazyXMLParser();
+    }
+
+    /**
+     * Builds the elements in a range of the text, leaving their children to
+     * be built later. Only the tags of the elements, and the text of those
+     * without children, are parsed: the content of the other elements is
+     * cut out of the text handed to the parser, and has only been scanned.
+     *
+     * @param source The whole message.
+     * @param from Start of the range.
+     * @param to End of the range.
+     * @param head Start tags of the ancestors of the range.
+     * @param tail End tags of the ancestors of the range.
+     * @param depth Number of ancestors.
+     * @param context Prefix mappings in scope for the range.
+     * @return The elements, or <code>null</code> if the range could not be
+     *         scanned.
+     */
+    List<Element> expand(String source, int from, int to, String head,
+            String tail, int depth, PrefixMap context) throws JNCException {
+        final List<Span> spans = XMLScanner.children(source, from, to);
+        if (spans == null) {
+            return null;
+        }
+        final StringBuilder text = new StringBuilder(head);
+        for (final Span span : spans) {
+            if (span.isEmptyTag()) {
+                text.append(source, span.start, span.end);
+            } else {
+                text.append(source, span.start, span.contentStart);
+                if (!span.nested) {
+                    text.append(source, span.contentStart, span.contentEnd);
+                }
+                text.append(source, span.contentEnd, span.end);
+            }
+        }
+        text.append(tail);
+        final LevelHandler handler = new LevelHandler(depth);
+        synchronized (this) {
+            try {
+                parser.setContentHandler(handler);
+                parser.parse(source(text.toString()));
+            } catch (final Exception e) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "parse error: " + e);
+            }
+            parsed += text.length();
+        }
+        if (handler.elements.size() != spans.size()) {
+            return null;
+        }
+        for (int i = 0; i < spans.size(); i++) {
+            final Span span = spans.get(i);
+            if (!span.nested) {
+                continue;
+            }
+            final Element e = handler.elements.get(i);
+            final PrefixMap p = new PrefixMap();
+            if (e.prefixes != null) {
+                p.merge(e.prefixes);
+            }
+            if (context != null) {
+                p.merge(context);
+            }
+            e.children = new LazyNodeSet(e, this, source, span.contentStart,
+                    span.contentEnd, head
+                            + source.substring(span.start, span.contentStart),
+                    "</" + span.qname + ">" + tail, depth + 1, p.immutable());
+        }
+        trace("built ", spans.size(), " elements at depth ", depth);
+        return handler.elements;
+    }
+
+    /**
+     * @return The number of characters handed to the SAX parser so far.
+     */
+    synchronized long getParsed() {
+        return parsed;
+    }
+
+    /**
+     * Builds the elements at one depth.
+     */
+    private class LevelHandler extends DefaultHandler {
+        private final int depth;
+        private int level = 0;
+        final List<Element> elements = new ArrayList<Element>();
+        private Element current = null;
+        private PrefixMap prefixes = null;
+
+        LevelHandler(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) {
+            if (level == depth) {
+                final Element child = new Element(uri, localName);
+                child.prefixes = prefixes;
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    child.addAttr(new Attribute(attributes.getURI(i),
+                            attributes.getLocalName(i), attributes
+                                    .getValue(i)));
+                }
+                elements.add(child);
+                current = child;
+            }
+            prefixes = null;
+            level++;
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            level--;
+            if (level == depth) {
+                current = null;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (current != null && level == depth + 1) {
+                if (current.value == null) {
+                    current.value = "";
+                }
+                current.value = current.value + new String(ch, start, length);
+            }
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            if (level == depth) {
+                if (prefixes == null) {
+                    prefixes = new PrefixMap();
+                }
+                prefixes.add(new Prefix(prefix, uri));
+            }
+        }
+    }
+
+    @Override
+    protected void trace(String s) {
+        Trace.log(Trace.PARSER, "LazyXMLParser", s);
+    }
+}
@@ -5,6 +5,11 @@ package com.tailf.jnc;
  * <p>
  * YangElement classes generated from the JNC pyang plugin may instantiate this
  * class for leaf values.
+ * <p>
+ * Leaves are by far the most numerous nodes in a configuration tree, so this
+ * class adds no fields to Element. Attribute and prefix lists are only
+ * allocated when set, and the schema node of a leaf is resolved through the
+ * schema entry cached by its parent YangElement.
  * 
  * @see YangElement
  */
@@ -16,22 +21,13 @@ public class Leaf extends Element {
         super(ns, name);
     }
 
-    // cache the Tagpath and the SchemaNode
-    private Tagpath tp = null;
-    private SchemaNode n = null;
-
     @Override
     protected void encode(Transport out, boolean newline_at_end,
             Capabilities capas) throws JNCException {
         if (RevisionInfo.olderRevisionSupportEnabled && capas != null) {
-            if (tp == null) {
-                tp = tagpath();
-            }
-            if (n == null) {
-                n = SchemaTree.lookup(namespace, tp);
-            }
-            final String rev = capas.getRevision(namespace);
+            final SchemaNode n = SchemaTree.find(namespace, this);
             if (n != null && n.revInfo != null) {
+                final String rev = capas.getRevision(namespace);
                 for (final RevisionInfo r : n.revInfo) {
                     if (r.introduced.compareTo(rev) > 0) {
                         // This node was somehow modified
@@ -45,7 +41,7 @@ public class Leaf extends Element {
                             if (r.data.equals(getValue().toString())) {
                                 throw new JNCException(
                                         JNCException.REVISION_ERROR,
-                                        tp + " bad enum value for rev (" + rev
+                                        n.tagpath + " bad enum value for rev (" + rev
                                             + ") " + r.data);
                             }
                             break;
@@ -54,7 +50,7 @@ public class Leaf extends Element {
                             if (r.data.equals(getValue().toString())) {
                                 throw new JNCException(
                                         JNCException.REVISION_ERROR,
-                                        tp + " bad bits value for rev (" + rev
+                                        n.tagpath + " bad bits value for rev (" + rev
                                             + ") " + r.data);
                             }
                             break;
@@ -0,0 +1,622 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A scriptable stand-in for a NETCONF server, running in the same JVM. It is
+ * meant for measuring the client side of JNC in isolation and for tests that
+ * cannot depend on a real device.
+ * <p>
+ * The server keeps a running and a candidate datastore, and answers
+ * <code>hello</code>, <code>get-config</code>, <code>get</code>,
+ * <code>edit-config</code>, <code>commit</code>, including confirmed
+ * commits, <code>cancel-commit</code>,
+ * <code>discard-changes</code>, <code>lock</code>, <code>unlock</code>,
+ * <code>validate</code>, <code>close-session</code> and
+ * <code>create-subscription</code>. Other rpcs can be scripted with
+ * {@link #setHandler(String, RpcHandler)}, and notifications are sent to
+ * subscribed sessions with {@link #sendNotification(Element)}.
+ * <p>
+ * Clients connect either in memory with {@link #connect()}, or over TCP on
+ * the loopback interface after {@link #listen(int)}:
+ *
+ * <pre>
+ * LoopbackServer server = new LoopbackServer();
+ * server.setRunning(LoopbackServer.generateConfig(&quot;urn:bench&quot;, &quot;hosts&quot;,
+ *         1000, 8));
+ * server.setLatency(2);
+ * NetconfSession session = new NetconfSession(server.connect());
+ * NodeSet config = session.getConfig();
+ * </pre>
+ * <p>
+ * The datastores are plain Element trees without schema. Edits are merged
+ * by name and namespace, and list entries are told apart by the value of
+ * their first child leaf, which stands in for the key.
+ *
+ * @see LoopbackTransport
+ */
+public class LoopbackServer {
+
+    /**
+     * Answers an rpc that the server does not handle itself, or replaces a
+     * built-in one.
+     */
+    public interface RpcHandler {
+
+        /**
+         * @param op The operation element, the child of <code>rpc</code>.
+         * @return The content of the <code>rpc-reply</code>, for example
+         *         <code>&lt;ok/&gt;</code>.
+         * @throws JNCException To reply with an <code>rpc-error</code>.
+         */
+        public String reply(Element op) throws JNCException;
+    }
+
+    /**
+     * The server side of a session.
+     */
+    abstract class Peer {
+        final long sessionId = nextSessionId.incrementAndGet();
+        volatile boolean subscribed = false;
+
+        /**
+         * Sends a message, without end marker, after latency milliseconds.
+         */
+        abstract void send(String msg, long latency);
+
+        void receive(String msg) {
+            handle(this, msg);
+        }
+
+        void close() {
+            peers.remove(this);
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String endmarker = "]]>]]>";
+    private static final String NC = Element.NETCONF_NAMESPACE;
+
+    private final AtomicLong nextSessionId = new AtomicLong();
+    private final CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<Peer>();
+    private final ConcurrentHashMap<String, RpcHandler> handlers = new ConcurrentHashMap<String, RpcHandler>();
+    private final Datastore running = new Datastore();
+    private final Datastore candidate = new Datastore();
+    // running before a confirmed commit, while it is not confirmed
+    private final Datastore rollback = new Datastore();
+    private boolean confirming = false;
+    private volatile long latency = 0;
+    private volatile String[] capabilities = {
+            Capabilities.NETCONF_BASE_CAPABILITY,
+            Capabilities.CANDIDATE_CAPABILITY,
+            Capabilities.NOTIFICATION_CAPABILITY,
+            Capabilities.XPATH_CAPABILITY };
+    private ServerSocket serverSocket = null;
+
+    private static final ThreadLocal<XMLParser> parser = new ThreadLocal<XMLParser>() {
+        @Override
+        protected XMLParser initialValue() {
+            try {
+                return new XMLParser();
+            } catch (final JNCException e) {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+    };
+
+    /**
+     * Opens an in-memory session to this server. The server hello is
+     * readable at once.
+     *
+     * @return A transport to pass to the {@link NetconfSession} constructor.
+     */
+    public LoopbackTransport connect() {
+        return new LoopbackTransport(this);
+    }
+
+    /**
+     * Accepts NETCONF over TCP connections on the loopback interface, with
+     * one thread per connection.
+     *
+     * @param port TCP port, or 0 for any free port.
+     * @return The port listened on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public synchronized int listen(int port) throws IOException {
+        if (serverSocket == null) {
+            serverSocket = new ServerSocket(port, 1024,
+                    InetAddress.getByName("127.0.0.1"));
+            final ServerSocket ss = serverSocket;
+            daemon("jnc-loopback-accept", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            serve(ss.accept());
+                        }
+                    } catch (final IOException e) {
+                        trace("stopped listening: ", e);
+                    }
+                }
+            });
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops listening for TCP connections and disconnects all sessions.
+     */
+    public synchronized void close() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+            serverSocket = null;
+        }
+        for (final Peer p : peers) {
+            p.close();
+        }
+    }
+
+    /**
+     * Sets the time the server waits before each reply and notification.
+     *
+     * @param latency Latency in milliseconds.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the capabilities sent in the server hello.
+     */
+    public void setCapabilities(String[] capabilities) {
+        this.capabilities = capabilities.clone();
+    }
+
+    /**
+     * Installs a handler for an rpc, replacing any built-in handling.
+     *
+     * @param rpcName Name of the operation element, e.g. "get-config".
+     * @param handler The handler, or <code>null</code> to remove it.
+     */
+    public void setHandler(String rpcName, RpcHandler handler) {
+        if (handler == null) {
+            handlers.remove(rpcName);
+        } else {
+            handlers.put(rpcName, handler);
+        }
+    }
+
+    /**
+     * Replaces the contents of the running and candidate datastores.
+     *
+     * @param config The top element of the configuration, or
+     *            <code>null</code> to empty the datastores.
+     */
+    public void setRunning(Element config) {
+        running.set(config);
+        candidate.copy(running);
+    }
+
+    /**
+     * @return A copy of the top level elements of the running datastore.
+     */
+    public NodeSet getRunning() {
+        return running.nodes();
+    }
+
+    /**
+     * Generates a configuration tree of a given size: a container with a
+     * list of entries, each with an "id" key leaf and a number of other
+     * leaves.
+     *
+     * @param ns Namespace of the configuration.
+     * @param name Name of the top container.
+     * @param entries Number of list entries.
+     * @param leaves Number of leaves in each entry, besides the key.
+     * @return A new configuration tree.
+     */
+    public static Element generateConfig(String ns, String name,
+            int entries, int leaves) {
+        final Element top = new Element(ns, name);
+        top.setDefaultPrefix();
+        for (int i = 0; i < entries; i++) {
+            final Element entry = new Element(ns, "entry");
+            top.addChild(entry);
+            final Element id = new Element(ns, "id");
+            id.setValue(Integer.toString(i));
+            entry.addChild(id);
+            for (int j = 0; j < leaves; j++) {
+                final Element leaf = new Element(ns, "leaf" + j);
+                leaf.setValue("value-" + i + "-" + j);
+                entry.addChild(leaf);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Sends a notification to all sessions that have sent a
+     * <code>create-subscription</code>.
+     *
+     * @param content The content of the notification, after the event time.
+     */
+    public void sendNotification(Element content) {
+        final String msg = "<notification xmlns=\""
+                + Capabilities.NS_NOTIFICATION + "\"><eventTime>"
+                + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+                        .format(new Date())
+                + "</eventTime>" + content.toXMLString() + "</notification>";
+        for (final Peer p : peers) {
+            if (p.subscribed) {
+                p.send(msg, latency);
+            }
+        }
+    }
+
+    /* sessions */
+
+    void open(Peer p) {
+        peers.add(p);
+        final StringBuilder s = new StringBuilder(256);
+        s.append("<hello xmlns=\"").append(NC).append("\"><capabilities>");
+        for (final String c : capabilities) {
+            s.append("<capability>").append(c).append("</capability>");
+        }
+        s.append("</capabilities><session-id>").append(p.sessionId)
+                .append("</session-id></hello>");
+        p.send(s.toString(), 0);
+    }
+
+    private void handle(Peer p, String msg) {
+        final Element rpc;
+        try {
+            rpc = parser.get().parse(msg);
+        } catch (final JNCException e) {
+            trace("bad message: ", e);
+            return;
+        }
+        if ("hello".equals(rpc.name)) {
+            return;
+        }
+        final Attribute midAttr = rpc.getAttr("message-id");
+        final Element op = rpc.hasChildren() ? rpc.getChildren()
+                .getElement(0) : null;
+        String body;
+        try {
+            body = dispatch(p, op);
+        } catch (final JNCException e) {
+            body = "<rpc-error><error-type>application</error-type>"
+                    + "<error-tag>operation-failed</error-tag>"
+                    + "<error-severity>error</error-severity>"
+                    + "<error-message>" + escape(e.getMessage())
+                    + "</error-message></rpc-error>";
+        }
+        final StringBuilder reply = new StringBuilder(body.length() + 128);
+        reply.append("<rpc-reply xmlns=\"").append(NC).append('"');
+        if (midAttr != null) {
+            reply.append(" message-id=\"").append(midAttr.getValue())
+                    .append('"');
+        }
+        reply.append('>').append(body).append("</rpc-reply>");
+        p.send(reply.toString(), latency);
+        if (op != null && "close-session".equals(op.name)) {
+            p.close();
+        }
+    }
+
+    private String dispatch(Peer p, Element op) throws JNCException {
+        if (op == null) {
+            throw new JNCException(JNCException.SESSION_ERROR,
+                    "empty rpc");
+        }
+        final RpcHandler h = handlers.get(op.name);
+        if (h != null) {
+            return h.reply(op);
+        }
+        final String name = op.name;
+        if ("get-config".equals(name)) {
+            return "<data>" + datastore(op, "source").xml() + "</data>";
+        } else if ("get".equals(name)) {
+            return "<data>" + running.xml() + "</data>";
+        } else if ("edit-config".equals(name)) {
+            final Datastore ds = datastore(op, "target");
+            final Element config = op.getChild("config");
+            if (config != null && config.hasChildren()) {
+                ds.edit(config);
+            }
+            if (ds == running) {
+                candidate.copy(running);
+            }
+        } else if ("commit".equals(name)) {
+            synchronized (rollback) {
+                final boolean confirmed = op.getChild("confirmed") != null;
+                if (confirmed && !confirming) {
+                    rollback.copy(running);
+                }
+                confirming = confirmed;
+                running.copy(candidate);
+            }
+        } else if ("cancel-commit".equals(name)) {
+            synchronized (rollback) {
+                if (!confirming) {
+                    throw new JNCException(JNCException.SESSION_ERROR,
+                            "no confirmed commit in progress");
+                }
+                confirming = false;
+                running.copy(rollback);
+                candidate.copy(running);
+            }
+        } else if ("discard-changes".equals(name)) {
+            candidate.copy(running);
+        } else if ("create-subscription".equals(name)) {
+            p.subscribed = true;
+        } else if (!"lock".equals(name) && !"unlock".equals(name)
+                && !"validate".equals(name)
+                && !"close-session".equals(name)
+                && !"kill-session".equals(name)) {
+            throw new JNCException(JNCException.SESSION_ERROR,
+                    "operation not supported: " + name);
+        }
+        return "<ok/>";
+    }
+
+    private Datastore datastore(Element op, String param) throws JNCException {
+        final Element e = op.getChild(param);
+        if (e == null || !e.hasChildren()) {
+            throw new JNCException(JNCException.SESSION_ERROR, "missing "
+                    + param);
+        }
+        final String name = e.getChildren().getElement(0).name;
+        if ("running".equals(name)) {
+            return running;
+        } else if ("candidate".equals(name)) {
+            return candidate;
+        }
+        throw new JNCException(JNCException.SESSION_ERROR,
+                "no such datastore: " + name);
+    }
+
+    private static String escape(String s) {
+        return s == null ? "" : s.replace("&", "&amp;").replace("<", "&lt;");
+    }
+
+    /* datastores */
+
+    /**
+     * The top level elements of a datastore, below a <code>data</code> root,
+     * and their XML text, which is kept until the next change.
+     */
+    private static class Datastore {
+        private Element root = new Element(NC, "data");
+        private String xml = "";
+
+        synchronized String xml() {
+            if (xml == null) {
+                final StringBuilder s = new StringBuilder();
+                if (root.hasChildren()) {
+                    for (final Element e : root.getChildren()) {
+                        s.append(e.toXMLString());
+                    }
+                }
+                xml = s.toString();
+            }
+            return xml;
+        }
+
+        synchronized NodeSet nodes() {
+            final NodeSet ns = new NodeSet();
+            if (root.hasChildren()) {
+                for (final Element e : root.getChildren()) {
+                    ns.add((Element) e.clone());
+                }
+            }
+            return ns;
+        }
+
+        synchronized void set(Element config) {
+            root = new Element(NC, "data");
+            if (config != null) {
+                root.addChild((Element) config.clone());
+            }
+            xml = null;
+        }
+
+        void copy(Datastore from) {
+            final Element r;
+            synchronized (from) {
+                r = (Element) from.root.clone();
+            }
+            synchronized (this) {
+                root = r;
+                xml = null;
+            }
+        }
+
+        synchronized void edit(Element config) {
+            for (final Element e : config.getChildren()) {
+                edit(root, e);
+            }
+            xml = null;
+        }
+
+        private static void edit(Element target, Element e) {
+            final Attribute opAttr = e.getAttr("operation");
+            final String op = opAttr == null ? null : opAttr.getValue();
+            final Element match = find(target, e);
+            if ("delete".equals(op) || "remove".equals(op)) {
+                if (match != null) {
+                    target.deleteChild(match);
+                }
+                return;
+            }
+            if (match != null && !e.hasChildren() && !"replace".equals(op)) {
+                match.setValue(e.value);
+                return;
+            }
+            if (match == null || "replace".equals(op)) {
+                if (match != null) {
+                    target.deleteChild(match);
+                }
+                final Element c = (Element) e.clone();
+                if (opAttr != null) {
+                    c.removeAttr("operation");
+                }
+                if (c.prefixes == null && target.nsToPrefix(c.namespace) == null) {
+                    c.setPrefix(e.getContextPrefixMap());
+                }
+                target.addChild(c);
+                return;
+            }
+            for (final Element child : e.getChildren()) {
+                edit(match, child);
+            }
+        }
+
+        /**
+         * Finds the child of target that e edits: same name and namespace,
+         * and for list entries the same first leaf.
+         */
+        private static Element find(Element target, Element e) {
+            if (!target.hasChildren()) {
+                return null;
+            }
+            final Element key = e.hasChildren() ? e.getChildren().getElement(
+                    0) : null;
+            for (final Element c : target.getChildren()) {
+                if (!c.name.equals(e.name) || !c.namespace.equals(e.namespace)) {
+                    continue;
+                }
+                if (key == null || key.hasChildren()) {
+                    return c;
+                }
+                final Element ckey = c.getChild(key.name);
+                if (ckey != null && key.value != null
+                        && key.value.toString().equals(String.valueOf(ckey.value))) {
+                    return c;
+                }
+            }
+            return null;
+        }
+    }
+
+    /* TCP */
+
+    private void serve(final Socket s) {
+        daemon("jnc-loopback-" + s.getPort(), new Runnable() {
+            @Override
+            public void run() {
+                Peer p = null;
+                try {
+                    s.setTcpNoDelay(true);
+                    final OutputStream out = s.getOutputStream();
+                    p = new Peer() {
+                        @Override
+                        void send(String msg, long latency) {
+                            try {
+                                if (latency > 0) {
+                                    Thread.sleep(latency);
+                                }
+                                final byte[] b = (msg + endmarker).getBytes(UTF8);
+                                synchronized (out) {
+                                    out.write(b);
+                                    out.flush();
+                                }
+                            } catch (final Exception e) {
+                                trace("send failed: ", e);
+                                close();
+                            }
+                        }
+
+                        @Override
+                        void close() {
+                            super.close();
+                            try {
+                                s.close();
+                            } catch (final IOException e) {
+                                // ignore
+                            }
+                        }
+                    };
+                    open(p);
+                    read(s.getInputStream(), p);
+                } catch (final IOException e) {
+                    trace("connection closed: ", e);
+                } finally {
+                    if (p != null) {
+                        p.close();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads messages framed by the end marker and hands them to the peer.
+     */
+    private static void read(InputStream in, Peer p) throws IOException {
+        final byte[] end = endmarker.getBytes(UTF8);
+        byte[] buf = new byte[8192];
+        int len = 0;
+        int start = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) > 0) {
+            for (int i = Math.max(len, start + end.length - 1); i < len + n; i++) {
+                if (buf[i] == '>' && matches(buf, i + 1 - end.length, end)) {
+                    p.receive(new String(buf, start, i + 1 - end.length
+                            - start, UTF8));
+                    start = i + 1;
+                }
+            }
+            len += n;
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, len - start);
+                len -= start;
+                start = 0;
+            }
+            if (len == buf.length) {
+                final byte[] b = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, b, 0, len);
+                buf = b;
+            }
+        }
+    }
+
+    private static boolean matches(byte[] buf, int from, byte[] end) {
+        for (int j = 0; j < end.length; j++) {
+            if (buf[from + j] != end[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void daemon(String name, Runnable r) {
+        final Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.TRANSPORT, "LoopbackServer", msg);
+    }
+}
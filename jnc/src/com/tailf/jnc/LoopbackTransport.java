@@ -0,0 +1,155 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory NETCONF transport, connected to a {@link LoopbackServer} in
+ * the same JVM. Requests are handled by the server on the thread that calls
+ * {@link #flush()}, and replies are queued for {@link #readOne()}. A reply
+ * is not readable until the latency configured on the server has passed.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * LoopbackServer server = new LoopbackServer();
+ * NetconfSession session = new NetconfSession(server.connect());
+ * NodeSet config = session.getConfig();
+ * </pre>
+ *
+ * @see LoopbackServer
+ */
+public class LoopbackTransport implements Transport {
+
+    /**
+     * A reply and the time it becomes readable.
+     */
+    private static class Reply {
+        final StringBuffer msg;
+        final long due;
+
+        Reply(StringBuffer msg, long due) {
+            this.msg = msg;
+            this.due = due;
+        }
+    }
+
+    private static final Reply CLOSED = new Reply(null, 0);
+
+    private final LoopbackServer.Peer peer;
+    private final LinkedBlockingQueue<Reply> replies = new LinkedBlockingQueue<Reply>();
+    private final StringBuilder outb = new StringBuilder(1024);
+    private volatile boolean closed = false;
+    protected long readTimeout = 0; // millisecs
+
+    LoopbackTransport(LoopbackServer server) {
+        peer = server.new Peer() {
+            @Override
+            void send(String msg, long latency) {
+                if (!closed) {
+                    replies.add(new Reply(new StringBuffer(msg), System
+                            .nanoTime() + latency * 1000000L));
+                }
+            }
+        };
+        server.open(peer);
+    }
+
+    /**
+     * Set the read timeout
+     *
+     * @param readTimeout timeout in milliseconds. If a read doesn't complete
+     *            within the timeout a JNCException is thrown.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Tell whether this transport is ready to be read.
+     *
+     * @return true if a reply is readable, or the transport is closed.
+     */
+    @Override
+    public boolean ready() {
+        final Reply r = replies.peek();
+        return r != null && r.due <= System.nanoTime();
+    }
+
+    /**
+     * Returns the next reply, waiting for at most readTimeout milliseconds if
+     * it is set.
+     */
+    @Override
+    public StringBuffer readOne() throws IOException, JNCException {
+        try {
+            final Reply r;
+            if (readTimeout > 0) {
+                r = replies.poll(readTimeout, TimeUnit.MILLISECONDS);
+                if (r == null) {
+                    throw new JNCException(JNCException.TIMEOUT_ERROR,
+                            Long.valueOf(readTimeout));
+                }
+            } else {
+                r = replies.take();
+            }
+            if (r == CLOSED) {
+                replies.add(CLOSED);
+                throw new IOException("Session closed");
+            }
+            final long wait = r.due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            return r.msg;
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("interrupted in readOne");
+        }
+    }
+
+    @Override
+    public void print(long i) {
+        outb.append(i);
+    }
+
+    @Override
+    public void print(String s) {
+        outb.append(s);
+    }
+
+    @Override
+    public void println(int i) {
+        outb.append(i).append('\n');
+    }
+
+    @Override
+    public void println(String s) {
+        outb.append(s).append('\n');
+    }
+
+    /**
+     * Hands the buffered message to the server.
+     */
+    @Override
+    public void flush() {
+        final String msg = outb.toString();
+        outb.setLength(0);
+        if (!closed) {
+            peer.receive(msg);
+        }
+    }
+
+    /**
+     * Disconnects from the server. Replies already queued can still be read.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            peer.close();
+            replies.add(CLOSED);
+        }
+    }
+}
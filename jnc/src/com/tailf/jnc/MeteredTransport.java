@@ -0,0 +1,243 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * A transport that measures the messages of a {@link NetconfSession} and
+ * passes everything on to another transport. Installed by
+ * {@link NetconfSession#setMetrics(RpcMetrics)}.
+ * <p>
+ * An exchange starts with the first character printed after a flush. The
+ * operation name is taken from the first element inside the
+ * <code>rpc</code> element. Requests that are flushed before the reply of an
+ * earlier one is read are matched with replies in order. A reply that is
+ * read while no request is outstanding is counted as a notification.
+ */
+class MeteredTransport implements Transport {
+
+    /**
+     * Number of characters of a request kept to find the operation name.
+     */
+    private static final int HEAD = 256;
+
+    private final Transport delegate;
+    private final RpcMetrics metrics;
+
+    // the request being printed
+    private final StringBuilder head = new StringBuilder(HEAD);
+    private long start = 0;
+    private long bytesOut = 0;
+
+    /**
+     * A sample and the times it is measured from.
+     */
+    private static class Exchange {
+        final RpcSample sample = new RpcSample();
+        long start;
+        long written;
+        long read;
+    }
+
+    private final ArrayDeque<Exchange> outstanding = new ArrayDeque<Exchange>();
+
+    /**
+     * The exchange of the last reply read, completed when it is parsed.
+     */
+    private Exchange received = null;
+
+    MeteredTransport(Transport delegate, RpcMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    Transport getDelegate() {
+        return delegate;
+    }
+
+    RpcMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void out(String s) {
+        if (start == 0) {
+            start = System.nanoTime();
+        }
+        bytesOut += s.length();
+        if (head.length() < HEAD) {
+            head.append(s, 0, Math.min(s.length(), HEAD - head.length()));
+        }
+    }
+
+    @Override
+    public void print(long i) {
+        out(Long.toString(i));
+        delegate.print(i);
+    }
+
+    @Override
+    public void print(String s) {
+        out(s);
+        delegate.print(s);
+    }
+
+    @Override
+    public void println(int i) {
+        out(Integer.toString(i));
+        bytesOut++;
+        delegate.println(i);
+    }
+
+    @Override
+    public void println(String s) {
+        out(s);
+        bytesOut++;
+        delegate.println(s);
+    }
+
+    @Override
+    public void flush() {
+        final long encoded = System.nanoTime();
+        delegate.flush();
+        final Exchange x = new Exchange();
+        x.written = System.nanoTime();
+        x.start = start == 0 ? encoded : start;
+        x.sample.rpc = operation(head);
+        x.sample.bytesOut = bytesOut;
+        x.sample.encodeNanos = encoded - x.start;
+        x.sample.writeNanos = x.written - encoded;
+        synchronized (outstanding) {
+            outstanding.add(x);
+        }
+        head.setLength(0);
+        start = 0;
+        bytesOut = 0;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return delegate.ready();
+    }
+
+    @Override
+    public StringBuffer readOne() throws IOException, JNCException {
+        complete(0, false);
+        Exchange x;
+        synchronized (outstanding) {
+            x = outstanding.poll();
+        }
+        if (x == null) {
+            x = new Exchange();
+            x.sample.rpc = "notification";
+            x.start = x.written = System.nanoTime();
+        }
+        final StringBuffer reply;
+        try {
+            reply = delegate.readOne();
+        } catch (final IOException e) {
+            fail(x);
+            throw e;
+        } catch (final JNCException e) {
+            fail(x);
+            throw e;
+        }
+        x.read = System.nanoTime();
+        x.sample.readNanos = x.read - x.written;
+        x.sample.bytesIn = reply.length();
+        received = x;
+        return reply;
+    }
+
+    private void fail(Exchange x) {
+        x.read = System.nanoTime();
+        x.sample.readNanos = x.read - x.written;
+        x.sample.totalNanos = x.read - x.start;
+        x.sample.failed = true;
+        metrics.record(x.sample);
+    }
+
+    /**
+     * Reports the reply read last, once it has been parsed.
+     *
+     * @param parseNanos Time spent parsing the reply.
+     * @param failed <code>true</code> if the reply could not be parsed.
+     */
+    void complete(long parseNanos, boolean failed) {
+        final Exchange x = received;
+        if (x == null) {
+            return;
+        }
+        received = null;
+        x.sample.parseNanos = parseNanos;
+        x.sample.totalNanos = x.read + parseNanos - x.start;
+        x.sample.failed = failed;
+        metrics.record(x.sample);
+    }
+
+    @Override
+    public void close() {
+        complete(0, false);
+        delegate.close();
+    }
+
+    /**
+     * Returns the name of the first element inside the <code>rpc</code>
+     * element of a request, or the name of the top element if it is not an
+     * rpc, without prefix.
+     */
+    static String operation(CharSequence msg) {
+        String name = elementName(msg, 0);
+        if ("rpc".equals(name)) {
+            // skip the attributes of the rpc start tag
+            int i = indexOf(msg, '<', 0) + 1;
+            char quote = 0;
+            for (; i < msg.length(); i++) {
+                final char c = msg.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    break;
+                }
+            }
+            final String op = elementName(msg, i + 1);
+            if (op != null) {
+                name = op;
+            }
+        }
+        return name != null ? name : "unknown";
+    }
+
+    private static String elementName(CharSequence msg, int from) {
+        final int lt = indexOf(msg, '<', from);
+        if (lt < 0) {
+            return null;
+        }
+        int begin = lt + 1;
+        int i = begin;
+        for (; i < msg.length(); i++) {
+            final char c = msg.charAt(i);
+            if (c == ':') {
+                begin = i + 1;
+            } else if (c == '>' || c == '/' || Character.isWhitespace(c)) {
+                break;
+            }
+        }
+        if (i == msg.length() || i == begin) {
+            return null;
+        }
+        return msg.subSequence(begin, i).toString();
+    }
+
+    private static int indexOf(CharSequence msg, char c, int from) {
+        for (int i = from; i < msg.length(); i++) {
+            if (msg.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,218 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small, fixed set of I/O threads that serve any number of
+ * {@link NIOSession} transports. Each thread owns a
+ * {@link java.nio.channels.Selector}, and reads, frames and dispatches the
+ * replies of the sessions registered with it, so a session does not need a
+ * thread of its own while it waits for data.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * NIOReactor reactor = new NIOReactor(4);
+ * NIOSession tr = reactor.connect(&quot;127.0.0.1&quot;, 2023);
+ * NetconfSession dev1 = new NetconfSession(tr);
+ * ...
+ * reactor.close();
+ * </pre>
+ *
+ * The sessions are NETCONF over plain TCP, as the Ganymed SSH
+ * implementation used by {@link SSHSession} only offers blocking streams.
+ *
+ * @see NIOSession
+ */
+public class NIOReactor {
+
+    private final Worker[] workers;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a reactor and starts its I/O threads.
+     *
+     * @param threads Number of I/O threads.
+     * @throws IOException If a selector cannot be opened.
+     */
+    public NIOReactor(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+        }
+        for (final Worker w : workers) {
+            w.start();
+        }
+    }
+
+    /**
+     * Connects to a NETCONF agent over TCP and registers the connection with
+     * one of the I/O threads.
+     *
+     * @param host Host name or IP address of the agent.
+     * @param port TCP port of the agent.
+     * @return A transport to pass to the {@link NetconfSession} constructor.
+     * @throws IOException If the connection fails.
+     */
+    public NIOSession connect(String host, int port) throws IOException {
+        final SocketChannel ch = SocketChannel.open(new InetSocketAddress(
+                host, port));
+        try {
+            return register(ch);
+        } catch (final IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Registers a connected channel with one of the I/O threads.
+     *
+     * @param ch A connected socket channel.
+     * @return A transport for the channel.
+     * @throws IOException If the channel cannot be made non-blocking.
+     */
+    public NIOSession register(SocketChannel ch) throws IOException {
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        final Worker w = workers[(next.getAndIncrement() & Integer.MAX_VALUE)
+                % workers.length];
+        final NIOSession s = new NIOSession(ch, w);
+        w.execute(new Runnable() {
+            @Override
+            public void run() {
+                s.registered(w.selector);
+            }
+        });
+        return s;
+    }
+
+    /**
+     * Stops the I/O threads and closes all sessions.
+     */
+    public void close() {
+        for (final Worker w : workers) {
+            w.shutdown();
+        }
+    }
+
+    /**
+     * An I/O thread and its selector.
+     */
+    static class Worker extends Thread {
+
+        final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final ByteBuffer readBuf = ByteBuffer.allocateDirect(64 * 1024);
+        private volatile boolean running = true;
+        private volatile boolean stopped = false;
+
+        Worker(int i) throws IOException {
+            super("jnc-nio-" + i);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on this I/O thread, or on the calling thread once the
+         * I/O thread has stopped.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+            if (stopped) {
+                runTasks();
+            }
+        }
+
+        /**
+         * Runs the queued tasks. A task that fails does not stop the others.
+         */
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (final RuntimeException e) {
+                    trace("task failed: ", e);
+                }
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    runTasks();
+                    final Iterator<SelectionKey> it = selector.selectedKeys()
+                            .iterator();
+                    while (it.hasNext()) {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        final NIOSession s = (NIOSession) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                s.readable(readBuf);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                s.writable();
+                            }
+                        } catch (final CancelledKeyException e) {
+                            s.closed(null);
+                        } catch (final IOException e) {
+                            trace("session failed: ", e);
+                            s.closed(e);
+                        } catch (final RuntimeException e) {
+                            // a listener failed, the other sessions go on
+                            s.failed(e);
+                        }
+                    }
+                }
+            } catch (final IOException e) {
+                trace("selector failed: ", e);
+            } finally {
+                for (final SelectionKey key : selector.keys()) {
+                    try {
+                        ((NIOSession) key.attachment()).close();
+                    } catch (final RuntimeException e) {
+                        trace("listener failed: ", e);
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+                stopped = true;
+                runTasks();
+            }
+        }
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.TRANSPORT, "NIOReactor", msg);
+    }
+}
@@ -0,0 +1,476 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-blocking TCP NETCONF transport, served by the I/O threads of a
+ * {@link NIOReactor}. Incoming data is framed into replies on an I/O thread,
+ * and each complete reply is either queued for {@link #readOne()} or handed
+ * to a {@link MessageListener}. With a listener, for instance for
+ * notification subscriptions, no thread is blocked per session at all.
+ * <p>
+ * Output is buffered until {@link #flush()}, which writes the message
+ * directly if the socket accepts it and otherwise leaves the rest to the
+ * I/O thread.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * NIOReactor reactor = new NIOReactor(2);
+ * NIOSession tr = reactor.connect(&quot;127.0.0.1&quot;, 2023);
+ * NetconfSession dev1 = new NetconfSession(tr);
+ * </pre>
+ *
+ * @see NIOReactor
+ */
+public class NIOSession implements Transport {
+
+    /**
+     * Receives the messages of a session on the I/O thread of the session.
+     * Implementations must not block. A runtime exception thrown by a
+     * listener closes its session, with the exception as the cause.
+     */
+    public interface MessageListener {
+
+        /**
+         * Called with each complete message received, without end marker.
+         */
+        public void messageReceived(NIOSession session, StringBuffer msg);
+
+        /**
+         * Called once when the session is closed.
+         *
+         * @param cause The error that closed the session, or
+         *            <code>null</code> if it was closed normally.
+         */
+        public void sessionClosed(NIOSession session, IOException cause);
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String endmarker = "]]>]]>";
+    private static final byte[] END = endmarker.getBytes(UTF8);
+
+    /**
+     * Queued for {@link #readOne()} when the session is closed.
+     */
+    private static final StringBuffer CLOSED = new StringBuffer();
+
+    private final SocketChannel channel;
+    private final NIOReactor.Worker worker;
+    private SelectionKey key = null;
+
+    // input, only touched by the I/O thread
+    private byte[] inb = new byte[8192];
+    private int inlen = 0;
+    private int scanned = 0;
+
+    private final LinkedBlockingQueue<StringBuffer> replies = new LinkedBlockingQueue<StringBuffer>();
+    private volatile MessageListener listener = null;
+
+    // output
+    private final StringBuilder outb = new StringBuilder(1024);
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+
+    private final CopyOnWriteArrayList<FrameSubscriber> ioSubscribers = new CopyOnWriteArrayList<FrameSubscriber>();
+    private volatile boolean closed = false;
+    private volatile IOException failure = null;
+    protected long readTimeout = 0; // millisecs
+
+    NIOSession(SocketChannel channel, NIOReactor.Worker worker) {
+        this.channel = channel;
+        this.worker = worker;
+    }
+
+    /**
+     * Called on the I/O thread when the session is handed to it.
+     */
+    void registered(Selector selector) {
+        try {
+            synchronized (pending) {
+                key = channel.register(selector, pending.isEmpty()
+                        ? SelectionKey.OP_READ : SelectionKey.OP_READ
+                                | SelectionKey.OP_WRITE, this);
+            }
+        } catch (final ClosedChannelException e) {
+            closed(null);
+        }
+    }
+
+    /**
+     * Return the readTimeout value that is used by {@link #readOne()}.
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Set the read timeout
+     *
+     * @param readTimeout timeout in milliseconds. If a read doesn't complete
+     *            within the timeout a JNCException is thrown. The socket is
+     *            not closed.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sets a listener that receives all messages from now on, on the I/O
+     * thread, instead of queueing them for {@link #readOne()}. Messages
+     * already queued are handed to the listener first.
+     *
+     * @param l The listener, or <code>null</code> to go back to queueing.
+     */
+    public void setMessageListener(final MessageListener l) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                StringBuffer msg;
+                try {
+                    while (l != null && (msg = replies.poll()) != null) {
+                        if (msg == CLOSED) {
+                            l.sessionClosed(NIOSession.this, failure);
+                        } else {
+                            l.messageReceived(NIOSession.this, msg);
+                        }
+                    }
+                } catch (final RuntimeException e) {
+                    listener = l;
+                    failed(e);
+                    return;
+                }
+                listener = l;
+            }
+        });
+    }
+
+    /**
+     * Tell whether this transport is ready to be read.
+     *
+     * @return true if a complete reply has been received, or the session is
+     *         closed.
+     */
+    @Override
+    public boolean ready() {
+        return !replies.isEmpty();
+    }
+
+    /**
+     * Returns the next reply received, waiting for at most readTimeout
+     * milliseconds if it is set.
+     */
+    @Override
+    public StringBuffer readOne() throws IOException, JNCException {
+        StringBuffer msg;
+        try {
+            if (readTimeout > 0) {
+                msg = replies.poll(readTimeout, TimeUnit.MILLISECONDS);
+                if (msg == null) {
+                    throw new JNCException(JNCException.TIMEOUT_ERROR,
+                            Long.valueOf(readTimeout));
+                }
+            } else {
+                msg = replies.take();
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("interrupted in readOne");
+        }
+        if (msg == CLOSED) {
+            // let later readers see the end as well
+            replies.add(CLOSED);
+            if (failure != null) {
+                throw failure;
+            }
+            throw new IOException("Session closed");
+        }
+        return msg;
+    }
+
+    /**
+     * Reads what is available from the socket and dispatches the complete
+     * messages. Called on the I/O thread.
+     */
+    void readable(ByteBuffer buf) throws IOException {
+        int n;
+        do {
+            buf.clear();
+            n = channel.read(buf);
+            if (n < 0) {
+                trace("end of input (-1)");
+                closed(null);
+                return;
+            }
+            buf.flip();
+            if (inlen + n > inb.length) {
+                final byte[] b = new byte[Math.max(inb.length * 2, inlen + n)];
+                System.arraycopy(inb, 0, b, 0, inlen);
+                inb = b;
+            }
+            buf.get(inb, inlen, n);
+            inlen += n;
+            frame();
+        } while (n == buf.capacity());
+    }
+
+    /**
+     * Splits the input buffer into messages on the end marker.
+     */
+    private void frame() {
+        int start = 0;
+        for (int i = Math.max(scanned, END.length - 1); i < inlen; i++) {
+            if (inb[i] == '>' && i - start >= END.length - 1
+                    && endsWithMarker(i)) {
+                dispatch(new String(inb, start, i + 1 - END.length - start,
+                        UTF8));
+                start = i + 1;
+            }
+        }
+        if (start > 0) {
+            System.arraycopy(inb, start, inb, 0, inlen - start);
+            inlen -= start;
+        }
+        scanned = inlen;
+    }
+
+    private boolean endsWithMarker(int i) {
+        for (int j = 0; j < END.length; j++) {
+            if (inb[i - END.length + 1 + j] != END[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatch(String s) {
+        final StringBuffer msg = new StringBuffer(s);
+        for (final FrameSubscriber sub : ioSubscribers) {
+            sub.inputFrame(s);
+        }
+        final MessageListener l = listener;
+        if (l != null) {
+            l.messageReceived(this, msg);
+        } else {
+            replies.add(msg);
+        }
+    }
+
+    /**
+     * Writes pending output. Called on the I/O thread.
+     */
+    void writable() throws IOException {
+        synchronized (pending) {
+            writePending();
+        }
+    }
+
+    private void writePending() throws IOException {
+        ByteBuffer b;
+        while ((b = pending.peek()) != null) {
+            channel.write(b);
+            if (b.hasRemaining()) {
+                break;
+            }
+            pending.poll();
+        }
+        if (key != null && key.isValid()) {
+            key.interestOps(pending.isEmpty() ? SelectionKey.OP_READ
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Closes the session after an error or end of input. Called on the I/O
+     * thread.
+     */
+    void closed(IOException cause) {
+        if (closed) {
+            return;
+        }
+        if (cause != null) {
+            failure = cause;
+        }
+        close();
+    }
+
+    /**
+     * Closes the session after its listener threw an exception. Called on
+     * the I/O thread.
+     */
+    void failed(RuntimeException e) {
+        trace("listener failed: ", e);
+        closed(new IOException("listener failed: " + e, e));
+    }
+
+    /**
+     * Prints an integer (as text) to the output buffer.
+     *
+     * @param iVal Text to send to the stream.
+     */
+    @Override
+    public void print(long iVal) {
+        synchronized (outb) {
+            outb.append(iVal);
+        }
+    }
+
+    /**
+     * Prints text to the output buffer.
+     *
+     * @param s Text to send to the stream.
+     */
+    @Override
+    public void print(String s) {
+        synchronized (outb) {
+            outb.append(s);
+        }
+    }
+
+    /**
+     * Prints an integer (as text) to the output buffer. A newline char is
+     * appended.
+     *
+     * @param iVal Text to send to the stream.
+     */
+    @Override
+    public void println(int iVal) {
+        synchronized (outb) {
+            outb.append(iVal).append('\n');
+        }
+    }
+
+    /**
+     * Prints text to the output buffer. A newline char is appended.
+     *
+     * @param s Text to send to the stream.
+     */
+    @Override
+    public void println(String s) {
+        synchronized (outb) {
+            outb.append(s).append('\n');
+        }
+    }
+
+    /**
+     * Appends the <em>]]&gt;]]&gt;</em> end marker to the buffered message
+     * and sends it. A write error closes the session, and is thrown by the
+     * next {@link #readOne()}.
+     */
+    @Override
+    public void flush() {
+        final String msg;
+        final ByteBuffer b;
+        synchronized (outb) {
+            msg = outb.toString();
+            outb.append(endmarker);
+            b = ByteBuffer.wrap(outb.toString().getBytes(UTF8));
+            outb.setLength(0);
+        }
+        for (final FrameSubscriber sub : ioSubscribers) {
+            sub.outputFrame(msg);
+        }
+        if (closed) {
+            return;
+        }
+        synchronized (pending) {
+            final boolean idle = pending.isEmpty();
+            pending.add(b);
+            if (idle) {
+                try {
+                    writePending();
+                } catch (final IOException e) {
+                    failure = e;
+                    close();
+                }
+            }
+            // if not registered yet, registered() sets the interest
+        }
+    }
+
+    /**
+     * Add an IO Subscriber for this transport. Input is reported on the I/O
+     * thread.
+     *
+     * @param s A subscriber, for example an {@link IOSubscriber}, that will
+     *            be called with each message received or sent on this
+     *            transport.
+     */
+    public void addSubscriber(FrameSubscriber s) {
+        ioSubscribers.add(s);
+    }
+
+    /**
+     * Removes an IO subscriber.
+     *
+     * @param s The IO subscriber to remove.
+     */
+    public void delSubscriber(FrameSubscriber s) {
+        ioSubscribers.remove(s);
+    }
+
+    /**
+     * @return The underlying socket channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Closes the TCP connection. Replies already received can still be read.
+     * A listener is told on the I/O thread, after the messages received
+     * before.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            // ignore
+        }
+        if (Thread.currentThread() == worker) {
+            notifyClosed();
+        } else {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyClosed();
+                }
+            });
+        }
+    }
+
+    private void notifyClosed() {
+        final MessageListener l = listener;
+        if (l != null) {
+            l.sessionClosed(this, failure);
+        } else {
+            replies.add(CLOSED);
+        }
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.TRANSPORT, "NIOSession", msg);
+    }
+}
@@ -1,7 +1,21 @@
 package com.tailf.jnc;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+import org.xml.sax.InputSource;
 
 /**
  * A NETCONF session class. It makes it possible to connect to a NETCONF agent
@@ -202,6 +216,16 @@ public class NetconfSession {
      */
     Transport in;
 
+    /**
+     * Wraps the transport while metrics are set.
+     */
+    private MeteredTransport metered = null;
+
+    /**
+     * Cached get-config replies, if set.
+     */
+    private volatile ConfigCache configCache = null;
+
     /**
      * Creates a new session object using the given transport object. This will
      * initialize the transport and send out an initial hello message to the
@@ -272,6 +296,10 @@ public class NetconfSession {
      * @param transport Transport object, for example {@link SSHSession}
      */
     public void setTransport(Transport transport) {
+        if (metered != null) {
+            metered = new MeteredTransport(transport, metered.getMetrics());
+            transport = metered;
+        }
         out = transport;
         in = transport; // same
     }
@@ -282,7 +310,177 @@ public class NetconfSession {
      * @see SSHSession
      */
     public Transport getTransport() {
-        return in;
+        return metered != null ? metered.getDelegate() : in;
+    }
+
+    /**
+     * Sets a receiver of measurements for each message exchanged from now on:
+     * the operation, the sizes of the request and reply, and the time spent
+     * encoding, writing, waiting for and parsing the reply. Without metrics
+     * nothing is measured.
+     * 
+     * @param metrics The receiver, for example an {@link RpcStatistics}, or
+     *            <code>null</code> to stop measuring.
+     */
+    public void setMetrics(RpcMetrics metrics) {
+        final Transport transport = getTransport();
+        metered = null;
+        if (metrics != null && transport != null) {
+            metered = new MeteredTransport(transport, metrics);
+            out = metered;
+            in = metered;
+        } else {
+            out = transport;
+            in = transport;
+        }
+    }
+
+    /**
+     * @return The receiver of measurements, or <code>null</code> if none.
+     */
+    public RpcMetrics getMetrics() {
+        return metered != null ? metered.getMetrics() : null;
+    }
+
+    /**
+     * Answers <code>get-config</code> requests from a cache, see
+     * {@link ConfigCache}. Several sessions to the same device may share a
+     * cache.
+     * 
+     * @param cache The cache, or <code>null</code> to send every request.
+     */
+    public void setConfigCache(ConfigCache cache) {
+        configCache = cache;
+    }
+
+    /**
+     * @return The cache of <code>get-config</code> replies, or
+     *         <code>null</code> if none.
+     */
+    public ConfigCache getConfigCache() {
+        return configCache;
+    }
+
+    /**
+     * Tells the cache, if any, that a datastore may have been changed.
+     */
+    private void changed(int datastore) {
+        final ConfigCache cache = configCache;
+        if (cache != null) {
+            cache.invalidate(datastore);
+        }
+    }
+
+    /**
+     * Parses a message read from the transport, timing the parse when
+     * metrics are set.
+     */
+    private Element parse(XMLParser parser, StringBuffer msg)
+            throws JNCException {
+        return parse(parser, msg, null, null);
+    }
+
+    /**
+     * Parses a message read from the transport, handing the elements at path
+     * to visitor if path is not <code>null</code>.
+     */
+    private Element parse(XMLParser parser, StringBuffer msg, Tagpath path,
+            ElementVisitor visitor) throws JNCException {
+        final MeteredTransport m = metered;
+        if (m == null) {
+            return path == null ? parser.parse(msg.toString()) : parser
+                    .parse(XMLParser.source(msg), path, visitor);
+        }
+        final long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            final Element t = path == null ? parser.parse(msg.toString())
+                    : parser.parse(XMLParser.source(msg), path, visitor);
+            ok = true;
+            return t;
+        } finally {
+            m.complete(System.nanoTime() - t0, !ok);
+        }
+    }
+
+    /**
+     * Parses a reply as it is read from a streaming transport, handing the
+     * elements at path to visitor, so that the reply is never held whole.
+     * The rest of the reply is read and dropped if parsing fails, to keep
+     * the session usable.
+     */
+    private Element parseStreamed(StreamingTransport transport, Tagpath path,
+            ElementVisitor visitor) throws JNCException, IOException {
+        final ReplyReader r = new ReplyReader(transport.replyReader());
+        final Element t;
+        try {
+            t = parser.parse(new InputSource(r), path, visitor);
+        } catch (final JNCException e) {
+            r.rethrow();
+            try {
+                r.drain();
+            } catch (final IOException ignore) {
+                trace("could not skip the rest of the reply: ", ignore);
+            }
+            throw e;
+        }
+        try {
+            r.drain();
+        } catch (final IOException e) {
+            r.rethrow();
+        }
+        return t;
+    }
+
+    /**
+     * A reply from a streaming transport, that keeps the error of the
+     * transport, which the parser would report as a parse error.
+     */
+    private static class ReplyReader extends Reader {
+        private final Reader reply;
+        private IOException failure = null;
+
+        ReplyReader(Reader reply) {
+            this.reply = reply;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            try {
+                return reply.read(cbuf, off, len);
+            } catch (final IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the rest of the reply.
+         */
+        void drain() throws IOException {
+            if (failure == null) {
+                final char[] buf = new char[8192];
+                while (read(buf, 0, buf.length) != -1) {
+                }
+            }
+        }
+
+        /**
+         * Throws the error of the transport, if any.
+         */
+        void rethrow() throws JNCException, IOException {
+            if (failure == null) {
+                return;
+            }
+            if (failure.getCause() instanceof JNCException) {
+                throw (JNCException) failure.getCause();
+            }
+            throw failure;
+        }
+
+        @Override
+        public void close() {
+        }
     }
 
     /**
@@ -303,15 +501,17 @@ public class NetconfSession {
         out.flush();
         final StringBuffer reply = in.readOne();
         // System.out.println("reply= "+ reply);
-        final Element t = parser.parse(reply.toString());
+        final Element t = parse(parser, reply);
         final Element capatree = t.getFirst("self::hello/capabilities");
         if (capatree == null) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "hello contains no capabilities");
         }
-        trace("capabilities: \n" + capatree.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("capabilities: \n", capatree.toXMLString());
+        }
 
-        capabilities = new Capabilities(capatree);
+        capabilities = Capabilities.get(capatree);
         if (!capabilities.baseCapability) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "server does not support NETCONF base capability: "
@@ -324,7 +524,7 @@ public class NetconfSession {
                     "hello contains no session identifier");
         }
         sessionId = Long.parseLong((String) sess.value);
-        trace("sessionId = " + sessionId);
+        trace("sessionId = ", sessionId);
     }
 
     /**
@@ -344,7 +544,7 @@ public class NetconfSession {
         out.print(request);
         out.flush();
         final StringBuffer reply = in.readOne();
-        return parser.parse(reply.toString());
+        return parse(parser, reply);
     }
 
     /**
@@ -365,7 +565,7 @@ public class NetconfSession {
         request.encode(out, false, capabilities);
         out.flush();
         final StringBuffer reply = in.readOne();
-        return parser.parse(reply.toString());
+        return parse(parser, reply);
     }
 
     /**
@@ -413,7 +613,7 @@ public class NetconfSession {
      */
     public Element readReply() throws IOException, JNCException {
         final StringBuffer reply = in.readOne();
-        return parser.parse(reply.toString());
+        return parse(parser, reply);
     }
 
     /**
@@ -436,8 +636,23 @@ public class NetconfSession {
     /**
      * Gets the device configuration data.
      */
-    public NodeSet getConfig(int datastore) throws JNCException, IOException {
-        trace("getConfig: " + datastoreToString(datastore));
+    public NodeSet getConfig(final int datastore) throws JNCException,
+            IOException {
+        final ConfigCache cache = configCache;
+        if (cache != null) {
+            return cache.get(datastore, "", new Callable<NodeSet>() {
+                @Override
+                public NodeSet call() throws JNCException, IOException {
+                    return fetchConfig(datastore);
+                }
+            });
+        }
+        return fetchConfig(datastore);
+    }
+
+    private NodeSet fetchConfig(int datastore) throws JNCException,
+            IOException {
+        trace("getConfig: ", datastoreToString(datastore));
         final int mid = encode_getConfig(out, encode_datastore(datastore));
         out.flush();
         return recv_rpc_reply_data(mid);
@@ -447,7 +662,9 @@ public class NetconfSession {
      * Calls rpc method.
      */
     public NodeSet callRpc(Element data) throws JNCException, IOException {
-        trace("call: " + data.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("call: ", data.toXMLString());
+        }
         final int mid = encode_rpc(out, data);
         out.flush();
         return recv_call_rpc_reply(data, mid);
@@ -459,7 +676,9 @@ public class NetconfSession {
      * Returns the request-id used in the message.
      */
     public int sendRpc(Element data) throws JNCException, IOException {
-        trace("send rpc: " + data.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("send rpc: ", data.toXMLString());
+        }
         final int mid = encode_rpc(out, data);
         out.flush();
         return mid;
@@ -482,10 +701,28 @@ public class NetconfSession {
      *            {@link #CANDIDATE}, {@link #STARTUP}
      * @param subtreeFilter A subtree filter
      */
-    public NodeSet getConfig(int datastore, Element subtreeFilter)
+    public NodeSet getConfig(final int datastore,
+            final Element subtreeFilter) throws JNCException, IOException {
+        final ConfigCache cache = configCache;
+        if (cache != null) {
+            return cache.get(datastore, ConfigCache.key(subtreeFilter),
+                    new Callable<NodeSet>() {
+                        @Override
+                        public NodeSet call() throws JNCException,
+                                IOException {
+                            return fetchConfig(datastore, subtreeFilter);
+                        }
+                    });
+        }
+        return fetchConfig(datastore, subtreeFilter);
+    }
+
+    private NodeSet fetchConfig(int datastore, Element subtreeFilter)
             throws JNCException, IOException {
-        trace("getConfig: " + datastoreToString(datastore) + "\n"
-                + subtreeFilter.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("getConfig: ", datastoreToString(datastore), "\n",
+                    subtreeFilter.toXMLString());
+        }
         final int mid = encode_getConfig(out, encode_datastore(datastore),
                 subtreeFilter);
         out.flush();
@@ -499,10 +736,25 @@ public class NetconfSession {
      *            {@link #CANDIDATE}, {@link #STARTUP}
      * @param xpath XPath expression
      */
-    public NodeSet getConfig(int datastore, String xpath)
+    public NodeSet getConfig(final int datastore, final String xpath)
             throws JNCException, IOException {
-        trace("getConfig: " + datastoreToString(datastore) + " \"" + xpath
-                + "\"");
+        final ConfigCache cache = configCache;
+        if (cache != null) {
+            return cache.get(datastore, "xpath " + xpath.trim(),
+                    new Callable<NodeSet>() {
+                        @Override
+                        public NodeSet call() throws JNCException,
+                                IOException {
+                            return fetchConfig(datastore, xpath);
+                        }
+                    });
+        }
+        return fetchConfig(datastore, xpath);
+    }
+
+    private NodeSet fetchConfig(int datastore, String xpath)
+            throws JNCException, IOException {
+        trace("getConfig: ", datastoreToString(datastore), " \"", xpath, "\"");
         if (!capabilities.xpathCapability) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "the :xpath capability is not supported by server");
@@ -530,7 +782,9 @@ public class NetconfSession {
      */
     public NodeSet get(Element subtreeFilter) throws JNCException,
             IOException {
-        trace("get: " + subtreeFilter.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("get: ", subtreeFilter.toXMLString());
+        }
         final int mid = encode_get(out, subtreeFilter);
         out.flush();
         return recv_rpc_reply_data(mid);
@@ -543,7 +797,7 @@ public class NetconfSession {
      * @param xpath An xpath epxression.
      */
     public NodeSet get(String xpath) throws JNCException, IOException {
-        trace("get: \"" + xpath + "\"");
+        trace("get: \"", xpath, "\"");
         if (!capabilities.hasXPath()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "the :xpath capability is not supported by server");
@@ -553,6 +807,218 @@ public class NetconfSession {
         return recv_rpc_reply_data(mid);
     }
 
+    /**
+     * Gets the device configuration data one subtree at a time, for replies
+     * too large to return as a {@link NodeSet}. Each element at the path is
+     * handed to the visitor as soon as it has been parsed, and is not kept
+     * by the session. With a {@link StreamingTransport}, such as
+     * {@link SSHSession}, the reply is parsed as it is read and is never
+     * held whole, and metrics are not measured. Other transports return the
+     * whole reply before it is parsed.
+     * 
+     * @param path Local names of the elements to visit, starting below the
+     *            <code>data</code> element, for example
+     *            <code>"routes/route"</code>. <code>*</code> matches any
+     *            name.
+     * @param visitor Receives the elements at the path.
+     * @return The number of elements visited.
+     */
+    public int getConfig(Tagpath path, ElementVisitor visitor)
+            throws JNCException, IOException {
+        return getConfig(RUNNING, null, path, visitor);
+    }
+
+    /**
+     * Gets the device configuration data specified by subtree filtering, one
+     * subtree at a time.
+     * 
+     * @param datastore The datastore. One of {@link #RUNNING},
+     *            {@link #CANDIDATE}, {@link #STARTUP}
+     * @param subtreeFilter A subtree filter, or <code>null</code> for all
+     *            configuration data.
+     * @param path Local names of the elements to visit, starting below the
+     *            <code>data</code> element.
+     * @param visitor Receives the elements at the path.
+     * @return The number of elements visited.
+     * @see #getConfig(Tagpath, ElementVisitor)
+     */
+    public int getConfig(int datastore, Element subtreeFilter, Tagpath path,
+            ElementVisitor visitor) throws JNCException, IOException {
+        trace("getConfig: ", datastoreToString(datastore), " visiting ", path);
+        final int mid;
+        if (subtreeFilter == null) {
+            mid = encode_getConfig(out, encode_datastore(datastore));
+        } else {
+            mid = encode_getConfig(out, encode_datastore(datastore),
+                    subtreeFilter);
+        }
+        out.flush();
+        return recv_rpc_reply_data(mid, path, visitor);
+    }
+
+    /**
+     * Writes a configuration datastore to a file, for backups. The
+     * <code>data</code> element of the reply is written as it is read from
+     * the transport, without building elements, see
+     * {@link #backupConfig(int, Element, OutputStream)}. The file is replaced
+     * when the whole reply has been written, and is left as it was if the
+     * backup fails.
+     * 
+     * @param datastore The datastore. One of {@link #RUNNING},
+     *            {@link #CANDIDATE}, {@link #STARTUP}
+     * @param subtreeFilter A subtree filter, or <code>null</code> for all
+     *            configuration data.
+     * @param file The file to write.
+     * @param gzip <code>true</code> to compress the file with gzip.
+     * @return The number of characters of configuration written.
+     */
+    public long backupConfig(int datastore, Element subtreeFilter, File file,
+            boolean gzip) throws JNCException, IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File tmp = File.createTempFile("backup", ".tmp", dir);
+        boolean done = false;
+        try {
+            final FileOutputStream f = new FileOutputStream(tmp);
+            final long n;
+            try {
+                final OutputStream os = Channels.newOutputStream(f
+                        .getChannel());
+                if (gzip) {
+                    final GZIPOutputStream z = new GZIPOutputStream(os, 65536);
+                    n = backupConfig(datastore, subtreeFilter, z);
+                    z.finish();
+                } else {
+                    n = backupConfig(datastore, subtreeFilter, os);
+                }
+                f.getFD().sync();
+            } finally {
+                f.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            done = true;
+            return n;
+        } finally {
+            if (!done) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a configuration datastore to a stream as a UTF-8 XML document,
+     * whose top element is the <code>data</code> element of the reply. It is
+     * written as it is read from the transport, without building elements,
+     * so that backups of large configurations are not held up by parsing or
+     * limited by memory. The configuration can be read back with an
+     * {@link XMLParser}, whose top element then has the trees that
+     * {@link #getConfig(int, Element)} would return as children.
+     * <p>
+     * The reply is streamed when the transport is a
+     * {@link StreamingTransport}, such as {@link SSHSession}, and metrics are
+     * not measured. Otherwise the reply is read whole from the transport, and
+     * written without parsing it.
+     * <p>
+     * The session cache, if any, is not used.
+     * 
+     * @param datastore The datastore. One of {@link #RUNNING},
+     *            {@link #CANDIDATE}, {@link #STARTUP}
+     * @param subtreeFilter A subtree filter, or <code>null</code> for all
+     *            configuration data.
+     * @param os The stream to write to, which is flushed but not closed.
+     * @return The number of characters of configuration written.
+     * @throws JNCException If the server replies with an error, in which case
+     *             nothing has been written.
+     */
+    public long backupConfig(int datastore, Element subtreeFilter,
+            OutputStream os) throws JNCException, IOException {
+        trace("backupConfig: ", datastoreToString(datastore));
+        final int mid;
+        if (subtreeFilter == null) {
+            mid = encode_getConfig(out, encode_datastore(datastore));
+        } else {
+            mid = encode_getConfig(out, encode_datastore(datastore),
+                    subtreeFilter);
+        }
+        out.flush();
+
+        final Writer w = new BufferedWriter(new OutputStreamWriter(os,
+                "UTF-8"), 65536);
+        final ReplyDataFilter data = new ReplyDataFilter(w);
+        if (in instanceof StreamingTransport) {
+            ((StreamingTransport) in).readOne(data);
+        } else {
+            final StringBuffer reply = in.readOne();
+            final char[] chunk = new char[8192];
+            for (int i = 0; i < reply.length(); i += chunk.length) {
+                final int j = Math.min(reply.length(), i + chunk.length);
+                reply.getChars(i, j, chunk, 0);
+                data.write(chunk, 0, j - i);
+            }
+            if (metered != null) {
+                metered.complete(0, false);
+            }
+        }
+        data.flush();
+        if (data.isOther()) {
+            throw new JNCException(JNCException.RPC_REPLY_ERROR, parser
+                    .parse(data.getReply()));
+        } else if (!data.isComplete()) {
+            throw new JNCException(JNCException.PARSER_ERROR,
+                    "rpc-reply without a complete data element");
+        }
+        final String id = data.getMessageId();
+        if (id == null || !id.equals(Integer.toString(mid))) {
+            throw new JNCException(JNCException.MESSAGE_ID_MISMATCH,
+                    "After sending rpc with message-id=" + mid
+                            + ", received rpc-reply with message-id=" + id);
+        }
+        trace("backupConfig: ", data.getCount(), " characters");
+        return data.getCount();
+    }
+
+    /**
+     * Retrieves running configuration and device state information one
+     * subtree at a time, for replies too large to return as a
+     * {@link NodeSet}, such as routing or MAC address tables.
+     * 
+     * @param path Local names of the elements to visit, starting below the
+     *            <code>data</code> element.
+     * @param visitor Receives the elements at the path.
+     * @return The number of elements visited.
+     * @see #getConfig(Tagpath, ElementVisitor)
+     */
+    public int get(Tagpath path, ElementVisitor visitor) throws JNCException,
+            IOException {
+        return get(null, path, visitor);
+    }
+
+    /**
+     * Retrieves running configuration and device state information specified
+     * by subtree filtering, one subtree at a time.
+     * 
+     * @param subtreeFilter A subtree filter, or <code>null</code> for all
+     *            data.
+     * @param path Local names of the elements to visit, starting below the
+     *            <code>data</code> element.
+     * @param visitor Receives the elements at the path.
+     * @return The number of elements visited.
+     * @see #getConfig(Tagpath, ElementVisitor)
+     */
+    public int get(Element subtreeFilter, Tagpath path, ElementVisitor visitor)
+            throws JNCException, IOException {
+        trace("get: visiting ", path);
+        final int mid;
+        if (subtreeFilter == null) {
+            mid = encode_get(out, "");
+        } else {
+            mid = encode_get(out, subtreeFilter);
+        }
+        out.flush();
+        return recv_rpc_reply_data(mid, path, visitor);
+    }
+
     /**
      * Edits the configuration. The <code>edit-config</code> operation loads
      * all or part of a specified configuration to the {@link #RUNNING} target
@@ -587,22 +1053,34 @@ public class NetconfSession {
      */
     public void editConfig(int datastore, Element configTree)
             throws JNCException, IOException {
-        trace("editConfig: target=" + datastoreToString(datastore) + "\n"
-                + configTree.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("editConfig: target=", datastoreToString(datastore), "\n",
+                    configTree.toXMLString());
+        }
         final int mid = encode_editConfig(out, encode_datastore(datastore),
                 configTree);
         out.flush();
-        recv_rpc_reply_ok(mid);
+        try {
+            recv_rpc_reply_ok(mid);
+        } finally {
+            changed(datastore);
+        }
     }
 
     public void editConfig(int datastore, NodeSet configTrees)
             throws JNCException, IOException {
-        trace("editConfig: target=" + datastoreToString(datastore) + "\n"
-                + configTrees.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("editConfig: target=", datastoreToString(datastore), "\n",
+                    configTrees.toXMLString());
+        }
         final int mid = encode_editConfig(out, encode_datastore(datastore),
                 configTrees);
         out.flush();
-        recv_rpc_reply_ok(mid);
+        try {
+            recv_rpc_reply_ok(mid);
+        } finally {
+            changed(datastore);
+        }
     }
 
     /**
@@ -615,12 +1093,16 @@ public class NetconfSession {
      */
     public void editConfig(int datastore, String url) throws JNCException,
             IOException {
-        trace("editConfig: target=" + datastoreToString(datastore)
-                + " source=" + url);
+        trace("editConfig: target=", datastoreToString(datastore), " source=",
+                url);
         final int mid = encode_editConfig(out, encode_datastore(datastore),
                 encode_url(url));
         out.flush();
-        recv_rpc_reply_ok(mid);
+        try {
+            recv_rpc_reply_ok(mid);
+        } finally {
+            changed(datastore);
+        }
     }
 
     /**
@@ -811,11 +1293,17 @@ public class NetconfSession {
     public void copyConfig(NodeSet sourceTrees, int target)
             throws JNCException, IOException {
 
-        trace("copyConfig: target=" + datastoreToString(target) + "\n"
-                + sourceTrees.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("copyConfig: target=", datastoreToString(target), "\n",
+                    sourceTrees.toXMLString());
+        }
         encode_copyConfig(out, sourceTrees, encode_datastore(target));
         out.flush();
-        recv_rpc_reply_ok();
+        try {
+            recv_rpc_reply_ok();
+        } finally {
+            changed(target);
+        }
     }
 
     /**
@@ -833,8 +1321,10 @@ public class NetconfSession {
     public void copyConfig(NodeSet sourceTrees, String targetUrl)
             throws JNCException, IOException {
 
-        trace("copyConfig: target=" + targetUrl + "\n"
-                + sourceTrees.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("copyConfig: target=", targetUrl, "\n",
+                    sourceTrees.toXMLString());
+        }
         encode_copyConfig(out, sourceTrees, encode_url(targetUrl));
         out.flush();
         recv_rpc_reply_ok();
@@ -850,12 +1340,16 @@ public class NetconfSession {
      */
     public void copyConfig(int source, int target) throws JNCException,
             IOException {
-        trace("copyConfig: " + datastoreToString(source) + " "
-                + datastoreToString(target));
+        trace("copyConfig: ", datastoreToString(source), " ",
+                datastoreToString(target));
         encode_copyConfig(out, encode_datastore(source),
                 encode_datastore(target));
         out.flush();
-        recv_rpc_reply_ok();
+        try {
+            recv_rpc_reply_ok();
+        } finally {
+            changed(target);
+        }
     }
 
     /**
@@ -867,8 +1361,8 @@ public class NetconfSession {
      */
     public void copyConfig(int source, String targetUrl) throws JNCException,
             IOException {
-        trace("copyConfig: source=" + datastoreToString(source) + " target="
-                + targetUrl);
+        trace("copyConfig: source=", datastoreToString(source), " target=",
+                targetUrl);
         encode_copyConfig(out, encode_datastore(source),
                 encode_url(targetUrl));
         out.flush();
@@ -885,7 +1379,7 @@ public class NetconfSession {
      */
     public void copyConfig(String sourceUrl, String targetUrl)
             throws JNCException, IOException {
-        trace("copyConfig: source=" + sourceUrl + " target=" + targetUrl);
+        trace("copyConfig: source=", sourceUrl, " target=", targetUrl);
         encode_copyConfig(out, encode_url(sourceUrl), encode_url(targetUrl));
         out.flush();
         recv_rpc_reply_ok();
@@ -900,12 +1394,16 @@ public class NetconfSession {
      */
     public void copyConfig(String sourceUrl, int target) throws JNCException,
             IOException {
-        trace("copyConfig: source=" + sourceUrl + " target="
-                + datastoreToString(target));
+        trace("copyConfig: source=", sourceUrl, " target=",
+                datastoreToString(target));
         encode_copyConfig(out, encode_url(sourceUrl),
                 encode_datastore(target));
         out.flush();
-        recv_rpc_reply_ok();
+        try {
+            recv_rpc_reply_ok();
+        } finally {
+            changed(target);
+        }
     }
 
     /**
@@ -915,10 +1413,14 @@ public class NetconfSession {
      * @param datastore Datastore to be deleted
      */
     public void deleteConfig(int datastore) throws JNCException, IOException {
-        trace("deleteConfig: " + datastoreToString(datastore));
+        trace("deleteConfig: ", datastoreToString(datastore));
         encode_deleteConfig(out, encode_datastore(datastore));
         out.flush();
-        recv_rpc_reply_ok();
+        try {
+            recv_rpc_reply_ok();
+        } finally {
+            changed(datastore);
+        }
     }
 
     /**
@@ -928,7 +1430,7 @@ public class NetconfSession {
      */
     public void deleteConfig(String targetUrl) throws JNCException,
             IOException {
-        trace("deleteConfig: " + targetUrl);
+        trace("deleteConfig: ", targetUrl);
         encode_deleteConfig(out, encode_url(targetUrl));
         out.flush();
         recv_rpc_reply_ok();
@@ -947,7 +1449,7 @@ public class NetconfSession {
      * @param datastore The datastore to lock
      */
     public void lock(int datastore) throws JNCException, IOException {
-        trace("lock: " + datastoreToString(datastore));
+        trace("lock: ", datastoreToString(datastore));
         encode_lock(out, encode_datastore(datastore));
         out.flush();
         recv_rpc_reply_ok();
@@ -960,7 +1462,7 @@ public class NetconfSession {
      * @param datastore The target datastore to unlock
      */
     public void unlock(int datastore) throws JNCException, IOException {
-        trace("unlock: " + datastoreToString(datastore));
+        trace("unlock: ", datastoreToString(datastore));
         encode_unlock(out, encode_datastore(datastore));
         out.flush();
         recv_rpc_reply_ok();
@@ -1040,7 +1542,7 @@ public class NetconfSession {
      *            {@link #lockPartial(int,String[])}
      */
     public void unlockPartial(int lockId) throws JNCException, IOException {
-        trace("partialUnlock: " + lockId);
+        trace("partialUnlock: ", lockId);
         if (!capabilities.hasPartialLock()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :partial-lock is not supported by server");
@@ -1083,7 +1585,11 @@ public class NetconfSession {
         }
         final int mid = encode_commit(out);
         out.flush();
-        recv_rpc_reply_ok(mid);
+        try {
+            recv_rpc_reply_ok(mid);
+        } finally {
+            changed(RUNNING);
+        }
     }
 
     /**
@@ -1123,7 +1629,7 @@ public class NetconfSession {
      *            reverting config
      */
     public void confirmedCommit(int timeout) throws JNCException, IOException {
-        trace("confirmedCommit: " + timeout);
+        trace("confirmedCommit: ", timeout);
         if (!capabilities.hasCandidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "the :candidate capability is not supported by server");
@@ -1134,7 +1640,33 @@ public class NetconfSession {
         }
         final int mid = encode_confirmedCommit(out, timeout);
         out.flush();
-        recv_rpc_reply_ok(mid);
+        try {
+            recv_rpc_reply_ok(mid);
+        } finally {
+            changed(RUNNING);
+        }
+    }
+
+    /**
+     * Cancels an ongoing confirmed commit, which reverts the running
+     * configuration to its state before the confirmed commit was issued. The
+     * commit must have been issued on this session.
+     * <p>
+     * Requires version 1.1 of the <code>:confirmed-commit</code> capability.
+     */
+    public void cancelCommit() throws JNCException, IOException {
+        trace("cancelCommit");
+        if (!capabilities.hasCancelCommit()) {
+            throw new JNCException(JNCException.SESSION_ERROR,
+                    "the :confirmed-commit:1.1 capability is not supported by server");
+        }
+        final int mid = encode_cancelCommit(out);
+        out.flush();
+        try {
+            recv_rpc_reply_ok(mid);
+        } finally {
+            changed(RUNNING);
+        }
     }
 
     /**
@@ -1150,7 +1682,11 @@ public class NetconfSession {
         }
         final int mid = encode_discardChanges(out);
         out.flush();
-        recv_rpc_reply_ok(mid);
+        try {
+            recv_rpc_reply_ok(mid);
+        } finally {
+            changed(CANDIDATE);
+        }
     }
 
     /**
@@ -1182,7 +1718,7 @@ public class NetconfSession {
      * @param sessionId The id of the session to terminate
      */
     public void killSession(long sessionId) throws JNCException, IOException {
-        trace("killSession: " + sessionId);
+        trace("killSession: ", sessionId);
         if (sessionId == this.sessionId) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "illegal to use kill-session on own session id");
@@ -1199,7 +1735,9 @@ public class NetconfSession {
      * @param configTree configuration tree to validate
      */
     public void validate(Element configTree) throws JNCException, IOException {
-        trace("validate: " + configTree.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("validate: ", configTree.toXMLString());
+        }
         if (!capabilities.hasValidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :validate is not supported by server");
@@ -1216,7 +1754,7 @@ public class NetconfSession {
      * @param datastore The datastore to validate
      */
     public void validate(int datastore) throws IOException, JNCException {
-        trace("validate: " + datastoreToString(datastore));
+        trace("validate: ", datastoreToString(datastore));
         if (!capabilities.hasValidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :validate is not supported by server");
@@ -1234,7 +1772,7 @@ public class NetconfSession {
      * @param url The source url to validate
      */
     public void validate(String url) throws IOException, JNCException {
-        trace("validate: " + url);
+        trace("validate: ", url);
         if (!capabilities.hasValidate()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :validate is not supported by server");
@@ -1314,9 +1852,11 @@ public class NetconfSession {
     public void createSubscription(String streamName, NodeSet eventFilter,
             String startTime, String stopTime) throws IOException,
             JNCException {
-        trace("createSubscription: stream=" + streamName + " filter="
-                + eventFilter.toXMLString() + " from=" + startTime + " to="
-                + stopTime);
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("createSubscription: stream=", streamName, " filter=",
+                    eventFilter.toXMLString(), " from=", startTime, " to=",
+                    stopTime);
+        }
         if (!capabilities.hasNotification()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :notification is not supported by server");
@@ -1342,8 +1882,8 @@ public class NetconfSession {
     public void createSubscription(String streamName, String eventFilter,
             String startTime, String stopTime) throws IOException,
             JNCException {
-        trace("createSubscription: stream=" + streamName + " filter="
-                + eventFilter + " from=" + startTime + " to=" + stopTime);
+        trace("createSubscription: stream=", streamName, " filter=",
+                eventFilter, " from=", startTime, " to=", stopTime);
         if (!capabilities.hasNotification()) {
             throw new JNCException(JNCException.SESSION_ERROR,
                     "capability :notification is not supported by server");
@@ -1385,13 +1925,17 @@ public class NetconfSession {
 
     public Element receiveNotification() throws IOException, JNCException {
         final StringBuffer notification = in.readOne();
-        trace("notification= " + notification);
+        trace("notification= ", notification);
         if (notification.length() == 0) {
             throw new JNCException(JNCException.PARSER_ERROR, "empty input");
         }
-        final Element t = parser.parse(notification.toString());
+        final Element t = parse(parser, notification);
         final Element test = t.getFirst("self::notification");
         if (test != null) {
+            final ConfigCache cache = configCache;
+            if (cache != null) {
+                cache.notification(t);
+            }
             return t;
         }
         /* rpc-error */
@@ -1406,7 +1950,9 @@ public class NetconfSession {
      * @param data element tree with action-data
      */
     public Element action(Element data) throws JNCException, IOException {
-        trace("action: " + data.toXMLString());
+        if (Trace.isEnabled(Trace.SESSION)) {
+            trace("action: ", data.toXMLString());
+        }
         encode_action(out, data);
         out.flush();
         return recv_rpc_reply_ok(null);
@@ -1435,11 +1981,11 @@ public class NetconfSession {
      */
     protected Element recv_rpc_reply_ok(String mid) throws JNCException, IOException {
         final StringBuffer reply = in.readOne();
-        trace("reply= " + reply);
+        trace("reply= ", reply);
         if (reply.length() == 0) {
             throw new JNCException(JNCException.PARSER_ERROR, "empty input");
         }
-        final Element t = parser.parse(reply.toString());
+        final Element t = parse(parser, reply);
         final Element ok;
 
         if (mid != null) {
@@ -1472,6 +2018,44 @@ public class NetconfSession {
         return recv_rpc_reply("/data", parser, Integer.toString(mid));
     }
 
+    /**
+     * Reads one rpc-reply from session, handing the elements at path below
+     * the &lt;data&gt; to visitor as they are parsed.
+     */
+    int recv_rpc_reply_data(int mid, Tagpath path, final ElementVisitor visitor)
+            throws JNCException, IOException {
+        final String[] p = new String[path.p.length + 2];
+        p[0] = "rpc-reply";
+        p[1] = "data";
+        System.arraycopy(path.p, 0, p, 2, path.p.length);
+        final int[] visited = new int[1];
+        final ElementVisitor counter = new ElementVisitor() {
+            @Override
+            public void visit(Element subtree) throws JNCException {
+                visited[0]++;
+                visitor.visit(subtree);
+            }
+        };
+        final Element t;
+        if (in instanceof StreamingTransport) {
+            t = parseStreamed((StreamingTransport) in, new Tagpath(p),
+                    counter);
+        } else {
+            final StringBuffer reply = in.readOne();
+            trace("reply= ", reply);
+            t = parse(parser, reply, new Tagpath(p), counter);
+        }
+        final Element rep = t.getFirst("self::rpc-reply");
+        if (rep != null) {
+            check_mid(rep, Integer.toString(mid));
+        }
+        if (t.getFirst("self::rpc-reply/data") == null) {
+            /* rpc-error */
+            throw new JNCException(JNCException.RPC_REPLY_ERROR, t);
+        }
+        return visited[0];
+    }
+
     NodeSet recv_rpc_reply_lockPartial(int mid) throws JNCException,
             IOException {
         return recv_rpc_reply("", parser, Integer.toString(mid));
@@ -1490,9 +2074,9 @@ public class NetconfSession {
     NodeSet recv_rpc_reply(String path, XMLParser parser, String mid)
             throws JNCException, IOException {
         final StringBuffer reply = in.readOne();
-        trace("reply= " + reply);
+        trace("reply= ", reply);
 
-        final Element t = parser.parse(reply.toString());
+        final Element t = parse(parser, reply);
         final Element rep = t.getFirst("self::rpc-reply");
         if (rep != null) {
             check_mid(rep, mid);
@@ -1501,28 +2085,29 @@ public class NetconfSession {
         final Element data = t.getFirst("self::rpc-reply" + path);
 
         if (data != null) {
-            PrefixMap ctxtPrefix = data.prefixes;
-            if (ctxtPrefix == null) {
-                ctxtPrefix = t.prefixes;
-            } else {
-                ctxtPrefix.merge(t.prefixes);
-            }
-            if (ctxtPrefix == null) {
-                ctxtPrefix = new PrefixMap();
-            }
             /*
              * need to set parent of each data entry to null don't want
              * rpc-reply to be part of returned tree
              */
             if (data.children != null) {
+                // one immutable context prefix map, that children without
+                // prefix mappings of their own get a mutable copy of
+                final PrefixMap ctxtPrefix = new PrefixMap();
+                if (data.prefixes != null) {
+                    ctxtPrefix.merge(data.prefixes);
+                }
+                if (t.prefixes != null) {
+                    ctxtPrefix.merge(t.prefixes);
+                }
+                final PrefixMap shared = ctxtPrefix.immutable();
                 for (int i = 0; i < data.children.size(); i++) {
                     final Element child = data.children.getElement(i);
                     child.parent = null;
                     if (child.prefixes != null) {
                         // merge in prefix mapping from rpc header
-                        child.prefixes.merge(ctxtPrefix);
+                        child.prefixes.merge(shared);
                     } else {
-                        child.prefixes = (PrefixMap) ctxtPrefix.clone();
+                        child.prefixes = shared.clone();
                     }
                 }
                 return data.children;
@@ -2304,6 +2889,23 @@ public class NetconfSession {
         return mid;
     }
 
+    /**
+     * Encode the &lt;cancel-commit&gt;. Example:
+     * 
+     * <pre>
+     * &lt;rpc message-id="101"
+     *      xmlns="urn:ietf:params:xml:ns:netconf:base:1.0"&gt;
+     *    &lt;cancel-commit/&gt;
+     * &lt;/rpc&gt;
+     * </pre>
+     */
+    int encode_cancelCommit(Transport out) {
+        final int mid = encode_rpc_begin(out);
+        out.println("<" + nc + "cancel-commit/>");
+        encode_rpc_end(out);
+        return mid;
+    }
+
     /**
      * Encode the &lt;discard-changes&gt;. Example:
      * 
@@ -2586,10 +3188,8 @@ public class NetconfSession {
     /**
      * Printout trace if 'debug'-flag is enabled.
      */
-    private static void trace(String s) {
-        if (Element.debugLevel >= Element.DEBUG_LEVEL_SESSION) {
-            System.err.println("*NetconfSession: " + s);
-        }
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "NetconfSession", msg);
     }
 
     /**
@@ -0,0 +1,273 @@
+package com.tailf.jnc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.xml.sax.InputSource;
+
+import com.tailf.jnc.XMLScanner.Span;
+
+/**
+ * A parser that parses large <code>rpc-reply</code> messages on several
+ * threads. It is given to a session in place of the parser it wraps:
+ *
+ * <pre>
+ * XMLParser parser = new ParallelXMLParser(new YangXMLParser());
+ * NetconfSession session = new NetconfSession(transport, parser);
+ * </pre>
+ *
+ * A reply larger than the threshold is first scanned for the boundaries of
+ * the children of its <code>data</code> element. If there is only one child,
+ * as when all data is in one container, the scan goes down into it, to find
+ * for example the entries of a big list. The children are split into
+ * segments that are parsed in parallel, each one enclosed in copies of the
+ * start tags of its ancestors so that it is parsed with the same namespaces
+ * and prefixes, and the parsed children are then put back together in
+ * document order. A parent of a class generated by the JNC pyang plugin is
+ * given each child with its generated <code>add</code> method, as when the
+ * wrapped parser builds it.
+ * <p>
+ * The result is the same tree the wrapped parser would build. Other
+ * messages, small replies and replies that cannot be split, such as
+ * <code>rpc-error</code> replies, are parsed by the wrapped parser.
+ */
+public class ParallelXMLParser extends XMLParser {
+
+    /**
+     * How many levels below <code>data</code> the scan goes down looking for
+     * more than one child.
+     */
+    private static final int MAX_DEPTH = 4;
+
+    private final XMLParser base;
+    private final ForkJoinPool pool;
+    private int threshold = 1024 * 1024;
+
+    /**
+     * Parsers for the segments, a SAX parser is used by one thread at a time.
+     */
+    private final ConcurrentLinkedQueue<XMLParser> idle = new ConcurrentLinkedQueue<XMLParser>();
+
+    /**
+     * Creates a parser that uses the common fork-join pool.
+     *
+     * @param base The parser to use for each segment, and for messages that
+     *            are not split.
+     */
+    public ParallelXMLParser(XMLParser base) throws JNCException {
+        this(base, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a parser that parses segments on a given pool.
+     *
+     * @param base The parser to use for each segment, and for messages that
+     *            are not split.
+     * @param pool The pool to parse the segments on.
+     */
+    public ParallelXMLParser(XMLParser base, ForkJoinPool pool)
+            throws JNCException {
+        super();
+        this.base = base;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the size from which messages are parsed in parallel.
+     *
+     * @param threshold Size in characters, 1 MB by default.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return The size in characters from which messages are parsed in
+     *         parallel.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    XMLParser newParser() throws JNCException {
+        return base.newParser();
+    }
+
+    @Override
+    TreeHandler newHandler() {
+        return base.newHandler();
+    }
+
+    @Override
+    public Element readFile(String filename) throws JNCException {
+        return base.readFile(filename);
+    }
+
+    @Override
+    public Element parse(InputSource is) throws JNCException {
+        return base.parse(is);
+    }
+
+    @Override
+    public Element parse(InputSource is, Tagpath path, ElementVisitor visitor)
+            throws JNCException {
+        return base.parse(is, path, visitor);
+    }
+
+    /**
+     * Parses an XML String, in parallel if it is a large reply.
+     *
+     * @param str String containing the XML text to parse
+     */
+    @Override
+    public Element parse(String str) throws JNCException {
+        if (str.length() >= threshold) {
+            final Element t = parseSegments(str);
+            if (t != null) {
+                return t;
+            }
+        }
+        return base.parse(str);
+    }
+
+    /**
+     * Parses a reply in segments, or returns <code>null</code> if it cannot
+     * be split.
+     */
+    private Element parseSegments(final String str) throws JNCException {
+        final List<Span> roots = XMLScanner.children(str, 0, str.length());
+        if (roots == null || roots.size() != 1
+                || !roots.get(0).localName().equals("rpc-reply")) {
+            return null;
+        }
+        final List<Span> ancestors = new ArrayList<Span>();
+        ancestors.add(roots.get(0));
+        List<Span> kids = XMLScanner.children(str,
+                roots.get(0).contentStart, roots.get(0).contentEnd);
+        if (kids == null || kids.size() != 1
+                || !kids.get(0).localName().equals("data")) {
+            return null;
+        }
+        while (kids.size() == 1 && ancestors.size() < MAX_DEPTH + 2) {
+            final Span only = kids.get(0);
+            final List<Span> sub = XMLScanner.children(str,
+                    only.contentStart, only.contentEnd);
+            if (sub == null) {
+                return null;
+            }
+            if (sub.isEmpty()) {
+                break;
+            }
+            ancestors.add(only);
+            kids = sub;
+        }
+        if (kids.size() < 2) {
+            return null;
+        }
+
+        final StringBuilder open = new StringBuilder();
+        final StringBuilder close = new StringBuilder();
+        for (int i = 0; i < ancestors.size(); i++) {
+            final Span a = ancestors.get(i);
+            open.append(str, a.start, a.contentStart);
+            close.insert(0, "</" + a.qname + ">");
+        }
+        final String head = open.toString();
+        final String tail = close.toString();
+        final int depth = ancestors.size();
+
+        // a few segments per thread, to even out their sizes
+        final Span inner = ancestors.get(depth - 1);
+        final int target = (inner.contentEnd - inner.contentStart)
+                / (pool.getParallelism() * 4) + 1;
+        final List<Callable<NodeSet>> tasks = new ArrayList<Callable<NodeSet>>();
+        int first = 0;
+        while (first < kids.size()) {
+            int last = first;
+            while (last + 1 < kids.size()
+                    && kids.get(last).end - kids.get(first).start < target) {
+                last++;
+            }
+            final int from = kids.get(first).start;
+            final int to = kids.get(last).end;
+            tasks.add(new Callable<NodeSet>() {
+                @Override
+                public NodeSet call() throws JNCException {
+                    final Element t = parseText(head
+                            + str.substring(from, to) + tail);
+                    return innermost(t, depth).children;
+                }
+            });
+            first = last + 1;
+        }
+        trace("parsing ", tasks.size(), " segments of ", kids.size(),
+                " elements");
+
+        final List<Future<NodeSet>> parts = pool.invokeAll(tasks);
+        final Element t = parseText(head + tail);
+        final Element parent = innermost(t, depth);
+        parent.children = null;
+        for (final Future<NodeSet> f : parts) {
+            final NodeSet part;
+            try {
+                part = f.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "interrupted");
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof JNCException) {
+                    throw (JNCException) e.getCause();
+                }
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "parse error: " + e.getCause());
+            }
+            if (part != null) {
+                for (int i = 0; i < part.size(); i++) {
+                    YangElement.attach(parent, part.getElement(i));
+                }
+            }
+        }
+        if (parent.children == null) {
+            parent.children = new NodeSet();
+        }
+        return t;
+    }
+
+    private XMLParser borrowParser() throws JNCException {
+        final XMLParser p = idle.poll();
+        return p != null ? p : base.newParser();
+    }
+
+    private Element parseText(String str) throws JNCException {
+        final XMLParser p = borrowParser();
+        try {
+            return p.parse(str);
+        } finally {
+            idle.add(p);
+        }
+    }
+
+    /**
+     * Follows the only child of each level down to the element that the
+     * segment children were parsed into.
+     */
+    private static Element innermost(Element t, int depth) {
+        Element e = t;
+        for (int i = 1; i < depth; i++) {
+            e = e.children.getElement(0);
+        }
+        return e;
+    }
+
+    @Override
+    protected void trace(String s) {
+        Trace.log(Trace.PARSER, "ParallelXMLParser", s);
+    }
+}
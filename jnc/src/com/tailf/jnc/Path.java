@@ -46,7 +46,7 @@ public class Path {
      * @return A nodeSet of elements
      */
     public NodeSet eval(Element contextNode) throws JNCException {
-        trace("eval(): " + this);
+        trace("eval(): ", this);
         NodeSet nodeSet = new NodeSet();
         nodeSet.add(contextNode);
         for (final LocationStep step : locationSteps) {
@@ -67,7 +67,7 @@ public class Path {
                     "cannot eval location step: " + step + " in path");
         }
         final LocationStep locStep = locationSteps.get(step);
-        trace("evalStep(): step=" + step + ", " + locStep);
+        trace("evalStep(): step=", step, ", ", locStep);
         nodeSet = locStep.step(nodeSet);
         return nodeSet;
     }
@@ -177,13 +177,26 @@ public class Path {
             /**
              * A simple "NameTest" Filter away those with wrong name
              */
+            // siblings without prefix mappings of their own share the
+            // context of their parent, so resolve the prefix once per parent
+            Element ctxtParent = null;
+            String ctxtNamespace = null;
             for (int i = 0; i < nodeSet.size(); i++) {
                 final Element node = nodeSet.getElement(i);
                 if (node.name.equals(name)) {
                     /* check namespace also, if prefix is given */
                     String namespace;
                     if (prefix != null) {
-                        namespace = node.lookupContextPrefix(prefix);
+                        if (node.prefixes == null && node.parent != null) {
+                            if (node.parent != ctxtParent) {
+                                ctxtParent = node.parent;
+                                ctxtNamespace = ctxtParent
+                                        .lookupContextPrefix(prefix);
+                            }
+                            namespace = ctxtNamespace;
+                        } else {
+                            namespace = node.lookupContextPrefix(prefix);
+                        }
                         if (node.namespace.equals(namespace)) {
                             result.add(node);
                         }
@@ -223,7 +236,7 @@ public class Path {
          */
         Element createElem(PrefixMap prefixMap, Element parent)
                 throws JNCException {
-            trace("createElem() from " + this);
+            trace("createElem() from ", this);
             switch (axis) {
             case AXIS_ROOT:
                 return null;
@@ -299,10 +312,8 @@ public class Path {
         /**
          *
          */
-        private void trace(String s) {
-            if (Element.debugLevel >= Element.DEBUG_LEVEL_LOCATIONSTEP) {
-                System.err.println("*LocationStep: " + s);
-            }
+        private void trace(Object... msg) {
+            Trace.log(Trace.PATH, "LocationStep", msg);
         }
 
     }
@@ -602,7 +613,7 @@ public class Path {
          * is being created.
          */
         Object evalCreate(Element node) throws JNCException {
-            trace("evalCreate(): Expr= " + this);
+            trace("evalCreate(): Expr= ", this);
             Object lval, rval; // results
             lval = lvalue;
             rval = rvalue;
@@ -706,10 +717,8 @@ public class Path {
         /**
          *
          */
-        private void trace(String s) {
-            if (Element.debugLevel >= Element.DEBUG_LEVEL_EXPR) {
-                System.err.println("*Expr: " + s);
-            }
+        private void trace(Object... msg) {
+            Trace.log(Trace.PATH, "Expr", msg);
         }
 
     }
@@ -753,7 +762,7 @@ public class Path {
 
             int sz = tokens.size();
             while (sz > 0) {
-                trace("parse(): " + tokens);
+                trace("parse(): ", tokens);
                 /* peek at tokens */
                 if (sz >= 1) {
                     tok1 = tokens.getToken(0);
@@ -843,7 +852,7 @@ public class Path {
             final int errorCode = JNCException.PATH_ERROR;
             throw new JNCException(errorCode, "parse error: " + e);
         }
-        trace("parse() -> " + steps);
+        trace("parse() -> ", steps);
         return steps;
     }
 
@@ -866,7 +875,7 @@ public class Path {
      */
     void parsePredicates(TokenList tokens, LocationStep step)
             throws JNCException {
-        trace("parsePredicates(): " + tokens);
+        trace("parsePredicates(): ", tokens);
         final int sz = tokens.size();
         if (sz >= 1) {
             Token tok1 = tokens.getToken(0);
@@ -929,8 +938,8 @@ public class Path {
                 tok3 = null;
             }
 
-            trace("parsePredicate(): from=" + from + " to=" + to + " ["
-                    + tok1 + "," + tok2 + "," + tok3 + ", ...]");
+            trace("parsePredicate(): from=", from, " to=", to, " [", tok1, ",",
+                    tok2, ",", tok3, ", ...]");
 
             /* ATOM = */
             if (tok1.type == ATOM && (tok2 != null ? tok2.type : 0) == COMPARE && tok3 != null) {
@@ -974,8 +983,8 @@ public class Path {
                 tok3 = null;
             }
 
-            trace("parsePredicate_rvalue(): from=" + from + " to=" + to
-                    + " [" + tok1 + "," + tok2 + "," + tok3 + ", ...]");
+            trace("parsePredicate_rvalue(): from=", from, " to=", to, " [",
+                    tok1, ",", tok2, ",", tok3, ", ...]");
 
             if (tok1.type == ATOM && tok2 == null) {
                 return new Expr(CHILD_VALUE, tok1.value);
@@ -1319,7 +1328,7 @@ public class Path {
                 i++;
             }
         }
-        trace("tokenize() -> " + tokens);
+        trace("tokenize() -> ", tokens);
         return tokens;
     }
 
@@ -1339,10 +1348,8 @@ public class Path {
         return s.toString();
     }
 
-    private static void trace(String s) {
-        if (Element.debugLevel >= Element.DEBUG_LEVEL_PATH) {
-            System.err.println("*Path: " + s);
-        }
+    private static void trace(Object... msg) {
+        Trace.log(Trace.PATH, "Path", msg);
     }
 
 }
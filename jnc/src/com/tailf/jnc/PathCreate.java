@@ -36,7 +36,7 @@ public class PathCreate extends Path {
      * @return A new element tree
      */
     public Element eval(PrefixMap prefixMap) throws JNCException {
-        trace("eval(): " + this);
+        trace("eval(): ", this);
         Element top = null, parent = null;
 
         for (final LocationStep step : locationSteps) {
@@ -63,7 +63,7 @@ public class PathCreate extends Path {
                     "cannot eval location step: " + step + " in create path");
         }
         final LocationStep locStep = locationSteps.get(step);
-        trace("evalStep(): step=" + step + ", " + locStep);
+        trace("evalStep(): step=", step, ", ", locStep);
         return locStep.createElem(prefixMap, parent);
     }
 
@@ -83,10 +83,8 @@ public class PathCreate extends Path {
 
     /* help functions */
 
-    private static void trace(String s) {
-        if (Element.debugLevel >= Element.DEBUG_LEVEL_PATHCREATE) {
-            System.err.println("*PathCreate: " + s);
-        }
+    private static void trace(Object... msg) {
+        Trace.log(Trace.PATH, "PathCreate", msg);
     }
 
 }
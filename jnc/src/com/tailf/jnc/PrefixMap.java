@@ -1,16 +1,51 @@
 package com.tailf.jnc;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 /**
  * This class implements a list of prefix mappings, which provides mappings
  * from namespaces to prefixes.
- * 
+ * <p>
+ * A prefix map can be made immutable with {@link #immutable()}. Immutable
+ * maps are meant to be shared by reference, for example the namespace
+ * context of an rpc-reply, of which each top level element of the reply
+ * gets a copy. Copies share the hash index of the map they are made from
+ * until either is modified, so they are cheap to make and to search.
+ * <p>
+ * Lookups in maps with more than a few prefixes use a hash index, which is
+ * built on first use and dropped when the map is modified.
  **/
 public class PrefixMap extends ArrayList<Prefix> {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Maps with at most this many prefixes are searched linearly.
+     */
+    private static final int INDEX_THRESHOLD = 4;
+
+    private boolean immutable = false;
+
+    /**
+     * Prefix name to position in this list.
+     */
+    private transient HashMap<String, Integer> nameIndex;
+
+    /**
+     * Namespace to the name of its first prefix in this list.
+     */
+    private transient HashMap<String, String> nsIndex;
+
+    /**
+     * Incremented when this map is modified.
+     */
+    private transient int version = 0;
+
     /**
      * Creates an empty prefix map object.
      */
@@ -33,6 +68,44 @@ public class PrefixMap extends ArrayList<Prefix> {
         }
     }
 
+    /**
+     * Returns an immutable prefix map with the same prefixes as this one.
+     * Returns this map if it is already immutable.
+     * 
+     * @return An immutable prefix map, that may be shared between elements.
+     */
+    public PrefixMap immutable() {
+        if (immutable) {
+            return this;
+        }
+        final PrefixMap copy = clone();
+        copy.immutable = true;
+        return copy;
+    }
+
+    /**
+     * @return <code>true</code> if this prefix map cannot be modified.
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    /**
+     * Returns a mutable copy of this prefix map.
+     * 
+     * @return A copy of this prefix map, which is never immutable.
+     */
+    @Override
+    public PrefixMap clone() {
+        if (immutable && size() > INDEX_THRESHOLD) {
+            // built once, for all the copies
+            index();
+        }
+        final PrefixMap copy = (PrefixMap) super.clone();
+        copy.immutable = false;
+        return copy;
+    }
+
     /**
      * Nondestructively merges a prefix map with this object.
      * 
@@ -63,7 +136,7 @@ public class PrefixMap extends ArrayList<Prefix> {
      * @param prefixes Prefix mappings
      */
     public void set(PrefixMap prefixes) {
-        trace("set: " + prefixes);
+        trace("set: ", prefixes);
         for (Prefix p : prefixes) {
             set(p);
         }
@@ -117,6 +190,10 @@ public class PrefixMap extends ArrayList<Prefix> {
      */
     public int indexOfName(String name) {
         // trace("indexOfName("+name+")");
+        if (size() > INDEX_THRESHOLD) {
+            final Integer i = index().get(name);
+            return i == null ? -1 : i;
+        }
         for (int i = 0; i < size(); i++) {
             if (name.equals(getPrefix(i).name)) {
                 return i;
@@ -133,6 +210,10 @@ public class PrefixMap extends ArrayList<Prefix> {
      */
     public Prefix lookup(String name) {
         // trace("lookup("+name+")");
+        if (size() > INDEX_THRESHOLD) {
+            final Integer i = index().get(name);
+            return i == null ? null : getPrefix(i);
+        }
         for (int i = 0; i < size(); i++) {
             final Prefix p = getPrefix(i);
             if (name.equals(p.name)) {
@@ -149,6 +230,10 @@ public class PrefixMap extends ArrayList<Prefix> {
      */
     public String nsToPrefix(String ns) {
         // trace("nsToPrefix(\""+ns+"\")");
+        if (size() > INDEX_THRESHOLD) {
+            index();
+            return nsIndex.get(ns);
+        }
         for (int i = 0; i < size(); i++) {
             final Prefix p = getPrefix(i);
             if (p.ns != null && ns.equals(p.value)) {
@@ -163,6 +248,10 @@ public class PrefixMap extends ArrayList<Prefix> {
      */
     public String prefixToNs(String name) {
         // trace("prefixToNs("+name+")");
+        if (size() > INDEX_THRESHOLD) {
+            final Integer i = index().get(name);
+            return i == null ? null : getPrefix(i).value;
+        }
         for (int i = 0; i < size(); i++) {
             final Prefix p = getPrefix(i);
             if (name.equals(p.name)) {
@@ -172,15 +261,169 @@ public class PrefixMap extends ArrayList<Prefix> {
         return null;
     }
 
+    /* modifications */
+
+    @Override
+    public boolean add(Prefix p) {
+        checkMutable();
+        final boolean res = super.add(p);
+        changed();
+        return res;
+    }
+
+    @Override
+    public void add(int index, Prefix p) {
+        checkMutable();
+        super.add(index, p);
+        changed();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Prefix> c) {
+        checkMutable();
+        final boolean res = super.addAll(c);
+        changed();
+        return res;
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Prefix> c) {
+        checkMutable();
+        final boolean res = super.addAll(index, c);
+        changed();
+        return res;
+    }
+
+    @Override
+    public Prefix set(int index, Prefix p) {
+        checkMutable();
+        final Prefix res = super.set(index, p);
+        changed();
+        return res;
+    }
+
+    @Override
+    public Prefix remove(int index) {
+        checkMutable();
+        final Prefix res = super.remove(index);
+        changed();
+        return res;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        checkMutable();
+        final boolean res = super.remove(o);
+        changed();
+        return res;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        checkMutable();
+        final boolean res = super.removeAll(c);
+        changed();
+        return res;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        checkMutable();
+        final boolean res = super.retainAll(c);
+        changed();
+        return res;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Prefix> filter) {
+        checkMutable();
+        final boolean res = super.removeIf(filter);
+        changed();
+        return res;
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Prefix> operator) {
+        checkMutable();
+        super.replaceAll(operator);
+        changed();
+    }
+
+    @Override
+    public void sort(Comparator<? super Prefix> c) {
+        checkMutable();
+        super.sort(c);
+        changed();
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        super.clear();
+        changed();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        checkMutable();
+        super.removeRange(fromIndex, toIndex);
+        changed();
+    }
+
     /* help functions */
 
+    private void checkMutable() {
+        if (immutable) {
+            throw new UnsupportedOperationException(
+                    "prefix map is immutable");
+        }
+    }
+
     /**
-     * Printout trace if 'debug'-flag is enabled.
+     * Drops the hash index, and tells elements that cache a prefix resolved
+     * in this map that it has changed.
      */
-    private void trace(String s) {
-        if (Element.debugLevel >= Element.DEBUG_LEVEL_PREFIXMAP) {
-            System.err.println("*PrefixMap: " + s);
+    private void changed() {
+        nameIndex = null;
+        nsIndex = null;
+        version++;
+    }
+
+    /**
+     * @return A number that changes whenever this map is modified.
+     */
+    int version() {
+        return version;
+    }
+
+    private HashMap<String, Integer> index() {
+        HashMap<String, Integer> names = nameIndex;
+        if (names == null) {
+            final int size = size();
+            names = new HashMap<String, Integer>(size * 2);
+            final HashMap<String, String> nss = new HashMap<String, String>(
+                    size * 2);
+            for (int i = 0; i < size; i++) {
+                final Prefix p = getPrefix(i);
+                if (!names.containsKey(p.name)) {
+                    names.put(p.name, i);
+                }
+                if (p.ns != null && p.value != null
+                        && !nss.containsKey(p.value)) {
+                    nss.put(p.value, p.name);
+                }
+            }
+            nsIndex = nss;
+            nameIndex = names;
         }
+        return names;
+    }
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private void trace(Object... msg) {
+        Trace.log(Trace.PREFIX, "PrefixMap", msg);
     }
 
 }
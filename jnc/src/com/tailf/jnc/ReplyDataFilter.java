@@ -0,0 +1,360 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes the <code>data</code> element of an <code>rpc-reply</code> on to
+ * another writer, as the reply is written to it, without parsing it into
+ * elements. The <code>data</code> start tag is given the namespace
+ * declarations of the <code>rpc-reply</code> start tag and is preceded by an
+ * XML declaration, so that the output is a document of its own. Everything
+ * else in the reply is dropped.
+ * <p>
+ * The markup is only scanned to keep track of the element depth. A reply
+ * with something else than <code>data</code> in it, such as an
+ * <code>rpc-error</code>, is kept in memory, see {@link #getReply()}.
+ */
+class ReplyDataFilter extends Writer {
+
+    // what to do with the characters
+    private static final int HEAD = 0; // up to the rpc-reply start tag
+    private static final int BODY = 1; // up to the first child
+    private static final int COPY = 2; // the data element
+    private static final int TAIL = 3; // after it
+    private static final int OTHER = 4; // not a data reply
+
+    // where in the markup we are
+    private static final int TEXT = 0;
+    private static final int LT = 1;
+    private static final int START = 2;
+    private static final int END = 3;
+    private static final int PI = 4;
+    private static final int BANG = 5;
+    private static final int COMMENT = 6;
+    private static final int CDATA = 7;
+    private static final int DECL = 8;
+
+    private final Writer out;
+    private final char[] buf = new char[8192];
+    private int n = 0;
+    private long count = 0;
+
+    private int mode = HEAD;
+    private int state = TEXT;
+    private int depth = 0;
+    private char quote = 0;
+    private char p1 = 0;
+    private char p2 = 0;
+
+    /**
+     * The reply up to the data element, and all of a reply without one.
+     */
+    private final StringBuilder reply = new StringBuilder(256);
+    private final StringBuilder tag = new StringBuilder(256);
+    private final StringBuilder bang = new StringBuilder(8);
+    private String replyTag = null;
+
+    /**
+     * @param out Receives the data element.
+     */
+    ReplyDataFilter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            scan(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        scan((char) c);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            scan(str.charAt(i));
+        }
+    }
+
+    private void scan(char c) throws IOException {
+        if (mode == COPY) {
+            buf[n++] = c;
+            if (n == buf.length) {
+                drain();
+            }
+        } else if (mode != TAIL) {
+            reply.append(c);
+            if (mode == OTHER) {
+                return;
+            }
+        }
+        switch (state) {
+        case TEXT:
+            if (c == '<') {
+                state = LT;
+            }
+            break;
+        case LT:
+            if (c == '/') {
+                state = END;
+            } else if (c == '?') {
+                state = PI;
+            } else if (c == '!') {
+                state = BANG;
+                bang.setLength(0);
+            } else {
+                state = START;
+                quote = 0;
+                tag.setLength(0);
+                if (mode != COPY) {
+                    tag.append('<').append(c);
+                }
+            }
+            break;
+        case START:
+            if (mode != COPY) {
+                tag.append(c);
+            }
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                state = TEXT;
+                startTag(p1 == '/');
+            }
+            break;
+        case END:
+            if (c == '>') {
+                state = TEXT;
+                depth--;
+                if (mode == COPY && depth == 1) {
+                    drain();
+                    mode = TAIL;
+                }
+            }
+            break;
+        case PI:
+            if (c == '>' && p1 == '?') {
+                state = TEXT;
+            }
+            break;
+        case BANG:
+            bang.append(c);
+            if (bang.length() == 2 && bang.charAt(0) == '-' && c == '-') {
+                state = COMMENT;
+                c = 0;
+            } else if ("[CDATA[".equals(bang.toString())) {
+                state = CDATA;
+                c = 0;
+            } else if (c == '>') {
+                state = TEXT;
+            } else if (!"--".startsWith(bang.toString())
+                    && !"[CDATA[".startsWith(bang.toString())) {
+                state = DECL;
+            }
+            break;
+        case COMMENT:
+            if (c == '>' && p1 == '-' && p2 == '-') {
+                state = TEXT;
+            }
+            break;
+        case CDATA:
+            if (c == '>' && p1 == ']' && p2 == ']') {
+                state = TEXT;
+            }
+            break;
+        case DECL:
+            if (c == '>') {
+                state = TEXT;
+            }
+            break;
+        }
+        p2 = p1;
+        p1 = c;
+    }
+
+    private void startTag(boolean empty) throws IOException {
+        if (mode == COPY) {
+            if (!empty) {
+                depth++;
+            }
+        } else if (mode == HEAD) {
+            replyTag = tag.toString();
+            depth = 1;
+            mode = empty ? OTHER : BODY;
+        } else if (mode == BODY) {
+            final String name = name(tag);
+            if (!name.equals("data") && !name.endsWith(":data")) {
+                mode = OTHER;
+                return;
+            }
+            reply.setLength(0);
+            final String start = dataTag(empty);
+            out.write("<?xml version=\"1.0\"?>\n");
+            out.write(start);
+            count += start.length();
+            if (empty) {
+                mode = TAIL;
+            } else {
+                depth = 2;
+                mode = COPY;
+            }
+        }
+    }
+
+    /**
+     * Returns the start tag of the data element, with the namespace
+     * declarations of the rpc-reply element that it does not override.
+     */
+    private String dataTag(boolean empty) {
+        final List<String[]> own = attributes(tag);
+        final StringBuilder s = new StringBuilder(tag.length() + 128);
+        s.append('<').append(name(tag));
+        for (final String[] a : attributes(replyTag)) {
+            if (a[0].equals("xmlns") || a[0].startsWith("xmlns:")) {
+                boolean declared = false;
+                for (final String[] b : own) {
+                    declared |= b[0].equals(a[0]);
+                }
+                if (!declared) {
+                    s.append(' ').append(a[0]).append('=').append(a[1]);
+                }
+            }
+        }
+        for (final String[] a : own) {
+            s.append(' ').append(a[0]).append('=').append(a[1]);
+        }
+        return s.append(empty ? "/>" : ">").toString();
+    }
+
+    /**
+     * Returns the element name of a start tag.
+     */
+    private static String name(CharSequence tag) {
+        int i = 1;
+        while (i < tag.length() && !isSpace(tag.charAt(i))
+                && tag.charAt(i) != '>' && tag.charAt(i) != '/') {
+            i++;
+        }
+        return tag.subSequence(1, i).toString();
+    }
+
+    /**
+     * Returns the attributes of a start tag, each a name and a quoted value.
+     */
+    static List<String[]> attributes(CharSequence tag) {
+        final List<String[]> attrs = new ArrayList<String[]>();
+        int i = name(tag).length() + 1;
+        final int len = tag.length();
+        while (i < len) {
+            while (i < len && isSpace(tag.charAt(i))) {
+                i++;
+            }
+            final int nameStart = i;
+            while (i < len && tag.charAt(i) != '=' && !isSpace(tag.charAt(i))
+                    && tag.charAt(i) != '>' && tag.charAt(i) != '/') {
+                i++;
+            }
+            final String name = tag.subSequence(nameStart, i).toString();
+            while (i < len && (isSpace(tag.charAt(i)) || tag.charAt(i) == '=')) {
+                i++;
+            }
+            if (name.length() == 0 || i >= len) {
+                break;
+            }
+            final char q = tag.charAt(i);
+            if (q != '"' && q != '\'') {
+                break;
+            }
+            int j = i + 1;
+            while (j < len && tag.charAt(j) != q) {
+                j++;
+            }
+            attrs.add(new String[] { name,
+                    tag.subSequence(i, Math.min(j + 1, len)).toString() });
+            i = j + 1;
+        }
+        return attrs;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void drain() throws IOException {
+        if (n > 0) {
+            out.write(buf, 0, n);
+            count += n;
+            n = 0;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the whole data element has been passed
+     *         on.
+     */
+    boolean isComplete() {
+        return mode == TAIL;
+    }
+
+    /**
+     * @return <code>true</code> if the reply has been read, and it has no
+     *         data element.
+     */
+    boolean isOther() {
+        return mode == OTHER || mode == BODY;
+    }
+
+    /**
+     * @return The message-id of the reply, or <code>null</code>.
+     */
+    String getMessageId() {
+        if (replyTag == null) {
+            return null;
+        }
+        for (final String[] a : attributes(replyTag)) {
+            if (a[0].equals("message-id")) {
+                return a[1].substring(1, a[1].length() - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The reply, if it has no data element.
+     */
+    String getReply() {
+        return reply.toString();
+    }
+
+    /**
+     * @return The number of characters passed on.
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Flushes the filter, without closing the writer it passes data to.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
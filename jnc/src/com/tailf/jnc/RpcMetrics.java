@@ -0,0 +1,22 @@
+package com.tailf.jnc;
+
+/**
+ * Receives a measurement for every message exchange of a
+ * {@link NetconfSession}. Registered with
+ * {@link NetconfSession#setMetrics(RpcMetrics)}; a session without metrics
+ * does not take any measurements.
+ * <p>
+ * {@link RpcStatistics} is an in-memory implementation that keeps counters
+ * and latency histograms per RPC type.
+ */
+public interface RpcMetrics {
+
+    /**
+     * Called on the thread that read the reply, once it has been parsed.
+     * Implementations should be fast and must not use the session.
+     *
+     * @param sample The measurement of one exchange.
+     */
+    public void record(RpcSample sample);
+
+}
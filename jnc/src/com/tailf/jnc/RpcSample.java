@@ -0,0 +1,51 @@
+package com.tailf.jnc;
+
+/**
+ * The measurement of one message exchange on a {@link NetconfSession}: an
+ * rpc and its reply, or a notification. Durations are in nanoseconds, sizes
+ * in characters.
+ * <p>
+ * The phases of an exchange are:
+ * <ul>
+ * <li><code>encode</code>: from the first character of the request until the
+ * request is complete,
+ * <li><code>write</code>: flushing the request to the transport,
+ * <li><code>read</code>: waiting for the server and reading the reply,
+ * <li><code>parse</code>: parsing the reply into an element tree.
+ * </ul>
+ * <code>total</code> is the time from the first character of the request
+ * until the reply is parsed.
+ *
+ * @see RpcMetrics
+ */
+public class RpcSample {
+
+    /**
+     * Name of the operation, for example "get-config", or "hello" or
+     * "notification" for those messages.
+     */
+    public String rpc;
+
+    public long bytesOut;
+    public long bytesIn;
+
+    public long encodeNanos;
+    public long writeNanos;
+    public long readNanos;
+    public long parseNanos;
+    public long totalNanos;
+
+    /**
+     * <code>true</code> if no reply was received or it could not be parsed.
+     */
+    public boolean failed;
+
+    @Override
+    public String toString() {
+        return "RpcSample{rpc=" + rpc + ", out=" + bytesOut + ", in="
+                + bytesIn + ", encode=" + encodeNanos + ", write="
+                + writeNanos + ", read=" + readNanos + ", parse="
+                + parseNanos + ", total=" + totalNanos
+                + (failed ? ", failed" : "") + "}";
+    }
+}
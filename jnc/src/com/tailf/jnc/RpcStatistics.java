@@ -0,0 +1,160 @@
+package com.tailf.jnc;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps counters and latency histograms per RPC type, in memory. One instance
+ * may be shared by any number of sessions:
+ *
+ * <pre>
+ * RpcStatistics stats = new RpcStatistics();
+ * session.setMetrics(stats);
+ * session.getConfig();
+ * ...
+ * long p99 = stats.get(&quot;get-config&quot;).total.getValueAtPercentile(99);
+ * System.out.println(stats);
+ * </pre>
+ */
+public class RpcStatistics implements RpcMetrics {
+
+    /**
+     * The statistics of one RPC type. Durations are in nanoseconds.
+     */
+    public static class Entry {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+
+        /**
+         * Time from the first character of the request until the reply is
+         * parsed.
+         */
+        public final LatencyHistogram total = new LatencyHistogram();
+
+        /**
+         * Time spent encoding the request.
+         */
+        public final LatencyHistogram encode = new LatencyHistogram();
+
+        /**
+         * Time from writing the request until the reply is read, mostly
+         * spent waiting for the server.
+         */
+        public final LatencyHistogram read = new LatencyHistogram();
+
+        /**
+         * Time spent parsing the reply.
+         */
+        public final LatencyHistogram parse = new LatencyHistogram();
+
+        void record(RpcSample s) {
+            count.incrementAndGet();
+            if (s.failed) {
+                errors.incrementAndGet();
+            }
+            bytesOut.addAndGet(s.bytesOut);
+            bytesIn.addAndGet(s.bytesIn);
+            total.record(s.totalNanos);
+            encode.record(s.encodeNanos);
+            read.record(s.readNanos);
+            parse.record(s.parseNanos);
+        }
+
+        /**
+         * @return The number of exchanges, including failed ones.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return The number of exchanges without a parsable reply.
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return The number of characters sent.
+         */
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        /**
+         * @return The number of characters received.
+         */
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + " errors=" + getErrors() + " out="
+                    + getBytesOut() + " in=" + getBytesIn() + "\n  total: "
+                    + total + "\n  encode: " + encode + "\n  read: " + read
+                    + "\n  parse: " + parse;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    @Override
+    public void record(RpcSample sample) {
+        Entry e = entries.get(sample.rpc);
+        if (e == null) {
+            final Entry n = new Entry();
+            e = entries.putIfAbsent(sample.rpc, n);
+            if (e == null) {
+                e = n;
+            }
+        }
+        e.record(sample);
+    }
+
+    /**
+     * Returns the statistics of one RPC type.
+     *
+     * @param rpc Name of the operation, for example "edit-config".
+     * @return The statistics, or <code>null</code> if there are none.
+     */
+    public Entry get(String rpc) {
+        return entries.get(rpc);
+    }
+
+    /**
+     * @return The names of the operations that have statistics.
+     */
+    public Set<String> getRpcs() {
+        return entries.keySet();
+    }
+
+    /**
+     * Removes all statistics.
+     */
+    public void reset() {
+        entries.clear();
+    }
+
+    /**
+     * Returns a report of all operations, sorted by name. Durations are in
+     * nanoseconds.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder s = new StringBuilder();
+        for (final Map.Entry<String, Entry> e : new TreeMap<String, Entry>(
+                entries).entrySet()) {
+            s.append(e.getKey()).append(": ").append(e.getValue())
+                    .append('\n');
+        }
+        return s.toString();
+    }
+}
@@ -154,6 +154,24 @@ public class SSHConnection {
         }
     }
 
+    /**
+     * Authenticate with the credentials of a device user: password, private
+     * key or private key file, whichever the user has.
+     * 
+     * @param user The device user.
+     */
+    void authenticate(DeviceUser user) throws IOException, JNCException {
+        if (user.getPassword() != null) {
+            authenticateWithPassword(user.getRemoteuser(), user.getPassword());
+        } else if (user.getPemPrivateKey() != null) {
+            authenticateWithPublicKey(user.getRemoteuser(),
+                    user.getPemPrivateKey(), user.getKeyPassPhrase());
+        } else if (user.getPemFile() != null) {
+            authenticateWithPublicKeyFile(user.getRemoteuser(),
+                    user.getPemFile(), user.getKeyPassPhrase());
+        }
+    }
+
     /**
      * Closes the SSH session/connection.
      */
@@ -0,0 +1,142 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens the SSH channels of a {@link SessionPool}, sharing SSH connections
+ * between channels. A new connection is only made when each existing
+ * connection has the maximum number of channels open, and a connection is
+ * closed when its last channel is closed.
+ * <p>
+ * Servers limit the number of channels per connection, OpenSSH to 10 by
+ * default.
+ */
+public class SSHConnector implements SessionPool.Connector {
+
+    /**
+     * A connection and its number of open channels.
+     */
+    private static class Conn {
+        final SSHConnection connection;
+        int channels = 0;
+
+        Conn(SSHConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final DeviceUser user;
+    private final int connectTimeout;
+    private final long readTimeout;
+    private final int maxChannels;
+
+    private final List<Conn> conns = new ArrayList<Conn>();
+    private final Map<Transport, Conn> channels = new IdentityHashMap<Transport, Conn>();
+
+    /**
+     * @param host Host name or IP address.
+     * @param port SSH port of the NETCONF subsystem.
+     * @param user The user to authenticate as.
+     * @param connectTimeout Timeout for the TCP connect, in milliseconds.
+     * @param readTimeout Read timeout of the channels, in milliseconds.
+     * @param maxChannels Maximum number of channels per connection.
+     */
+    public SSHConnector(String host, int port, DeviceUser user,
+            int connectTimeout, long readTimeout, int maxChannels) {
+        if (maxChannels < 1) {
+            throw new IllegalArgumentException("maxChannels: " + maxChannels);
+        }
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxChannels = maxChannels;
+    }
+
+    /**
+     * Opens a channel on a connection with a free channel, or on a new
+     * connection. A connection on which a channel cannot be opened is
+     * dropped and the channel is opened on a new connection.
+     */
+    @Override
+    public synchronized Transport open() throws IOException, JNCException {
+        for (int i = 0; i < conns.size(); i++) {
+            final Conn c = conns.get(i);
+            if (c.channels < maxChannels) {
+                try {
+                    return open(c);
+                } catch (final IOException e) {
+                    trace("dropping connection to ", host, ": ", e);
+                    conns.remove(i--);
+                    if (c.channels == 0) {
+                        c.connection.close();
+                    }
+                }
+            }
+        }
+        final SSHConnection connection = new SSHConnection(host, port,
+                connectTimeout);
+        try {
+            connection.authenticate(user);
+        } catch (final IOException e) {
+            connection.close();
+            throw e;
+        } catch (final JNCException e) {
+            connection.close();
+            throw e;
+        }
+        final Conn c = new Conn(connection);
+        conns.add(c);
+        return open(c);
+    }
+
+    private Transport open(Conn c) throws IOException, JNCException {
+        final SSHSession s = new SSHSession(c.connection, readTimeout);
+        c.channels++;
+        channels.put(s, c);
+        return s;
+    }
+
+    /**
+     * Closes a channel, and its connection if it was the last channel.
+     */
+    @Override
+    public void close(Transport transport) {
+        final Conn c;
+        final boolean last;
+        synchronized (this) {
+            c = channels.remove(transport);
+            last = c != null && --c.channels == 0;
+            if (last) {
+                conns.remove(c);
+            }
+        }
+        transport.close();
+        if (last) {
+            c.connection.close();
+        }
+    }
+
+    /**
+     * @return The number of SSH connections open.
+     */
+    public synchronized int getConnectionCount() {
+        return conns.size();
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.TRANSPORT, "SSHConnector", msg);
+    }
+}
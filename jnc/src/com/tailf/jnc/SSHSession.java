@@ -6,8 +6,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import ch.ethz.ssh2.ChannelCondition;
 import ch.ethz.ssh2.Session;
@@ -30,14 +33,19 @@ import ch.ethz.ssh2.Session;
  *
  */
 
-public class SSHSession implements Transport {
+public class SSHSession implements StreamingTransport {
 
     private SSHConnection connection = null;
     private Session session = null;
 
     private BufferedReader in = null;
     private PrintWriter out = null;
-    private final ArrayList<IOSubscriber> ioSubscribers;
+    private final CopyOnWriteArrayList<FrameSubscriber> ioSubscribers;
+
+    /**
+     * The message being sent, kept while there are subscribers.
+     */
+    private final StringBuilder outb = new StringBuilder();
     protected long readTimeout = 0; // millisecs
 
     private static final String endmarker = "]]>]]>";
@@ -74,7 +82,7 @@ public class SSHSession implements Transport {
         final OutputStream os = session.getStdin();
         in = new BufferedReader(new InputStreamReader(is));
         out = new PrintWriter(os, false);
-        ioSubscribers = new ArrayList<IOSubscriber>();
+        ioSubscribers = new CopyOnWriteArrayList<FrameSubscriber>();
         // hello will be done by NetconfSession
     }
 
@@ -168,58 +176,151 @@ public class SSHSession implements Transport {
     @Override
     public StringBuffer readOne() throws IOException, JNCException {
         final StringWriter wr = new StringWriter();
-        int ch;
-        while (true) {
+        read(wr);
+        if (!ioSubscribers.isEmpty()) {
+            final String msg = wr.toString();
+            for (final FrameSubscriber sub : ioSubscribers) {
+                sub.inputFrame(msg);
+            }
+        }
+        return wr.getBuffer();
+    }
+
+    /**
+     * Reads in "one" reply from the SSH transport input stream, and writes it
+     * to out as it arrives. While there are subscribers, the reply is read
+     * whole first, as they are given the complete frame.
+     *
+     * @param out Receives the reply, without the end of message marker.
+     */
+    @Override
+    public void readOne(Writer out) throws IOException, JNCException {
+        if (!ioSubscribers.isEmpty()) {
+            final StringBuffer msg = readOne();
+            final char[] chunk = new char[8192];
+            for (int i = 0; i < msg.length(); i += chunk.length) {
+                final int j = Math.min(msg.length(), i + chunk.length);
+                msg.getChars(i, j, chunk, 0);
+                out.write(chunk, 0, j - i);
+            }
+            return;
+        }
+        read(out);
+    }
+
+    /**
+     * Returns a reader of "one" reply from the SSH transport input stream,
+     * that reads it as it arrives. While there are subscribers, the reply is
+     * read whole first, as they are given the complete frame.
+     */
+    @Override
+    public Reader replyReader() throws IOException, JNCException {
+        if (!ioSubscribers.isEmpty()) {
+            return new StringReader(readOne().toString());
+        }
+        return new MessageReader();
+    }
+
+    /**
+     * Reads up to the next end of message marker.
+     */
+    private void read(Writer wr) throws IOException, JNCException {
+        final Reader r = new MessageReader();
+        final char[] buf = new char[8192];
+        int n;
+        try {
+            while ((n = r.read(buf, 0, buf.length)) != -1) {
+                wr.write(buf, 0, n);
+            }
+        } catch (final IOException e) {
+            if (e.getCause() instanceof JNCException) {
+                throw (JNCException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the input stream up to the next end of message marker, without
+     * the marker. A read returns what has arrived rather than wait for more.
+     */
+    private class MessageReader extends Reader {
+        private int matched = 0; // characters of the end marker seen
+        private String held = null; // marker characters that were data
+        private int heldPos = 0;
+        private boolean done = false;
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            int n = 0;
+            while (n < len) {
+                if (held != null) {
+                    cbuf[off + n++] = held.charAt(heldPos++);
+                    if (heldPos == held.length()) {
+                        held = null;
+                    }
+                    continue;
+                }
+                if (n > 0 && !in.ready()) {
+                    break;
+                }
+                final int ch = next();
+                if (ch == endmarker.charAt(matched)) {
+                    if (matched == end) {
+                        done = true;
+                        break;
+                    }
+                    matched++;
+                    continue;
+                }
+                if (matched > 0) {
+                    // keep the longest tail that may still start a marker
+                    final String seen = endmarker.substring(0, matched)
+                            + (char) ch;
+                    int keep = matched;
+                    while (keep > 0
+                            && !seen.endsWith(endmarker.substring(0, keep))) {
+                        keep--;
+                    }
+                    held = seen.substring(0, seen.length() - keep);
+                    heldPos = 0;
+                    matched = keep;
+                    continue;
+                }
+                cbuf[off + n++] = (char) ch;
+            }
+            return n == 0 && done ? -1 : n;
+        }
+
+        private int next() throws IOException {
             if ((readTimeout > 0) && !in.ready()) { // else we want to block
                 final int conditionSet = session.waitForCondition(0xffffffff,
                         readTimeout);
                 if ((conditionSet & ChannelCondition.TIMEOUT) == ChannelCondition.TIMEOUT) {
                     // it's a timeout - there is nothing to
                     // read, not even eof
-                    throw new JNCException(JNCException.TIMEOUT_ERROR,
-                             Long.valueOf(readTimeout));
+                    throw new IOException(new JNCException(
+                            JNCException.TIMEOUT_ERROR, Long
+                                    .valueOf(readTimeout)));
                 }
             }
 
             // If readTimeout /= 0 we're guaranteed to not block
             // If its == 0, we want to block
 
-            ch = in.read();
+            final int ch = in.read();
             if (ch == -1) {
                 trace("end of input (-1)");
                 throw new IOException("Session closed");
             }
-
-            for (int i=0; i < endmarker.length(); i++) {
-                if (ch == endmarker.charAt(i)) {
-                    if (i < end) {
-                        ch = in.read();
-                    } else {
-                        for (final IOSubscriber sub : ioSubscribers) {
-                            sub.inputFlush(endmarker.substring(0, end));
-                        }
-                        return wr.getBuffer();
-                    }
-                } else {
-                    subInputChar(wr, endmarker.substring(0, i));
-                    subInputChar(wr, ch);
-                    break;
-                }
-            }
-        }
-    }
-
-    private void subInputChar(StringWriter wr, int ch) {
-        wr.write(ch);
-        for (int i = 0; i < ioSubscribers.size(); i++) {
-            final IOSubscriber sub = ioSubscribers.get(i);
-            sub.inputChar(ch);
+            return ch;
         }
-    }
 
-    private void subInputChar(StringWriter wr, String s) {
-        for (int i = 0; i < s.length(); i++) {
-            subInputChar(wr, s.charAt(i));
+        @Override
+        public void close() {
         }
     }
 
@@ -230,8 +331,8 @@ public class SSHSession implements Transport {
      */
     @Override
     public void print(long iVal) {
-        for (final IOSubscriber sub : ioSubscribers) {
-            sub.outputPrint(iVal);
+        if (!ioSubscribers.isEmpty()) {
+            outb.append(iVal);
         }
         out.print(iVal);
     }
@@ -243,8 +344,8 @@ public class SSHSession implements Transport {
      */
     @Override
     public void print(String s) {
-        for (final IOSubscriber sub : ioSubscribers) {
-            sub.outputPrint(s);
+        if (!ioSubscribers.isEmpty()) {
+            outb.append(s);
         }
         out.print(s);
     }
@@ -257,8 +358,8 @@ public class SSHSession implements Transport {
      */
     @Override
     public void println(int iVal) {
-        for (final IOSubscriber sub : ioSubscribers) {
-            sub.outputPrintln(iVal);
+        if (!ioSubscribers.isEmpty()) {
+            outb.append(iVal).append('\n');
         }
         out.println(iVal);
     }
@@ -271,8 +372,8 @@ public class SSHSession implements Transport {
      */
     @Override
     public void println(String s) {
-        for (final IOSubscriber sub : ioSubscribers) {
-            sub.outputPrintln(s);
+        if (!ioSubscribers.isEmpty()) {
+            outb.append(s).append('\n');
         }
         out.println(s);
     }
@@ -281,10 +382,11 @@ public class SSHSession implements Transport {
      * Add an IO Subscriber for this transport. This is useful for tracing the
      * messages.
      *
-     * @param s An IOSUbscriber that will be called whenever there is something
-     *            received or sent on this transport.
+     * @param s A subscriber, for example an {@link IOSubscriber}, that will
+     *            be called with each message received or sent on this
+     *            transport.
      */
-    public void addSubscriber(IOSubscriber s) {
+    public void addSubscriber(FrameSubscriber s) {
         ioSubscribers.add(s);
     }
 
@@ -293,14 +395,8 @@ public class SSHSession implements Transport {
      *
      * @param s The IO subscriber to remove.
      */
-    public void delSubscriber(IOSubscriber s) {
-        for (int i = 0; i < ioSubscribers.size(); i++) {
-            final IOSubscriber x = ioSubscribers.get(i);
-            if (s.equals(x)) {
-                ioSubscribers.remove(i);
-                return;
-            }
-        }
+    public void delSubscriber(FrameSubscriber s) {
+        ioSubscribers.remove(s);
     }
 
     /**
@@ -316,8 +412,12 @@ public class SSHSession implements Transport {
     public void flush() {
         out.print(endmarker);
         out.flush();
-        for (final IOSubscriber sub : ioSubscribers) {
-            sub.outputFlush(endmarker);
+        if (outb.length() > 0) {
+            final String msg = outb.toString();
+            outb.setLength(0);
+            for (final FrameSubscriber sub : ioSubscribers) {
+                sub.outputFrame(msg);
+            }
         }
     }
 
@@ -358,9 +458,7 @@ public class SSHSession implements Transport {
     /**
      * Printout trace if 'debug'-flag is enabled.
      */
-    private static void trace(String s) {
-        if (Element.debugLevel >= Element.DEBUG_LEVEL_TRANSPORT) {
-            System.err.println("*SSHSession: " + s);
-        }
+    private static void trace(Object... msg) {
+        Trace.log(Trace.TRANSPORT, "SSHSession", msg);
     }
 }
@@ -0,0 +1,87 @@
+package com.tailf.jnc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A trie over the {@link SchemaNode} objects of one namespace. Each level of
+ * the trie corresponds to one segment of a {@link Tagpath}, so a lookup is a
+ * walk from the root rather than a hash of the full Tagpath.
+ * <p>
+ * Path segments are interned when the index is built, and every
+ * {@link Entry} holds a direct pointer to its SchemaNode. Elements that are
+ * encoded repeatedly cache their Entry (see {@link Element#schemaEntry}), so
+ * resolving a child is a single map lookup on the parent's Entry.
+ * <p>
+ * An index is immutable once built. {@link SchemaTree} rebuilds it when the
+ * underlying HashMap of a namespace is modified.
+ */
+class SchemaIndex {
+
+    /**
+     * A node in the trie. Holds the SchemaNode found at this tagpath, if any.
+     */
+    static class Entry {
+
+        final SchemaIndex index;
+        final String segment;
+        SchemaNode node;
+        private HashMap<String, Entry> children;
+
+        Entry(SchemaIndex index, String segment) {
+            this.index = index;
+            this.segment = segment;
+        }
+
+        /**
+         * @param name The name of a child segment.
+         * @return The child entry, or <code>null</code> if there is none.
+         */
+        Entry child(String name) {
+            return children == null ? null : children.get(name);
+        }
+
+        private Entry addChild(String name) {
+            if (children == null) {
+                children = new HashMap<String, Entry>(4);
+            }
+            Entry e = children.get(name);
+            if (e == null) {
+                e = new Entry(index, name.intern());
+                children.put(e.segment, e);
+            }
+            return e;
+        }
+    }
+
+    final Entry root = new Entry(this, "");
+
+    /**
+     * Builds an index from a map of Tagpath/SchemaNode pairs, as created by
+     * {@link SchemaTree#create(String)} and populated by {@link SchemaParser}.
+     *
+     * @param h The map to index.
+     */
+    SchemaIndex(Map<Tagpath, SchemaNode> h) {
+        for (final Map.Entry<Tagpath, SchemaNode> me : h.entrySet()) {
+            Entry e = root;
+            for (final String segment : me.getKey().p) {
+                e = e.addChild(segment);
+            }
+            e.node = me.getValue();
+        }
+    }
+
+    /**
+     * @param tp Tagpath to search for.
+     * @return The entry at tp, or <code>null</code> if not in this index.
+     */
+    Entry lookup(Tagpath tp) {
+        Entry e = root;
+        for (int i = 0; e != null && i < tp.p.length; i++) {
+            e = e.child(tp.p[i]);
+        }
+        return e;
+    }
+
+}
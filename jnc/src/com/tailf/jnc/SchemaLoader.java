@@ -0,0 +1,22 @@
+package com.tailf.jnc;
+
+import java.util.HashMap;
+
+/**
+ * A deferred source of SchemaNode objects for one namespace. Registered with
+ * {@link SchemaTree#registerLazy(String, SchemaLoader)}, and invoked at most
+ * once, the first time the schema of the namespace is asked for.
+ *
+ * @see SchemaTree
+ */
+public interface SchemaLoader {
+
+    /**
+     * Populates a hashtable with the SchemaNode objects of a namespace.
+     *
+     * @param h The hashtable to populate.
+     * @throws JNCException If the schema cannot be read.
+     */
+    public void load(HashMap<Tagpath, SchemaNode> h) throws JNCException;
+
+}
@@ -1,5 +1,6 @@
 package com.tailf.jnc;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -151,8 +152,10 @@ public class SchemaParser {
     }
 
     /**
-     * Read in and parse an XML file, and populate a hashtable with SchemaNode
-     * objects.
+     * Read in and parse a schema file, and populate a hashtable with
+     * SchemaNode objects. If a binary schema (see {@link BinarySchema}) named
+     * filename + ".bin" exists and is not older than the XML file, it is
+     * loaded instead of parsing the XML.
      *
      * @param filename name of file containing the schema
      * @param h The hashtable to populate.
@@ -160,6 +163,34 @@ public class SchemaParser {
      */
     public void readFile(String filename, HashMap<Tagpath, SchemaNode> h)
             throws JNCException {
+        final File xmlFile = new File(filename);
+        final File binFile = new File(filename + BinarySchema.SUFFIX);
+        if (binFile.isFile() && (!xmlFile.exists()
+                || binFile.lastModified() >= xmlFile.lastModified())) {
+            try {
+                BinarySchema.readFile(binFile, h);
+                return;
+            } catch (final JNCException e) {
+                if (!xmlFile.exists()) {
+                    throw e;
+                }
+                // fall back to the XML schema
+            }
+        }
+        readXMLFile(filename, h);
+    }
+
+    /**
+     * Read in and parse an XML file, and populate a hashtable with SchemaNode
+     * objects. Unlike {@link #readFile(String, HashMap)} this method never
+     * looks for a binary schema.
+     *
+     * @param filename name of file containing the schema
+     * @param h The hashtable to populate.
+     * @throws JNCException If there is an IO or SAX parse problem.
+     */
+    public void readXMLFile(String filename, HashMap<Tagpath, SchemaNode> h)
+            throws JNCException {
         readFile(new InputSource(filename), h);
     }
 
@@ -199,6 +230,9 @@ public class SchemaParser {
      * Scans the classpath for the XML schema file and populates the hashtable with 
      * SchemaNode objects. Class is passed in so that in the case of multiple {@link ClassLoader}s 
      * the correct one can be used to locate the schema.
+     * <p>
+     * If a binary schema (see {@link BinarySchema}) named filename + ".bin"
+     * is found on the classpath, it is loaded instead of the XML file.
      * 
      * @param filename
      * @param h
@@ -207,7 +241,19 @@ public class SchemaParser {
      */
     public void findAndReadFile(final String filename, final HashMap<Tagpath, SchemaNode> h, final Class clazz)
             throws JNCException {
+        final URL binUrl = clazz.getResource(filename + BinarySchema.SUFFIX);
         final URL url = clazz.getResource(filename);
+        if (binUrl != null) {
+            try {
+                BinarySchema.readFile(binUrl, h);
+                return;
+            } catch (final JNCException e) {
+                if (url == null) {
+                    throw e;
+                }
+                // fall back to the XML schema
+            }
+        }
         if (url == null){
             throw new JNCException(JNCException.PARSER_ERROR, "Cannot find file: " + filename + " on the classpath.");
         }
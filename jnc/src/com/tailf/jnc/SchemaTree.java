@@ -1,58 +1,291 @@
 package com.tailf.jnc;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The SchemaTree class is used to represent the schemas of all namespaces
+ * <p>
+ * The schema of a namespace is either created and populated up front, using
+ * {@link #create(String)}, or registered with one of the
+ * <code>registerLazy</code> methods. A lazily registered schema is not read
+ * until {@link #lookup} or {@link #getHashMap(String)} first asks for the
+ * namespace. Concurrent first accesses to a namespace wait for a single load.
+ * <p>
+ * If a lazily registered schema cannot be loaded, the registration is kept
+ * and the load is tried again on the next access. {@link #load(String)}
+ * throws the error of the loader; {@link #lookup} and
+ * {@link #getHashMap(String)} throw it wrapped in an
+ * {@link IllegalStateException}.
  */
 public class SchemaTree {
 
-    private static HashMap<String, HashMap<Tagpath, SchemaNode>> namespaces = new HashMap<String, HashMap<Tagpath, SchemaNode>>();
+    private static ConcurrentHashMap<String, SchemaMap> namespaces = new ConcurrentHashMap<String, SchemaMap>();
+
+    /**
+     * Schemas registered with registerLazy that have not been loaded yet.
+     */
+    private static ConcurrentHashMap<String, SchemaLoader> loaders = new ConcurrentHashMap<String, SchemaLoader>();
+
+    /**
+     * The HashMap handed out by {@link #create(String)}. Keeps the trie index
+     * of its namespace (see {@link SchemaIndex}) and drops it whenever the
+     * map is modified, so that the index is rebuilt on the next lookup.
+     */
+    private static class SchemaMap extends HashMap<Tagpath, SchemaNode> {
+
+        private static final long serialVersionUID = 1L;
+
+        volatile SchemaIndex index;
+
+        @Override
+        public SchemaNode put(Tagpath key, SchemaNode value) {
+            index = null;
+            return super.put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<? extends Tagpath, ? extends SchemaNode> m) {
+            index = null;
+            super.putAll(m);
+        }
+
+        @Override
+        public SchemaNode remove(Object key) {
+            index = null;
+            return super.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            index = null;
+            super.clear();
+        }
+    }
 
     /**
      * If no hashmap exists for namespace, it is created. Used by generated
      * code to populate new hashmaps for YANG modules.
-     * 
+     * <p>
+     * A pending lazy registration of namespace is dropped, since the caller
+     * populates the hashmap itself.
+     *
      * @param namespace The namespace of the module as a String.
      * @return The HashMap associated with namespace.
      */
     public static HashMap<Tagpath, SchemaNode> create(String namespace) {
-        if (namespaces.containsKey(namespace)) {
-            return namespaces.get(namespace);
+        loaders.remove(namespace);
+        final SchemaMap h = new SchemaMap();
+        final SchemaMap old = namespaces.putIfAbsent(namespace, h);
+        return old != null ? old : h;
+    }
+
+    /**
+     * Registers a schema for namespace that is loaded the first time it is
+     * needed. Does nothing if the schema of namespace is already loaded.
+     *
+     * @param namespace The namespace of the module as a String.
+     * @param loader Loader to populate the schema hashmap with.
+     */
+    public static void registerLazy(String namespace, SchemaLoader loader) {
+        if (!namespaces.containsKey(namespace)) {
+            loaders.put(namespace, loader);
         }
-        final HashMap<Tagpath, SchemaNode> h = new HashMap<Tagpath, SchemaNode>();
-        namespaces.put(namespace, h);
-        return h;
+    }
+
+    /**
+     * Registers a schema file for namespace that is read the first time it
+     * is needed, using {@link SchemaParser#readFile(String, HashMap)}.
+     *
+     * @param namespace The namespace of the module as a String.
+     * @param filename Name of file containing the schema.
+     */
+    public static void registerLazy(String namespace, final String filename) {
+        registerLazy(namespace, new SchemaLoader() {
+            @Override
+            public void load(HashMap<Tagpath, SchemaNode> h)
+                    throws JNCException {
+                new SchemaParser().readFile(filename, h);
+            }
+        });
+    }
+
+    /**
+     * Registers a schema file on the classpath for namespace that is read
+     * the first time it is needed, using
+     * {@link SchemaParser#findAndReadFile(String, HashMap, Class)}.
+     *
+     * @param namespace The namespace of the module as a String.
+     * @param filename Name of file containing the schema.
+     * @param clazz Class used to locate the schema on the classpath.
+     */
+    public static void registerLazy(String namespace, final String filename,
+            final Class<?> clazz) {
+        registerLazy(namespace, new SchemaLoader() {
+            @Override
+            public void load(HashMap<Tagpath, SchemaNode> h)
+                    throws JNCException {
+                new SchemaParser().findAndReadFile(filename, h, clazz);
+            }
+        });
+    }
+
+    /**
+     * Loads the schema of namespace now, if it is registered lazily and has
+     * not been loaded yet.
+     *
+     * @param namespace The namespace of the module as a String.
+     * @throws JNCException If the schema cannot be loaded.
+     */
+    public static void load(String namespace) throws JNCException {
+        getSchemaMap(namespace);
     }
 
     /**
      * @param namespace A YANG module namespace as a String
-     * @return The HashMap associated with namespace, or null.
+     * @return The HashMap associated with namespace, or null. A lazily
+     *         registered schema is loaded by this call.
+     * @throws IllegalStateException If a lazily registered schema cannot be
+     *             loaded, with the error of the loader as its cause.
      */
     public static HashMap<Tagpath, SchemaNode> getHashMap(String namespace) {
-        return namespaces.get(namespace);
+        return getUnchecked(namespace);
     }
 
     /**
      * @return The set of all namespaces for which there currently is a HashMap
-     *         of TagPath/SchemaNode key/value pairs.
+     *         of TagPath/SchemaNode key/value pairs. Lazily registered
+     *         schemas that have not been loaded yet are not included.
      */
     public static Set<String> getLoadedNamespaces() {
         return namespaces.keySet();
     }
 
+    /**
+     * @return The set of all namespaces with a lazily registered schema that
+     *         has not been loaded yet.
+     */
+    public static Set<String> getPendingNamespaces() {
+        return loaders.keySet();
+    }
+
+    private static SchemaMap getUnchecked(String namespace) {
+        try {
+            return getSchemaMap(namespace);
+        } catch (final JNCException e) {
+            throw new IllegalStateException("cannot load schema of "
+                    + namespace + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static SchemaMap getSchemaMap(String namespace)
+            throws JNCException {
+        final SchemaMap m = namespaces.get(namespace);
+        if (m != null) {
+            return m;
+        }
+        final SchemaLoader loader = loaders.get(namespace);
+        if (loader == null) {
+            return null;
+        }
+        synchronized (loader) {
+            SchemaMap h = namespaces.get(namespace);
+            if (h == null && loaders.get(namespace) == loader) {
+                h = new SchemaMap();
+                try {
+                    loader.load(h);
+                } catch (final JNCException e) {
+                    // kept registered, to be tried again
+                    trace("cannot load schema of ", namespace, ": ", e);
+                    throw e;
+                }
+                namespaces.put(namespace, h);
+                loaders.remove(namespace, loader);
+            }
+            return h;
+        }
+    }
+
     /**
      * Searches for a SchemaNode given a namespace and a Tagpath.
-     * 
+     *
      * @param namespace The namespace of the module.
      * @param tp The TagPath of the node to search for.
      * @return The SchemaNode with Tagpath tp in module with specified
      *         namespace, or null if not found.
+     * @throws IllegalStateException If a lazily registered schema cannot be
+     *             loaded.
      */
     public static SchemaNode lookup(String namespace, Tagpath tp) {
-        final HashMap<Tagpath, SchemaNode> t = getHashMap(namespace);
-        return t == null ? null : t.get(tp);
+        final SchemaIndex index = index(getUnchecked(namespace));
+        if (index == null) {
+            return null;
+        }
+        final SchemaIndex.Entry e = index.lookup(tp);
+        return e == null ? null : e.node;
+    }
+
+    /**
+     * Searches for the SchemaNode of an element, without building its
+     * Tagpath. The lookup is resolved through the cached schema entries of
+     * the element and its parents, which makes it cheap for elements that
+     * are looked up repeatedly (for instance during encode).
+     *
+     * @param namespace The namespace of the module.
+     * @param e The element to find the SchemaNode of.
+     * @return The SchemaNode with the same tagpath as e in module with
+     *         specified namespace, or null if not found.
+     * @throws IllegalStateException If a lazily registered schema cannot be
+     *             loaded.
+     */
+    public static SchemaNode lookup(String namespace, Element e) {
+        return lookup(index(getUnchecked(namespace)), e);
+    }
+
+    /**
+     * Searches for the SchemaNode of an element, like
+     * {@link #lookup(String, Element)}, and throws the error of the loader
+     * if a lazily registered schema cannot be loaded.
+     */
+    static SchemaNode find(String namespace, Element e) throws JNCException {
+        return lookup(index(getSchemaMap(namespace)), e);
+    }
+
+    private static SchemaNode lookup(SchemaIndex index, Element e) {
+        if (index == null) {
+            return null;
+        }
+        final SchemaIndex.Entry entry = e.schemaEntry(index);
+        return entry == null ? null : entry.node;
+    }
+
+    /**
+     * Returns the trie index of a namespace, building it if the underlying
+     * HashMap has been modified since the index was last built.
+     *
+     * @param m The HashMap of the namespace.
+     * @return The index, or null if there is no HashMap.
+     */
+    private static SchemaIndex index(SchemaMap m) {
+        if (m == null) {
+            return null;
+        }
+        SchemaIndex index = m.index;
+        if (index == null) {
+            index = new SchemaIndex(m);
+            m.index = index;
+        }
+        return index;
     }
 
-}
\ No newline at end of file
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.PARSER, "SchemaTree", msg);
+    }
+}
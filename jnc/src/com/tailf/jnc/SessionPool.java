@@ -0,0 +1,381 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of NETCONF sessions that have completed their <code>hello</code>,
+ * for code that needs a session for a short while. Borrowing an idle session
+ * from the pool skips the SSH key exchange, authentication, channel setup
+ * and capability exchange of a new session:
+ *
+ * <pre>
+ * NetconfSession session = device.borrowSession(&quot;joe&quot;);
+ * try {
+ *     session.editConfig(tree);
+ * } catch (IOException e) {
+ *     device.invalidateSession(session);
+ *     session = null;
+ *     throw e;
+ * } finally {
+ *     if (session != null) {
+ *         device.releaseSession(session);
+ *     }
+ * }
+ * </pre>
+ *
+ * Sessions are pooled per key, typically one key per device and user, and
+ * are opened with the {@link Connector} given for the key. {@link Device}
+ * uses the pool returned by {@link #getDefault()} unless it is given another
+ * one, and opens sessions with an {@link SSHConnector}, which shares SSH
+ * connections between channels.
+ * <p>
+ * An idle session is checked before it is handed out: a session that has
+ * something to read while no request is outstanding has been closed by the
+ * server, or is out of sync, and is closed instead. Sessions idle for longer
+ * than the idle timeout are closed by a background thread.
+ * <p>
+ * A borrowed session must be returned in the state it was borrowed in: no
+ * locks held, no outstanding requests, and no notification subscription. A
+ * session that cannot be returned like that, for instance after an
+ * {@link IOException}, is given to {@link #invalidate(NetconfSession)}.
+ */
+public class SessionPool {
+
+    /**
+     * Opens and closes the transports of the sessions of one key.
+     */
+    public interface Connector {
+
+        /**
+         * Opens a new transport. The pool sends the <code>hello</code>.
+         *
+         * @return A transport ready for a NETCONF session.
+         */
+        public Transport open() throws IOException, JNCException;
+
+        /**
+         * Closes a transport that was opened by {@link #open()}.
+         *
+         * @param transport The transport to close.
+         */
+        public void close(Transport transport);
+    }
+
+    /**
+     * The sessions of one key.
+     */
+    private static class Entry {
+        final String key;
+        final Connector connector;
+        final ArrayDeque<NetconfSession> idle = new ArrayDeque<NetconfSession>();
+        final ArrayDeque<Long> idleSince = new ArrayDeque<Long>();
+
+        Entry(String key, Connector connector) {
+            this.key = key;
+            this.connector = connector;
+        }
+    }
+
+    private static SessionPool defaultPool = null;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Map<NetconfSession, Entry> borrowed = new IdentityHashMap<NetconfSession, Entry>();
+
+    private int maxIdle = 8;
+    private long idleTimeout = 60000;
+    private boolean closed = false;
+
+    private final ScheduledExecutorService evictor;
+    private ScheduledFuture<?> eviction = null;
+
+    /**
+     * Creates a pool that keeps at most 8 idle sessions per key, for at most
+     * a minute.
+     */
+    public SessionPool() {
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "jnc-session-pool");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduleEviction();
+    }
+
+    /**
+     * @return The pool shared by all devices that are not given one.
+     */
+    public static synchronized SessionPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new SessionPool();
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Sets the number of idle sessions kept per key. Sessions returned when
+     * that many are idle are closed.
+     *
+     * @param maxIdle Maximum number of idle sessions per key.
+     */
+    public synchronized void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return The maximum number of idle sessions per key.
+     */
+    public synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Sets the time an idle session is kept.
+     *
+     * @param idleTimeout Time in milliseconds, 0 keeps idle sessions until
+     *            the pool is closed.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        scheduleEviction();
+    }
+
+    /**
+     * @return The time an idle session is kept, in milliseconds.
+     */
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    private synchronized void scheduleEviction() {
+        if (eviction != null) {
+            eviction.cancel(false);
+            eviction = null;
+        }
+        if (idleTimeout > 0 && !closed) {
+            final long period = Math.max(idleTimeout / 2, 10);
+            eviction = evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Borrows a session for a key, opening a new one if no idle session is
+     * available.
+     *
+     * @param key Identifies what the session is connected to, for example
+     *            device and user.
+     * @param connector Opens sessions for the key. Only the connector given
+     *            the first time a key is used is kept.
+     * @return A session, which must be given back with
+     *         {@link #release(NetconfSession)} or
+     *         {@link #invalidate(NetconfSession)}.
+     */
+    public NetconfSession borrow(String key, Connector connector)
+            throws IOException, JNCException {
+        final Entry e;
+        synchronized (this) {
+            if (closed) {
+                throw new JNCException(JNCException.SESSION_ERROR,
+                        "session pool is closed");
+            }
+            Entry x = entries.get(key);
+            if (x == null) {
+                x = new Entry(key, connector);
+                entries.put(key, x);
+            }
+            e = x;
+        }
+        while (true) {
+            final NetconfSession session;
+            synchronized (this) {
+                session = e.idle.pollLast();
+                e.idleSince.pollLast();
+                if (session != null) {
+                    borrowed.put(session, e);
+                }
+            }
+            if (session == null) {
+                break;
+            }
+            if (isHealthy(session)) {
+                trace("reusing session for ", key);
+                return session;
+            }
+            trace("discarding unhealthy session for ", key);
+            invalidate(session);
+        }
+        trace("opening session for ", key);
+        final Transport t = e.connector.open();
+        final NetconfSession session;
+        try {
+            session = new NetconfSession(t, new YangXMLParser());
+        } catch (final IOException x) {
+            e.connector.close(t);
+            throw x;
+        } catch (final JNCException x) {
+            e.connector.close(t);
+            throw x;
+        }
+        synchronized (this) {
+            borrowed.put(session, e);
+        }
+        return session;
+    }
+
+    /**
+     * An idle session has nothing to read, unless the server has closed it
+     * or sent something unexpected.
+     */
+    private static boolean isHealthy(NetconfSession session) {
+        try {
+            return !session.getTransport().ready();
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gives a borrowed session back to the pool. It is closed if the pool
+     * already has enough idle sessions for its key.
+     *
+     * @param session A session borrowed from this pool.
+     */
+    public void release(NetconfSession session) {
+        final Entry e;
+        synchronized (this) {
+            e = borrowed.remove(session);
+            if (e == null) {
+                throw new IllegalArgumentException(
+                        "session not borrowed from this pool");
+            }
+            if (!closed && e.idle.size() < maxIdle) {
+                e.idle.addLast(session);
+                e.idleSince.addLast(Long.valueOf(System.currentTimeMillis()));
+                return;
+            }
+        }
+        e.connector.close(session.getTransport());
+    }
+
+    /**
+     * Closes a borrowed session instead of giving it back to the pool.
+     *
+     * @param session A session borrowed from this pool.
+     */
+    public void invalidate(NetconfSession session) {
+        final Entry e;
+        synchronized (this) {
+            e = borrowed.remove(session);
+        }
+        if (e == null) {
+            throw new IllegalArgumentException(
+                    "session not borrowed from this pool");
+        }
+        e.connector.close(session.getTransport());
+    }
+
+    /**
+     * Closes the sessions that have been idle for longer than the idle
+     * timeout. Called periodically by the pool.
+     *
+     * @return The number of sessions closed.
+     */
+    public int evictIdle() {
+        final List<NetconfSession> evicted = new ArrayList<NetconfSession>();
+        final List<Entry> owners = new ArrayList<Entry>();
+        synchronized (this) {
+            if (idleTimeout <= 0) {
+                return 0;
+            }
+            final long oldest = System.currentTimeMillis() - idleTimeout;
+            for (final Entry e : entries.values()) {
+                // the least recently returned sessions are first
+                while (!e.idle.isEmpty()
+                        && e.idleSince.peekFirst().longValue() <= oldest) {
+                    evicted.add(e.idle.pollFirst());
+                    e.idleSince.pollFirst();
+                    owners.add(e);
+                }
+            }
+        }
+        for (int i = 0; i < evicted.size(); i++) {
+            trace("evicting idle session for ", owners.get(i).key);
+            owners.get(i).connector.close(evicted.get(i).getTransport());
+        }
+        return evicted.size();
+    }
+
+    /**
+     * @param key A key.
+     * @return The number of idle sessions for the key.
+     */
+    public synchronized int getIdleCount(String key) {
+        final Entry e = entries.get(key);
+        return e == null ? 0 : e.idle.size();
+    }
+
+    /**
+     * @return The number of sessions borrowed and not yet given back.
+     */
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * Closes all idle sessions and stops the eviction thread. Sessions given
+     * back after this are closed.
+     */
+    public void close() {
+        final List<Entry> all;
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<Entry>(entries.values());
+            entries.clear();
+        }
+        evictor.shutdownNow();
+        for (final Entry e : all) {
+            final Iterator<NetconfSession> it;
+            synchronized (this) {
+                it = new ArrayList<NetconfSession>(e.idle).iterator();
+                e.idle.clear();
+                e.idleSince.clear();
+            }
+            while (it.hasNext()) {
+                e.connector.close(it.next().getTransport());
+            }
+        }
+        synchronized (SessionPool.class) {
+            if (defaultPool == this) {
+                defaultPool = null;
+            }
+        }
+    }
+
+    /* help functions */
+
+    /**
+     * Printout trace if 'debug'-flag is enabled.
+     */
+    private static void trace(Object... msg) {
+        Trace.log(Trace.SESSION, "SessionPool", msg);
+    }
+}
@@ -0,0 +1,122 @@
+package com.tailf.jnc;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler that lets a {@link TreeHandler} build the tree, but hands
+ * each element at a given path to an {@link ElementVisitor} as soon as it is
+ * complete, and removes it from the tree. The tree built is then only as
+ * large as one such element plus whatever is outside the path.
+ * <p>
+ * The path is a list of local names from the root element, where
+ * <code>*</code> matches any name.
+ */
+class StreamingHandler extends DefaultHandler {
+
+    private final TreeHandler tree;
+    private final String[] path;
+    private final ElementVisitor visitor;
+
+    private int depth = 0;
+
+    /**
+     * Number of levels, from the root, of the current element and its
+     * ancestors that match the path.
+     */
+    private int matched = 0;
+    private Element target = null;
+
+    // prefix mappings of the ancestors of the last element visited
+    private Element lastParent = null;
+    private PrefixMap context = null;
+
+    int visited = 0;
+
+    StreamingHandler(TreeHandler tree, Tagpath path, ElementVisitor visitor) {
+        this.tree = tree;
+        this.path = path.p;
+        this.visitor = visitor;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+            Attributes attributes) throws SAXException {
+        final Element before = tree.current;
+        tree.startElement(uri, localName, qName, attributes);
+        if (depth == matched && matched < path.length
+                && (path[matched].equals("*") || path[matched]
+                        .equals(localName))) {
+            matched++;
+            // a known leaf of a YangElement is not an element of its own
+            if (matched == path.length && tree.current != before) {
+                target = tree.current;
+            }
+        }
+        depth++;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+        tree.endElement(uri, localName, qName);
+        depth--;
+        if (depth < matched) {
+            if (matched == path.length && target != null) {
+                final Element e = target;
+                target = null;
+                visit(e);
+            }
+            matched--;
+        }
+    }
+
+    private void visit(Element e) throws SAXException {
+        final Element parent = e.parent;
+        if (parent != null) {
+            if (parent != lastParent) {
+                lastParent = parent;
+                final PrefixMap p = new PrefixMap();
+                for (Element node = parent; node != null; node = node.parent) {
+                    if (node.prefixes != null) {
+                        p.merge(node.prefixes);
+                    }
+                }
+                context = p.immutable();
+            }
+            // normally the last child, unless it was inserted by schema order
+            final NodeSet siblings = parent.children;
+            for (int i = siblings.size() - 1; i >= 0; i--) {
+                if (siblings.getElement(i) == e) {
+                    siblings.remove(i);
+                    break;
+                }
+            }
+            e.parent = null;
+            if (e.prefixes != null) {
+                e.prefixes.merge(context);
+            } else {
+                e.prefixes = context.clone();
+            }
+        }
+        visited++;
+        try {
+            visitor.visit(e);
+        } catch (final JNCException x) {
+            throw new SAXException(x);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length)
+            throws SAXException {
+        tree.characters(ch, start, length);
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri)
+            throws SAXException {
+        tree.startPrefixMapping(prefix, uri);
+    }
+}
@@ -0,0 +1,36 @@
+package com.tailf.jnc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A transport that can hand a reply on while it is being read, instead of
+ * returning all of it at once. {@link NetconfSession} uses it to write large
+ * replies to a file without keeping them in memory, see
+ * {@link NetconfSession#backupConfig(int, Element, java.io.OutputStream)},
+ * and to parse large replies one subtree at a time, see
+ * {@link NetconfSession#get(Tagpath, ElementVisitor)}. {@link SSHSession}
+ * implements this interface.
+ */
+public interface StreamingTransport extends Transport {
+
+    /**
+     * Reads "one" reply from the transport input stream, and writes it to a
+     * writer as it arrives, without the end of message marker.
+     *
+     * @param out Receives the reply.
+     */
+    public void readOne(Writer out) throws IOException, JNCException;
+
+    /**
+     * Returns a reader of "one" reply from the transport input stream, which
+     * reads the reply as it arrives. The reader ends at the end of message
+     * marker, and must be read to its end before anything else is read from
+     * the transport. A timeout is thrown as an <code>IOException</code> whose
+     * cause is the {@link JNCException}.
+     *
+     * @return The reply, without the end of message marker.
+     */
+    public Reader replyReader() throws IOException, JNCException;
+}
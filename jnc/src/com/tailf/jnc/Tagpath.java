@@ -23,21 +23,21 @@ public class Tagpath {
 
     @Override
     public String toString() {
-        String ret = "";
+        final StringBuilder ret = new StringBuilder();
         for (int i = 0; i < p.length; i++) {
-            ret += p[i];
-            if (i != p.length - 1) {
-                ret += "/";
+            if (i != 0) {
+                ret.append('/');
             }
+            ret.append(p[i]);
         }
-        return ret;
+        return ret.toString();
     }
 
     @Override
     public int hashCode() {
         int h = 0;
         for (int i = 0; i < p.length; i++) {
-            h += p[i].hashCode();
+            h = 31 * h + p[i].hashCode();
         }
         return h;
     }
@@ -0,0 +1,140 @@
+package com.tailf.jnc;
+
+import java.io.PrintStream;
+
+/**
+ * Debug tracing of the library, enabled per subsystem:
+ *
+ * <pre>
+ * Trace.enable(Trace.SESSION | Trace.TRANSPORT);
+ * </pre>
+ *
+ * Trace messages are given in parts, which are only turned into strings when
+ * the subsystem is enabled. A reply or an element tree passed as a part is
+ * thus not copied into a message at all when tracing is off:
+ *
+ * <pre>
+ * trace(&quot;reply= &quot;, reply);
+ * </pre>
+ *
+ * Messages are printed to <code>System.err</code> unless another stream is
+ * set, prefixed with <code>*</code> and the name of the class that traces.
+ */
+public class Trace {
+
+    /**
+     * Element and Attribute.
+     */
+    public static final int ELEMENT = 1;
+
+    /**
+     * NetconfSession.
+     */
+    public static final int SESSION = 2;
+
+    /**
+     * SSHSession and the other transports.
+     */
+    public static final int TRANSPORT = 4;
+
+    /**
+     * Path and PathCreate, with their location steps and expressions.
+     */
+    public static final int PATH = 8;
+
+    /**
+     * XMLParser.
+     */
+    public static final int PARSER = 16;
+
+    /**
+     * Prefix and PrefixMap.
+     */
+    public static final int PREFIX = 32;
+
+    /**
+     * All subsystems.
+     */
+    public static final int ALL = ELEMENT | SESSION | TRANSPORT | PATH
+            | PARSER | PREFIX;
+
+    private static volatile int enabled = 0;
+    private static volatile PrintStream stream = System.err;
+
+    private Trace() {
+    }
+
+    /**
+     * Enables tracing of subsystems, in addition to those already enabled.
+     *
+     * @param subsystems Subsystems or'ed together, for example
+     *            <code>SESSION | TRANSPORT</code>.
+     */
+    public static synchronized void enable(int subsystems) {
+        enabled |= subsystems;
+    }
+
+    /**
+     * Disables tracing of subsystems.
+     *
+     * @param subsystems Subsystems or'ed together.
+     */
+    public static synchronized void disable(int subsystems) {
+        enabled &= ~subsystems;
+    }
+
+    /**
+     * Enables exactly the given subsystems.
+     *
+     * @param subsystems Subsystems or'ed together, 0 disables all tracing.
+     */
+    public static void set(int subsystems) {
+        enabled = subsystems;
+    }
+
+    /**
+     * @return The enabled subsystems.
+     */
+    public static int get() {
+        return enabled;
+    }
+
+    /**
+     * Tells whether a subsystem is traced. Use to guard tracing that needs
+     * work beyond passing the parts of a message.
+     *
+     * @param subsystem A subsystem, for example {@link #SESSION}.
+     */
+    public static boolean isEnabled(int subsystem) {
+        return (enabled & subsystem) != 0;
+    }
+
+    /**
+     * Sets the stream to print trace messages to.
+     *
+     * @param out The stream, <code>System.err</code> by default.
+     */
+    public static void setStream(PrintStream out) {
+        stream = out;
+    }
+
+    /**
+     * Prints a trace message if the subsystem is enabled. The parts are
+     * concatenated only then.
+     *
+     * @param subsystem The subsystem of the message.
+     * @param source Name of the class that traces.
+     * @param parts The parts of the message.
+     */
+    static void log(int subsystem, String source, Object... parts) {
+        if ((enabled & subsystem) == 0) {
+            return;
+        }
+        final StringBuilder s = new StringBuilder();
+        s.append('*').append(source).append(": ");
+        for (final Object part : parts) {
+            s.append(part);
+        }
+        stream.println(s);
+    }
+}
@@ -7,10 +7,10 @@ import java.io.IOException;
  * NETCONF transport mechanisms. The {@link NetconfSession} constructor takes a
  * transport mechanism to be responsible for the actual sending and receiving
  * of NETCONF protocol messages over the wire. {@link SSHSession} and
- * {@link TCPSession} implements the Transport interface.
+ * {@link NIOSession} implement the Transport interface.
  * 
  * @see SSHSession
- * @see TCPSession
+ * @see NIOSession
  * 
  */
 public interface Transport {
@@ -0,0 +1,14 @@
+package com.tailf.jnc;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler that builds an {@link Element} tree.
+ */
+abstract class TreeHandler extends DefaultHandler {
+
+    // pointer to current element (node)
+    public Element current;
+    public Element top;
+    public PrefixMap prefixes = null;
+}
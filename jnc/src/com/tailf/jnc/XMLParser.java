@@ -1,12 +1,12 @@
 package com.tailf.jnc;
 
 import java.io.ByteArrayInputStream;
+import java.io.Reader;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
@@ -42,12 +42,7 @@ public class XMLParser {
      * The handler with hooks for startElement etc. The SAX parser will build
      * up the parse tree, by calling these hooks.
      */
-    private class ConfHandler extends DefaultHandler {
-
-        // pointer to current element (node)
-        public Element current;
-        public Element top;
-        public PrefixMap prefixes = null;
+    private class ConfHandler extends TreeHandler {
 
         @Override
         public void startElement(String uri, String localName, String qName,
@@ -66,15 +61,15 @@ public class XMLParser {
                         attrValue);
                 // System.out.println("ATTRIBUTE: "+attributes.getQName(i)+
                 // "  URI="+attributes.getURI(i));
-                trace("add attr: " + attr);
+                trace("add attr: ", attr);
                 child.addAttr(attr);
             }
             if (current == null) {
-                trace("add to top: " + child);
+                trace("add to top: ", child);
                 top = child;
             } else {
                 current.addChild(child);
-                trace("add child: " + child);
+                trace("add child: ", child);
             }
             current = child; // step down
         }
@@ -100,15 +95,30 @@ public class XMLParser {
 
         @Override
         public void startPrefixMapping(String prefix, String uri) {
-            trace("startPrefixMapping: uri=\"" + uri + "\" prefix=" + prefix);
+            trace("startPrefixMapping: uri=\"", uri, "\" prefix=", prefix);
             if (prefixes == null) {
                 prefixes = new PrefixMap();
             }
             prefixes.add(new Prefix(prefix, uri));
-            trace("added prefixmapping: " + prefix);
+            trace("added prefixmapping: ", prefix);
         }
     }
 
+    /**
+     * @return A new parser of the same kind, for use by another thread.
+     */
+    XMLParser newParser() throws JNCException {
+        return new XMLParser();
+    }
+
+    /**
+     * @return A new handler that builds the tree for {@link #parse(InputSource,
+     *         Tagpath, ElementVisitor)}.
+     */
+    TreeHandler newHandler() {
+        return new ConfHandler();
+    }
+
     /**
      * Read in an XML file and parse it and return an element tree.
      */
@@ -154,12 +164,100 @@ public class XMLParser {
         return parse(is);
     }
 
+    /**
+     * Parses XML text, handing each element at a path to a visitor as soon as
+     * it is complete. The element is removed from the tree, so the tree never
+     * holds more than one of them. This is meant for replies that are too
+     * large to keep as a tree, for instance all entries of a big list:
+     *
+     * <pre>
+     * parser.parse(is, new Tagpath(&quot;rpc-reply/data/routes/route&quot;), visitor);
+     * </pre>
+     *
+     * @param is Input source where the XML text is read from
+     * @param path Local names of the elements to visit, from the root
+     *            element. <code>*</code> matches any name.
+     * @param visitor Receives the elements at the path.
+     * @return The root of what remains of the tree.
+     * @throws JNCException If the text cannot be parsed, or as thrown by the
+     *             visitor.
+     */
+    public Element parse(InputSource is, Tagpath path, ElementVisitor visitor)
+            throws JNCException {
+        final TreeHandler tree = newHandler();
+        try {
+            parser.setContentHandler(new StreamingHandler(tree, path, visitor));
+            parser.parse(is);
+            return tree.top;
+        } catch (final SAXException e) {
+            if (e.getException() instanceof JNCException) {
+                throw (JNCException) e.getException();
+            }
+            throw new JNCException(JNCException.PARSER_ERROR, "parse error: "
+                    + e);
+        } catch (final Exception e) {
+            throw new JNCException(JNCException.PARSER_ERROR, "parse error: "
+                    + e);
+        }
+    }
+
+    /**
+     * Returns an input source that reads XML text directly from a buffer,
+     * without copying it.
+     */
+    static InputSource source(CharSequence text) {
+        return new InputSource(new CharSequenceReader(text));
+    }
+
+    private static class CharSequenceReader extends Reader {
+        private final CharSequence text;
+        private int pos = 0;
+
+        CharSequenceReader(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            final int n = Math.min(len, text.length() - pos);
+            if (n <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+            if (text instanceof StringBuffer) {
+                ((StringBuffer) text).getChars(pos, pos + n, cbuf, off);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    cbuf[off + i] = text.charAt(pos + i);
+                }
+            }
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Traces a message given in parts. The parts are only concatenated, and
+     * passed on to {@link #trace(String)}, when {@link Trace#PARSER} is
+     * enabled.
+     */
+    protected final void trace(Object... msg) {
+        if (Trace.isEnabled(Trace.PARSER)) {
+            final StringBuilder s = new StringBuilder();
+            for (final Object part : msg) {
+                s.append(part);
+            }
+            trace(s.toString());
+        }
+    }
+
     /**
      * trace
      */
     protected void trace(String s) {
-        if (Element.debugLevel >= Element.DEBUG_LEVEL_PARSER) {
-            System.err.println("*XMLParser: " + s);
-        }
+        Trace.log(Trace.PARSER, "XMLParser", s);
     }
 }
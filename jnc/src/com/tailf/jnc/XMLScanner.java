@@ -0,0 +1,184 @@
+package com.tailf.jnc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the boundaries of elements in XML text without parsing it, so that
+ * parts of a message can be handed to a parser separately. The scan
+ * understands tags, quoted attribute values, comments, CDATA sections and
+ * processing instructions. Anything it does not handle, such as a DTD, makes
+ * it give up.
+ */
+class XMLScanner {
+
+    private XMLScanner() {
+    }
+
+    /**
+     * An element found by the scan, as offsets into the text.
+     */
+    static class Span {
+        final String qname;
+        final int start; // the '<' of the start tag
+        final int contentStart; // after the start tag
+        final int contentEnd; // the '<' of the end tag
+        final int end; // after the end tag
+        final boolean nested; // has child elements
+
+        Span(String qname, int start, int contentStart, int contentEnd,
+                int end, boolean nested) {
+            this.qname = qname;
+            this.start = start;
+            this.contentStart = contentStart;
+            this.contentEnd = contentEnd;
+            this.end = end;
+            this.nested = nested;
+        }
+
+        /**
+         * @return <code>true</code> if the element is written as an empty
+         *         tag.
+         */
+        boolean isEmptyTag() {
+            return contentStart == end;
+        }
+
+        String localName() {
+            return qname.substring(qname.indexOf(':') + 1);
+        }
+    }
+
+    /**
+     * Finds the elements in a range of the text, which must be the content
+     * of an element or the whole document.
+     *
+     * @return The elements, or <code>null</code> if the range is not
+     *         well-formed or uses a DTD.
+     */
+    static List<Span> children(String s, int from, int to) {
+        final List<Span> spans = new ArrayList<Span>();
+        int i = from;
+        while (true) {
+            i = s.indexOf('<', i);
+            if (i < 0 || i >= to) {
+                return spans;
+            }
+            final int skip = skipMarkup(s, i);
+            if (skip < 0) {
+                return null;
+            } else if (skip > 0) {
+                i = skip;
+                continue;
+            }
+            if (i + 1 >= to || s.charAt(i + 1) == '/') {
+                return null;
+            }
+            final Span span = element(s, i);
+            if (span == null || span.end > to) {
+                return null;
+            }
+            spans.add(span);
+            i = span.end;
+        }
+    }
+
+    /**
+     * Scans the element whose start tag is at i.
+     */
+    private static Span element(String s, int i) {
+        final int gt = tagEnd(s, i);
+        if (gt < 0) {
+            return null;
+        }
+        int n = i + 1;
+        while (n < gt && !isNameEnd(s.charAt(n))) {
+            n++;
+        }
+        final String qname = s.substring(i + 1, n);
+        if (s.charAt(gt - 1) == '/') {
+            return new Span(qname, i, gt + 1, gt + 1, gt + 1, false);
+        }
+        int depth = 1;
+        boolean nested = false;
+        int j = gt + 1;
+        while (true) {
+            j = s.indexOf('<', j);
+            if (j < 0 || j + 1 >= s.length()) {
+                return null;
+            }
+            final int skip = skipMarkup(s, j);
+            if (skip < 0) {
+                return null;
+            } else if (skip > 0) {
+                j = skip;
+            } else if (s.charAt(j + 1) == '/') {
+                final int e = s.indexOf('>', j);
+                if (e < 0) {
+                    return null;
+                }
+                if (--depth == 0) {
+                    return new Span(qname, i, gt + 1, j, e + 1, nested);
+                }
+                j = e + 1;
+            } else {
+                final int g = tagEnd(s, j);
+                if (g < 0) {
+                    return null;
+                }
+                nested = true;
+                if (s.charAt(g - 1) != '/') {
+                    depth++;
+                }
+                j = g + 1;
+            }
+        }
+    }
+
+    private static boolean isNameEnd(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '/'
+                || c == '>';
+    }
+
+    /**
+     * Returns the offset after a comment, CDATA section or processing
+     * instruction at i, 0 if there is none, and -1 if it is not terminated
+     * or is a declaration that the scan does not handle.
+     */
+    private static int skipMarkup(String s, int i) {
+        if (s.startsWith("<!--", i)) {
+            final int e = s.indexOf("-->", i + 4);
+            return e < 0 ? -1 : e + 3;
+        } else if (s.startsWith("<![CDATA[", i)) {
+            final int e = s.indexOf("]]>", i + 9);
+            return e < 0 ? -1 : e + 3;
+        } else if (s.startsWith("<?", i)) {
+            final int e = s.indexOf("?>", i + 2);
+            return e < 0 ? -1 : e + 2;
+        } else if (s.startsWith("<!", i)) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the offset of the '&gt;' that ends the tag at i, skipping
+     * quoted attribute values.
+     */
+    private static int tagEnd(String s, int i) {
+        char quote = 0;
+        for (int j = i + 1; j < s.length(); j++) {
+            final char c = s.charAt(j);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return j;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,6 +1,7 @@
 package com.tailf.jnc;
 
 import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Extended by implementations of the Integer, decimal64 and binary built-in
@@ -52,6 +53,44 @@ abstract class YangBaseInt<T extends Number> extends YangBaseType<T> {
         YangException.throwException(!valid(value.longValue()), this);
     }
 
+    /**
+     * Shared BigDecimal instances of the bounds used by setMinMax. The bounds
+     * of a type are the same for every value, so sharing them keeps the
+     * per-value footprint down to the value itself.
+     */
+    private static final ConcurrentHashMap<Number, BigDecimal> bounds = new ConcurrentHashMap<Number, BigDecimal>();
+
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    /**
+     * @param n A bound, or null.
+     * @return A shared BigDecimal with the value of n, or null if n is null.
+     */
+    private static BigDecimal bound(Number n) {
+        if (n == null) {
+            return null;
+        }
+        BigDecimal bd = bounds.get(n);
+        if (bd == null) {
+            bd = Utils.bigDecimalValueOf(n);
+            final BigDecimal old = bounds.putIfAbsent(n, bd);
+            if (old != null) {
+                bd = old;
+            }
+        }
+        return bd;
+    }
+
+    /**
+     * @param bd A bound, or null.
+     * @return true if bd is null or an integer in the range of long.
+     */
+    private static boolean isLongBound(BigDecimal bd) {
+        return bd == null || (bd.scale() == 0 && bd.compareTo(LONG_MIN) >= 0
+                && bd.compareTo(LONG_MAX) <= 0);
+    }
+
     /**
      * Sets the MIN_VALUE and MAX_VALUE fields of this object.
      * 
@@ -61,8 +100,8 @@ abstract class YangBaseInt<T extends Number> extends YangBaseType<T> {
      */
     protected void setMinMax(Number minValue, Number maxValue)
             throws YangException {
-        MIN_VALUE = Utils.bigDecimalValueOf(minValue);
-        MAX_VALUE = Utils.bigDecimalValueOf(maxValue);
+        MIN_VALUE = bound(minValue);
+        MAX_VALUE = bound(maxValue);
         if (MIN_VALUE == null || MAX_VALUE == null) {
             return;
         }
@@ -78,6 +117,14 @@ abstract class YangBaseInt<T extends Number> extends YangBaseType<T> {
         if (MIN_VALUE == null && MAX_VALUE == null) {
             return true;
         }
+        if ((n instanceof Long || n instanceof Integer || n instanceof Short
+                || n instanceof Byte) && isLongBound(MIN_VALUE)
+                && isLongBound(MAX_VALUE)) {
+            // Compare as long, without creating a BigDecimal for n
+            final long l = n.longValue();
+            return (MIN_VALUE == null || l >= MIN_VALUE.longValue())
+                    && (MAX_VALUE == null || l <= MAX_VALUE.longValue());
+        }
         final BigDecimal bd = Utils.bigDecimalValueOf(n);
         boolean res = true;
         if (MIN_VALUE != null) {
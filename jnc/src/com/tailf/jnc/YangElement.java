@@ -2,7 +2,7 @@ package com.tailf.jnc;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The YangElement is a configuration sub-tree like the
@@ -103,7 +103,11 @@ public abstract class YangElement extends Element {
             IllegalAccessException {
         final String className = pkg + "." + getPackage(parent)
                 + normalize(name);
-        final Class<?> rootClass = Class.forName(className);
+        Class<?> rootClass = classes.get(className);
+        if (rootClass == null) {
+            rootClass = Class.forName(className);
+            classes.put(className, rootClass);
+        }
         return (Element) rootClass.newInstance();
     }
 
@@ -178,6 +182,42 @@ public abstract class YangElement extends Element {
         }
     }
 
+    /**
+     * Adds a child that was built apart from its parent, such as a segment
+     * of a parallel parse or a decoded tree, the way a parser would add it.
+     * Generated classes keep references to some of their children, such as
+     * containers, which are set by the <code>add</code> method of the
+     * parent.
+     */
+    static void attach(Element parent, Element child)
+            throws JNCException {
+        child.parent = null;
+        if (!(parent instanceof YangElement)
+                || !((YangElement) parent).isChild(child.name)) {
+            parent.addChild(child);
+            return;
+        }
+        final YangElement p = (YangElement) parent;
+        if (child instanceof YangElement) {
+            try {
+                final Method add = p.getClass().getMethod(
+                        "add" + YangElement.normalize(child.name),
+                        new Class[] { child.getClass() });
+                add.invoke(p, new Object[] { child });
+                return;
+            } catch (final NoSuchMethodException e) {
+                // inserted below
+            } catch (final IllegalAccessException e) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "cannot add " + child.name + ": " + e);
+            } catch (final InvocationTargetException e) {
+                throw new JNCException(JNCException.PARSER_ERROR,
+                        "cannot add " + child.name + ": " + e.getCause());
+            }
+        }
+        p.insertChild(child, p.childrenNames());
+    }
+
     /**
      * Sets the leaf value of the specified leaf of this YangElement.
      * 
@@ -236,21 +276,16 @@ public abstract class YangElement extends Element {
         }
     }
 
-    static class Package {
-        String pkg;
-        String ns;
-
-        Package(String ns, String pkg) {
-            this.ns = ns;
-            this.pkg = pkg;
-        }
-    }
+    /**
+     * Map from namespace to package. Read by parser threads without locking.
+     */
+    private static final ConcurrentHashMap<String, String> packages = new ConcurrentHashMap<String, String>();
 
     /**
-     * Static list of packages.
-     * 
+     * Generated classes found by {@link #instantiate}, by class name. Cleared
+     * when a package is set or removed, since that may be a new class loader.
      */
-    static ArrayList<Package> packages = new ArrayList<Package>();
+    private static final ConcurrentHashMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
 
     /**
      * Locate package from Namespace.
@@ -258,44 +293,36 @@ public abstract class YangElement extends Element {
      * @return Package name, if namespace is data model aware
      */
     public static String getPackage(String ns) {
-        if (packages == null) {
+        if (ns == null) {
             return null;
         }
-        for (final Package p : packages) {
-            if (p.ns.equals(ns)) {
-                return p.pkg;
-            }
-        }
-        return null;
+        return packages.get(ns);
     }
 
     /**
      * Assiciate a JAVA package with a namespace.
      */
     public static void setPackage(String ns, String pkg) {
-        if (packages == null) {
-            packages = new ArrayList<Package>();
-        }
-        removePackage(ns);
-        packages.add(new Package(ns, pkg));
+        packages.put(ns, pkg);
+        classes.clear();
     }
 
     /**
      * Remove a package from the list of Packages
      */
     public static void removePackage(String ns) {
-        if (packages == null) {
-            return;
-        }
-        for (int i = 0; i < packages.size(); i++) {
-            final Package p = packages.get(i);
-            if (p.ns.equals(ns)) {
-                packages.remove(i);
-                return;
-            }
+        if (packages.remove(ns) != null) {
+            classes.clear();
         }
     }
 
+    /**
+     * @return The number of generated classes looked up so far.
+     */
+    static int cachedClasses() {
+        return classes.size();
+    }
+
     private static String capitalize(String s) {
         if (s.isEmpty()) {
             return s;
@@ -1007,23 +1034,93 @@ public abstract class YangElement extends Element {
         return p.readFile(filename);
     }
 
-    // cache the Tagpath and the SchemaNode
-    private Tagpath tp = null;
-    private SchemaNode n = null;
+    // cache the schema index entry, and the parent it was resolved under
+    private transient SchemaIndex.Entry entry = null;
+    private transient Element entryParent = null;
+
+    @Override
+    SchemaIndex.Entry schemaEntry(SchemaIndex index) {
+        if (entry == null || entry.index != index || entryParent != parent) {
+            entry = super.schemaEntry(index);
+            entryParent = parent;
+        }
+        return entry;
+    }
+
+    // cache the resolved prefix, with the namespace it was resolved for, the
+    // element whose prefix map it was found in (null for the default
+    // prefixes) and the version of that map. The cache is dropped by
+    // prefixScopeChanged() when this element or one above it gets other
+    // prefix mappings or another parent, so a hit does not look at the
+    // ancestors.
+    private static final String NO_PREFIX = new String();
+    private transient String cachedPrefix = null;
+    private transient String cachedPrefixNs = null;
+    private transient Element cachedPrefixOwner = null;
+    private transient PrefixMap cachedPrefixMap = null;
+    private transient int cachedPrefixVersion;
+
+    /**
+     * Returns the prefix of the namespace of this element in its scope. The
+     * prefix is cached; changes made with {@link #setPrefix(PrefixMap)},
+     * {@link #removePrefix(String)} and the methods that add and delete
+     * children are seen, as are changes of the prefix map it was found in,
+     * but not prefix maps of other ancestors assigned or changed directly.
+     */
+    @Override
+    public String prefix() {
+        if (prefixes == null && parent != null && namespace != null
+                && namespace.equals(parent.namespace)) {
+            // same scope and namespace as the parent
+            return parent.prefix();
+        }
+        if (cachedPrefix == null || cachedPrefixNs != namespace
+                || cachedPrefixMap.version() != cachedPrefixVersion
+                || (cachedPrefixOwner != null
+                        && cachedPrefixOwner.prefixes != cachedPrefixMap)) {
+            Element owner = this;
+            String p = null;
+            while (owner != null) {
+                if (owner.prefixes != null) {
+                    p = owner.prefixes.nsToPrefix(namespace);
+                    if (p != null) {
+                        break;
+                    }
+                }
+                owner = owner.parent;
+            }
+            final PrefixMap map = owner != null ? owner.prefixes
+                    : defaultPrefixes;
+            if (owner == null) {
+                p = defaultPrefixes.nsToPrefix(namespace);
+            }
+            cachedPrefix = p == null ? NO_PREFIX : p;
+            cachedPrefixNs = namespace;
+            cachedPrefixOwner = owner;
+            cachedPrefixMap = map;
+            cachedPrefixVersion = map.version();
+            // let changes above reach the cache
+            for (Element e = this; e != null && !e.prefixCached; e = e.parent) {
+                e.prefixCached = true;
+            }
+        }
+        return cachedPrefix == NO_PREFIX ? null : cachedPrefix;
+    }
+
+    @Override
+    void prefixScopeChanged() {
+        cachedPrefix = null;
+        super.prefixScopeChanged();
+    }
 
     @Override
     protected void encode(Transport out, boolean newline_at_end,
             Capabilities capas) throws JNCException {
         if (RevisionInfo.olderRevisionSupportEnabled && capas != null) {
-            if (tp == null) {
-                tp = tagpath();
-            }
             final String actualNamespace = getRootElement().namespace;
-            if (n == null) {
-                n = SchemaTree.lookup(actualNamespace, tp);
-            }
-            final String rev = capas.getRevision(actualNamespace);
-            if (n.revInfo != null) {
+            final SchemaNode n = SchemaTree.find(actualNamespace, this);
+            if (n != null && n.revInfo != null) {
+                final String rev = capas.getRevision(actualNamespace);
                 for (int i = 0; i < n.revInfo.length; i++) {
                     final RevisionInfo r = n.revInfo[i];
                     if (r.introduced.compareTo(rev) > 0) {
@@ -1035,7 +1132,7 @@ public abstract class YangElement extends Element {
                             if (getChildren().size() > max) {
                                 throw new JNCException(
                                         JNCException.REVISION_ERROR,
-                                        tp
+                                        n.tagpath
                                                 + "too many children for old node "
                                                 + "with rev( " + rev + ")");
                             }
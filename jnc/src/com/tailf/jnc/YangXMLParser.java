@@ -19,6 +19,19 @@ public class YangXMLParser extends XMLParser {
         super();
     }
 
+    @Override
+    XMLParser newParser() throws JNCException {
+        return new YangXMLParser();
+    }
+
+    /**
+     * @return An {@link ElementHandler}, which builds generated classes.
+     */
+    @Override
+    TreeHandler newHandler() {
+        return new ElementHandler();
+    }
+
     /**
      * Read in an XML file, parse it using an ElementHandler as content
      * handler, and return the parsed YangElement tree.
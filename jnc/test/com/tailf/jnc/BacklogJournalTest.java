@@ -0,0 +1,244 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BacklogJournalTest {
+
+    private static final String NS = "urn:test:backlog";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("backlog", ".jnl");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static Element edit(String root, String leaf, String value) {
+        final Element e = new Element(NS, root);
+        e.setDefaultPrefix();
+        final Element l = new Element(NS, leaf);
+        l.setValue(value);
+        e.addChild(l);
+        return e;
+    }
+
+    @Test
+    public void testAppendReopen() throws Exception {
+        BacklogJournal j = new BacklogJournal(file);
+        assertEquals(0, j.size());
+        j.append(edit("sys", "name", "a"));
+        j.append(Arrays.asList(edit("sys", "name", "b"),
+                edit("if", "mtu", "1500")));
+        assertEquals(3, j.size());
+        j.close();
+
+        j = new BacklogJournal(file);
+        assertEquals(3, j.size());
+        final List<Element> trees = j.read(new XMLParser());
+        assertEquals("a", trees.get(0).getValue("name"));
+        assertEquals("b", trees.get(1).getValue("name"));
+        assertEquals("if", trees.get(2).name);
+        assertEquals(NS, trees.get(2).namespace);
+
+        j.clear();
+        assertEquals(0, j.size());
+        j.append(edit("sys", "name", "c"));
+        j.close();
+        j = new BacklogJournal(file);
+        assertEquals(1, j.size());
+        assertEquals("c", j.read(new XMLParser()).get(0).getValue("name"));
+        j.close();
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        BacklogJournal j = new BacklogJournal(file);
+        j.append(edit("sys", "name", "a"));
+        j.append(edit("sys", "name", "b"));
+        j.close();
+        // damage the payload of the second record
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final int second = 12 + 8 + firstLength(raf);
+        raf.seek(second + 8 + 3);
+        raf.write('X');
+        raf.close();
+
+        j = new BacklogJournal(file);
+        assertEquals(1, j.size());
+        j.append(edit("sys", "name", "c"));
+        j.close();
+        j = new BacklogJournal(file);
+        final List<Element> trees = j.read(new XMLParser());
+        assertEquals(2, trees.size());
+        assertEquals("c", trees.get(1).getValue("name"));
+        j.close();
+    }
+
+    private static int firstLength(RandomAccessFile raf) throws IOException {
+        raf.seek(12);
+        return raf.readInt();
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        BacklogJournal j = new BacklogJournal(file);
+        j.append(Arrays.asList(edit("sys", "name", "a"),
+                edit("sys", "name", "b"), edit("sys", "name", "c")));
+        j.remove(1);
+        assertEquals(2, j.size());
+        j.close();
+
+        j = new BacklogJournal(file);
+        List<Element> trees = j.read(new XMLParser());
+        assertEquals(2, trees.size());
+        assertEquals("b", trees.get(0).getValue("name"));
+        j.append(edit("sys", "name", "d"));
+        j.remove(2);
+        j.close();
+
+        j = new BacklogJournal(file);
+        trees = j.read(new XMLParser());
+        assertEquals(1, trees.size());
+        assertEquals("d", trees.get(0).getValue("name"));
+        j.remove(1);
+        j.append(edit("sys", "name", "e"));
+        j.close();
+
+        j = new BacklogJournal(file);
+        trees = j.read(new XMLParser());
+        assertEquals(1, trees.size());
+        assertEquals("e", trees.get(0).getValue("name"));
+        j.close();
+    }
+
+    @Test
+    public void testOldRecordsAfterGapNotReplayed() throws Exception {
+        BacklogJournal j = new BacklogJournal(file);
+        j.append(edit("sys", "name", "a"));
+        j.append(edit("sys", "name", "b"));
+        j.close();
+        // the first record is lost, as in a crash while clearing the file
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(12);
+        raf.writeInt(0);
+        raf.close();
+
+        j = new BacklogJournal(file);
+        assertEquals(0, j.size());
+        // a record of the same length ends where the old second one starts
+        j.append(edit("sys", "name", "c"));
+        j.close();
+        j = new BacklogJournal(file);
+        final List<Element> trees = j.read(new XMLParser());
+        assertEquals(1, trees.size());
+        assertEquals("c", trees.get(0).getValue("name"));
+        j.close();
+    }
+
+    @Test
+    public void testGrow() throws Exception {
+        final BacklogJournal j = new BacklogJournal(file);
+        j.setSyncEvery(100);
+        final StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            big.append("0123456789");
+        }
+        for (int i = 0; i < 20; i++) {
+            j.append(edit("sys", "name", big.toString() + i));
+        }
+        j.close();
+        final BacklogJournal k = new BacklogJournal(file);
+        final List<Element> trees = k.read(new XMLParser());
+        assertEquals(20, trees.size());
+        assertTrue(trees.get(19).getValue("name").toString().endsWith("19"));
+        k.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAJournal() throws Exception {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeBytes("not a journal");
+        raf.close();
+        new BacklogJournal(file);
+    }
+
+    @Test
+    public void testCoalesce() throws JNCException {
+        final List<Element> trees = new ArrayList<Element>();
+        trees.add(edit("sys", "name", "a"));
+        trees.add(edit("sys", "location", "b"));
+        trees.add(edit("if", "mtu", "1500"));
+        final Element del = edit("sys", "name", "c");
+        del.markDelete();
+        trees.add(del);
+        trees.add(edit("sys", "contact", "d"));
+        trees.add(edit("sys", "contact", "e"));
+        final List<EditMerger> batches = EditMerger.batches(trees);
+        assertEquals(4, batches.size());
+        final NodeSet first = batches.get(0).getTrees();
+        assertEquals(3, batches.get(0).size());
+        assertEquals(2, first.size());
+        assertEquals(2, first.getElement(0).getChildren().size());
+        assertEquals("if", first.getElement(1).name);
+        // the delete is not merged into the containers around it
+        assertEquals(1, batches.get(1).getTrees().size());
+        assertNotNull(batches.get(1).getTrees().getElement(0).getAttr(
+                Element.OPERATION));
+        // neither is a leaf set to another value
+        assertEquals(1, batches.get(2).size());
+        assertEquals("e", batches.get(3).getTrees().getElement(0).getValue(
+                "contact"));
+        assertEquals(1, trees.get(0).getChildren().size());
+    }
+
+    @Test
+    public void testCoalesceLeafList() {
+        final List<Element> trees = new ArrayList<Element>();
+        final Element a = edit("sys", "server", "a");
+        a.createChild("server", "b");
+        trees.add(a);
+        trees.add(edit("sys", "server", "c"));
+        trees.add(edit("sys", "server", "b"));
+        final List<EditMerger> batches = EditMerger.batches(trees);
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).getTrees().size());
+        assertEquals(3, batches.get(0).getTrees().getElement(0)
+                .getChildren().size());
+    }
+
+    @Test
+    public void testDeviceBacklog() throws Exception {
+        final Device dev = new Device("d", "127.0.0.1", 830);
+        dev.addBackLog(edit("sys", "name", "a"));
+        BacklogJournal j = new BacklogJournal(file);
+        dev.setBacklogJournal(j);
+        dev.addBackLog(edit("sys", "name", "b"));
+        assertEquals(2, j.size());
+        j.close();
+
+        final Device restarted = new Device("d", "127.0.0.1", 830);
+        j = new BacklogJournal(file);
+        restarted.setBacklogJournal(j);
+        assertTrue(restarted.hasBacklog());
+        assertEquals(2, restarted.getBacklog().length);
+        assertEquals("b", restarted.getBacklog()[1].getValue("name"));
+        j.close();
+    }
+}
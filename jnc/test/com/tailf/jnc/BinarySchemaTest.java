@@ -0,0 +1,76 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinarySchemaTest {
+
+    private HashMap<Tagpath, SchemaNode> h;
+
+    @Before
+    public void setUp() throws JNCException {
+        h = new HashMap<Tagpath, SchemaNode>();
+        new SchemaParser().findAndReadFile("/Yang.schema", h,
+                SchemaParser.class);
+        final SchemaNode n = new SchemaNode();
+        n.tagpath = new Tagpath("interfaces/interface");
+        n.namespace = "urn:ietf:params:xml:ns:yang:ietf-interfaces";
+        n.min_occurs = 0;
+        n.max_occurs = -1;
+        n.children = new String[] { "name", "type" };
+        n.flags = 1L << 40;
+        n.revInfo = new RevisionInfo[] { new RevisionInfo(
+                RevisionInfo.R_NODE_ADDED, null, "2014-05-08") };
+        h.put(n.tagpath, n);
+    }
+
+    private ByteBuffer write() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinarySchema.write(h, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, JNCException {
+        final HashMap<Tagpath, SchemaNode> copy = new HashMap<Tagpath, SchemaNode>();
+        BinarySchema.read(write(), copy);
+        assertEquals(h.keySet(), copy.keySet());
+
+        final SchemaNode n = copy.get(new Tagpath("interfaces/interface"));
+        assertEquals("urn:ietf:params:xml:ns:yang:ietf-interfaces",
+                n.namespace);
+        assertEquals(-1, n.max_occurs);
+        assertArrayEquals(new String[] { "name", "type" }, n.children);
+        assertEquals(1L << 40, n.flags);
+        assertNull(n.desc);
+        assertEquals(1, n.revInfo.length);
+        assertEquals(RevisionInfo.R_NODE_ADDED, n.revInfo[0].type);
+        assertNull(n.revInfo[0].data);
+        assertEquals("2014-05-08", n.revInfo[0].introduced);
+
+        final SchemaNode root = copy.get(new Tagpath(0));
+        assertEquals("", root.desc);
+        assertNull(root.revInfo);
+    }
+
+    @Test
+    public void testCorruptSchemaLeavesMapUntouched() throws IOException {
+        final ByteBuffer buf = write();
+        buf.limit(buf.limit() - 4);
+        final HashMap<Tagpath, SchemaNode> copy = new HashMap<Tagpath, SchemaNode>();
+        try {
+            BinarySchema.read(buf, copy);
+            fail("Expected JNCException");
+        } catch (final JNCException e) {
+            assertTrue(copy.isEmpty());
+        }
+    }
+
+}
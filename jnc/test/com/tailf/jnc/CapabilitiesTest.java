@@ -0,0 +1,78 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CapabilitiesTest {
+
+    private static Element hello(String... caps) {
+        final Element capabilities = new Element(Capabilities.NS_NETCONF,
+                "capabilities");
+        for (final String cap : caps) {
+            final Element c = new Element(Capabilities.NS_NETCONF,
+                    "capability");
+            c.setValue(cap);
+            capabilities.addChild(c);
+        }
+        return capabilities;
+    }
+
+    @Before
+    public void setUp() {
+        Capabilities.clearCache();
+    }
+
+    @Test
+    public void testLookup() throws JNCException {
+        final Capabilities c = Capabilities.get(hello(
+                Capabilities.NETCONF_BASE_CAPABILITY,
+                Capabilities.CANDIDATE_CAPABILITY,
+                Capabilities.URL_CAPABILITY_SCHEME + "http,ftp",
+                "urn:example:if?module=if&revision=2012-01-01",
+                "urn:example:if?revision=2099-01-01",
+                "urn:example:ip"));
+        assertTrue(c.baseCapability);
+        assertTrue(c.hasCandidate());
+        assertFalse(c.hasXPath());
+        assertTrue(c.hasCapability(Capabilities.CANDIDATE_CAPABILITY));
+        assertTrue(c.hasCapability("urn:example:ip"));
+        assertFalse(c.hasCapability("urn:example:other"));
+        assertEquals("2012-01-01", c.getRevision("urn:example:if"));
+        assertNull(c.getRevision("urn:example:ip"));
+        assertNull(c.getRevision(Capabilities.CANDIDATE_CAPABILITY));
+        assertArrayEquals(new String[] { "http", "ftp" }, c.getUrlSchemes());
+        c.getUrlSchemes()[0] = "changed";
+        assertEquals("http", c.urlSchemes()[0]);
+    }
+
+    @Test
+    public void testShared() throws JNCException {
+        final Capabilities a = Capabilities.get(hello(
+                Capabilities.NETCONF_BASE_CAPABILITY, "urn:example:if"));
+        final Capabilities b = Capabilities.get(hello(
+                Capabilities.NETCONF_BASE_CAPABILITY, "urn:example:if"));
+        final Capabilities c = Capabilities.get(hello(
+                Capabilities.NETCONF_BASE_CAPABILITY,
+                "urn:example:if?revision=2013-01-01"));
+        assertSame(a, b);
+        assertNotSame(a, c);
+        assertEquals(2, Capabilities.cacheSize());
+        assertNotSame(a, new Capabilities(hello(
+                Capabilities.NETCONF_BASE_CAPABILITY, "urn:example:if")));
+    }
+
+    @Test
+    public void testSessionsShare() throws Exception {
+        final LoopbackServer server = new LoopbackServer();
+        try {
+            final NetconfSession s1 = new NetconfSession(server.connect());
+            final NetconfSession s2 = new NetconfSession(server.connect());
+            assertSame(s1.getCapabilities(), s2.getCapabilities());
+            assertTrue(s1.hasCapability(Capabilities.XPATH_CAPABILITY));
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitCoordinatorTest {
+
+    private static final String NS = "urn:test:tx";
+
+    /**
+     * A device whose session is connected to a loopback server.
+     */
+    private static class LoopbackDevice extends Device {
+        private static final long serialVersionUID = 1L;
+        final LoopbackServer server;
+        final NetconfSession session;
+
+        LoopbackDevice(String name, LoopbackServer server) throws Exception {
+            super(name, "127.0.0.1", 830);
+            this.server = server;
+            session = new NetconfSession(server.connect());
+        }
+
+        @Override
+        public NetconfSession getSession(String sessionName) {
+            return "cfg".equals(sessionName) ? session : null;
+        }
+    }
+
+    private DeviceFleet fleet;
+    private final List<LoopbackServer> servers = new ArrayList<LoopbackServer>();
+    private final List<LoopbackDevice> devices = new ArrayList<LoopbackDevice>();
+    private final AtomicInteger locks = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        fleet = new DeviceFleet(10);
+        for (int i = 0; i < 10; i++) {
+            final LoopbackServer server = new LoopbackServer();
+            server.setCapabilities(new String[] {
+                    Capabilities.NETCONF_BASE_CAPABILITY,
+                    Capabilities.CANDIDATE_CAPABILITY,
+                    Capabilities.VALIDATE_CAPABILITY,
+                    Capabilities.CONFIRMED_COMMIT_1_1_CAPABILITY });
+            server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 2, 1));
+            server.setHandler("lock", new LoopbackServer.RpcHandler() {
+                @Override
+                public String reply(Element op) {
+                    locks.incrementAndGet();
+                    return "<ok/>";
+                }
+            });
+            server.setHandler("unlock", new LoopbackServer.RpcHandler() {
+                @Override
+                public String reply(Element op) {
+                    locks.decrementAndGet();
+                    return "<ok/>";
+                }
+            });
+            servers.add(server);
+            devices.add(new LoopbackDevice("dev" + i, server));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        fleet.shutdown();
+        for (final LoopbackServer server : servers) {
+            server.close();
+        }
+    }
+
+    private static Element edit() {
+        final Element hosts = new Element(NS, "hosts");
+        hosts.setDefaultPrefix();
+        final Element entry = hosts.createChild("entry");
+        entry.createChild("id", "9");
+        entry.createChild("leaf0", "new");
+        return hosts;
+    }
+
+    private static int entries(LoopbackServer server) {
+        return server.getRunning().getElement(0).getChildren().size();
+    }
+
+    private static void refuse(LoopbackServer server, final String rpc,
+            final boolean confirmedOnly) {
+        server.setHandler(rpc, new LoopbackServer.RpcHandler() {
+            @Override
+            public String reply(Element op) throws JNCException {
+                if (confirmedOnly && op.getChild("confirmed") == null) {
+                    return "<ok/>";
+                }
+                throw new JNCException(JNCException.SESSION_ERROR, rpc
+                        + " refused");
+            }
+        });
+    }
+
+    @Test
+    public void testCommitted() throws Exception {
+        final CommitCoordinator tx = new CommitCoordinator(fleet);
+        final CommitCoordinator.Outcome o = tx.commit(devices, "cfg", edit());
+        assertTrue(o.toString(), o.isCommitted());
+        assertNull(o.getFailedPhase());
+        assertEquals(10, o.getCommitted().size());
+        assertTrue(o.getCleanupErrors().isEmpty());
+        assertEquals(0, locks.get());
+        for (final LoopbackServer server : servers) {
+            assertEquals(3, entries(server));
+        }
+    }
+
+    @Test
+    public void testValidateFailureDiscards() throws Exception {
+        refuse(servers.get(3), "validate", false);
+        final CommitCoordinator.Outcome o = new CommitCoordinator(fleet)
+                .commit(devices, "cfg", edit());
+        assertFalse(o.isCommitted());
+        assertEquals(CommitCoordinator.Phase.VALIDATE, o.getFailedPhase());
+        assertEquals(1, o.getErrors().size());
+        assertTrue(o.getErrors().containsKey(devices.get(3)));
+        assertTrue(o.getCommitted().isEmpty());
+        assertEquals(0, locks.get());
+        for (final LoopbackDevice d : devices) {
+            assertEquals(2, entries(d.server));
+            // the candidate was reset too
+            assertEquals(2, d.session.getConfig(NetconfSession.CANDIDATE)
+                    .getElement(0).getChildren().size());
+        }
+    }
+
+    @Test
+    public void testConfirmedCommitFailureCancels() throws Exception {
+        refuse(servers.get(0), "commit", true);
+        final CommitCoordinator tx = new CommitCoordinator(fleet);
+        tx.setConfirmTimeout(30);
+        final CommitCoordinator.Outcome o = tx.commit(devices, "cfg", edit());
+        assertEquals(CommitCoordinator.Phase.CONFIRMED_COMMIT, o
+                .getFailedPhase());
+        assertTrue(o.getCleanupErrors().isEmpty());
+        assertEquals(0, locks.get());
+        for (final LoopbackServer server : servers) {
+            assertEquals(2, entries(server));
+        }
+    }
+
+    @Test
+    public void testLockFailureUnlocksOthers() throws Exception {
+        refuse(servers.get(5), "lock", false);
+        final CommitCoordinator.Outcome o = new CommitCoordinator(fleet)
+                .commit(devices, "cfg", edit());
+        assertEquals(CommitCoordinator.Phase.LOCK, o.getFailedPhase());
+        assertEquals(0, locks.get());
+        for (final LoopbackServer server : servers) {
+            assertEquals(2, entries(server));
+        }
+    }
+
+    @Test
+    public void testPhasesRunInParallel() throws Exception {
+        for (final LoopbackServer server : servers) {
+            server.setLatency(20);
+        }
+        final long start = System.currentTimeMillis();
+        final CommitCoordinator.Outcome o = new CommitCoordinator(fleet)
+                .commit(devices, "cfg", edit());
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue(o.isCommitted());
+        // 8 rpcs per device, one after the other would take 1600 ms
+        assertTrue("took " + elapsed + " ms", elapsed < 800);
+    }
+}
@@ -0,0 +1,208 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigCacheTest {
+
+    private static final String NS = "urn:test:cache";
+
+    private LoopbackServer server;
+    private final AtomicInteger fetches = new AtomicInteger();
+    private volatile CountDownLatch gate = null;
+
+    @Before
+    public void setUp() {
+        server = new LoopbackServer();
+        server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 5, 2));
+        server.setHandler("get-config", new LoopbackServer.RpcHandler() {
+            @Override
+            public String reply(Element op) {
+                fetches.incrementAndGet();
+                final CountDownLatch g = gate;
+                if (g != null) {
+                    try {
+                        g.await();
+                    } catch (final InterruptedException e) {
+                        // reply at once
+                    }
+                }
+                return "<data>" + server.getRunning().toXMLString()
+                        + "</data>";
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static Element filter(String prefix, boolean reversed) {
+        final Element hosts = new Element(NS, "hosts");
+        hosts.setPrefix(new Prefix(prefix, NS));
+        final Element entry = new Element(NS, "entry");
+        hosts.addChild(entry);
+        final Element id = new Element(NS, "id");
+        id.setValue("3");
+        final Element leaf = new Element(NS, "leaf0");
+        if (reversed) {
+            entry.addChild(leaf);
+            entry.addChild(id);
+        } else {
+            entry.addChild(id);
+            entry.addChild(leaf);
+        }
+        return hosts;
+    }
+
+    private static Element edit(String id, String leaf0) {
+        final Element hosts = new Element(NS, "hosts");
+        hosts.setDefaultPrefix();
+        final Element entry = hosts.createChild("entry");
+        entry.createChild("id", id);
+        entry.createChild("leaf0", leaf0);
+        return hosts;
+    }
+
+    @Test
+    public void testHitsAreCopies() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        final ConfigCache cache = new ConfigCache();
+        session.setConfigCache(cache);
+
+        final NodeSet first = session.getConfig();
+        first.getElement(0).getChildren().clear();
+        final NodeSet second = session.getConfig();
+        assertEquals(1, fetches.get());
+        assertEquals(5, second.getElement(0).getChildren().size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        session.getConfig(filter("a", false));
+        session.getConfig(filter("b", true));
+        session.getConfig(NetconfSession.RUNNING, "/hosts");
+        assertEquals(3, fetches.get());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testLocalChangesInvalidate() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        session.setConfigCache(new ConfigCache());
+        session.getConfig();
+        session.getConfig(NetconfSession.CANDIDATE);
+        assertEquals(2, fetches.get());
+
+        session.editConfig(NetconfSession.CANDIDATE, edit("42", "new"));
+        session.getConfig();
+        assertEquals(2, fetches.get());
+        session.getConfig(NetconfSession.CANDIDATE);
+        assertEquals(3, fetches.get());
+
+        session.commit();
+        assertEquals(6, session.getConfig().getElement(0).getChildren()
+                .size());
+        assertEquals(4, fetches.get());
+    }
+
+    @Test
+    public void testConfigChangeNotification() throws Exception {
+        final ConfigCache cache = new ConfigCache();
+        final NetconfSession session = new NetconfSession(server.connect());
+        final NetconfSession events = new NetconfSession(server.connect());
+        session.setConfigCache(cache);
+        events.setConfigCache(cache);
+        events.createSubscription();
+        session.getConfig();
+        session.getConfig(NetconfSession.CANDIDATE);
+        assertEquals(2, cache.size());
+
+        final Element change = new Element(
+                ConfigCache.NS_NETCONF_NOTIFICATIONS, "netconf-config-change");
+        change.setDefaultPrefix();
+        change.createChild("datastore", "running");
+        server.sendNotification(change);
+        events.receiveNotification();
+        assertEquals(1, cache.size());
+        session.getConfig();
+        assertEquals(3, fetches.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsCollapse() throws Exception {
+        final ConfigCache cache = new ConfigCache();
+        final NetconfSession a = new NetconfSession(server.connect());
+        final NetconfSession b = new NetconfSession(server.connect());
+        a.setConfigCache(cache);
+        b.setConfigCache(cache);
+        gate = new CountDownLatch(1);
+        final NodeSet[] results = new NodeSet[2];
+        final Thread[] threads = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            final int n = i;
+            final NetconfSession s = i == 0 ? a : b;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[n] = s.getConfig();
+                    } catch (final Exception e) {
+                        // results[n] stays null
+                    }
+                }
+            };
+            threads[i].start();
+            while (i == 0 && fetches.get() == 0) {
+                Thread.sleep(1);
+            }
+        }
+        while (cache.getCollapsed() == 0) {
+            Thread.sleep(1);
+        }
+        gate.countDown();
+        for (final Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, fetches.get());
+        assertNotNull(results[0]);
+        assertNotNull(results[1]);
+        assertNotSame(results[0].getElement(0), results[1].getElement(0));
+        assertEquals(results[0].toXMLString(), results[1].toXMLString());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        final ConfigCache cache = new ConfigCache(2, 1000);
+        session.setConfigCache(cache);
+        session.getConfig(NetconfSession.RUNNING, "/a");
+        session.getConfig(NetconfSession.RUNNING, "/b");
+        session.getConfig(NetconfSession.RUNNING, "/a");
+        session.getConfig(NetconfSession.RUNNING, "/c");
+        assertEquals(2, cache.size());
+        session.getConfig(NetconfSession.RUNNING, "/a");
+        assertEquals(3, fetches.get());
+        session.getConfig(NetconfSession.RUNNING, "/b");
+        assertEquals(4, fetches.get());
+
+        final ConfigCache small = new ConfigCache(10, 5);
+        session.setConfigCache(small);
+        session.getConfig();
+        assertEquals(0, small.size());
+    }
+
+    @Test
+    public void testFilterKey() {
+        assertEquals(ConfigCache.key(filter("a", false)),
+                ConfigCache.key(filter("b", true)));
+        assertFalse(ConfigCache.key(filter("a", false)).equals(
+                ConfigCache.key(edit("3", "x"))));
+    }
+}
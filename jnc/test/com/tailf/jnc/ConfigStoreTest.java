@@ -0,0 +1,146 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigStoreTest {
+
+    private static final String NS = "urn:test:store";
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("configs", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static Element config(String hostName) {
+        final Element e = new Element(NS, "sys");
+        e.setDefaultPrefix();
+        e.createChild("name", hostName);
+        return e;
+    }
+
+    private static Capabilities capabilities(String... uris)
+            throws JNCException {
+        final Element e = new Element(Capabilities.NS_NETCONF,
+                "capabilities");
+        for (final String uri : uris) {
+            e.createChild("capability", uri);
+        }
+        return Capabilities.get(e);
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        final ConfigStore store = new ConfigStore(dir);
+        assertNull(store.get("dev/1", "cfg"));
+        final Capabilities caps = capabilities(
+                Capabilities.NETCONF_BASE_CAPABILITY, NS
+                        + "?module=store&revision=2020-01-01");
+        store.put("dev/1", "cfg", config("a"), 1000L, caps);
+        store.put("dev/1", "oper", config("b"), null);
+        store.put("dev/2", "cfg", config("c"), null);
+
+        final ConfigStore reopened = new ConfigStore(dir);
+        assertEquals(Arrays.asList("cfg", "oper"), reopened.sessions("dev/1"));
+        final ConfigStore.Snapshot s = reopened.get("dev/1", "cfg");
+        assertEquals(1000L, s.getFetchTime());
+        assertTrue(s.isOlderThan(60000));
+        assertTrue(s.matches(capabilities(NS
+                + "?module=store&revision=2020-01-01",
+                Capabilities.NETCONF_BASE_CAPABILITY)));
+        assertFalse(s.matches(capabilities(
+                Capabilities.NETCONF_BASE_CAPABILITY, NS
+                        + "?module=store&revision=2021-01-01")));
+        assertEquals(config("a").toXMLString(), s.getConfig().toXMLString());
+        assertTrue(reopened.get("dev/1", "oper").getCapabilities().isEmpty());
+
+        store.put("dev/1", "cfg", config("d"), null);
+        assertEquals("d", reopened.get("dev/1", "cfg").getConfig().getValue(
+                "name"));
+        store.remove("dev/1", "oper");
+        assertEquals(Arrays.asList("cfg"), store.sessions("dev/1"));
+    }
+
+    @Test
+    public void testDamagedSnapshotIgnored() throws Exception {
+        final ConfigStore store = new ConfigStore(dir);
+        store.put("d", "cfg", config("a"), null);
+        final File f = dir.listFiles()[0];
+        final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(raf.length() - 1);
+        raf.write(0x55);
+        raf.close();
+        // the tree is only checked when it is asked for
+        final ConfigStore.Snapshot s = store.get("d", "cfg");
+        assertNotNull(s);
+        try {
+            s.getConfig();
+            fail("expected a damaged snapshot");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.PARSER_ERROR, e.errorCode);
+        }
+        final Device dev = new Device("d", "127.0.0.1", 830);
+        dev.setConfigStore(store);
+        assertFalse(dev.hasConfig("cfg"));
+
+        // damaged time or capabilities
+        store.put("d", "cfg", config("a"), null);
+        final RandomAccessFile meta = new RandomAccessFile(f, "rw");
+        meta.seek(24);
+        meta.write(0x55);
+        meta.close();
+        assertNull(store.get("d", "cfg"));
+
+        final RandomAccessFile cut = new RandomAccessFile(f, "rw");
+        cut.setLength(6);
+        cut.close();
+        assertNull(store.get("d", "cfg"));
+    }
+
+    @Test
+    public void testDeviceWarmStart() throws Exception {
+        final ConfigStore store = new ConfigStore(dir);
+        final Device dev = new Device("d", "127.0.0.1", 830);
+        dev.setConfigStore(store);
+        dev.newSessionConfigTree("cfg");
+        assertTrue(dev.isConfigStale("cfg", 60000));
+        dev.setConfig("cfg", config("a"));
+        dev.saveConfig("cfg");
+
+        final Device restarted = new Device("d", "127.0.0.1", 830);
+        restarted.setConfigStore(new ConfigStore(dir));
+        assertTrue(restarted.hasConfig("cfg"));
+        assertEquals("a", restarted.getConfig("cfg").getValue("name"));
+        // never fetched from the device
+        assertTrue(restarted.isConfigStale("cfg", 60000));
+
+        store.put("d", "cfg", config("b"), null);
+        final Device fresh = new Device("d", "127.0.0.1", 830);
+        fresh.setConfigStore(store);
+        assertEquals("b", fresh.getConfig("cfg").getValue("name"));
+        assertFalse(fresh.isConfigStale("cfg", 60000));
+        assertTrue(fresh.isConfigStale("cfg", -1));
+    }
+}
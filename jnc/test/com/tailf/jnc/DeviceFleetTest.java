@@ -0,0 +1,96 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeviceFleetTest {
+
+    private DeviceFleet fleet;
+    private List<Device> devices;
+
+    @Before
+    public void setUp() {
+        fleet = new DeviceFleet(4);
+        devices = new ArrayList<Device>();
+        for (int i = 0; i < 20; i++) {
+            devices.add(new Device("dev" + i, "127.0.0.1", 830));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        fleet.shutdown();
+    }
+
+    @Test
+    public void testResultsAndErrors() throws InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final DeviceFleet.Result<String> r = fleet.run(devices,
+                new DeviceFleet.Operation<String>() {
+                    @Override
+                    public String run(Device device) throws IOException,
+                            JNCException {
+                        final int n = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(n, maxRunning.get()));
+                        }
+                        try {
+                            Thread.sleep(5);
+                        } catch (final InterruptedException e) {
+                            // ignore
+                        }
+                        running.decrementAndGet();
+                        if (device.name.endsWith("3")) {
+                            throw new IOException(device.name);
+                        }
+                        return device.name;
+                    }
+                });
+        assertFalse(r.isSuccess());
+        assertEquals(18, r.getValues().size());
+        assertEquals(2, r.getErrors().size());
+        assertEquals("dev0", r.getValues().get(devices.get(0)));
+        assertEquals("dev13", r.getErrors().get(devices.get(13)).getMessage());
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        fleet.setTimeout(50);
+        final DeviceFleet.Result<Void> r = fleet.run(devices.subList(0, 2),
+                new DeviceFleet.Operation<Void>() {
+                    @Override
+                    public Void run(Device device) {
+                        if (device.name.equals("dev1")) {
+                            try {
+                                Thread.sleep(10000);
+                            } catch (final InterruptedException e) {
+                                // aborted by the fleet
+                            }
+                        }
+                        return null;
+                    }
+                });
+        assertTrue(r.getValues().containsKey(devices.get(0)));
+        final JNCException e = (JNCException) r.getErrors().get(
+                devices.get(1));
+        assertEquals(JNCException.TIMEOUT_ERROR, e.errorCode);
+    }
+
+    @Test
+    public void testMissingSession() throws InterruptedException {
+        final DeviceFleet.Result<Void> r = fleet.commit(devices, "cfg");
+        assertEquals(devices.size(), r.getErrors().size());
+        assertTrue(r.getErrors().get(devices.get(0)) instanceof YangException);
+    }
+
+}
@@ -0,0 +1,317 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EditBatcherTest {
+
+    private static final String NS = "urn:test:batch";
+
+    private LoopbackServer server;
+    private final List<Element> sent = new CopyOnWriteArrayList<Element>();
+    private final List<String> rpcs = new CopyOnWriteArrayList<String>();
+    private volatile String errorPath = null;
+
+    @Before
+    public void setUp() {
+        server = new LoopbackServer();
+        server.setHandler("edit-config", new LoopbackServer.RpcHandler() {
+            @Override
+            public String reply(Element op) {
+                sent.add(op.getChild("config"));
+                rpcs.add("edit-config");
+                final String path = errorPath;
+                if (path != null) {
+                    return "<rpc-error><error-type>application</error-type>"
+                            + "<error-tag>invalid-value</error-tag>"
+                            + "<error-severity>error</error-severity>"
+                            + "<error-path xmlns:t=\"" + NS + "\">" + path
+                            + "</error-path></rpc-error>";
+                }
+                return "<ok/>";
+            }
+        });
+        server.setHandler("commit", new LoopbackServer.RpcHandler() {
+            @Override
+            public String reply(Element op) {
+                rpcs.add("commit");
+                return "<ok/>";
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * A container, as generated.
+     */
+    private static class Hosts extends YangElement {
+        private static final long serialVersionUID = 1L;
+
+        Hosts() {
+            super(NS, "hosts");
+            setDefaultPrefix();
+        }
+
+        @Override
+        public String[] childrenNames() {
+            return new String[] { "entry" };
+        }
+
+        @Override
+        public String[] keyNames() {
+            return null;
+        }
+
+        @Override
+        public Hosts clone() {
+            return (Hosts) cloneContent(new Hosts());
+        }
+
+        @Override
+        public Hosts cloneShallow() {
+            return (Hosts) cloneShallowContent(new Hosts());
+        }
+    }
+
+    /**
+     * A list entry with the key id, as generated.
+     */
+    private static class Entry extends YangElement {
+        private static final long serialVersionUID = 1L;
+
+        Entry() {
+            super(NS, "entry");
+        }
+
+        @Override
+        public String[] childrenNames() {
+            return new String[] { "id", "leaf0", "leaf1" };
+        }
+
+        @Override
+        public String[] keyNames() {
+            return new String[] { "id" };
+        }
+
+        @Override
+        public Entry clone() {
+            final Entry copy = new Entry();
+            copy.addChild((Element) getChild("id").clone());
+            return (Entry) cloneContent(copy);
+        }
+
+        @Override
+        public Entry cloneShallow() {
+            final Entry copy = new Entry();
+            copy.addChild((Element) getChild("id").clone());
+            return (Entry) cloneShallowContent(copy);
+        }
+    }
+
+    private static Element edit(int id, String leaf, String value) {
+        final Element hosts = new Hosts();
+        final Element entry = new Entry();
+        hosts.addChild(entry);
+        entry.createChild("id", Integer.toString(id));
+        entry.createChild(leaf, value);
+        return hosts;
+    }
+
+    private static Element system(String leaf, String... values) {
+        final Element system = new Element(NS, "system");
+        system.setDefaultPrefix();
+        for (final String value : values) {
+            system.createChild(leaf, value);
+        }
+        return system;
+    }
+
+    @Test
+    public void testOneRoundTrip() throws Exception {
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()));
+        batch.setMaxEdits(2000);
+        for (int i = 0; i < 1000; i++) {
+            batch.add(edit(i, "leaf0", "v" + i));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            batch.add(edit(i, "leaf1", "w" + i));
+        }
+        assertEquals(0, sent.size());
+        assertEquals(1500, batch.size());
+        batch.flush();
+        assertEquals(0, batch.size());
+        assertEquals(1, sent.size());
+
+        final NodeSet trees = sent.get(0).getChildren();
+        assertEquals(1, trees.size());
+        final NodeSet entries = trees.getElement(0).getChildren();
+        assertEquals(1000, entries.size());
+        assertEquals(3, entries.getElement(0).getChildren().size());
+        assertEquals(2, entries.getElement(1).getChildren().size());
+
+        batch.flush();
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void testConflictsKeepOrder() throws Exception {
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()));
+        batch.add(edit(1, "leaf0", "a"));
+        batch.add(edit(1, "leaf0", "a"));
+        batch.add(edit(1, "leaf0", "b"));
+        final Element delete = edit(2, "leaf0", "x");
+        delete.getChild("entry").markDelete();
+        batch.add(delete);
+        batch.flush();
+
+        // the change of leaf0 goes in an edit-config of its own
+        assertEquals(2, sent.size());
+        final NodeSet first = sent.get(0).getChildren().getElement(0)
+                .getChildren();
+        assertEquals(1, first.size());
+        assertEquals("a", first.getElement(0).getValue("leaf0"));
+        final NodeSet second = sent.get(1).getChildren().getElement(0)
+                .getChildren();
+        assertEquals(2, second.size());
+        assertEquals("b", second.getElement(0).getValue("leaf0"));
+        assertNotNull(second.getElement(1).getAttr(Element.OPERATION));
+    }
+
+    @Test
+    public void testContainers() throws Exception {
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()));
+        batch.add(system("hostname", "h"));
+        batch.add(system("location", "l"));
+        // leaf-list entries
+        batch.add(system("server", "a", "b"));
+        batch.add(system("server", "c"));
+        batch.add(system("server", "a"));
+        batch.flush();
+
+        assertEquals(1, sent.size());
+        final NodeSet trees = sent.get(0).getChildren();
+        assertEquals(1, trees.size());
+        final NodeSet leaves = trees.getElement(0).getChildren();
+        assertEquals(5, leaves.size());
+        assertEquals("c", leaves.getElement(4).getValue());
+    }
+
+    @Test
+    public void testThresholds() throws Exception {
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()));
+        batch.setMaxEdits(10);
+        final NodeSet edits = new NodeSet();
+        for (int i = 0; i < 25; i++) {
+            edits.add(edit(i, "leaf0", "v"));
+        }
+        batch.add(edits);
+        assertEquals(2, sent.size());
+        assertEquals(5, batch.size());
+
+        batch.setMaxDelay(20);
+        batch.add(edit(99, "leaf0", "v"));
+        final long end = System.currentTimeMillis() + 5000;
+        while (sent.size() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(3, sent.size());
+        assertEquals(0, batch.size());
+        batch.close();
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()), NetconfSession.CANDIDATE);
+        batch.add(edit(1, "leaf0", "a"));
+        batch.add(edit(2, "leaf0", "b"));
+        batch.commit();
+        assertEquals(2, rpcs.size());
+        assertEquals("edit-config", rpcs.get(0));
+        assertEquals("commit", rpcs.get(1));
+    }
+
+    @Test
+    public void testErrorAttribution() throws Exception {
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()));
+        for (int i = 0; i < 10; i++) {
+            batch.add(edit(i, "leaf0", "v" + i));
+        }
+        batch.add(edit(7, "leaf1", "w"));
+        errorPath = "\n  /t:hosts/t:entry[t:id='7']/t:leaf0\n";
+        try {
+            batch.flush();
+            fail("expected an rpc-error");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.RPC_REPLY_ERROR, e.errorCode);
+        }
+        assertEquals(0, batch.size());
+        final List<EditBatcher.Failure> failures = batch.getFailures();
+        assertEquals(1, failures.size());
+        final List<Element> blamed = failures.get(0).getEdits();
+        assertEquals(1, blamed.size());
+        assertEquals("v7", blamed.get(0).getChild("entry").getValue("leaf0"));
+        assertTrue(batch.getUnsent().isEmpty());
+    }
+
+    @Test
+    public void testUnsentAfterError() throws Exception {
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()));
+        batch.add(system("hostname", "a"));
+        batch.add(system("hostname", "b"));
+        errorPath = "/t:system/t:hostname";
+        try {
+            batch.flush();
+            fail("expected an rpc-error");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.RPC_REPLY_ERROR, e.errorCode);
+        }
+        assertEquals(1, sent.size());
+        assertEquals(1, batch.getFailures().get(0).getEdits().size());
+        assertEquals(1, batch.getUnsent().size());
+        assertEquals("b", batch.getUnsent().get(0).getValue("hostname"));
+    }
+
+    @Test
+    public void testErrorPathSteps() {
+        final List<String[]> steps = EditBatcher
+                .steps("/a:x/a:y[a:k='p/q'][a:n=\"1\"]/z");
+        assertEquals(3, steps.size());
+        assertArrayEquals(new String[] { "x" }, steps.get(0));
+        assertArrayEquals(new String[] { "y", "k", "p/q", "n", "1" }, steps
+                .get(1));
+        assertArrayEquals(new String[] { "z" }, steps.get(2));
+    }
+
+    @Test
+    public void testAppliedByServer() throws Exception {
+        server.setHandler("edit-config", null);
+        server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 3, 1));
+        final EditBatcher batch = new EditBatcher(new NetconfSession(server
+                .connect()));
+        batch.add(edit(1, "leaf0", "a"));
+        batch.add(edit(1, "leaf0", "b"));
+        batch.add(edit(5, "leaf0", "c"));
+        batch.flush();
+        final Element hosts = server.getRunning().getElement(0);
+        assertEquals(4, hosts.getChildren().size());
+        assertEquals("b", hosts.getChildren().getElement(1).getValue("leaf0"));
+        assertEquals("c", hosts.getChildren().getElement(3).getValue("leaf0"));
+    }
+}
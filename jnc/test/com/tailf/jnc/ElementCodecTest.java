@@ -0,0 +1,172 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class ElementCodecTest {
+
+    private static final String NS = "http://example.com/test";
+
+    private static Element roundTrip(Element e) throws IOException,
+            JNCException {
+        return ElementCodec.decode(ElementCodec.encode(e));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, JNCException {
+        final Element config = new Element(NS, "config");
+        config.setPrefix(new Prefix("t", NS));
+        final Element hosts = config.createChild("hosts");
+        hosts.setAttr("operation", "merge");
+        hosts.addAttr(new Attribute(Element.NETCONF_NAMESPACE, "op", "x"));
+        for (int i = 0; i < 3; i++) {
+            final Element host = hosts.createChild("host");
+            host.createChild("name", "h" + i);
+            host.createChild("comment", "bl\u00e5b\u00e6r " + i);
+        }
+        hosts.createChild("empty");
+
+        final Element copy = roundTrip(config);
+        assertEquals(config.toXMLString(), copy.toXMLString());
+        assertNull(copy.getParent());
+        final Element h = copy.getChild("hosts");
+        assertSame(copy, h.getParent());
+        assertEquals("merge", h.getAttrValue("operation"));
+        assertEquals(Element.NETCONF_NAMESPACE, h.getAttr("op").ns);
+        assertNull(h.getChild("empty").getChildren());
+        assertNull(h.getChild("empty").getValue());
+        assertEquals(NS, copy.prefixes.prefixToNs("t"));
+    }
+
+    @Test
+    public void testTypedValues() throws IOException, JNCException {
+        final Element e = new Element(NS, "values");
+        final Object[] values = new Object[] { new YangInt8(-128),
+                new YangInt16(32767), new YangInt32(-5), new YangInt64(
+                        Long.MIN_VALUE), new YangUInt8(255),
+                new YangUInt16(0), new YangUInt32(4294967295L),
+                new YangUInt64(new BigInteger("18446744073709551615")),
+                new YangBoolean(true), new YangString("s"),
+                new YangDecimal64("3.14", 2), "plain" };
+        for (int i = 0; i < values.length; i++) {
+            final Leaf leaf = new Leaf(NS, "v" + i);
+            leaf.setValue(values[i]);
+            e.addChild(leaf);
+        }
+
+        final Element copy = roundTrip(e);
+        for (int i = 0; i < values.length; i++) {
+            final Object v = copy.getChildren().getElement(i).getValue();
+            assertTrue(copy.getChildren().getElement(i) instanceof Leaf);
+            assertSame(values[i].getClass(), v.getClass());
+            assertEquals(values[i], v);
+        }
+        assertEquals(2, ((YangDecimal64) copy.getChildren().getElement(10)
+                .getValue()).getFractionDigits());
+    }
+
+    @Test
+    public void testSubclass() throws IOException, JNCException {
+        final DummyElement d = new DummyElement(NS, "dummy");
+        d.setValue("x");
+        final Element copy = roundTrip(d);
+        assertSame(DummyElement.class, copy.getClass());
+        assertEquals("dummy", copy.name);
+        assertEquals(NS, copy.namespace);
+        assertEquals("x", copy.getValue());
+    }
+
+    @Test
+    public void testUnknownValue() throws JNCException {
+        final Element e = new Element(NS, "e");
+        e.setValue(Integer.valueOf(1));
+        try {
+            ElementCodec.encode(e);
+            fail("Expected IOException");
+        } catch (final IOException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSmallerThanSerialization() throws IOException,
+            JNCException {
+        final Element config = new Element(NS, "config");
+        for (int i = 0; i < 1000; i++) {
+            final Element host = config.createChild("host");
+            host.createChild("name", "host" + i);
+            final Leaf port = new Leaf(NS, "port");
+            port.setValue(new YangUInt16(i));
+            host.addChild(port);
+        }
+        final ByteArrayOutputStream java = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(java);
+        out.writeObject(config);
+        out.close();
+
+        final ByteArrayOutputStream bin = new ByteArrayOutputStream();
+        ElementCodec.write(config, bin);
+        assertTrue(bin.size() < java.size() / 3);
+        assertTrue(bin.size() < config.toXMLString().length());
+
+        final Element copy = ElementCodec.read(new ByteArrayInputStream(bin
+                .toByteArray()));
+        assertEquals(config.toXMLString(), copy.toXMLString());
+    }
+
+    @Test
+    public void testGeneratedClasses() throws IOException, JNCException {
+        final ParHosts hosts = new ParHosts();
+        hosts.addParInfo().setNoteValue("n");
+        for (int i = 0; i < 3; i++) {
+            final ParEntry entry = hosts.addEntry();
+            entry.setIdValue(Integer.toString(i));
+            entry.setVValue("v" + i);
+        }
+
+        final Element copy = roundTrip(hosts);
+        assertTrue(copy instanceof ParHosts);
+        assertEquals(hosts.toXMLString(), copy.toXMLString());
+        // the container field is set, as by the parser
+        final ParInfo info = ((ParHosts) copy).parInfo;
+        assertNotNull(info);
+        assertSame(copy.getChild("par-info"), info);
+        assertSame(copy, info.getParent());
+        assertEquals("n", info.getValue("note"));
+        assertEquals(4, copy.getChildren().size());
+        assertTrue(copy.getChildren().getElement(3) instanceof ParEntry);
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        final Element e = new Element(NS, "e");
+        e.createChild("child", "value");
+        final byte[] b = ElementCodec.encode(e);
+        for (final int len : new int[] { 0, 3, 6, b.length - 1 }) {
+            final byte[] cut = new byte[len];
+            System.arraycopy(b, 0, cut, 0, len);
+            try {
+                ElementCodec.decode(cut);
+                fail("Expected JNCException");
+            } catch (final JNCException x) {
+                assertEquals(JNCException.PARSER_ERROR, x.errorCode);
+            }
+        }
+        final byte[] wrong = b.clone();
+        wrong[0] = 'X';
+        try {
+            ElementCodec.decode(wrong);
+            fail("Expected JNCException");
+        } catch (final JNCException x) {
+            assertEquals(JNCException.PARSER_ERROR, x.errorCode);
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ElementVisitorTest {
+
+    private static final String NS = "urn:test:visitor";
+
+    private LoopbackServer server;
+
+    @Before
+    public void setUp() {
+        server = new LoopbackServer();
+        server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 10, 2));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static class Collector implements ElementVisitor {
+        final List<Element> visited = new ArrayList<Element>();
+
+        @Override
+        public void visit(Element subtree) {
+            visited.add(subtree);
+        }
+    }
+
+    @Test
+    public void testGetConfigVisitsEntries() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        final Collector c = new Collector();
+        assertEquals(10, session.getConfig(new Tagpath("hosts/entry"), c));
+        assertEquals(10, c.visited.size());
+        for (int i = 0; i < 10; i++) {
+            final Element entry = c.visited.get(i);
+            assertNull(entry.getParent());
+            assertEquals("entry", entry.name);
+            assertEquals(NS, entry.namespace);
+            assertEquals("value-" + i + "-1", entry.getValue("leaf1"));
+        }
+
+        // the same entries as the whole tree
+        final NodeSet config = session.getConfig();
+        final Element entry = config.getElement(0).getChildren().getElement(4);
+        assertEquals(entry.getValue("leaf0"), c.visited.get(4).getValue("leaf0"));
+        assertTrue(c.visited.get(4).toXMLString().contains(
+                "<entry xmlns=\"" + NS + "\">"));
+
+        // the session can be used afterwards
+        assertEquals(1, session.get(new Tagpath("*"), new Collector()));
+    }
+
+    @Test
+    public void testParserDropsVisitedElements() throws Exception {
+        final String xml = "<a xmlns=\"" + NS + "\" xmlns:x=\"urn:x\">"
+                + "<b><c>1</c><c>2</c><d>3</d></b><b><c>4</c></b></a>";
+        final Collector c = new Collector();
+        final Element top = new XMLParser().parse(XMLParser.source(xml),
+                new Tagpath("a/b/c"), c);
+        assertEquals(3, c.visited.size());
+        assertEquals("4", c.visited.get(2).value);
+        // prefix mappings of the ancestors are kept
+        assertEquals("urn:x", c.visited.get(0).lookupContextPrefix("x"));
+        // only what is not visited remains
+        assertEquals(2, top.getChildren().size());
+        assertEquals(1, top.getChildren().getElement(0).getChildren().size());
+        assertEquals("d", top.getChildren().getElement(0).getChildren()
+                .getElement(0).name);
+        assertTrue(top.getChildren().getElement(1).getChildren().isEmpty());
+    }
+
+    @Test
+    public void testWildcard() throws Exception {
+        final String xml = "<a><b><c/></b><d><c/><e/></d></a>";
+        final Collector c = new Collector();
+        new XMLParser().parse(XMLParser.source(xml), new Tagpath("a/*/c"), c);
+        assertEquals(2, c.visited.size());
+    }
+
+    @Test
+    public void testVisitorStopsParse() throws Exception {
+        final String xml = "<a><b/><b/><b/></a>";
+        final int[] n = new int[1];
+        try {
+            new XMLParser().parse(XMLParser.source(xml), new Tagpath("a/b"),
+                    new ElementVisitor() {
+                        @Override
+                        public void visit(Element subtree)
+                                throws JNCException {
+                            if (++n[0] == 2) {
+                                throw new JNCException(
+                                        JNCException.SESSION_ERROR, "stop");
+                            }
+                        }
+                    });
+            fail("expected JNCException");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.SESSION_ERROR, e.errorCode);
+        }
+        assertEquals(2, n[0]);
+    }
+
+    /**
+     * Hands replies out a few characters at a time, and fails if a reply is
+     * read whole once streaming has started.
+     */
+    private static class ChunkedTransport implements StreamingTransport {
+        final LoopbackTransport t;
+        boolean streaming = false;
+        int length = 0; // of the last reply
+        int delivered = 0; // of it, so far
+
+        ChunkedTransport(LoopbackTransport t) {
+            this.t = t;
+        }
+
+        @Override
+        public Reader replyReader() throws IOException, JNCException {
+            final StringBuffer reply = t.readOne();
+            length = reply.length();
+            delivered = 0;
+            return new Reader() {
+                @Override
+                public int read(char[] cbuf, int off, int len) {
+                    final int n = Math.min(Math.min(len, 64), length
+                            - delivered);
+                    if (n <= 0) {
+                        return -1;
+                    }
+                    reply.getChars(delivered, delivered + n, cbuf, off);
+                    delivered += n;
+                    return n;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public void readOne(Writer out) throws IOException, JNCException {
+            out.write(readOne().toString());
+        }
+
+        @Override
+        public StringBuffer readOne() throws IOException, JNCException {
+            assertFalse("reply read whole", streaming);
+            return t.readOne();
+        }
+
+        @Override
+        public boolean ready() {
+            return t.ready();
+        }
+
+        @Override
+        public void print(long i) {
+            t.print(i);
+        }
+
+        @Override
+        public void print(String s) {
+            t.print(s);
+        }
+
+        @Override
+        public void println(int i) {
+            t.println(i);
+        }
+
+        @Override
+        public void println(String s) {
+            t.println(s);
+        }
+
+        @Override
+        public void flush() {
+            t.flush();
+        }
+
+        @Override
+        public void close() {
+            t.close();
+        }
+    }
+
+    @Test
+    public void testStreamingTransport() throws Exception {
+        server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 500, 2));
+        final ChunkedTransport t = new ChunkedTransport(server.connect());
+        final NetconfSession session = new NetconfSession(t);
+        t.streaming = true;
+        final List<Integer> seen = new ArrayList<Integer>();
+        assertEquals(500, session.getConfig(new Tagpath("hosts/entry"),
+                new ElementVisitor() {
+                    @Override
+                    public void visit(Element subtree) {
+                        seen.add(t.delivered);
+                    }
+                }));
+        // each entry is visited before the rest of the reply is read
+        assertTrue(seen.get(0) < t.length / 100);
+        assertTrue(seen.get(250) < t.length * 3 / 4);
+        assertEquals(t.length, t.delivered);
+
+        // the rest of a reply is skipped if the visitor fails
+        try {
+            session.getConfig(new Tagpath("hosts/entry"), new ElementVisitor() {
+                @Override
+                public void visit(Element subtree) throws JNCException {
+                    throw new JNCException(JNCException.SESSION_ERROR, "stop");
+                }
+            });
+            fail("expected JNCException");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.SESSION_ERROR, e.errorCode);
+        }
+        assertEquals(t.length, t.delivered);
+        assertEquals(1, session.get(new Tagpath("*"), new Collector()));
+    }
+}
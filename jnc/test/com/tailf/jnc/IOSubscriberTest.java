@@ -0,0 +1,106 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class IOSubscriberTest {
+
+    private static class Recorder extends IOSubscriber {
+        final List<String> in = new ArrayList<String>();
+        final List<String> out = new ArrayList<String>();
+
+        Recorder(boolean rawmode) {
+            super(rawmode);
+        }
+
+        @Override
+        public void input(String s) {
+            in.add(s);
+        }
+
+        @Override
+        public void output(String s) {
+            out.add(s);
+        }
+    }
+
+    @Test
+    public void testRawMode() {
+        final Recorder r = new Recorder(true);
+        r.inputFrame("<a>\n<b/>\n</a>");
+        assertEquals(3, r.in.size());
+        assertEquals("<a>\n", r.in.get(0));
+        assertEquals("<b/>\n", r.in.get(1));
+        assertEquals("</a>]]>]]>\n", r.in.get(2));
+        r.outputFrame("<hello/>");
+        assertEquals(1, r.out.size());
+        assertEquals("<hello/>]]>]]>\n", r.out.get(0));
+    }
+
+    @Test
+    public void testPretty() {
+        final Recorder r = new Recorder(false);
+        r.inputFrame("<a xmlns=\"urn:x\"><b>1</b></a>");
+        assertEquals(1, r.in.size());
+        assertTrue(r.in.get(0).contains("\n  <b>1</b>"));
+        r.outputFrame("not xml");
+        assertEquals("not xml", r.out.get(0));
+    }
+
+    @Test
+    public void testAsyncOrder() throws Exception {
+        final Recorder r = new Recorder(true);
+        final AsyncSubscriber a = new AsyncSubscriber(r);
+        for (int i = 0; i < 100; i++) {
+            a.outputFrame("req" + i);
+            a.inputFrame("rep" + i);
+        }
+        a.drain();
+        assertEquals(100, r.out.size());
+        assertEquals(100, r.in.size());
+        assertEquals("req99]]>]]>\n", r.out.get(99));
+        assertEquals("rep0]]>]]>\n", r.in.get(0));
+        assertEquals(0, a.getDropped());
+    }
+
+    @Test
+    public void testAsyncDrops() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> got = new ArrayList<String>();
+        final ExecutorService exec = Executors.newSingleThreadExecutor();
+        final AsyncSubscriber a = new AsyncSubscriber(new FrameSubscriber() {
+            @Override
+            public void inputFrame(String msg) {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    // ignore
+                }
+                got.add(msg);
+            }
+
+            @Override
+            public void outputFrame(String msg) {
+                got.add(msg);
+            }
+        }, exec, 2);
+        a.inputFrame("1");
+        Thread.sleep(50); // "1" is taken by the executor
+        a.inputFrame("2");
+        a.inputFrame("3");
+        a.inputFrame("4");
+        assertEquals(1, a.getDropped());
+        release.countDown();
+        a.drain();
+        assertEquals(3, got.size());
+        assertEquals("3", got.get(2));
+        exec.shutdown();
+    }
+}
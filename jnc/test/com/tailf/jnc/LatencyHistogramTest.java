@@ -0,0 +1,84 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(100, h.getMax());
+        assertEquals(50.5, h.getMean(), 0.001);
+        assertEquals(50, h.getValueAtPercentile(50));
+        assertEquals(99, h.getValueAtPercentile(99));
+        assertEquals(100, h.getValueAtPercentile(100));
+        assertEquals(1, h.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testIndexIsMonotonic() {
+        int last = -1;
+        for (long v = 0; v < 1 << 20; v++) {
+            final int i = LatencyHistogram.index(v);
+            assertTrue(i == last || i == last + 1);
+            assertTrue(LatencyHistogram.highestEquivalent(i) >= v);
+            last = i;
+        }
+        assertTrue(LatencyHistogram.index(Long.MAX_VALUE) > last);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram
+                .highestEquivalent(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPrecision() {
+        final LatencyHistogram h = new LatencyHistogram();
+        final long[] values = { 1000, 123456, 98765432L, 5000000000L };
+        for (final long v : values) {
+            h.reset();
+            h.record(v);
+            h.record(v * 2);
+            final long p50 = h.getValueAtPercentile(50);
+            assertTrue(p50 >= v);
+            assertTrue((double) (p50 - v) / v < 1.0 / 64);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(5000000, h.getValueAtPercentile(50), 5000000 / 64);
+        assertEquals(9900000, h.getValueAtPercentile(99), 9900000 / 64);
+        assertEquals(10000000, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testNegativeAndReset() {
+        final LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        assertEquals(0, h.getMax());
+        assertEquals(1, h.getCount());
+        h.reset();
+        assertEquals(0, h.getCount());
+        h.record(7);
+        assertEquals(7, h.getMin());
+    }
+}
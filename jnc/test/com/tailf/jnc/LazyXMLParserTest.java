@@ -0,0 +1,197 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyXMLParserTest {
+
+    private static final String NS = "urn:test:lazy";
+
+    private static final String REPLY = "<?xml version=\"1.0\"?>\n"
+            + "<rpc-reply xmlns=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+            + " xmlns:x=\"urn:x\" message-id=\"1\">\n"
+            + "<data>\n"
+            + "<hosts xmlns=\"" + NS + "\">\n"
+            + "<host><name>a</name><x:note a=\"1&gt;0\">one &amp; two</x:note>"
+            + "<!-- <c> --><addr><ip>10.0.0.1</ip></addr></host>\n"
+            + "<host><name>b</name><addr><ip>10.0.0.2</ip></addr></host>\n"
+            + "</hosts>\n"
+            + "<users xmlns=\"" + NS + "\"><user><name>joe</name></user></users>\n"
+            + "</data>\n"
+            + "</rpc-reply>";
+
+    private LazyXMLParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = new LazyXMLParser();
+    }
+
+    private static boolean loaded(Element e) {
+        return ((LazyNodeSet) e.children).isLoaded();
+    }
+
+    private static String encode(Element e) throws JNCException {
+        final StringBuilder sb = new StringBuilder();
+        e.encode(new Transport() {
+            @Override
+            public boolean ready() {
+                return false;
+            }
+
+            @Override
+            public StringBuffer readOne() {
+                return null;
+            }
+
+            @Override
+            public void print(long i) {
+                sb.append(i);
+            }
+
+            @Override
+            public void print(String s) {
+                sb.append(s);
+            }
+
+            @Override
+            public void println(int i) {
+                sb.append(i).append('\n');
+            }
+
+            @Override
+            public void println(String s) {
+                sb.append(s).append('\n');
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return sb.toString();
+    }
+
+    @Test
+    public void testSameTree() throws Exception {
+        final Element eager = new XMLParser().parse(REPLY);
+        final Element lazy = parser.parse(REPLY);
+        assertEquals(eager.toXMLString(), lazy.toXMLString());
+        // copied text parses to the same tree as well
+        final Element copied = new XMLParser().parse(encode(parser
+                .parse(REPLY)));
+        assertEquals(eager.toXMLString(), copied.toXMLString());
+    }
+
+    @Test
+    public void testBuiltOnDemand() throws Exception {
+        final Element t = parser.parse(REPLY);
+        assertFalse(loaded(t));
+        final Element data = t.getChild("data");
+        assertTrue(loaded(t));
+        assertFalse(loaded(data));
+
+        final Element users = data.getChild("users");
+        final Element hosts = data.getChild("hosts");
+        assertFalse(loaded(users));
+        assertFalse(loaded(hosts));
+        assertEquals(NS, hosts.namespace);
+
+        final NodeSet ips = t.get("data/hosts/host/addr/ip");
+        assertEquals(2, ips.size());
+        assertEquals("10.0.0.2", ips.getElement(1).value);
+        assertTrue(loaded(hosts));
+        assertFalse(loaded(users));
+
+        final Element note = hosts.getChildren().getElement(0).getChild("note");
+        assertEquals("urn:x", note.namespace);
+        assertEquals("one & two", note.value);
+        assertEquals("1>0", note.getAttrValue("a"));
+    }
+
+    @Test
+    public void testSiblingsNotParsed() throws Exception {
+        final StringBuilder users = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            users.append("<user><name>u").append(i).append("</name>")
+                    .append("<group><id>").append(i % 7)
+                    .append("</id></group></user>");
+        }
+        final String reply = REPLY.replace("<user><name>joe</name></user>",
+                users.toString());
+        final Element t = parser.parse(reply);
+        final NodeSet ips = t.get("data/hosts/host/addr/ip");
+        assertEquals(2, ips.size());
+        // rpc-reply, data, hosts, host and addr levels, none of the users
+        assertTrue(parser.getParsed() + " chars parsed",
+                parser.getParsed() < 2000);
+        assertTrue(reply.length() > 40000);
+
+        final NodeSet ids = t.get("data/users/user/group/id");
+        assertEquals(1000, ids.size());
+        assertEquals("5", ids.getElement(999).value);
+    }
+
+    @Test
+    public void testVerbatimEncode() throws Exception {
+        final Element t = parser.parse(REPLY);
+        final Element hosts = t.getChild("data").getChild("hosts");
+        final String s = encode(hosts);
+        assertFalse(loaded(hosts));
+        assertTrue(s.contains("<x:note a=\"1&gt;0\">one &amp; two</x:note>"
+                + "<!-- <c> -->"));
+        // the verbatim text parses to the same tree
+        assertEquals(new XMLParser().parse(REPLY).getFirst(
+                "self::rpc-reply/data/hosts").toXMLString(), new XMLParser()
+                .parse("<w xmlns:x=\"urn:x\">" + s + "</w>").getChild("hosts")
+                .toXMLString().replace(" xmlns:x=\"urn:x\"", ""));
+    }
+
+    @Test
+    public void testEncodeAfterMove() throws Exception {
+        final Element t = parser.parse(REPLY);
+        final Element hosts = t.getChild("data").getChild("hosts");
+        // x is no longer declared, so the children cannot be copied
+        hosts.parent = null;
+        final String s = encode(hosts);
+        assertTrue(loaded(hosts));
+        assertFalse(s.contains("<!--"));
+    }
+
+    @Test
+    public void testSessionAndSerialization() throws Exception {
+        final LoopbackServer server = new LoopbackServer();
+        try {
+            server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 20,
+                    2));
+            final NodeSet eager = new NetconfSession(server.connect())
+                    .getConfig();
+            final NodeSet lazy = new NetconfSession(server.connect(),
+                    new LazyXMLParser()).getConfig();
+            assertEquals(1, lazy.size());
+            assertFalse(loaded(lazy.getElement(0)));
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(lazy.getElement(0));
+            oos.close();
+            final Element copy = (Element) new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()))
+                    .readObject();
+            assertEquals(eager.toXMLString(), lazy.toXMLString());
+            assertEquals(eager.getElement(0).toXMLString(), copy
+                    .toXMLString());
+        } finally {
+            server.close();
+        }
+    }
+}
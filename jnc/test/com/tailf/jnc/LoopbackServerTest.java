@@ -0,0 +1,124 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoopbackServerTest {
+
+    private static final String NS = "urn:test:loopback";
+
+    private LoopbackServer server;
+
+    @Before
+    public void setUp() {
+        server = new LoopbackServer();
+        server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 10, 2));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static Element entry(String id, String leaf0) {
+        final Element hosts = new Element(NS, "hosts");
+        hosts.setDefaultPrefix();
+        final Element entry = new Element(NS, "entry");
+        hosts.addChild(entry);
+        final Element key = new Element(NS, "id");
+        key.setValue(id);
+        entry.addChild(key);
+        final Element leaf = new Element(NS, "leaf0");
+        leaf.setValue(leaf0);
+        entry.addChild(leaf);
+        return hosts;
+    }
+
+    @Test
+    public void testGetEditCommit() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        assertTrue(session.getCapabilities().hasCandidate());
+
+        NodeSet config = session.getConfig();
+        assertEquals(1, config.size());
+        assertEquals(10, config.getElement(0).getChildren().size());
+        assertEquals("value-3-1",
+                config.getElement(0).getValue("entry[id='3']/leaf1"));
+
+        session.editConfig(NetconfSession.CANDIDATE, entry("3", "changed"));
+        session.editConfig(NetconfSession.CANDIDATE, entry("42", "new"));
+        config = session.getConfig();
+        assertEquals("value-3-0",
+                config.getElement(0).getValue("entry[id='3']/leaf0"));
+        session.commit();
+        config = session.getConfig();
+        assertEquals(11, config.getElement(0).getChildren().size());
+        assertEquals("changed",
+                config.getElement(0).getValue("entry[id='3']/leaf0"));
+        assertEquals("value-3-1",
+                config.getElement(0).getValue("entry[id='3']/leaf1"));
+        assertEquals("new",
+                config.getElement(0).getValue("entry[id='42']/leaf0"));
+        assertEquals(11, server.getRunning().getElement(0).getChildren()
+                .size());
+    }
+
+    @Test
+    public void testScriptedRpcAndNotification() throws Exception {
+        server.setHandler("ping", new LoopbackServer.RpcHandler() {
+            @Override
+            public String reply(Element op) {
+                return "<pong xmlns=\"" + NS + "\"/>";
+            }
+        });
+        final NetconfSession session = new NetconfSession(server.connect());
+        final Element ping = new Element(NS, "ping");
+        ping.setDefaultPrefix();
+        final NodeSet reply = session.callRpc(ping);
+        assertEquals("pong", reply.getElement(0).name);
+
+        session.createSubscription();
+        server.sendNotification(entry("1", "event"));
+        final Element n = session.receiveNotification();
+        assertEquals("notification", n.name);
+        assertNotNull(n.getFirst("self::notification/hosts/entry/leaf0"));
+
+        try {
+            session.discardChanges();
+            server.setHandler("discard-changes",
+                    new LoopbackServer.RpcHandler() {
+                        @Override
+                        public String reply(Element op) throws JNCException {
+                            throw new JNCException(
+                                    JNCException.SESSION_ERROR, "denied");
+                        }
+                    });
+            session.discardChanges();
+            fail("Expected JNCException");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.RPC_REPLY_ERROR, e.errorCode);
+        }
+    }
+
+    @Test
+    public void testLatencyAndTcp() throws Exception {
+        server.setLatency(30);
+        final NIOReactor reactor = new NIOReactor(1);
+        try {
+            final int port = server.listen(0);
+            final NetconfSession session = new NetconfSession(
+                    reactor.connect("127.0.0.1", port));
+            final long start = System.nanoTime();
+            final NodeSet config = session.getConfig();
+            assertTrue(System.nanoTime() - start >= 30 * 1000000L);
+            assertEquals(10, config.getElement(0).getChildren().size());
+            session.closeSession();
+        } finally {
+            reactor.close();
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NIOSessionTest {
+
+    private ServerSocket server;
+    private NIOReactor reactor;
+
+    /**
+     * Echoes every message back, after a greeting whose end marker is split
+     * over two writes and preceded by a stray ']'.
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        reactor = new NIOReactor(1);
+        final Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        echo(server.accept());
+                    }
+                } catch (final IOException e) {
+                    // closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void echo(final Socket s) {
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final InputStream in = s.getInputStream();
+                    final OutputStream out = s.getOutputStream();
+                    out.write("<hello/>]]]>]".getBytes("UTF-8"));
+                    out.flush();
+                    Thread.sleep(10);
+                    out.write("]>".getBytes("UTF-8"));
+                    out.flush();
+                    final byte[] b = new byte[4096];
+                    int n;
+                    while ((n = in.read(b)) > 0) {
+                        out.write(b, 0, n);
+                        out.flush();
+                    }
+                    s.close();
+                } catch (final Exception e) {
+                    // closed
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reactor.close();
+        server.close();
+    }
+
+    @Test
+    public void testManySessionsOneThread() throws Exception {
+        final List<NIOSession> sessions = new ArrayList<NIOSession>();
+        for (int i = 0; i < 50; i++) {
+            final NIOSession s = reactor.connect("127.0.0.1",
+                    server.getLocalPort());
+            s.setReadTimeout(5000);
+            sessions.add(s);
+        }
+        for (final NIOSession s : sessions) {
+            assertEquals("<hello/>]", s.readOne().toString());
+        }
+        for (int i = 0; i < sessions.size(); i++) {
+            sessions.get(i).print("<rpc id=\"" + i + "\"/>");
+            sessions.get(i).flush();
+            sessions.get(i).print("\u00e5");
+            sessions.get(i).flush();
+        }
+        for (int i = 0; i < sessions.size(); i++) {
+            final NIOSession s = sessions.get(i);
+            assertEquals("<rpc id=\"" + i + "\"/>", s.readOne().toString());
+            assertEquals("\u00e5", s.readOne().toString());
+            assertFalse(s.ready());
+            s.close();
+            try {
+                s.readOne();
+                fail("Expected IOException");
+            } catch (final IOException e) {
+                assertTrue(s.ready());
+            }
+        }
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        final NIOSession s = reactor.connect("127.0.0.1",
+                server.getLocalPort());
+        final List<String> got = new ArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        s.setMessageListener(new NIOSession.MessageListener() {
+            @Override
+            public void messageReceived(NIOSession session, StringBuffer msg) {
+                got.add(msg.toString());
+                if (got.size() == 3) {
+                    session.close();
+                }
+            }
+
+            @Override
+            public void sessionClosed(NIOSession session, IOException cause) {
+                done.countDown();
+            }
+        });
+        s.print("a");
+        s.flush();
+        s.print("b");
+        s.flush();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("<hello/>]", got.get(0));
+        assertEquals("a", got.get(1));
+        assertEquals("b", got.get(2));
+    }
+
+    @Test
+    public void testFailingListenerClosesOnlyItsSession() throws Exception {
+        final NIOSession bad = reactor.connect("127.0.0.1",
+                server.getLocalPort());
+        final NIOSession good = reactor.connect("127.0.0.1",
+                server.getLocalPort());
+        good.setReadTimeout(5000);
+        assertEquals("<hello/>]", good.readOne().toString());
+        final IOException[] cause = new IOException[1];
+        final Thread[] thread = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        bad.setMessageListener(new NIOSession.MessageListener() {
+            @Override
+            public void messageReceived(NIOSession session, StringBuffer msg) {
+                if (msg.toString().equals("boom")) {
+                    throw new IllegalStateException("boom");
+                }
+            }
+
+            @Override
+            public void sessionClosed(NIOSession session, IOException c) {
+                cause[0] = c;
+                thread[0] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+        bad.print("boom");
+        bad.flush();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(cause[0].getCause() instanceof IllegalStateException);
+        assertTrue(thread[0].getName().startsWith("jnc-nio-"));
+
+        // the other session on the same I/O thread still works
+        good.print("still here");
+        good.flush();
+        assertEquals("still here", good.readOne().toString());
+        good.close();
+    }
+
+    @Test
+    public void testClosedOnIOThread() throws Exception {
+        final NIOSession s = reactor.connect("127.0.0.1",
+                server.getLocalPort());
+        final Thread[] thread = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        s.setMessageListener(new NIOSession.MessageListener() {
+            @Override
+            public void messageReceived(NIOSession session, StringBuffer msg) {
+            }
+
+            @Override
+            public void sessionClosed(NIOSession session, IOException c) {
+                thread[0] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+        s.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(thread[0].getName().startsWith("jnc-nio-"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final NIOSession s = reactor.connect("127.0.0.1",
+                server.getLocalPort());
+        s.setReadTimeout(2000);
+        s.readOne();
+        s.setReadTimeout(20);
+        try {
+            s.readOne();
+            fail("Expected JNCException");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.TIMEOUT_ERROR, e.errorCode);
+        }
+        s.close();
+    }
+
+}
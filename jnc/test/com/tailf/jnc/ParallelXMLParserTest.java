@@ -0,0 +1,276 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelXMLParserTest {
+
+    private static final String NS = "urn:test:parallel";
+
+    private ForkJoinPool pool;
+    private ParallelXMLParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ForkJoinPool(4);
+        parser = new ParallelXMLParser(new XMLParser(), pool);
+        parser.setThreshold(0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private static String reply(String data) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<nc:rpc-reply xmlns:nc=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+                + " nc:message-id=\"1\" xmlns:x=\"urn:x\">\n<nc:data>\n" + data
+                + "</nc:data>\n</nc:rpc-reply>";
+    }
+
+    private static String entries(int n) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append("<entry><id>").append(i).append("</id>")
+                    .append("<x:leaf a=\"1&gt;0\" b='>'>v").append(i)
+                    .append("</x:leaf><!-- <c> --><d><![CDATA[<e>]]></d>")
+                    .append("<empty/></entry>\n");
+        }
+        return sb.toString();
+    }
+
+    private void assertSameTree(String xml) throws Exception {
+        final Element expected = new XMLParser().parse(xml);
+        final Element actual = parser.parse(xml);
+        assertEquals(expected.toXMLString(), actual.toXMLString());
+    }
+
+    @Test
+    public void testChildrenOfData() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("<top").append(i).append(" xmlns=\"").append(NS)
+                    .append("\">").append(entries(3)).append("</top")
+                    .append(i).append(">\n");
+        }
+        assertSameTree(reply(sb.toString()));
+    }
+
+    @Test
+    public void testEntriesOfOneContainer() throws Exception {
+        final String xml = reply("<hosts xmlns=\"" + NS + "\">" + entries(500)
+                + "</hosts>\n");
+        assertSameTree(xml);
+        final Element t = parser.parse(xml);
+        final Element hosts = t.getFirst("self::rpc-reply/data/hosts");
+        assertEquals(500, hosts.getChildren().size());
+        assertEquals("v7", hosts.getChildren().getElement(7).getValue("leaf"));
+        assertEquals("urn:x", hosts.getChildren().getElement(7).getChild("leaf")
+                .getContextPrefixMap().prefixToNs("x"));
+    }
+
+    @Test
+    public void testGeneratedClasses() throws Exception {
+        YangElement.setPackage(ParHosts.NS, "com.tailf.jnc");
+        try {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("<par-hosts xmlns=\"").append(ParHosts.NS).append("\">");
+            sb.append("<par-info><note>n</note></par-info>");
+            for (int i = 0; i < 200; i++) {
+                sb.append("<entry><id>").append(i).append("</id><v>v")
+                        .append(i).append("</v></entry>");
+            }
+            sb.append("</par-hosts>");
+            final String xml = reply(sb.toString());
+            final ParallelXMLParser yang = new ParallelXMLParser(
+                    new YangXMLParser(), pool);
+            yang.setThreshold(0);
+            final Element expected = new YangXMLParser().parse(xml);
+            final Element actual = yang.parse(xml);
+            assertEquals(expected.toXMLString(), actual.toXMLString());
+
+            final ParHosts hosts = (ParHosts) actual
+                    .getFirst("self::rpc-reply/data/par-hosts");
+            assertEquals(201, hosts.getChildren().size());
+            assertNotNull(hosts.parInfo);
+            assertSame(hosts.getChild("par-info"), hosts.parInfo);
+            assertSame(hosts, hosts.parInfo.getParent());
+            assertEquals("v7", hosts.getChildren().getElement(8).getValue("v"));
+        } finally {
+            YangElement.removePackage(ParHosts.NS);
+        }
+    }
+
+    @Test
+    public void testNotSplit() throws Exception {
+        assertSameTree(reply("<hosts xmlns=\"" + NS + "\"/>"));
+        assertSameTree(reply("<hosts xmlns=\"" + NS + "\">a</hosts>"));
+        assertSameTree("<rpc-reply xmlns=\"urn:ietf:params:xml:ns:netconf:base:1.0\">"
+                + "<rpc-error><error-tag>x</error-tag></rpc-error>"
+                + "<rpc-error><error-tag>y</error-tag></rpc-error></rpc-reply>");
+        try {
+            parser.parse(reply("<a><b></a>"));
+            fail("expected JNCException");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.PARSER_ERROR, e.errorCode);
+        }
+    }
+
+    @Test
+    public void testScan() {
+        final String s = "<a x='>'><b/><!-- <c> --><c>t</c></a><d/>";
+        final List<XMLScanner.Span> spans = XMLScanner.children(
+                s, 0, s.length());
+        assertEquals(2, spans.size());
+        assertEquals("a", spans.get(0).qname);
+        assertEquals(2, XMLScanner.children(s,
+                spans.get(0).contentStart, spans.get(0).contentEnd).size());
+        assertNull(XMLScanner.children("<a><b></a>", 0, 10));
+    }
+
+    @Test
+    public void testSession() throws Exception {
+        final LoopbackServer server = new LoopbackServer();
+        try {
+            server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 200,
+                    3));
+            final NetconfSession plain = new NetconfSession(server.connect());
+            final NetconfSession parallel = new NetconfSession(
+                    server.connect(), parser);
+            assertEquals(plain.getConfig().toXMLString(), parallel
+                    .getConfig().toXMLString());
+        } finally {
+            server.close();
+        }
+    }
+}
+
+/**
+ * A container as generated by the JNC pyang plugin, with a child container
+ * that it keeps a reference to, and a list.
+ */
+class ParHosts extends YangElement {
+    private static final long serialVersionUID = 1L;
+    static final String NS = "urn:test:parallel:yang";
+
+    ParInfo parInfo = null;
+
+    public ParHosts() {
+        super(NS, "par-hosts");
+        setDefaultPrefix();
+    }
+
+    @Override
+    public String[] childrenNames() {
+        return new String[] { "par-info", "entry" };
+    }
+
+    @Override
+    public String[] keyNames() {
+        return null;
+    }
+
+    public ParInfo addParInfo(ParInfo parInfo) throws JNCException {
+        this.parInfo = parInfo;
+        insertChild(parInfo, childrenNames());
+        return parInfo;
+    }
+
+    public ParInfo addParInfo() throws JNCException {
+        return addParInfo(new ParInfo());
+    }
+
+    public ParEntry addEntry(ParEntry entry) throws JNCException {
+        insertChild(entry, childrenNames());
+        return entry;
+    }
+
+    public ParEntry addEntry() throws JNCException {
+        return addEntry(new ParEntry());
+    }
+
+    @Override
+    public ParHosts clone() {
+        return (ParHosts) cloneContent(new ParHosts());
+    }
+
+    @Override
+    public ParHosts cloneShallow() {
+        return (ParHosts) cloneShallowContent(new ParHosts());
+    }
+}
+
+class ParInfo extends YangElement {
+    private static final long serialVersionUID = 1L;
+
+    public ParInfo() {
+        super(ParHosts.NS, "par-info");
+    }
+
+    @Override
+    public String[] childrenNames() {
+        return new String[] { "note" };
+    }
+
+    @Override
+    public String[] keyNames() {
+        return null;
+    }
+
+    public void setNoteValue(String noteValue) throws JNCException {
+        setLeafValue(ParHosts.NS, "note", noteValue, childrenNames());
+    }
+
+    @Override
+    public ParInfo clone() {
+        return (ParInfo) cloneContent(new ParInfo());
+    }
+
+    @Override
+    public ParInfo cloneShallow() {
+        return (ParInfo) cloneShallowContent(new ParInfo());
+    }
+}
+
+class ParEntry extends YangElement {
+    private static final long serialVersionUID = 1L;
+
+    public ParEntry() {
+        super(ParHosts.NS, "entry");
+    }
+
+    @Override
+    public String[] childrenNames() {
+        return new String[] { "id", "v" };
+    }
+
+    @Override
+    public String[] keyNames() {
+        return new String[] { "id" };
+    }
+
+    public void setIdValue(String idValue) throws JNCException {
+        setLeafValue(ParHosts.NS, "id", idValue, childrenNames());
+    }
+
+    public void setVValue(String vValue) throws JNCException {
+        setLeafValue(ParHosts.NS, "v", vValue, childrenNames());
+    }
+
+    @Override
+    public ParEntry clone() {
+        return (ParEntry) cloneContent(new ParEntry());
+    }
+
+    @Override
+    public ParEntry cloneShallow() {
+        return (ParEntry) cloneShallowContent(new ParEntry());
+    }
+}
@@ -0,0 +1,191 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefixMapTest {
+
+    private PrefixMap map;
+
+    @Before
+    public void setUp() {
+        map = new PrefixMap();
+        for (int i = 0; i < 10; i++) {
+            map.add(new Prefix("p" + i, "urn:test:" + i));
+        }
+    }
+
+    @Test
+    public void testIndexedLookup() {
+        assertEquals(3, map.indexOfName("p3"));
+        assertEquals("urn:test:7", map.prefixToNs("p7"));
+        assertEquals("p9", map.nsToPrefix("urn:test:9"));
+        assertNull(map.lookup("q"));
+
+        // the index follows modifications
+        map.remove("p3");
+        assertEquals(-1, map.indexOfName("p3"));
+        assertEquals(3, map.indexOfName("p4"));
+        map.set(new Prefix("p9", "urn:other"));
+        assertEquals("urn:other", map.prefixToNs("p9"));
+        assertNull(map.nsToPrefix("urn:test:9"));
+    }
+
+    @Test
+    public void testImmutable() {
+        final PrefixMap shared = map.immutable();
+        assertTrue(shared.isImmutable());
+        assertSame(shared, shared.immutable());
+        assertFalse(shared.clone().isImmutable());
+        try {
+            shared.merge(new Prefix("q", "urn:q"));
+            fail("Expected UnsupportedOperationException");
+        } catch (final UnsupportedOperationException e) {
+            assertEquals(10, shared.size());
+        }
+
+        // elements copy a shared map before modifying it
+        final Element a = new Element("urn:test:1", "a");
+        final Element b = new Element("urn:test:1", "b");
+        a.prefixes = shared;
+        b.prefixes = shared;
+        b.setPrefix(new Prefix("p1", "urn:changed"));
+        assertSame(shared, a.prefixes);
+        assertEquals("urn:test:1", shared.prefixToNs("p1"));
+        assertEquals("urn:changed", b.prefixes.prefixToNs("p1"));
+        // copies are mutable, and find prefixes the same way
+        final PrefixMap copy = ((Element) a.clone()).prefixes;
+        assertNotSame(shared, copy);
+        assertFalse(copy.isImmutable());
+        assertEquals("p7", copy.nsToPrefix("urn:test:7"));
+        copy.remove("p7");
+        assertNull(copy.nsToPrefix("urn:test:7"));
+        assertEquals("p7", shared.nsToPrefix("urn:test:7"));
+    }
+
+    @Test
+    public void testReplyElementsHaveOwnMaps() throws Exception {
+        final LoopbackServer server = new LoopbackServer();
+        try {
+            // the prefix is declared on data, not on the returned element
+            server.setHandler("get-config", new LoopbackServer.RpcHandler() {
+                @Override
+                public String reply(Element op) {
+                    return "<data xmlns:t=\"urn:test:1\"><t:hosts>"
+                            + "<t:host>a</t:host></t:hosts></data>";
+                }
+            });
+            final NodeSet config = new NetconfSession(server.connect())
+                    .getConfig();
+            final Element hosts = config.getElement(0);
+            assertEquals("t", hosts.prefix());
+            assertFalse(hosts.prefixes.isImmutable());
+            hosts.prefixes.add(new Prefix("q", "urn:q"));
+            hosts.prefixes.merge(new PrefixMap(new Prefix("r", "urn:r")));
+            assertEquals("urn:r", hosts.getContextPrefixMap().prefixToNs("r"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testCachedPrefixFollowsScope() {
+        final YangElement a = new DummyElement("urn:test:1", "a");
+        final Leaf b = new Leaf("urn:test:1", "b");
+        a.addChild(b);
+        assertEquals("", a.prefix());
+        assertEquals("", b.prefix());
+        a.setPrefix(new Prefix("", "urn:other"));
+        assertNull(a.prefix());
+        assertNull(b.prefix());
+
+        final YangElement c = new DummyElement("urn:test:1", "c");
+        c.removePrefix("");
+        c.setPrefix(new Prefix("y", "urn:test:1"));
+        a.deleteChild(b);
+        c.addChild(b);
+        assertEquals("y", c.prefix());
+        assertEquals("y", b.prefix());
+        c.removePrefix("y");
+        assertNull(b.prefix());
+    }
+
+    @Test
+    public void testCachedPrefixFromAncestor() {
+        final YangElement top = new DummyElement("urn:test:1", "top");
+        top.setPrefix(new Prefix("x", "urn:test:2"));
+        final YangElement mid = new DummyElement("urn:test:1", "mid");
+        final YangElement deep = new DummyElement("urn:test:2", "deep");
+        deep.prefixes = null;
+        top.addChild(mid);
+        mid.addChild(deep);
+        assertEquals("x", deep.prefix());
+        final int version = top.prefixes.version();
+
+        // maps elsewhere do not touch the cached scope
+        new PrefixMap().add(new Prefix("x", "urn:test:3"));
+        mid.getContextPrefixMap();
+        assertEquals(version, top.prefixes.version());
+        assertEquals("x", deep.prefix());
+
+        // a mapping closer to the element
+        mid.setPrefix(new Prefix("z", "urn:test:2"));
+        assertEquals("z", deep.prefix());
+        mid.removePrefix("z");
+        assertEquals("x", deep.prefix());
+
+        // the map the prefix was found in, changed or assigned directly
+        top.prefixes.add(new Prefix("y", "urn:test:2"));
+        top.prefixes.remove("x");
+        assertEquals("y", deep.prefix());
+        top.prefixes = new PrefixMap(new Prefix("x", "urn:test:2"));
+        assertEquals("x", deep.prefix());
+
+        // a new parent
+        final YangElement other = new DummyElement("urn:test:1", "other");
+        other.setPrefix(new Prefix("w", "urn:test:2"));
+        top.deleteChild(mid);
+        other.addChild(mid);
+        assertEquals("w", deep.prefix());
+        other.removePrefix("w");
+        assertNull(deep.prefix());
+    }
+
+    @Test
+    public void testCachedPrefixHitSkipsAncestors() {
+        final YangElement top = new DummyElement("urn:test:1", "top");
+        top.setPrefix(new Prefix("x", "urn:test:2"));
+        YangElement e = top;
+        for (int i = 0; i < 50; i++) {
+            final YangElement child = new DummyElement("urn:test:1", "c");
+            child.prefixes = null;
+            e.addChild(child);
+            e = child;
+        }
+        final YangElement deep = new DummyElement("urn:test:2", "deep");
+        deep.prefixes = null;
+        e.addChild(deep);
+        assertEquals("x", deep.prefix());
+
+        // a map between them, assigned without a method that tells the
+        // subtree, is not looked at: a hit does not walk up
+        final Element mid = top.getChildren().getElement(0);
+        mid.prefixes = new PrefixMap(new Prefix("z", "urn:test:2"));
+        assertEquals("x", deep.prefix());
+        mid.prefixes = null;
+
+        // with setPrefix, the subtree drops its cached prefixes
+        mid.setPrefix(new Prefix("z", "urn:test:2"));
+        assertEquals("z", deep.prefix());
+
+        // moving the subtree drops them too
+        final YangElement other = new DummyElement("urn:test:1", "other");
+        other.setPrefix(new Prefix("w", "urn:test:2"));
+        final Element below = mid.getChildren().getElement(0);
+        mid.deleteChild(below);
+        other.addChild(below);
+        assertEquals("w", deep.prefix());
+    }
+}
@@ -0,0 +1,170 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplyDataFilterTest {
+
+    private static final String NS = "urn:test:backup";
+
+    private static final String REPLY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!-- a <comment> -->\n"
+            + "<nc:rpc-reply xmlns:nc=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+            + " xmlns:ex='urn:ex' message-id=\"7\">\n"
+            + "  <nc:data xmlns:ex=\"urn:other\">"
+            + "<ex:sys a=\"x>y\"><ex:data>1</ex:data><![CDATA[</nc:data>]]>"
+            + "<empty/></ex:sys>"
+            + "</nc:data>\n</nc:rpc-reply>\n";
+
+    private static final String DATA = "<?xml version=\"1.0\"?>\n"
+            + "<nc:data xmlns:nc=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+            + " xmlns:ex=\"urn:other\">"
+            + "<ex:sys a=\"x>y\"><ex:data>1</ex:data><![CDATA[</nc:data>]]>"
+            + "<empty/></ex:sys>" + "</nc:data>";
+
+    private LoopbackServer server;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackServer();
+        server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 2000, 4));
+        dir = File.createTempFile("backups", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        final StringWriter whole = new StringWriter();
+        final ReplyDataFilter f = new ReplyDataFilter(whole);
+        f.write(REPLY);
+        f.flush();
+        assertTrue(f.isComplete());
+        assertFalse(f.isOther());
+        assertEquals("7", f.getMessageId());
+        assertEquals(DATA, whole.toString());
+
+        // the same, one character at a time
+        final StringWriter split = new StringWriter();
+        final ReplyDataFilter g = new ReplyDataFilter(split);
+        for (int i = 0; i < REPLY.length(); i++) {
+            g.write(REPLY.charAt(i));
+        }
+        g.flush();
+        assertEquals(DATA, split.toString());
+        assertEquals(DATA.length() - "<?xml version=\"1.0\"?>\n".length(), g
+                .getCount());
+    }
+
+    @Test
+    public void testErrorReply() throws Exception {
+        final String error = "<rpc-reply xmlns=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+                + " message-id=\"1\"><rpc-error><error-tag>denied</error-tag>"
+                + "</rpc-error></rpc-reply>";
+        final StringWriter out = new StringWriter();
+        final ReplyDataFilter f = new ReplyDataFilter(out);
+        f.write(error);
+        f.flush();
+        assertTrue(f.isOther());
+        assertFalse(f.isComplete());
+        assertEquals(error, f.getReply());
+        assertEquals("", out.toString());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        final Reader r = new InputStreamReader(in, "UTF-8");
+        final StringBuilder s = new StringBuilder();
+        final char[] buf = new char[8192];
+        int n;
+        while ((n = r.read(buf)) > 0) {
+            s.append(buf, 0, n);
+        }
+        r.close();
+        return s.toString();
+    }
+
+    @Test
+    public void testBackupToFile() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        final File plain = new File(dir, "plain.xml");
+        final File gz = new File(dir, "config.xml.gz");
+        final long n = session.backupConfig(NetconfSession.RUNNING, null,
+                plain, false);
+        assertEquals(n, session.backupConfig(NetconfSession.RUNNING, null, gz,
+                true));
+        assertTrue(gz.length() < plain.length() / 4);
+
+        final String xml = read(new GZIPInputStream(new FileInputStream(gz)));
+        assertEquals(read(new FileInputStream(plain)), xml);
+        final Element data = new XMLParser().parse(xml);
+        assertEquals("data", data.name);
+        final NodeSet config = session.getConfig();
+        assertEquals(config.size(), data.getChildren().size());
+        assertEquals(config.getElement(0).toXMLString(), data.getChildren()
+                .getElement(0).toXMLString());
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void testFailedBackupKeepsFile() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        final File file = new File(dir, "config.xml");
+        final FileOutputStream old = new FileOutputStream(file);
+        old.write("old".getBytes("UTF-8"));
+        old.close();
+        server.setHandler("get-config", new LoopbackServer.RpcHandler() {
+            @Override
+            public String reply(Element op) throws JNCException {
+                throw new JNCException(JNCException.SESSION_ERROR, "denied");
+            }
+        });
+        try {
+            session.backupConfig(NetconfSession.RUNNING, null, file, true);
+            fail("expected an rpc-error");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.RPC_REPLY_ERROR, e.errorCode);
+        }
+        assertEquals("old", read(new FileInputStream(file)));
+        assertEquals(1, dir.listFiles().length);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            session.backupConfig(NetconfSession.RUNNING, null, bytes);
+            fail("expected an rpc-error");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.RPC_REPLY_ERROR, e.errorCode);
+        }
+        assertEquals(0, bytes.size());
+        // the session is still usable
+        server.setHandler("get-config", null);
+        session.backupConfig(NetconfSession.RUNNING, null, bytes);
+        assertTrue(bytes.size() > 0);
+    }
+}
@@ -0,0 +1,111 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RpcStatisticsTest {
+
+    private static final String NS = "urn:test:metrics";
+
+    private LoopbackServer server;
+
+    @Before
+    public void setUp() {
+        server = new LoopbackServer();
+        server.setRunning(LoopbackServer.generateConfig(NS, "hosts", 20, 2));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testOperation() {
+        assertEquals("get-config", MeteredTransport.operation(
+                "<nc:rpc xmlns:nc=\"urn:ietf:params:xml:ns:netconf:base:1.0\""
+                        + " nc:message-id=\"1\"><nc:get-config>"));
+        assertEquals("commit", MeteredTransport.operation(
+                "<rpc a=\"x>y\" message-id=\"2\">\n<commit/>"));
+        assertEquals("hello", MeteredTransport.operation("<hello xmlns=\"x\">"));
+        assertEquals("rpc", MeteredTransport.operation("<rpc message-id=\"3\">"));
+        assertEquals("unknown", MeteredTransport.operation(""));
+    }
+
+    @Test
+    public void testPerRpc() throws Exception {
+        final NetconfSession session = new NetconfSession(server.connect());
+        final Transport tr = session.getTransport();
+        final RpcStatistics stats = new RpcStatistics();
+        session.setMetrics(stats);
+        assertSame(stats, session.getMetrics());
+        assertSame(tr, session.getTransport());
+
+        server.setLatency(5);
+        session.getConfig();
+        session.getConfig();
+        session.commit();
+
+        final RpcStatistics.Entry get = stats.get("get-config");
+        assertEquals(2, get.getCount());
+        assertEquals(0, get.getErrors());
+        assertTrue(get.getBytesIn() > get.getBytesOut());
+        assertTrue(get.read.getMin() >= 5000000L);
+        assertTrue(get.total.getMin() >= get.read.getMin());
+        assertEquals(2, get.parse.getCount());
+        assertTrue(get.parse.getMax() > 0);
+        assertEquals(1, stats.get("commit").getCount());
+        assertNull(stats.get("edit-config"));
+        assertTrue(stats.toString().startsWith("commit: count=1"));
+
+        session.setMetrics(null);
+        assertNull(session.getMetrics());
+        assertSame(tr, session.getTransport());
+        session.getConfig();
+        assertEquals(2, stats.get("get-config").getCount());
+        session.closeSession();
+    }
+
+    @Test
+    public void testHelloAndErrors() throws Exception {
+        final List<RpcSample> samples = new ArrayList<RpcSample>();
+        final NetconfSession session = new NetconfSession();
+        session.setMetrics(new RpcMetrics() {
+            @Override
+            public void record(RpcSample sample) {
+                samples.add(sample);
+            }
+        });
+        assertNull(session.getMetrics()); // no transport yet
+        final LoopbackTransport tr = server.connect();
+        session.setTransport(tr);
+        session.setMetrics(new RpcMetrics() {
+            @Override
+            public void record(RpcSample sample) {
+                samples.add(sample);
+            }
+        });
+        session.hello();
+        assertEquals(1, samples.size());
+        assertEquals("hello", samples.get(0).rpc);
+        assertFalse(samples.get(0).failed);
+
+        tr.close();
+        try {
+            session.getConfig();
+            fail("expected exception");
+        } catch (final IOException e) {
+            // closed
+        }
+        assertEquals(2, samples.size());
+        assertEquals("get-config", samples.get(1).rpc);
+        assertTrue(samples.get(1).failed);
+    }
+}
@@ -0,0 +1,151 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SchemaTreeTest {
+
+    private final String ns = "http://test.com/ns/schematreetest/1.0";
+    private HashMap<Tagpath, SchemaNode> h;
+    private SchemaNode a;
+    private SchemaNode ab;
+    private SchemaNode ba;
+
+    private SchemaNode node(String path) {
+        final SchemaNode n = new SchemaNode();
+        n.tagpath = new Tagpath(path);
+        n.namespace = ns;
+        h.put(n.tagpath, n);
+        return n;
+    }
+
+    @Before
+    public void setUp() {
+        h = SchemaTree.create(ns);
+        h.clear();
+        a = node("a");
+        ab = node("a/b");
+        ba = node("b/a");
+    }
+
+    @Test
+    public void testTagpathHashIsOrderSensitive() {
+        assertFalse(new Tagpath("a/b").hashCode() == new Tagpath("b/a")
+                .hashCode());
+        assertEquals("a/b/c", new Tagpath("a/b/c").toString());
+    }
+
+    @Test
+    public void testLookupTagpath() {
+        assertSame(a, SchemaTree.lookup(ns, new Tagpath("a")));
+        assertSame(ab, SchemaTree.lookup(ns, new Tagpath("a/b")));
+        assertSame(ba, SchemaTree.lookup(ns, new Tagpath("b/a")));
+        assertNull(SchemaTree.lookup(ns, new Tagpath("a/c")));
+        assertNull(SchemaTree.lookup("urn:unknown", new Tagpath("a")));
+    }
+
+    @Test
+    public void testLookupElement() {
+        final YangElement ea = new DummyElement(ns, "a");
+        final Leaf eb = new Leaf(ns, "b");
+        ea.addChild(eb);
+        assertSame(a, SchemaTree.lookup(ns, ea));
+        assertSame(ab, SchemaTree.lookup(ns, eb));
+        assertSame(ab, SchemaNode.get(eb));
+
+        // The cached entry follows the leaf when it is moved
+        final YangElement eb2 = new DummyElement(ns, "b");
+        ea.deleteChild(eb);
+        eb2.addChild(new Leaf(ns, "a"));
+        assertSame(ba, SchemaTree.lookup(ns, eb2.getChild("a")));
+        assertNull(SchemaTree.lookup(ns, eb));
+    }
+
+    @Test
+    public void testIndexRebuiltWhenPopulated() {
+        assertNull(SchemaTree.lookup(ns, new Tagpath("a/c")));
+        final SchemaNode ac = node("a/c");
+        assertSame(ac, SchemaTree.lookup(ns, new Tagpath("a/c")));
+    }
+
+    @Test
+    public void testLazyRegistration() throws InterruptedException {
+        final String lazyNs = "http://test.com/ns/schematreetest/lazy";
+        final AtomicInteger loads = new AtomicInteger();
+        SchemaTree.registerLazy(lazyNs, new SchemaLoader() {
+            @Override
+            public void load(HashMap<Tagpath, SchemaNode> h)
+                    throws JNCException {
+                loads.incrementAndGet();
+                new SchemaParser().findAndReadFile("/Yang.schema", h,
+                        SchemaParser.class);
+            }
+        });
+        assertEquals(0, loads.get());
+        assertTrue(SchemaTree.getPendingNamespaces().contains(lazyNs));
+        assertFalse(SchemaTree.getLoadedNamespaces().contains(lazyNs));
+
+        final Thread[] threads = new Thread[8];
+        final SchemaNode[] found = new SchemaNode[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int ix = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    found[ix] = SchemaTree.lookup(lazyNs, new Tagpath(0));
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, loads.get());
+        for (final SchemaNode n : found) {
+            assertNotNull(n);
+            assertSame(found[0], n);
+        }
+        assertFalse(SchemaTree.getPendingNamespaces().contains(lazyNs));
+        assertEquals(1, SchemaTree.getHashMap(lazyNs).size());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testLazyLoadFailure() throws JNCException {
+        final String badNs = "http://test.com/ns/schematreetest/bad";
+        final AtomicInteger loads = new AtomicInteger();
+        SchemaTree.registerLazy(badNs, new SchemaLoader() {
+            @Override
+            public void load(HashMap<Tagpath, SchemaNode> h)
+                    throws JNCException {
+                if (loads.incrementAndGet() < 3) {
+                    throw new JNCException(JNCException.PARSER_ERROR,
+                            "corrupt schema");
+                }
+                h.put(new Tagpath(0), new SchemaNode());
+            }
+        });
+        try {
+            SchemaTree.lookup(badNs, new Tagpath(0));
+            fail("expected IllegalStateException");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getCause() instanceof JNCException);
+        }
+        // still registered, and reported again
+        assertTrue(SchemaTree.getPendingNamespaces().contains(badNs));
+        try {
+            SchemaTree.load(badNs);
+            fail("expected JNCException");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.PARSER_ERROR, e.errorCode);
+        }
+        SchemaTree.load(badNs);
+        assertNotNull(SchemaTree.lookup(badNs, new Tagpath(0)));
+        assertEquals(3, loads.get());
+    }
+}
@@ -0,0 +1,153 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionPoolTest {
+
+    private static class LoopbackConnector implements SessionPool.Connector {
+        final LoopbackServer server;
+        int opened = 0;
+        int closed = 0;
+
+        LoopbackConnector(LoopbackServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public Transport open() {
+            opened++;
+            return server.connect();
+        }
+
+        @Override
+        public void close(Transport transport) {
+            closed++;
+            transport.close();
+        }
+    }
+
+    private LoopbackServer server;
+    private LoopbackConnector connector;
+    private SessionPool pool;
+
+    @Before
+    public void setUp() {
+        server = new LoopbackServer();
+        server.setRunning(LoopbackServer.generateConfig("urn:test:pool",
+                "hosts", 3, 1));
+        connector = new LoopbackConnector(server);
+        pool = new SessionPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        final NetconfSession s1 = pool.borrow("dev", connector);
+        s1.getConfig();
+        pool.release(s1);
+        assertEquals(1, pool.getIdleCount("dev"));
+        final NetconfSession s2 = pool.borrow("dev", connector);
+        assertSame(s1, s2);
+        assertEquals(1, connector.opened);
+        final NetconfSession s3 = pool.borrow("dev", connector);
+        assertNotSame(s2, s3);
+        assertEquals(2, connector.opened);
+        assertEquals(2, pool.getBorrowedCount());
+        s3.getConfig();
+        pool.release(s2);
+        pool.release(s3);
+        assertEquals(2, pool.getIdleCount("dev"));
+        assertEquals(0, pool.getBorrowedCount());
+    }
+
+    @Test
+    public void testMaxIdle() throws Exception {
+        pool.setMaxIdle(1);
+        final NetconfSession s1 = pool.borrow("dev", connector);
+        final NetconfSession s2 = pool.borrow("dev", connector);
+        pool.release(s1);
+        pool.release(s2);
+        assertEquals(1, pool.getIdleCount("dev"));
+        assertEquals(1, connector.closed);
+    }
+
+    @Test
+    public void testUnhealthySessionIsReplaced() throws Exception {
+        final NetconfSession s1 = pool.borrow("dev", connector);
+        pool.release(s1);
+        s1.getTransport().close();
+        final NetconfSession s2 = pool.borrow("dev", connector);
+        assertNotSame(s1, s2);
+        assertEquals(1, connector.closed);
+        s2.getConfig();
+        pool.release(s2);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final NetconfSession s1 = pool.borrow("dev", connector);
+        pool.invalidate(s1);
+        assertEquals(0, pool.getIdleCount("dev"));
+        assertEquals(1, connector.closed);
+        try {
+            pool.release(s1);
+            fail("expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // not borrowed
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        pool.setIdleTimeout(20);
+        pool.release(pool.borrow("dev", connector));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdleCount("dev") > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getIdleCount("dev"));
+        assertEquals(1, connector.closed);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final NetconfSession s1 = pool.borrow("dev", connector);
+        pool.release(pool.borrow("other", connector));
+        pool.close();
+        assertEquals(1, connector.closed);
+        pool.release(s1);
+        assertEquals(2, connector.closed);
+        try {
+            pool.borrow("dev", connector);
+            fail("expected JNCException");
+        } catch (final JNCException e) {
+            assertEquals(JNCException.SESSION_ERROR, e.errorCode);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenFailure() throws Exception {
+        pool.borrow("bad", new SessionPool.Connector() {
+            @Override
+            public Transport open() throws IOException {
+                throw new IOException("refused");
+            }
+
+            @Override
+            public void close(Transport transport) {
+            }
+        });
+    }
+}
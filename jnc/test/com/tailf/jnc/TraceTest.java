@@ -0,0 +1,76 @@
+package com.tailf.jnc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TraceTest {
+
+    private static class Counted {
+        int calls = 0;
+
+        @Override
+        public String toString() {
+            calls++;
+            return "counted";
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Trace.set(0);
+        Trace.setStream(System.err);
+    }
+
+    @Test
+    public void testLazy() {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        Trace.setStream(new PrintStream(buf, true));
+        final Counted c = new Counted();
+        Trace.log(Trace.SESSION, "Test", "part: ", c);
+        assertEquals(0, c.calls);
+        assertEquals(0, buf.size());
+
+        Trace.enable(Trace.SESSION | Trace.PATH);
+        assertTrue(Trace.isEnabled(Trace.PATH));
+        assertFalse(Trace.isEnabled(Trace.PARSER));
+        Trace.log(Trace.SESSION, "Test", "part: ", c);
+        assertEquals(1, c.calls);
+        assertEquals("*Test: part: counted", buf.toString().trim());
+
+        Trace.disable(Trace.SESSION);
+        Trace.log(Trace.SESSION, "Test", "part: ", c);
+        assertEquals(1, c.calls);
+    }
+
+    @Test
+    public void testDebugLevel() {
+        Element.setDebugLevel(2);
+        assertEquals(Trace.ELEMENT | Trace.SESSION | Trace.TRANSPORT,
+                Trace.get());
+        Element.setDebugLevel(4);
+        assertEquals(Trace.ALL, Trace.get());
+        Element.setDebugLevel(0);
+        assertEquals(0, Trace.get());
+    }
+
+    @Test
+    public void testParserTraceHook() throws Exception {
+        final StringBuilder seen = new StringBuilder();
+        final XMLParser parser = new XMLParser() {
+            @Override
+            protected void trace(String s) {
+                seen.append(s).append('\n');
+            }
+        };
+        parser.parse("<a xmlns='urn:x'><b/></a>");
+        assertEquals("", seen.toString());
+        Trace.enable(Trace.PARSER);
+        parser.parse("<a xmlns='urn:x'><b/></a>");
+        assertTrue(seen.toString(), seen.indexOf("add child: ") >= 0);
+    }
+}
@@ -166,5 +166,66 @@ public class YangElementTest {
     }
     
 
+    @Test
+    public void testPackageRegistry() throws Exception {
+        final String pns = "http://test.com/ns/packagetest/1.0";
+        assertNull(YangElement.getPackage(pns));
+        assertNull(YangElement.getPackage(null));
+        YangElement.setPackage(pns, "com.example.a");
+        YangElement.setPackage(pns, "com.example.b");
+        assertEquals("com.example.b", YangElement.getPackage(pns));
+        YangElement.removePackage(pns);
+        assertNull(YangElement.getPackage(pns));
+        YangElement.removePackage(pns);
+
+        // not data model aware, becomes a plain element
+        final Element root = YangElement.createInstance(null, null, pns, "x");
+        assertEquals(Element.class, root.getClass());
+        assertEquals(0, YangElement.cachedClasses());
+    }
+
+    @Test
+    public void testConcurrentPackageRegistry() throws Exception {
+        final int writers = 2;
+        final int readers = 4;
+        final Thread[] threads = new Thread[writers + readers];
+        final Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            final boolean writer = t < writers;
+            final int id = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            final String pns = "http://test.com/ns/" + (i % 50);
+                            if (writer) {
+                                YangElement.setPackage(pns, "p" + id);
+                                YangElement.removePackage(pns);
+                            } else {
+                                final String pkg = YangElement.getPackage(pns);
+                                assertTrue(pkg == null || pkg.startsWith("p"));
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+        for (final Thread t : threads) {
+            t.start();
+        }
+        for (final Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure[0]);
+        for (int i = 0; i < 50; i++) {
+            assertNull(YangElement.getPackage("http://test.com/ns/" + i));
+        }
+    }
+
 }
 
@@ -339,4 +339,13 @@ public class YangInt32Test {
         assertFalse(i2.equals(i3));
     }
 
+    @Test
+    public void testBoundsAreShared() throws YangException {
+        assertSame(i1.MIN_VALUE, i2.MIN_VALUE);
+        assertSame(i1.MAX_VALUE, i3.MAX_VALUE);
+        assertTrue(i1.valid(Integer.MAX_VALUE));
+        assertFalse(i1.valid(Integer.MAX_VALUE + 1L));
+        assertFalse(i1.valid(new BigInteger("-2147483649")));
+    }
+
 }